@@ -1,7 +1,12 @@
+import photoalbum.controller.CommandCompiler;
 import photoalbum.controller.IPhotoalbumController;
 import photoalbum.controller.PhotoalbumController;
+import photoalbum.controller.ValidationMode;
+import photoalbum.model.PhotoalbumModel;
+import photoalbum.model.SnapshotArchive;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * The main class for the photo album.
@@ -12,10 +17,19 @@ public class PhotoAlbumMain {
    * @param args The command line arguments.
    */
   public static void main(String[] args) {
+    // "compile <text file> <compiled file>" converts a command file instead of showing it
+    if (args.length > 0 && "compile".equals(args[0])) {
+      compile(args);
+      return;
+    }
     // Set the default values
     String inputFile = null;
     String outputFile = null;
     String viewType = null;
+    String archiveFile = null;
+    int parseThreads = 0;
+    ValidationMode validationMode = ValidationMode.OFF;
+    boolean compress = false;
     int xmax = 1000;
     int ymax = 1000;
 
@@ -23,7 +37,7 @@ public class PhotoAlbumMain {
     for (int i = 0; i < args.length; i++) {
       switch (args[i]) {
         case "-in":
-          inputFile = args[++i];
+          inputFile = args[++i]; // "-" streams the commands from the standard input
           break;
         case "-out":
           outputFile = args[++i];
@@ -32,6 +46,18 @@ public class PhotoAlbumMain {
         case "-v":
           viewType = args[++i];
           break;
+        case "-archive":
+          archiveFile = args[++i];
+          break;
+        case "-threads":
+          parseThreads = Integer.parseInt(args[++i]);
+          break;
+        case "-validate":
+          validationMode = validationMode(args[++i]);
+          break;
+        case "-compress":
+          compress = true; // the web view is written to photoalbum.html.gz
+          break;
         default:
           if (xmax == 1000) {
             xmax = Integer.parseInt(args[i]);
@@ -59,9 +85,75 @@ public class PhotoAlbumMain {
 
     // Run the controller with the input file
     try {
+      // Keep the snapshots in a memory-mapped file instead of the heap
+      if (archiveFile != null) {
+        SnapshotArchive archive = new SnapshotArchive(Paths.get(archiveFile));
+        ((PhotoalbumModel) PhotoalbumModel.getInstance()).setSnapshotArchive(archive);
+        // The views read the snapshots from the archive until the program ends
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeArchive(archive)));
+      }
+      // Parse the input file on other threads while the commands are applied
+      if (parseThreads > 0) {
+        ((PhotoalbumController) controller).setParseThreads(parseThreads);
+      }
+      // Write the web view gzip-compressed
+      if (compress) {
+        ((PhotoalbumController) controller).setCompressedOutput(true);
+      }
+      // Check each command first and report the invalid ones
+      if (validationMode != ValidationMode.OFF) {
+        ((PhotoalbumController) controller).setValidationMode(validationMode);
+      }
       controller.run(inputFile, viewType, xmax, ymax);
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Close the snapshot archive, which trims the file to the snapshots written.
+   * @param archive The archive.
+   */
+  private static void closeArchive(SnapshotArchive archive) {
+    try {
+      archive.close();
+    } catch (IOException e) {
+      System.err.println("Cannot close the snapshot archive: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Get the validation mode named on the command line.
+   * @param name "fail-fast", "skip" or "summary".
+   * @return The validation mode.
+   */
+  private static ValidationMode validationMode(String name) {
+    switch (name.toLowerCase()) {
+      case "fail-fast":
+        return ValidationMode.FAIL_FAST;
+      case "skip":
+        return ValidationMode.SKIP_AND_REPORT;
+      case "summary":
+        return ValidationMode.SUMMARY_ONLY;
+      default:
+        throw new IllegalArgumentException("Unknown validation mode: " + name);
+    }
+  }
+
+  /**
+   * Compile a text command file into the binary form that loads faster.
+   * @param args The command line arguments, starting with "compile".
+   */
+  private static void compile(String[] args) {
+    if (args.length != 3) {
+      System.out.println("Usage: compile <text file> <compiled file>");
+      return;
+    }
+    try {
+      long commands = CommandCompiler.compile(args[1], args[2]);
+      System.out.println("Compiled " + commands + " commands to " + args[2] + ".");
+    } catch (IOException e) {
+      System.out.println("Cannot compile " + args[1] + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package photoalbum.controller;
+
+import photoalbum.model.PhotoalbumModel;
+import photoalbum.views.WebView;
+
+/**
+ * One photo album opened by an {@link AlbumSessionManager}, with its own
+ * model, controller and web view. Nothing is shared with other sessions, so
+ * sessions can be used from different threads at once; one session is used
+ * by one thread at a time.
+ *
+ * <p>Closing the session hands its album back to the manager, which resets
+ * it and may give it to a later session. A closed session must not be used;
+ * every session is a new object, so a closed one stays closed even after
+ * its album has been given to another session.
+ */
+public final class AlbumSession implements AutoCloseable {
+  private final AlbumSessionManager manager;
+  private final Album album;
+  private final long id; // ID given by the manager when the session was opened
+  private volatile boolean open;
+
+  /**
+   * The photo album of a session, which the manager keeps for reuse once
+   * the session is closed.
+   */
+  static final class Album {
+    private final PhotoalbumModel model;
+    private final PhotoalbumController controller;
+    private WebView webView; // Made on first use
+    private long accountedBytes; // Memory counted against the manager's limit
+    private long reservedBytes; // Memory held for the command being run
+
+    /**
+     * Constructs a new, empty photo album.
+     */
+    Album() {
+      this.model = new PhotoalbumModel();
+      this.controller = new PhotoalbumController(model);
+    }
+
+    /**
+     * Clears the album for reuse.
+     * @return the memory that was counted for the album
+     */
+    private long reset() {
+      model.getChangeNotifier().reset(); // before the reset reports the clearing
+      controller.reset();
+      model.setUndoBudget(0);
+      model.setSnapshotArchive(null); // the archive and cache belong to whoever set them
+      model.getSnapshotIndex().setCache(null);
+      webView = null;
+      long bytes = accountedBytes + reservedBytes;
+      accountedBytes = 0;
+      reservedBytes = 0;
+      return bytes;
+    }
+  }
+
+  /**
+   * Constructs an open session.
+   * @param manager the manager that accounts for the session's memory
+   * @param id the ID of the session
+   * @param album the empty photo album of the session
+   */
+  AlbumSession(AlbumSessionManager manager, long id, Album album) {
+    this.manager = manager;
+    this.id = id;
+    this.album = album;
+    this.open = true;
+  }
+
+  /**
+   * Gets the ID of the session.
+   * @return the ID, unique among the sessions of the manager
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Gets the photo album of the session.
+   * @return the model
+   */
+  public PhotoalbumModel getModel() {
+    checkOpen();
+    return album.model;
+  }
+
+  /**
+   * Gets the controller of the session.
+   * @return the controller
+   */
+  public PhotoalbumController getController() {
+    checkOpen();
+    return album.controller;
+  }
+
+  /**
+   * Gets the web view of the session's photo album.
+   * @return the web view
+   */
+  public WebView getWebView() {
+    checkOpen();
+    if (album.webView == null) {
+      album.webView = new WebView(album.model);
+    }
+    return album.webView;
+  }
+
+  /**
+   * Processes one command and updates the memory counted for the session.
+   * Shape commands are applied when the next snapshot is taken or when
+   * {@link #flush()} is called.
+   * @param command the command
+   * @throws IllegalArgumentException if the command is invalid
+   * @throws IllegalStateException if the session is closed, or if the command
+   *     could take the sessions of the manager over its memory limit; the
+   *     command is then not run
+   */
+  public void processCommand(String command) {
+    checkOpen();
+    PhotoalbumModel model = album.model;
+    PhotoalbumController controller = album.controller;
+    // the command may apply the pending shape commands and take a snapshot
+    String keyword = command.trim().split("\\s+", 2)[0];
+    int creates = keyword.equalsIgnoreCase("shape") ? 1 : 0;
+    manager.reserve(this, model.estimatedGrowth(controller.getPendingCreates() + creates,
+        controller.getPendingCount() + 1, keyword.equalsIgnoreCase("snapshot")));
+    try {
+      controller.processCommand(command);
+    } finally {
+      manager.account(this);
+    }
+  }
+
+  /**
+   * Applies the shape commands processed so far.
+   * @throws IllegalArgumentException if one of the commands is invalid
+   * @throws IllegalStateException if the session is closed, or if applying the
+   *     commands could take the sessions of the manager over its memory
+   *     limit; they are then not applied
+   */
+  public void flush() {
+    checkOpen();
+    PhotoalbumController controller = album.controller;
+    manager.reserve(this, album.model.estimatedGrowth(controller.getPendingCreates(),
+        controller.getPendingCount(), false));
+    try {
+      controller.flush();
+    } finally {
+      manager.account(this);
+    }
+  }
+
+  /**
+   * Checks whether the session is open.
+   * @return true until the session is closed
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Closes the session and hands its album back to the manager. Closing a
+   * closed session does nothing.
+   */
+  @Override
+  public void close() {
+    manager.release(this);
+  }
+
+  /**
+   * Gets the photo album of the session, for the manager.
+   * @return the album
+   */
+  Album getAlbum() {
+    return album;
+  }
+
+  /**
+   * Marks the session as closed and clears its album for reuse.
+   * @return the memory that was counted for the session
+   */
+  long reset() {
+    open = false;
+    return album.reset();
+  }
+
+  /**
+   * Records the memory held for the command about to be run.
+   * @param bytes the estimated most the album could grow by
+   */
+  void setReservedBytes(long bytes) {
+    album.reservedBytes = bytes;
+  }
+
+  /**
+   * Records the memory now used by the album and gives up the memory held
+   * for the command.
+   * @return the change of the memory counted since it was last recorded,
+   *     including the memory that was held
+   */
+  long updateAccountedBytes() {
+    long bytes = album.model.estimatedBytes();
+    long delta = bytes - album.accountedBytes - album.reservedBytes;
+    album.accountedBytes = bytes;
+    album.reservedBytes = 0;
+    return delta;
+  }
+
+  /**
+   * Throws if the session has been closed.
+   */
+  private void checkOpen() {
+    if (!open) {
+      throw new IllegalStateException("Session " + id + " is closed.");
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package photoalbum.controller;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens photo album sessions that each have their own model, controller and
+ * views, so that one JVM can serve many albums at once. The albums of closed
+ * sessions are reset and kept in a pool for reuse, up to a given number.
+ *
+ * <p>The manager keeps a running total of the estimated memory of the open
+ * sessions. Before each command, a session holds the most its album could
+ * grow by; a command that could take the total over the limit fails without
+ * being run. After the command, the session is charged for what its album
+ * actually uses. No new sessions are opened while the limit is used up.
+ *
+ * <p>The manager may be used from any number of threads.
+ */
+public final class AlbumSessionManager {
+  private final long memoryLimit; // Maximum estimated bytes of all open sessions
+  private final int maxPooled; // Maximum number of closed sessions kept for reuse
+  private final Map<Long, AlbumSession> sessions; // Open sessions by ID
+  private final Queue<AlbumSession.Album> pool; // Albums of closed sessions, already reset
+  private final AtomicInteger pooled; // Size of the pool
+  private final AtomicLong usedBytes; // Estimated bytes of all open sessions
+  private final AtomicLong nextId;
+  private final AtomicLong created; // Number of sessions made, not taken from the pool
+
+  /**
+   * Constructs a session manager.
+   * @param memoryLimit the maximum estimated bytes of all open sessions
+   * @param maxPooled the maximum number of closed sessions kept for reuse
+   */
+  public AlbumSessionManager(long memoryLimit, int maxPooled) {
+    if (memoryLimit <= 0) {
+      throw new IllegalArgumentException("Memory limit must be positive.");
+    }
+    if (maxPooled < 0) {
+      throw new IllegalArgumentException("Pool size must not be negative.");
+    }
+    this.memoryLimit = memoryLimit;
+    this.maxPooled = maxPooled;
+    this.sessions = new ConcurrentHashMap<>();
+    this.pool = new ConcurrentLinkedQueue<>();
+    this.pooled = new AtomicInteger();
+    this.usedBytes = new AtomicLong();
+    this.nextId = new AtomicLong(1);
+    this.created = new AtomicLong();
+  }
+
+  /**
+   * Opens a session with an empty photo album, reusing a pooled one if
+   * there is one.
+   * @return the session
+   * @throws IllegalStateException if the open sessions use the whole memory limit
+   */
+  public AlbumSession open() {
+    if (usedBytes.get() >= memoryLimit) {
+      throw new IllegalStateException("Album memory limit of " + memoryLimit
+          + " bytes is used up.");
+    }
+    AlbumSession.Album album = pool.poll();
+    if (album == null) {
+      album = new AlbumSession.Album();
+      created.incrementAndGet();
+    } else {
+      pooled.decrementAndGet();
+    }
+    long id = nextId.getAndIncrement();
+    AlbumSession session = new AlbumSession(this, id, album);
+    sessions.put(id, session);
+    return session;
+  }
+
+  /**
+   * Gets an open session by ID.
+   * @param id the ID of the session
+   * @return the session, or null if there is no open session with the ID
+   */
+  public AlbumSession get(long id) {
+    return sessions.get(id);
+  }
+
+  /**
+   * Closes a session: frees its memory, resets its album and keeps it for
+   * reuse if the pool has room. Closing a closed session does nothing.
+   * @param session the session
+   */
+  void release(AlbumSession session) {
+    if (!sessions.remove(session.getId(), session)) {
+      return;
+    }
+    usedBytes.addAndGet(-session.reset());
+    if (pooled.incrementAndGet() <= maxPooled) {
+      pool.offer(session.getAlbum());
+    } else {
+      pooled.decrementAndGet();
+    }
+  }
+
+  /**
+   * Holds memory for a command that a session is about to run.
+   * @param session the session
+   * @param bytes the estimated most the session's album could grow by
+   * @throws IllegalStateException if the open sessions could then use more
+   *     than the limit; nothing is held
+   */
+  void reserve(AlbumSession session, long bytes) {
+    long used;
+    do {
+      used = usedBytes.get();
+      if (used + bytes > memoryLimit) {
+        throw new IllegalStateException("Album memory limit of " + memoryLimit
+            + " bytes would be exceeded by session " + session.getId() + ".");
+      }
+    } while (!usedBytes.compareAndSet(used, used + bytes));
+    session.setReservedBytes(bytes);
+  }
+
+  /**
+   * Charges a session for the memory its album uses now, giving up the
+   * memory it held for the command.
+   * @param session the session
+   * @throws IllegalStateException if the open sessions now use more than the limit
+   */
+  void account(AlbumSession session) {
+    long delta = session.updateAccountedBytes();
+    long used = usedBytes.addAndGet(delta);
+    if (delta > 0 && used > memoryLimit) {
+      throw new IllegalStateException("Album memory limit of " + memoryLimit
+          + " bytes exceeded by session " + session.getId() + ".");
+    }
+  }
+
+  /**
+   * Gets the number of open sessions.
+   * @return the number of open sessions
+   */
+  public int getOpenCount() {
+    return sessions.size();
+  }
+
+  /**
+   * Gets the number of closed sessions kept for reuse.
+   * @return the number of pooled sessions
+   */
+  public int getPooledCount() {
+    return pooled.get();
+  }
+
+  /**
+   * Gets the number of sessions made so far; the others were reused.
+   * @return the number of sessions made
+   */
+  public long getCreatedCount() {
+    return created.get();
+  }
+
+  /**
+   * Gets the estimated memory of the open sessions.
+   * @return the estimated number of bytes
+   */
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  /**
+   * Gets the memory limit of the open sessions.
+   * @return the maximum estimated number of bytes
+   */
+  public long getMemoryLimit() {
+    return memoryLimit;
+  }
+}
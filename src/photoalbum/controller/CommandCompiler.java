@@ -0,0 +1,295 @@
+package photoalbum.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Compiles a text command file into a compact binary form that
+ * {@link CommandFileReader} loads without parsing any text.
+ *
+ * <p>The file starts with an 8-byte header and is followed by one record
+ * per command. Each record starts with an op byte:
+ * <ul>
+ *   <li>1 to 6: a shape command of that {@link CommandParser} op; then the
+ *   shape name ID as a varint and the numbers of the command as 4-byte
+ *   floats;</li>
+ *   <li>the same ops plus {@link #DOUBLES}: the same, with 8-byte doubles,
+ *   for commands with a number that is not exactly a float;</li>
+ *   <li>{@link #NAME}: a shape name, as a varint length and ASCII bytes,
+ *   that gets the next name ID, from 0; it is not a command;</li>
+ *   <li>{@link #TEXT}: a command kept as text, as a varint length and UTF-8
+ *   bytes, for every line the parser does not handle.</li>
+ * </ul>
+ * Names and texts are at most {@link #MAX_STRING} bytes long. Numbers are
+ * big-endian. Since shape commands hold the numbers the parser
+ * read and every other line is kept as text, loading the compiled file has
+ * the same result as reading the text file.
+ */
+public final class CommandCompiler {
+  static final byte[] HEADER = {(byte) 0x89, 'P', 'A', 'C', 'M', 'D', 0x1A, 1}; // Magic, version
+  static final int NAME = 0x10;
+  static final int TEXT = 0x20;
+  static final int DOUBLES = 0x40;
+  static final int MAX_STRING = 1 << 26; // Bytes of the longest name or text
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final DataOutputStream out;
+  private final CommandParser parser;
+  private final Map<String, Integer> nameIds;
+  private long commands; // Number of commands written
+
+  /**
+   * Constructs a compiler writing to a stream, and writes the header.
+   * @param out the stream of the compiled file
+   * @throws IOException if the stream cannot be written
+   */
+  private CommandCompiler(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    this.parser = new CommandParser();
+    this.nameIds = new HashMap<>();
+    this.out.write(HEADER);
+  }
+
+  /**
+   * Compiles a text command file.
+   * @param source the name of the text file, or "-" for the standard input;
+   *     it may be gzip- or zlib-compressed
+   * @param target the name of the compiled file to write
+   * @return the number of commands compiled
+   * @throws IOException if a file cannot be read or written, or the text
+   *     file is not valid in the platform charset
+   */
+  public static long compile(String source, String target) throws IOException {
+    Charset charset = Charset.defaultCharset();
+    try (FileOutputStream file = new FileOutputStream(target)) {
+      CommandCompiler compiler = new CommandCompiler(file);
+      if (CommandFileReader.STANDARD_INPUT.equals(source)) {
+        compiler.compileStream(System.in, charset);
+      } else {
+        try (FileChannel channel = FileChannel.open(Paths.get(source))) {
+          if (isCompiled(channel)) {
+            throw new IOException(source + " is already compiled.");
+          }
+          compiler.compileStream(Channels.newInputStream(channel), charset);
+        }
+      }
+      compiler.out.flush();
+      return compiler.commands;
+    }
+  }
+
+  /**
+   * Checks whether a file starts with the header of a compiled file,
+   * without changing the position of the channel.
+   * @param channel the open file
+   * @return true if the file is compiled
+   * @throws IOException if the file cannot be read
+   */
+  static boolean isCompiled(FileChannel channel) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(HEADER.length);
+    while (head.hasRemaining() && channel.read(head, head.position()) >= 0) {
+      // read until the header is full or the file ends
+    }
+    return isHeader(head.array(), head.position());
+  }
+
+  /**
+   * Checks whether a stream starts with the header of a compiled file,
+   * leaving the stream at its start.
+   * @param in the stream, which must support mark and reset
+   * @return true if the stream is compiled
+   * @throws IOException if the stream cannot be read
+   */
+  static boolean isCompiled(InputStream in) throws IOException {
+    in.mark(HEADER.length);
+    byte[] head = in.readNBytes(HEADER.length);
+    in.reset();
+    return isHeader(head, head.length);
+  }
+
+  /**
+   * Checks whether bytes are the header of a compiled file.
+   * @param head the first bytes of the file
+   * @param length the number of bytes read
+   * @return true if they are the header
+   */
+  static boolean isHeader(byte[] head, int length) {
+    if (length < HEADER.length) {
+      return false;
+    }
+    for (int i = 0; i < HEADER.length; i++) {
+      if (head[i] != HEADER[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compiles the lines of a stream, decompressing it first if needed.
+   * Lines are split like {@link CommandFileReader} does, and parsed from
+   * the bytes if the charset allows it.
+   * @param text the text
+   * @param charset the charset of the text
+   * @throws IOException if the text cannot be read or is not valid in the charset
+   */
+  private void compileStream(InputStream text, Charset charset) throws IOException {
+    InputStream in = text.markSupported() ? text : new BufferedInputStream(text);
+    InputStream inflated = CommandFileReader.decompress(in);
+    if (inflated != null) {
+      in = inflated;
+    }
+    if (!CommandFileReader.isByteCompatible(charset)) {
+      Scanner scanner = new Scanner(in, charset);
+      while (scanner.hasNextLine()) {
+        compileText(scanner.nextLine());
+      }
+      return;
+    }
+    ReadableByteChannel channel = Channels.newChannel(in);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    long lines = 0;
+    boolean eof = false;
+    while (!eof) {
+      eof = channel.read(buffer) < 0;
+      buffer.flip();
+      int limit = eof ? buffer.limit() : CommandFileReader.completeLines(buffer, buffer.limit());
+      int lineStart = 0;
+      while (lineStart < limit) {
+        int lineEnd = CommandFileReader.lineBreak(buffer, lineStart, limit);
+        lines++;
+        if (parser.parse(buffer, lineStart, lineEnd)) {
+          compileParsed();
+        } else {
+          try {
+            for (String command : CommandFileReader.decodeLine(buffer, lineStart, lineEnd,
+                charset, lineEnd == limit)) {
+              compileText(command);
+            }
+          } catch (CharacterCodingException e) {
+            throw new IOException(CommandFileReader.invalidLine(lines, charset), e);
+          }
+        }
+        lineStart = CommandFileReader.nextLine(buffer, lineEnd, limit);
+      }
+      buffer.position(limit);
+      buffer.compact();
+      if (!buffer.hasRemaining()) {
+        // a line longer than the buffer: make room for the rest of it
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+      }
+    }
+  }
+
+  /**
+   * Writes the shape command the parser read last, and its name first if
+   * it is new.
+   * @throws IOException if the file cannot be written
+   */
+  private void compileParsed() throws IOException {
+    String name = parser.name();
+    Integer id = nameIds.get(name);
+    if (id == null) {
+      id = nameIds.size();
+      nameIds.put(name, id);
+      checkLength(name.length());
+      out.writeByte(NAME);
+      writeVarint(name.length());
+      out.writeBytes(name);
+    }
+    byte op = parser.op();
+    double[] values = parser.values();
+    int count = valueCount(op);
+    boolean floats = true;
+    for (int k = 0; k < count; k++) {
+      floats &= (double) (float) values[k] == values[k] || Double.isNaN(values[k]);
+    }
+    out.writeByte(floats ? op : op | DOUBLES);
+    writeVarint(id);
+    for (int k = 0; k < count; k++) {
+      if (floats) {
+        out.writeFloat((float) values[k]);
+      } else {
+        out.writeDouble(values[k]);
+      }
+    }
+    commands++;
+  }
+
+  /**
+   * Writes a command kept as text.
+   * @param command the command
+   * @throws IOException if the file cannot be written
+   */
+  private void compileText(String command) throws IOException {
+    byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+    checkLength(bytes.length);
+    out.writeByte(TEXT);
+    writeVarint(bytes.length);
+    out.write(bytes);
+    commands++;
+  }
+
+  /**
+   * Checks that a name or text is short enough to be loaded again.
+   * @param length the number of bytes
+   * @throws IOException if it is longer than MAX_STRING bytes
+   */
+  private void checkLength(int length) throws IOException {
+    if (length > MAX_STRING) {
+      throw new IOException("Command " + (commands + 1) + " is too long to compile.");
+    }
+  }
+
+  /**
+   * Writes a number that is not negative in 7-bit groups, low group first.
+   * @param value the number
+   * @throws IOException if the file cannot be written
+   */
+  private void writeVarint(int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Gets the number of numbers of a shape command.
+   * @param op the op of the command
+   * @return the number of numbers
+   */
+  static int valueCount(int op) {
+    switch (op) {
+      case CommandParser.RECTANGLE:
+      case CommandParser.OVAL:
+        return 7;
+      case CommandParser.COLOR:
+        return 3;
+      case CommandParser.MOVE:
+      case CommandParser.RESIZE:
+        return 2;
+      default:
+        return 0;
+    }
+  }
+}
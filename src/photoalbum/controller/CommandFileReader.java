@@ -1,14 +1,56 @@
 package photoalbum.controller;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Reads commands from a file and processes them.
+ * Large files are mapped into memory a window at a time, and other files
+ * are read in large blocks into one reused buffer. Either way, lines are
+ * parsed in place by a {@link CommandParser}, and lines it does not handle
+ * are processed as strings, with the same result as reading the file with a
+ * {@link Scanner} as long as the file is valid in the platform charset.
+ * Files and streams compressed with gzip or zlib deflate are recognised by
+ * their first bytes and decompressed as they are read, without a temporary
+ * file.
+ * While the controller validates commands, every line is processed as a
+ * string, and reading stops once the controller has stopped.
  */
 public class CommandFileReader {
+  public static final String STANDARD_INPUT = "-"; // File name that stands for the standard input
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final long MAP_THRESHOLD = 64L << 20; // Smaller files are read, not mapped
+  private static final int MAP_WINDOW = 256 << 20; // Bytes mapped at a time
+  private static final int INFLATE_BUFFER = 1 << 16; // Compressed bytes read at a time
+  private static final int ZLIB_CHECK = 512; // Bytes inflated to tell zlib data from text
+
   private PhotoalbumController controller;
+  private final CommandParser parser;
+  private ByteBuffer buffer; // Reused for every file, grown for longer lines
+  private long linesRead; // Number of lines read by the last call
+  private long mapThreshold; // Size from which files are mapped
+  private int mapWindow; // Bytes mapped at a time
+  private int parseThreads; // Threads parsing ahead of the model; 0 to parse on the caller
 
   private int xmax;
   private int ymax;
@@ -20,29 +62,503 @@ public class CommandFileReader {
    */
   public CommandFileReader(PhotoalbumController controller) {
     this.controller = controller;
+    this.parser = new CommandParser();
+    this.mapThreshold = MAP_THRESHOLD;
+    this.mapWindow = MAP_WINDOW;
   }
 
   /**
-   * Read the commands from the file and process them.
-   * @param filename The name of the file to read the commands from.
+   * Read the commands from the file and process them. A compressed file is
+   * decompressed as it is read. A file compiled by
+   * {@link CommandCompiler} is loaded as it is. A text file is read with a
+   * {@link Scanner} if the platform charset does not encode ASCII as single
+   * bytes.
+   * @param filename The name of the file to read the commands from, or "-"
+   *     to read them from the standard input.
    */
   public void readCommands(String filename) {
+    if (STANDARD_INPUT.equals(filename)) {
+      readCommands(System.in);
+      return;
+    }
+    Charset charset = Charset.defaultCharset();
+    linesRead = 0;
+    try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+      if (isCompressed(channel)) {
+        readStream(Channels.newInputStream(channel), charset);
+      } else if (CommandCompiler.isCompiled(channel)) {
+        loadCompiled(channel);
+      } else if (!isByteCompatible(charset)) {
+        readCommandsWithScanner(filename);
+      } else if (parseThreads > 0) {
+        readPipelined(channel, charset);
+      } else if (channel.size() >= mapThreshold) {
+        readMapped(channel, charset);
+      } else {
+        readBuffered(channel, charset);
+      }
+    } catch (NoSuchFileException e) {
+      // Print an error message if the file is not found
+      System.out.println("File not found.");
+      e.printStackTrace();
+    } catch (IOException | UncheckedIOException e) {
+      System.out.println("Cannot read file.");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Read the commands from a stream and process them as they arrive, until
+   * the end of the stream. Each command is processed as soon as its line is
+   * complete, so the stream may be written while it is read. The stream may
+   * also be compressed, or in the form compiled by {@link CommandCompiler}.
+   * @param in The stream to read the commands from.
+   */
+  public void readCommands(InputStream in) {
+    linesRead = 0;
+    try {
+      readStream(in, Charset.defaultCharset());
+    } catch (IOException | UncheckedIOException e) {
+      System.out.println("Cannot read input.");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Read the commands from a stream, decompressing it first if it starts
+   * like a gzip or zlib stream.
+   * @param in The stream to read the commands from.
+   * @param charset The charset of the text.
+   * @throws IOException if the stream cannot be read or decompressed
+   */
+  private void readStream(InputStream in, Charset charset) throws IOException {
+    InputStream input = in.markSupported() ? in : new BufferedInputStream(in);
+    InputStream inflated = decompress(input);
+    if (inflated != null) {
+      input = new BufferedInputStream(inflated); // for the check of the compiled header
+    }
+    if (CommandCompiler.isCompiled(input)) {
+      loadCompiled(Channels.newChannel(input));
+    } else if (!isByteCompatible(charset)) {
+      readWithScanner(new Scanner(input));
+    } else if (parseThreads > 0) {
+      readPipelined(Channels.newChannel(input), charset);
+    } else {
+      readBuffered(Channels.newChannel(input), charset);
+    }
+  }
+
+  /**
+   * Check whether a file starts like a gzip or zlib stream, without changing
+   * the position of the channel.
+   * @param channel The open file.
+   * @return true if the file is compressed.
+   * @throws IOException if the file cannot be read
+   */
+  static boolean isCompressed(FileChannel channel) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(ZLIB_CHECK);
+    while (head.hasRemaining() && channel.read(head, head.position()) >= 0) {
+      // read until the bytes to check are in or the file ends
+    }
+    return isCompressed(head.array(), head.position());
+  }
+
+  /**
+   * Check whether the first bytes of a stream are those of a gzip stream,
+   * or of a zlib stream that inflates without error. A text file may start
+   * with a valid zlib header, such as "HK" or "x^", but its text does not
+   * inflate.
+   * @param head The first bytes of the stream.
+   * @param length The number of bytes.
+   * @return true if the stream is compressed.
+   */
+  private static boolean isCompressed(byte[] head, int length) {
+    if (length < 2) {
+      return false;
+    }
+    return isGzip(head[0], head[1]) || isZlib(head[0], head[1]) && inflates(head, length);
+  }
+
+  /**
+   * Check whether the start of a zlib stream inflates without error. Data
+   * that ends before the check is not an error.
+   * @param head The first bytes of the stream.
+   * @param length The number of bytes.
+   * @return true if the bytes inflate.
+   */
+  private static boolean inflates(byte[] head, int length) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(head, 0, length);
+      byte[] inflated = new byte[INFLATE_BUFFER];
+      while (!inflater.finished() && !inflater.needsInput() && !inflater.needsDictionary()) {
+        inflater.inflate(inflated);
+      }
+      return !inflater.needsDictionary();
+    } catch (DataFormatException e) {
+      return false;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Decompress a stream if it starts like a gzip or zlib stream. The bytes
+   * are inflated as they are read, a large block of compressed bytes at a
+   * time.
+   * @param in The stream, which must support mark and reset.
+   * @return The decompressed stream, or null if the stream is not compressed,
+   *     in which case it is left at its start.
+   * @throws IOException if the stream cannot be read
+   */
+  static InputStream decompress(InputStream in) throws IOException {
+    in.mark(ZLIB_CHECK);
+    byte[] head = new byte[ZLIB_CHECK];
+    int length = in.readNBytes(head, 0, 2);
+    if (length == 2 && isZlib(head[0], head[1])) {
+      // check only what has arrived, so that a stream is not held up
+      int read = in.read(head, length, ZLIB_CHECK - length);
+      while (read > 0) {
+        length += read;
+        read = length < ZLIB_CHECK && in.available() > 0
+            ? in.read(head, length, ZLIB_CHECK - length) : 0;
+      }
+    }
+    in.reset();
+    if (!isCompressed(head, length)) {
+      return null;
+    } else if (isGzip(head[0], head[1])) {
+      return new GZIPInputStream(in, INFLATE_BUFFER);
+    }
+    return new InflaterInputStream(in, new Inflater(), INFLATE_BUFFER);
+  }
+
+  /**
+   * Check whether the first two bytes of a stream are the gzip magic number.
+   * @param first The first byte.
+   * @param second The second byte.
+   * @return true if the stream is gzip-compressed.
+   */
+  private static boolean isGzip(byte first, byte second) {
+    return first == (byte) 0x1F && second == (byte) 0x8B;
+  }
+
+  /**
+   * Check whether the first two bytes of a stream are a zlib header: deflate
+   * with a window of at most 32 KiB, no preset dictionary, and a valid
+   * header check. Some text starts with such bytes too.
+   * @param first The first byte.
+   * @param second The second byte.
+   * @return true if the stream is zlib-compressed.
+   */
+  private static boolean isZlib(byte first, byte second) {
+    int cmf = first & 0xFF;
+    int flg = second & 0xFF;
+    return (cmf & 0x0F) == 8 && (cmf >> 4) <= 7 && (flg & 0x20) == 0
+        && (cmf << 8 | flg) % 31 == 0;
+  }
+
+  /**
+   * Check whether a charset encodes ASCII as single bytes that appear in no
+   * other character, so that lines can be parsed from the bytes.
+   * @param charset The charset.
+   * @return true if the bytes can be parsed.
+   */
+  static boolean isByteCompatible(Charset charset) {
+    return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+        || charset.equals(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Load a file compiled by {@link CommandCompiler}.
+   * @param channel The open file or stream, at its start.
+   * @throws IOException if the file cannot be read or is not valid
+   */
+  private void loadCompiled(ReadableByteChannel channel) throws IOException {
+    CompiledCommandLoader loader = new CompiledCommandLoader(controller);
+    try {
+      loader.load(channel);
+    } finally {
+      linesRead = loader.getLinesRead();
+    }
+  }
+
+  /**
+   * Read a file with a {@link CommandPipeline}, parsing on other threads
+   * while the commands are applied on this one.
+   * @param channel The open file or stream.
+   * @param charset The charset of the file.
+   * @throws IOException if the file cannot be read
+   */
+  private void readPipelined(ReadableByteChannel channel, Charset charset)
+      throws IOException {
+    CommandPipeline pipeline = new CommandPipeline(controller, charset, parseThreads,
+        controller.isValidating());
+    try {
+      pipeline.run(channel);
+    } finally {
+      linesRead = pipeline.getLinesRead();
+    }
+  }
+
+  /**
+   * Read a file through the reused buffer. The lines of each read are
+   * processed before the next read, so a stream is processed as it arrives.
+   * @param channel The open file or stream.
+   * @param charset The charset of the file.
+   * @throws IOException if the file cannot be read
+   */
+  private void readBuffered(ReadableByteChannel channel, Charset charset)
+      throws IOException {
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+    buffer.clear();
+    boolean eof = false;
+    while (!eof && !controller.isStopped()) {
+      eof = channel.read(buffer) < 0;
+      buffer.flip();
+      int consumed = processLines(buffer, eof, charset);
+      buffer.position(consumed);
+      buffer.compact();
+      if (!buffer.hasRemaining()) {
+        // a line longer than the buffer: make room for the rest of it
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+      }
+    }
+  }
+
+  /**
+   * Read a file by mapping it into memory one window at a time, so that
+   * files of any size are read without copying. Each window starts at the
+   * first line the window before did not complete.
+   * @param channel The open file.
+   * @param charset The charset of the file.
+   * @throws IOException if the file cannot be read or has a line longer
+   *     than the largest window
+   */
+  private void readMapped(FileChannel channel, Charset charset) throws IOException {
+    long size = channel.size();
+    long position = 0;
+    int window = mapWindow;
+    while (position < size && !controller.isStopped()) {
+      long length = Math.min(window, size - position);
+      boolean last = position + length == size;
+      MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      int consumed = processLines(chunk, last, charset);
+      if (consumed == 0 && !last) {
+        // no line ends in the window: map a larger one
+        if (window == Integer.MAX_VALUE) {
+          throw new IOException("Line at byte " + position + " is longer than 2 GB.");
+        }
+        window = (int) Math.min(Integer.MAX_VALUE, window * 2L);
+      }
+      position += consumed;
+    }
+  }
+
+  /**
+   * Process the complete lines in a buffer. A line ends at "\n", "\r" or
+   * "\r\n", like {@link Scanner#nextLine()}.
+   * @param data The bytes read, from index 0 to the limit.
+   * @param eof Whether the file ends after these bytes.
+   * @param charset The charset of the file.
+   * @return The index of the first byte not processed.
+   */
+  private int processLines(ByteBuffer data, boolean eof, Charset charset) {
+    int limit = eof ? data.limit() : completeLines(data, data.limit());
+    int lineStart = 0;
+    while (lineStart < limit && !controller.isStopped()) {
+      int lineEnd = lineBreak(data, lineStart, limit);
+      processLine(data, lineStart, lineEnd, lineEnd == limit, charset);
+      lineStart = nextLine(data, lineEnd, limit);
+    }
+    return limit;
+  }
+
+  /**
+   * Find where the complete lines of a block of a file end. A "\r" at the
+   * end of the block does not complete its line, since a "\n" may follow.
+   * @param data The bytes read, from index 0.
+   * @param limit The index after the last byte read.
+   * @return The index after the line break of the last complete line, or 0.
+   */
+  static int completeLines(ByteBuffer data, int limit) {
+    for (int i = limit - 1; i >= 0; i--) {
+      byte b = data.get(i);
+      if (b == '\n' || b == '\r' && i + 1 < limit) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Find the line break that ends a line.
+   * @param data The bytes holding the line.
+   * @param start The index of the first byte of the line.
+   * @param limit The index after the last byte that may belong to the line.
+   * @return The index of the line break, or the limit if there is none.
+   */
+  static int lineBreak(ByteBuffer data, int start, int limit) {
+    for (int i = start; i < limit; i++) {
+      byte b = data.get(i);
+      if (b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * Find the start of the line after a line break.
+   * @param data The bytes holding the line break.
+   * @param lineBreak The index of the line break.
+   * @param limit The index after the last byte.
+   * @return The index of the first byte of the next line.
+   */
+  static int nextLine(ByteBuffer data, int lineBreak, int limit) {
+    if (lineBreak + 1 < limit && data.get(lineBreak) == '\r'
+        && data.get(lineBreak + 1) == '\n') {
+      return lineBreak + 2;
+    }
+    return lineBreak + 1;
+  }
+
+  /**
+   * Process one line, parsing it in place if the parser handles it and the
+   * controller does not validate commands.
+   * @param data The buffer holding the line.
+   * @param start The index of the first byte of the line.
+   * @param end The index after the last byte of the line.
+   * @param last Whether the line ends the file without a line break.
+   * @param charset The charset of the file.
+   * @throws UncheckedIOException if the line is not valid in the charset
+   */
+  private void processLine(ByteBuffer data, int start, int end, boolean last,
+      Charset charset) {
+    if (!controller.isValidating() && parser.parse(data, start, end)) {
+      linesRead++;
+      controller.processParsed(parser.op(), parser.name(), parser.values(), 0);
+      return;
+    }
+    String[] commands;
+    try {
+      commands = decodeLine(data, start, end, charset, last);
+    } catch (CharacterCodingException e) {
+      // Scanner silently stops somewhere before such bytes; stop at this line instead
+      throw new UncheckedIOException(invalidLine(linesRead + 1, charset), e);
+    }
+    for (String command : commands) {
+      linesRead++;
+      controller.processCommand(command);
+    }
+  }
+
+  /**
+   * Decode a line the parser does not handle into the commands Scanner
+   * would read from it. Scanner also ends lines at the separators U+2028,
+   * U+2029 and U+0085, which only occur outside ASCII.
+   * @param data The buffer holding the line.
+   * @param start The index of the first byte of the line.
+   * @param end The index after the last byte of the line.
+   * @param charset The charset of the file.
+   * @param last Whether the line ends the file without a line break, so that
+   *     a separator at its end does not start another line.
+   * @return The commands, at least one.
+   * @throws CharacterCodingException if the line is not valid in the charset
+   */
+  static String[] decodeLine(ByteBuffer data, int start, int end, Charset charset,
+      boolean last) throws CharacterCodingException {
+    byte[] bytes = new byte[end - start];
+    data.get(start, bytes);
+    String text = charset.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+    String[] commands = text.split("[\\u2028\\u2029\\u0085]", -1);
+    if (last && commands.length > 1 && commands[commands.length - 1].isEmpty()) {
+      return Arrays.copyOf(commands, commands.length - 1);
+    }
+    return commands;
+  }
+
+  /**
+   * Describe a line that is not valid in the charset of the file.
+   * @param line The number of the line, from 1.
+   * @param charset The charset of the file.
+   * @return The message.
+   */
+  static String invalidLine(long line, Charset charset) {
+    return "Line " + line + " is not valid " + charset.name() + ".";
+  }
+
+  /**
+   * Read the commands from the file with a {@link Scanner} and process them
+   * one string at a time.
+   * @param filename The name of the file to read the commands from.
+   */
+  public void readCommandsWithScanner(String filename) {
+    linesRead = 0;
     try {
       // Read the commands from the file
       File file = new File(filename);
-      Scanner scanner = new Scanner(file);
-      // read the file line by line
-      while (scanner.hasNextLine()) {
-        String command = scanner.nextLine();
-        // Process the command
-        controller.processCommand(command);
-      }
-      // close the scanner
-      scanner.close();
+      readWithScanner(new Scanner(file));
     } catch (FileNotFoundException e) {
       // Print an error message if the file is not found
       System.out.println("File not found.");
       e.printStackTrace();
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Read the commands line by line with a scanner and process them.
+   * @param scanner The scanner of the file or stream.
+   */
+  private void readWithScanner(Scanner scanner) {
+    // read the file line by line
+    while (scanner.hasNextLine() && !controller.isStopped()) {
+      String command = scanner.nextLine();
+      linesRead++;
+      // Process the command
+      controller.processCommand(command);
+    }
+    // close the scanner
+    scanner.close();
+  }
+
+  /**
+   * Set the number of threads that parse the file ahead of the model. The
+   * commands are still applied one at a time, in file order, on the thread
+   * that reads the file.
+   * @param threads The number of parsing threads, or 0 to parse on the
+   *     thread that reads the file.
+   */
+  public void setParseThreads(int threads) {
+    if (threads < 0) {
+      throw new IllegalArgumentException("Number of parsing threads must not be negative.");
+    }
+    this.parseThreads = threads;
+  }
+
+  /**
+   * Set when files are mapped into memory instead of read into the buffer.
+   * @param threshold The size in bytes from which files are mapped.
+   * @param window The number of bytes mapped at a time.
+   */
+  void setMapping(long threshold, int window) {
+    if (threshold < 0 || window <= 0) {
+      throw new IllegalArgumentException("Invalid mapping threshold or window.");
+    }
+    this.mapThreshold = threshold;
+    this.mapWindow = window;
+  }
+
+  /**
+   * Get the number of lines read by the last call to read commands.
+   * @return The number of lines.
+   */
+  public long getLinesRead() {
+    return linesRead;
+  }
+}
@@ -0,0 +1,350 @@
+package photoalbum.controller;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the shape commands of one line of ASCII bytes without creating
+ * strings or token arrays: tokens are found in place, keywords are matched
+ * byte by byte, numbers are read straight from the bytes and shape names
+ * are taken from a small table of names seen before. One parser is reused
+ * for all the lines of an input and keeps the last command parsed.
+ *
+ * <p>Only lines that parse with the same result as
+ * {@link PhotoalbumController#processCommand(String)} are accepted: a
+ * well-formed shape, move, color, resize or remove command. Any other line,
+ * including snapshots, draw order commands, comments, malformed lines and
+ * lines with bytes outside ASCII, is rejected so that the caller can hand it
+ * to the controller as a string.
+ */
+final class CommandParser {
+  static final byte RECTANGLE = 1;
+  static final byte OVAL = 2;
+  static final byte MOVE = 3;
+  static final byte COLOR = 4;
+  static final byte RESIZE = 5;
+  static final byte REMOVE = 6;
+  static final int MAX_VALUES = 7; // Numbers of the longest command
+  private static final int MAX_TOKENS = 10; // Tokens of the longest command
+  private static final int NAME_SLOTS = 4096; // Size of the name table, a power of two
+  private static final int MAX_FAST_DIGITS = 15; // Significant digits exact in a double
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final int[] tokenStarts;
+  private final int[] tokenEnds;
+  private int tokenCount; // Number of tokens in the line, counting those past MAX_TOKENS
+  private final String[] names; // Names seen before, by hash
+  private boolean badNumber; // Whether the last number read was malformed
+  private byte op;
+  private String name;
+  private final double[] values; // Numbers of the command, in command order
+
+  /**
+   * Constructs a parser.
+   */
+  CommandParser() {
+    this.tokenStarts = new int[MAX_TOKENS];
+    this.tokenEnds = new int[MAX_TOKENS];
+    this.names = new String[NAME_SLOTS];
+    this.values = new double[MAX_VALUES];
+  }
+
+  /**
+   * Parses a line.
+   * @param line the buffer holding the line
+   * @param start the index of the first byte of the line
+   * @param end the index after the last byte of the line, without the line break
+   * @return true if the line is a shape command that was parsed; false if
+   *     it must be processed as a string
+   */
+  boolean parse(ByteBuffer line, int start, int end) {
+    if (!tokenize(line, start, end) || tokenCount < 2) {
+      return false;
+    }
+    int s = tokenStarts[0];
+    int e = tokenEnds[0];
+    int numbers;
+    int first = 2; // token of the first number
+    if (keyword(line, s, e, "shape")) {
+      if (tokenCount < 10) {
+        return false;
+      }
+      if (keyword(line, tokenStarts[2], tokenEnds[2], "rectangle")) {
+        op = RECTANGLE;
+      } else if (keyword(line, tokenStarts[2], tokenEnds[2], "oval")) {
+        op = OVAL;
+      } else {
+        return false;
+      }
+      numbers = 7;
+      first = 3;
+    } else if (keyword(line, s, e, "move")) {
+      op = MOVE;
+      numbers = 2;
+    } else if (keyword(line, s, e, "color")) {
+      op = COLOR;
+      numbers = 3;
+    } else if (keyword(line, s, e, "resize")) {
+      op = RESIZE;
+      numbers = 2;
+    } else if (keyword(line, s, e, "remove")) {
+      op = REMOVE;
+      numbers = 0;
+    } else {
+      return false;
+    }
+    if (tokenCount < first + numbers) {
+      return false;
+    }
+    for (int k = 0; k < numbers; k++) {
+      values[k] = number(line, tokenStarts[first + k], tokenEnds[first + k]);
+      if (badNumber) {
+        return false;
+      }
+    }
+    name = name(line, tokenStarts[1], tokenEnds[1]);
+    return true;
+  }
+
+  /**
+   * Gets the kind of the last command parsed.
+   * @return RECTANGLE, OVAL, MOVE, COLOR, RESIZE or REMOVE
+   */
+  byte op() {
+    return op;
+  }
+
+  /**
+   * Gets the shape name of the last command parsed.
+   * @return the name
+   */
+  String name() {
+    return name;
+  }
+
+  /**
+   * Gets the numbers of the last command parsed. The array is reused by
+   * the next parse.
+   * @return the numbers, from index 0, in the order of the command
+   */
+  double[] values() {
+    return values;
+  }
+
+  /**
+   * Finds the tokens of a line, split at the characters matched by the
+   * regular expression \s.
+   * @param line the buffer holding the line
+   * @param start the index of the first byte
+   * @param end the index after the last byte
+   * @return false if the line has a byte the parser does not handle
+   */
+  private boolean tokenize(ByteBuffer line, int start, int end) {
+    tokenCount = 0;
+    int tokenStart = -1;
+    for (int i = start; i < end; i++) {
+      int b = line.get(i);
+      boolean separator = b == ' ' || (b >= '\t' && b <= '\r');
+      if (b < ' ' && !separator || b >= 0x7F) {
+        return false; // control bytes and non-ASCII text are left to the string path
+      }
+      if (separator) {
+        if (tokenStart >= 0) {
+          addToken(tokenStart, i);
+          tokenStart = -1;
+        }
+      } else if (tokenStart < 0) {
+        tokenStart = i;
+      }
+    }
+    if (tokenStart >= 0) {
+      addToken(tokenStart, end);
+    }
+    return true;
+  }
+
+  /**
+   * Records a token, if it is one of the first MAX_TOKENS.
+   * @param start the index of the first byte of the token
+   * @param end the index after the last byte of the token
+   */
+  private void addToken(int start, int end) {
+    if (tokenCount < MAX_TOKENS) {
+      tokenStarts[tokenCount] = start;
+      tokenEnds[tokenCount] = end;
+    }
+    tokenCount++;
+  }
+
+  /**
+   * Checks whether a token is a keyword, ignoring case.
+   * @param line the buffer holding the token
+   * @param start the index of the first byte of the token
+   * @param end the index after the last byte of the token
+   * @param keyword the keyword, in lower case
+   * @return true if the token is the keyword
+   */
+  private static boolean keyword(ByteBuffer line, int start, int end, String keyword) {
+    if (end - start != keyword.length()) {
+      return false;
+    }
+    for (int i = 0; i < keyword.length(); i++) {
+      int b = line.get(start + i);
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != keyword.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads a decimal number. Numbers of at most 15 significant digits and
+   * a small exponent are computed exactly from the digits; any other token
+   * goes through {@link Double#parseDouble(String)}, so the result is
+   * always the same as that method's.
+   * @param line the buffer holding the token
+   * @param start the index of the first byte of the token
+   * @param end the index after the last byte of the token
+   * @return the number; if the token is not a number, {@link #badNumber} is set
+   */
+  private double number(ByteBuffer line, int start, int end) {
+    badNumber = false;
+    int i = start;
+    boolean negative = false;
+    if (i < end && (line.get(i) == '-' || line.get(i) == '+')) {
+      negative = line.get(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0; // significant digits in the mantissa
+    int scale = 0; // power of ten the mantissa is multiplied by
+    boolean anyDigit = false;
+    boolean point = false;
+    for (; i < end; i++) {
+      int b = line.get(i);
+      if (b >= '0' && b <= '9') {
+        anyDigit = true;
+        if (mantissa != 0 || b != '0') {
+          if (++digits > MAX_FAST_DIGITS) {
+            return slowNumber(line, start, end);
+          }
+          mantissa = mantissa * 10 + (b - '0');
+        }
+        if (point) {
+          scale--;
+        }
+      } else if (b == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if (!anyDigit) {
+      return slowNumber(line, start, end);
+    }
+    if (i < end && (line.get(i) == 'e' || line.get(i) == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (line.get(i) == '-' || line.get(i) == '+')) {
+        negativeExponent = line.get(i) == '-';
+        i++;
+      }
+      int exponent = 0;
+      int exponentStart = i;
+      for (; i < end && i - exponentStart < 4; i++) {
+        int b = line.get(i);
+        if (b < '0' || b > '9') {
+          break;
+        }
+        exponent = exponent * 10 + (b - '0');
+      }
+      if (i == exponentStart) {
+        return slowNumber(line, start, end);
+      }
+      scale += negativeExponent ? -exponent : exponent;
+    }
+    if (i != end || scale < -22 || scale > 22) {
+      return slowNumber(line, start, end); // suffixes, hex, NaN, long exponents
+    }
+    // both the mantissa and the power of ten are exact, so one operation rounds correctly
+    double value = scale >= 0 ? mantissa * POWERS_OF_TEN[scale]
+        : mantissa / POWERS_OF_TEN[-scale];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Reads a number with {@link Double#parseDouble(String)}.
+   * @param line the buffer holding the token
+   * @param start the index of the first byte of the token
+   * @param end the index after the last byte of the token
+   * @return the number; if the token is not a number, {@link #badNumber} is set
+   */
+  private double slowNumber(ByteBuffer line, int start, int end) {
+    try {
+      return Double.parseDouble(text(line, start, end));
+    } catch (NumberFormatException e) {
+      badNumber = true;
+      return 0;
+    }
+  }
+
+  /**
+   * Gets a shape name, reusing the string made for the same name before.
+   * @param line the buffer holding the token
+   * @param start the index of the first byte of the token
+   * @param end the index after the last byte of the token
+   * @return the name
+   */
+  private String name(ByteBuffer line, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + line.get(i); // same as String.hashCode for ASCII
+    }
+    int slot = (hash ^ (hash >>> 16)) & (NAME_SLOTS - 1);
+    String known = names[slot];
+    if (known != null && known.length() == end - start && known.hashCode() == hash
+        && sameText(known, line, start)) {
+      return known;
+    }
+    String created = text(line, start, end);
+    names[slot] = created;
+    return created;
+  }
+
+  /**
+   * Checks whether a string has the same characters as the bytes of a token
+   * of its length.
+   * @param text the string
+   * @param line the buffer holding the token
+   * @param start the index of the first byte of the token
+   * @return true if the characters are the same
+   */
+  private static boolean sameText(String text, ByteBuffer line, int start) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) != line.get(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Makes a string of ASCII bytes.
+   * @param line the buffer holding the bytes
+   * @param start the index of the first byte
+   * @param end the index after the last byte
+   * @return the string
+   */
+  static String text(ByteBuffer line, int start, int end) {
+    char[] chars = new char[end - start];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) (line.get(start + i) & 0xFF);
+    }
+    return new String(chars);
+  }
+}
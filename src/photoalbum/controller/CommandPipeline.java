@@ -0,0 +1,403 @@
+package photoalbum.controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a command file in three stages: a reader thread cuts the file into
+ * chunks of whole lines, worker threads parse chunks into compact command
+ * records in parallel, and the calling thread applies the records to the
+ * controller in file order. The stages are joined by bounded queues, and the
+ * chunks are reused, so memory stays the same however large the file is.
+ *
+ * <p>Parsing has no effect on the album, so the result is the same as
+ * reading the file on one thread: commands are applied in order, and the
+ * first command that fails stops the reading, with the commands before it
+ * applied.
+ */
+final class CommandPipeline {
+  private static final int CHUNK_SIZE = 1 << 20; // Bytes of a chunk, grown for longer lines
+  private static final byte TEXT = 0; // Record of a line to process as a string
+  private static final byte INVALID = -1; // Record of a line not valid in the charset
+  private static final Chunk END = new Chunk(); // Marks the end of the file in the queues
+
+  private final PhotoalbumController controller;
+  private final Charset charset;
+  private final int workers;
+  private final boolean textOnly; // Whether every line is kept as text, for validation
+  private final BlockingQueue<Chunk> free; // Chunks ready to be filled by the reader
+  private final BlockingQueue<Chunk> unparsed; // Chunks for the workers, in any order
+  private final BlockingQueue<Chunk> ordered; // Chunks for the applier, in file order
+  private final List<Thread> threads;
+  private long linesRead;
+
+  /**
+   * A block of whole lines of the file and the records parsed from it.
+   */
+  private static final class Chunk {
+    private byte[] bytes;
+    private int length; // Number of bytes of whole lines
+    private byte[] ops; // Kind of command of each record, or TEXT or INVALID
+    private String[] names; // Shape name, or command text, of each record
+    private double[] values; // Numbers of each record, MAX_VALUES per record
+    private int count; // Number of records
+    private boolean parsed; // Whether the records are ready; guarded by this
+    private Throwable failure; // Why the chunk could not be read or parsed
+    private CharacterCodingException invalid; // Why the line of an INVALID record is invalid
+
+    /**
+     * Constructs an empty chunk.
+     */
+    private Chunk() {
+      this.ops = new byte[1024];
+      this.names = new String[1024];
+      this.values = new double[1024 * CommandParser.MAX_VALUES];
+    }
+
+    /**
+     * Adds a record, making room for it if needed.
+     * @param op the kind of command, or TEXT or INVALID
+     * @param name the shape name, or the command text
+     * @return the index of the first number of the record
+     */
+    private int add(byte op, String name) {
+      if (count == ops.length) {
+        ops = Arrays.copyOf(ops, count * 2);
+        names = Arrays.copyOf(names, count * 2);
+        values = Arrays.copyOf(values, count * 2 * CommandParser.MAX_VALUES);
+      }
+      ops[count] = op;
+      names[count] = name;
+      return count++ * CommandParser.MAX_VALUES;
+    }
+
+    /**
+     * Marks the records as ready and wakes the applier.
+     * @param failure why the chunk could not be parsed, or null
+     */
+    private synchronized void finish(Throwable failure) {
+      this.failure = failure;
+      this.parsed = true;
+      notifyAll();
+    }
+
+    /**
+     * Waits until the records are ready.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private synchronized void awaitParsed() throws InterruptedException {
+      while (!parsed) {
+        wait();
+      }
+    }
+
+    /**
+     * Empties the chunk for reuse, keeping its arrays.
+     */
+    private synchronized void reset() {
+      Arrays.fill(names, 0, count, null);
+      count = 0;
+      parsed = false;
+      failure = null;
+      invalid = null;
+    }
+  }
+
+  /**
+   * Constructs a pipeline.
+   * @param controller the controller the commands are applied to
+   * @param charset the charset of the file, one that encodes ASCII as single bytes
+   * @param workers the number of parsing threads, at least 1
+   * @param textOnly whether the workers only decode lines, leaving them to be
+   *     processed as strings
+   */
+  CommandPipeline(PhotoalbumController controller, Charset charset, int workers,
+      boolean textOnly) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("There must be at least one parsing thread.");
+    }
+    this.controller = controller;
+    this.charset = charset;
+    this.workers = workers;
+    this.textOnly = textOnly;
+    int inFlight = 2 * workers; // enough to keep every worker busy while the applier catches up
+    this.free = new ArrayBlockingQueue<>(inFlight);
+    this.unparsed = new ArrayBlockingQueue<>(inFlight + workers);
+    this.ordered = new ArrayBlockingQueue<>(inFlight + 1);
+    for (int i = 0; i < inFlight; i++) {
+      free.add(new Chunk());
+    }
+    this.threads = new ArrayList<>();
+  }
+
+  /**
+   * Reads a file and applies its commands. Returns once the file has been
+   * applied or a command has failed, with every thread of the pipeline
+   * stopped. The one exception is a reader stopped early while it waits on
+   * a stream, which may not return until more input arrives; that thread
+   * is left to end on its own, as it no longer touches the album.
+   * @param channel the open file or stream
+   * @throws IOException if the file cannot be read
+   * @throws UncheckedIOException if a line is not valid in the charset
+   */
+  void run(ReadableByteChannel channel) throws IOException {
+    Thread reader = new Thread(() -> read(channel), "command-reader");
+    threads.add(reader);
+    for (int i = 0; i < workers; i++) {
+      threads.add(new Thread(this::parse, "command-parser-" + i));
+    }
+    for (Thread thread : threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+    boolean ended = false;
+    try {
+      ended = apply();
+    } finally {
+      for (Thread thread : threads) {
+        thread.interrupt(); // stops the stages still waiting if the applier failed
+      }
+      // a file channel is closed by the interrupt; a stream read may ignore it
+      boolean readerStops = ended || channel instanceof FileChannel;
+      for (Thread thread : threads) {
+        if (thread != reader || readerStops) {
+          joinUninterruptibly(thread);
+        }
+      }
+      threads.clear();
+    }
+  }
+
+  /**
+   * Gets the number of lines applied by the last run.
+   * @return the number of lines
+   */
+  long getLinesRead() {
+    return linesRead;
+  }
+
+  /**
+   * Reader stage: fills chunks with whole lines of the file and queues them
+   * for the workers and, in file order, for the applier. The bytes of an
+   * unfinished line are carried over to the next chunk.
+   * @param channel the open file or stream
+   */
+  private void read(ReadableByteChannel channel) {
+    try {
+      Chunk carry = null; // chunk holding the start of an unfinished line, from index 0
+      boolean eof = false;
+      while (!eof) {
+        Chunk chunk = free.take();
+        chunk.reset();
+        if (chunk.bytes == null) {
+          chunk.bytes = new byte[CHUNK_SIZE];
+        }
+        int filled = 0;
+        if (carry != null) {
+          filled = carry.length;
+          if (filled >= chunk.bytes.length) {
+            chunk.bytes = new byte[filled * 2]; // a line longer than a chunk
+          }
+          System.arraycopy(carry.bytes, 0, chunk.bytes, 0, filled);
+          free.put(carry);
+        }
+        ByteBuffer target = ByteBuffer.wrap(chunk.bytes);
+        target.position(filled);
+        int complete = 0;
+        while (!eof && complete == 0 && target.hasRemaining()) {
+          // a stream may return less than a chunk: pass on what has arrived once a line ends
+          eof = channel.read(target) < 0;
+          complete = CommandFileReader.completeLines(target, target.position());
+        }
+        filled = target.position();
+        if (eof) {
+          complete = filled;
+        }
+        if (complete == 0) {
+          // no line ends in the chunk: keep all of it and read on into a larger one
+          chunk.length = filled;
+          carry = chunk;
+          continue;
+        }
+        chunk.length = complete;
+        if (complete < filled) {
+          carry = copyRest(chunk, complete, filled);
+        } else {
+          carry = null;
+        }
+        ordered.put(chunk);
+        unparsed.put(chunk);
+      }
+      ordered.put(END);
+    } catch (IOException | RuntimeException e) {
+      failed(e);
+    } catch (InterruptedException e) {
+      // the applier has stopped
+    }
+    for (int i = 0; i < workers; i++) {
+      unparsed.offer(END);
+    }
+  }
+
+  /**
+   * Copies the bytes of an unfinished line out of a chunk, so the chunk can
+   * go to the workers.
+   * @param chunk the chunk
+   * @param from the index of the first byte of the unfinished line
+   * @param to the index after the last byte read
+   * @return a chunk holding the bytes, with the length set
+   * @throws InterruptedException if the applier stopped while waiting for a chunk
+   */
+  private Chunk copyRest(Chunk chunk, int from, int to) throws InterruptedException {
+    Chunk rest = free.take();
+    rest.reset();
+    int length = to - from;
+    if (rest.bytes == null || rest.bytes.length < length) {
+      rest.bytes = new byte[Math.max(CHUNK_SIZE, length)];
+    }
+    System.arraycopy(chunk.bytes, from, rest.bytes, 0, length);
+    rest.length = length;
+    return rest;
+  }
+
+  /**
+   * Hands a failure of the reader to the applier.
+   * @param failure the failure
+   */
+  private void failed(Throwable failure) {
+    Chunk chunk = new Chunk();
+    chunk.finish(failure);
+    try {
+      ordered.put(chunk);
+    } catch (InterruptedException e) {
+      // the applier has stopped
+    }
+  }
+
+  /**
+   * Worker stage: parses chunks into records until the end of the file.
+   */
+  private void parse() {
+    CommandParser parser = new CommandParser();
+    try {
+      for (Chunk chunk = unparsed.take(); chunk != END; chunk = unparsed.take()) {
+        try {
+          parseChunk(parser, chunk);
+          chunk.finish(null);
+        } catch (RuntimeException e) {
+          chunk.finish(e);
+        }
+      }
+    } catch (InterruptedException e) {
+      // the applier has stopped
+    }
+  }
+
+  /**
+   * Parses the lines of a chunk into records.
+   * @param parser the parser of this worker
+   * @param chunk the chunk
+   */
+  private void parseChunk(CommandParser parser, Chunk chunk) {
+    ByteBuffer data = ByteBuffer.wrap(chunk.bytes, 0, chunk.length);
+    int limit = chunk.length;
+    int lineStart = 0;
+    while (lineStart < limit) {
+      int lineEnd = CommandFileReader.lineBreak(data, lineStart, limit);
+      if (!textOnly && parser.parse(data, lineStart, lineEnd)) {
+        int k = chunk.add(parser.op(), parser.name());
+        System.arraycopy(parser.values(), 0, chunk.values, k, CommandParser.MAX_VALUES);
+      } else {
+        try {
+          for (String command : CommandFileReader.decodeLine(data, lineStart, lineEnd,
+              charset, lineEnd == limit)) {
+            chunk.add(TEXT, command);
+          }
+        } catch (CharacterCodingException e) {
+          chunk.add(INVALID, null);
+          chunk.invalid = e;
+          return; // the applier stops at this line
+        }
+      }
+      lineStart = CommandFileReader.nextLine(data, lineEnd, limit);
+    }
+  }
+
+  /**
+   * Applier stage: applies the records of each chunk in file order.
+   * @return true if the whole file was applied, false if the controller
+   *     stopped before its end
+   * @throws IOException if the file cannot be read
+   */
+  private boolean apply() throws IOException {
+    linesRead = 0;
+    try {
+      for (Chunk chunk = ordered.take(); chunk != END; chunk = ordered.take()) {
+        chunk.awaitParsed();
+        if (chunk.failure instanceof IOException) {
+          throw (IOException) chunk.failure;
+        } else if (chunk.failure != null) {
+          throw new IllegalStateException("Cannot parse commands.", chunk.failure);
+        }
+        applyChunk(chunk);
+        if (controller.isStopped()) {
+          return false; // the other stages are stopped by run
+        }
+        free.put(chunk);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading commands.", e);
+    }
+  }
+
+  /**
+   * Applies the records of a chunk to the controller.
+   * @param chunk the parsed chunk
+   */
+  private void applyChunk(Chunk chunk) {
+    for (int i = 0; i < chunk.count && !controller.isStopped(); i++) {
+      byte op = chunk.ops[i];
+      if (op == INVALID) {
+        throw new UncheckedIOException(CommandFileReader.invalidLine(linesRead + 1, charset),
+            chunk.invalid);
+      }
+      linesRead++;
+      if (op == TEXT) {
+        controller.processCommand(chunk.names[i]);
+      } else {
+        controller.processParsed(op, chunk.names[i], chunk.values,
+            i * CommandParser.MAX_VALUES);
+      }
+    }
+  }
+
+  /**
+   * Waits for a thread to end, even if this thread is interrupted.
+   * @param thread the thread
+   */
+  private static void joinUninterruptibly(Thread thread) {
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,419 @@
+package photoalbum.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Checks commands before they are applied, recording a {@link Diagnostic}
+ * for each invalid line instead of throwing. A line that passes can be
+ * applied without error: the checks are the ones the controller and model
+ * make, down to the number syntax of {@link Double#parseDouble(String)},
+ * and the validator follows which shapes exist as the lines are checked.
+ * Blank lines and lines starting with "#" are passed over.
+ */
+final class CommandValidator {
+  private static final int SHAPE_VALUES = 7;
+
+  private final Diagnostics diagnostics;
+  private final Set<String> liveNames; // Shapes that exist once the lines so far are applied
+  private final List<String> tokens; // Tokens of the line being checked
+  private final double[] values; // Numbers of the line being checked
+  private int[] columns; // Column of each token, from 1
+  private int endColumn; // Column after the last token
+  private long line; // Number of the line being checked, from 1
+
+  /**
+   * Constructs a validator.
+   * @param diagnostics where problems are recorded
+   * @param names the names of the shapes that exist before the first line
+   */
+  CommandValidator(Diagnostics diagnostics, Collection<String> names) {
+    this.diagnostics = diagnostics;
+    this.liveNames = new HashSet<>(names);
+    this.tokens = new ArrayList<>();
+    this.values = new double[SHAPE_VALUES];
+    this.columns = new int[16];
+  }
+
+  /**
+   * Checks a command line.
+   * @param command the line
+   * @return the tokens of the line, split as the controller splits them,
+   *     or null if the line is blank, a comment or invalid
+   */
+  String[] check(String command) {
+    line++;
+    if (!tokenize(command)) {
+      diagnostics.addSkippedLine();
+      return null;
+    }
+    if (!checkTokens()) {
+      return null;
+    }
+    return tokens.toArray(new String[0]);
+  }
+
+  /**
+   * Checks a shape command read by a {@link CommandParser}. The syntax was
+   * checked by the parser, so only the values and names are checked, and
+   * the diagnostics have no column.
+   * @param op the kind of command, one of the constants of the parser
+   * @param name the name of the shape
+   * @param v the numbers of the command, in command order
+   * @param k the index of the first number in the array
+   * @return true if the command is valid
+   */
+  boolean checkParsed(byte op, String name, double[] v, int k) {
+    line++;
+    switch (op) {
+      case CommandParser.RECTANGLE:
+      case CommandParser.OVAL:
+        if (liveNames.contains(name)) {
+          return fail(-1, Diagnostic.Reason.DUPLICATE_SHAPE, name);
+        }
+        if (!checkSize(-1, v[k + 2], v[k + 3]) || !checkColor(-1, v, k + 4)) {
+          return false;
+        }
+        liveNames.add(name);
+        return true;
+      case CommandParser.COLOR:
+        return checkLive(-1, name) && checkColor(-1, v, k);
+      case CommandParser.RESIZE:
+        return checkLive(-1, name) && checkSize(-1, v[k], v[k + 1]);
+      case CommandParser.REMOVE:
+        return checkLive(-1, name) && liveNames.remove(name);
+      default:
+        return checkLive(-1, name);
+    }
+  }
+
+  /**
+   * Forgets the shapes and starts counting lines again.
+   * @param names the names of the shapes that exist before the next line
+   */
+  void reset(Collection<String> names) {
+    liveNames.clear();
+    liveNames.addAll(names);
+    line = 0;
+  }
+
+  /**
+   * Splits a line into tokens like {@code command.trim().split("\\s+")},
+   * keeping the column of each.
+   * @param command the line
+   * @return false if the line is blank or a comment
+   */
+  private boolean tokenize(String command) {
+    tokens.clear();
+    int start = 0;
+    int end = command.length();
+    while (start < end && command.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && command.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start == end || command.charAt(start) == '#') {
+      return false;
+    }
+    int tokenStart = start;
+    for (int i = start; i <= end; i++) {
+      if (i == end || isSpace(command.charAt(i))) {
+        if (i > tokenStart) {
+          if (tokens.size() == columns.length) {
+            columns = Arrays.copyOf(columns, columns.length * 2);
+          }
+          columns[tokens.size()] = tokenStart + 1;
+          tokens.add(command.substring(tokenStart, i));
+        }
+        tokenStart = i + 1;
+      }
+    }
+    endColumn = end + 1;
+    return true;
+  }
+
+  /**
+   * Checks the tokens of a line.
+   * @return true if the line is valid
+   */
+  private boolean checkTokens() {
+    String keyword = tokens.get(0).toLowerCase();
+    switch (keyword) {
+      case "shape":
+        return checkShape();
+      case "move":
+        return checkCount(4) && checkLive(1, tokens.get(1)) && checkNumbers(2, 2);
+      case "color":
+        return checkCount(5) && checkLive(1, tokens.get(1)) && checkNumbers(2, 3)
+            && checkColor(2, values, 0);
+      case "resize":
+        return checkCount(4) && checkLive(1, tokens.get(1)) && checkNumbers(2, 2)
+            && checkSize(2, values[0], values[1]);
+      case "remove":
+        return checkCount(2) && checkLive(1, tokens.get(1))
+            && liveNames.remove(tokens.get(1));
+      case "front":
+      case "back":
+        return checkCount(2) && checkLive(1, tokens.get(1));
+      case "layer":
+        return checkCount(3) && checkLive(1, tokens.get(1)) && checkLayer();
+      case "snapshot":
+        return true; // the rest of the line is the description
+      default:
+        return fail(0, Diagnostic.Reason.UNKNOWN_COMMAND, tokens.get(0));
+    }
+  }
+
+  /**
+   * Checks a shape command: "shape name type x y width height red green blue".
+   * @return true if the command is valid
+   */
+  private boolean checkShape() {
+    if (!checkCount(3 + SHAPE_VALUES)) {
+      return false;
+    }
+    String name = tokens.get(1);
+    if (liveNames.contains(name)) {
+      return fail(1, Diagnostic.Reason.DUPLICATE_SHAPE, name);
+    }
+    String type = tokens.get(2).toUpperCase(Locale.ROOT);
+    if (!type.equals("RECTANGLE") && !type.equals("OVAL")) {
+      return fail(2, Diagnostic.Reason.BAD_SHAPE_TYPE, tokens.get(2));
+    }
+    if (!checkNumbers(3, SHAPE_VALUES) || !checkSize(5, values[2], values[3])
+        || !checkColor(7, values, 4)) {
+      return false;
+    }
+    liveNames.add(name);
+    return true;
+  }
+
+  /**
+   * Checks that a line has a number of tokens.
+   * @param count the number of tokens, including the keyword
+   * @return true if the line has exactly that many
+   */
+  private boolean checkCount(int count) {
+    if (tokens.size() < count) {
+      return fail(tokens.size(), Diagnostic.Reason.MISSING_ARGUMENT, null);
+    }
+    if (tokens.size() > count) {
+      return fail(count, Diagnostic.Reason.EXTRA_ARGUMENT, tokens.get(count));
+    }
+    return true;
+  }
+
+  /**
+   * Checks that a shape exists.
+   * @param index the index of the name token, or -1 for a parsed command
+   * @param name the name
+   * @return true if it exists
+   */
+  private boolean checkLive(int index, String name) {
+    return liveNames.contains(name) || fail(index, Diagnostic.Reason.UNKNOWN_SHAPE, name);
+  }
+
+  /**
+   * Checks that tokens are numbers and keeps their values.
+   * @param first the index of the first token
+   * @param count the number of tokens
+   * @return true if they are all numbers
+   */
+  private boolean checkNumbers(int first, int count) {
+    for (int i = 0; i < count; i++) {
+      String token = tokens.get(first + i);
+      if (!isNumber(token)) {
+        return fail(first + i, Diagnostic.Reason.BAD_NUMBER, token);
+      }
+      values[i] = Double.parseDouble(token);
+    }
+    return true;
+  }
+
+  /**
+   * Checks the size of a shape as the model does.
+   * @param index the index of the width token, or -1 for a parsed command;
+   *     the height token follows it
+   * @param width the width of a rectangle or x-radius of an oval
+   * @param height the height of a rectangle or y-radius of an oval
+   * @return true if both are positive
+   */
+  private boolean checkSize(int index, double width, double height) {
+    if (width <= 0) {
+      return fail(index, Diagnostic.Reason.BAD_SIZE, String.valueOf(width));
+    }
+    if (height <= 0) {
+      return fail(index < 0 ? index : index + 1, Diagnostic.Reason.BAD_SIZE,
+          String.valueOf(height));
+    }
+    return true;
+  }
+
+  /**
+   * Checks a color as {@link photoalbum.model.Color} does.
+   * @param index the index of the red token, or -1 for a parsed command;
+   *     the green and blue tokens follow it
+   * @param v the numbers of the command
+   * @param k the index of the red value
+   * @return true if the three values are in the range [0, 255]
+   */
+  private boolean checkColor(int index, double[] v, int k) {
+    for (int i = 0; i < 3; i++) {
+      if (v[k + i] < 0 || v[k + i] > 255) {
+        return fail(index < 0 ? index : index + i, Diagnostic.Reason.BAD_COLOR,
+            String.valueOf(v[k + i]));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks the layer of a "layer" command as the model does.
+   * @return true if it is an integer in the range of the draw order
+   */
+  private boolean checkLayer() {
+    String token = tokens.get(2);
+    long layer = parseInt(token);
+    if (layer == Long.MIN_VALUE) {
+      return fail(2, Diagnostic.Reason.BAD_NUMBER, token);
+    }
+    if (layer < 0 || layer >= liveNames.size()) {
+      return fail(2, Diagnostic.Reason.BAD_LAYER, token);
+    }
+    return true;
+  }
+
+  /**
+   * Records a problem in the line being checked.
+   * @param index the index of the token at fault, the number of tokens for
+   *     a missing one, or -1 for a parsed command, which has no columns
+   * @param reason the kind of problem
+   * @param token the token at fault, or null
+   * @return false, for use in checks
+   */
+  private boolean fail(int index, Diagnostic.Reason reason, String token) {
+    int column = index < 0 ? 0 : index < tokens.size() ? columns[index] : endColumn;
+    diagnostics.add(line, column, reason, token);
+    return false;
+  }
+
+  /**
+   * Checks whether a character is one that {@code "\\s"} matches.
+   * @param c the character
+   * @return true if it separates tokens
+   */
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+  }
+
+  /**
+   * Checks whether {@link Double#parseDouble(String)} accepts a token:
+   * decimal and hexadecimal numbers, "NaN" and "Infinity", with a sign,
+   * an "f" or "d" suffix, and spaces around them.
+   * @param token the token
+   * @return true if it is a number
+   */
+  static boolean isNumber(String token) {
+    int i = 0;
+    int end = token.length();
+    while (i < end && token.charAt(i) <= ' ') {
+      i++;
+    }
+    while (end > i && token.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (i < end && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+      i++;
+    }
+    if (token.startsWith("NaN", i)) {
+      return i + 3 == end;
+    }
+    if (token.startsWith("Infinity", i)) {
+      return i + 8 == end;
+    }
+    boolean hex = end - i >= 2 && token.charAt(i) == '0'
+        && (token.charAt(i + 1) == 'x' || token.charAt(i + 1) == 'X');
+    if (hex) {
+      i += 2;
+    }
+    int digits = 0;
+    for (; i < end && isDigit(token.charAt(i), hex); i++) {
+      digits++;
+    }
+    if (i < end && token.charAt(i) == '.') {
+      for (i++; i < end && isDigit(token.charAt(i), hex); i++) {
+        digits++;
+      }
+    }
+    if (digits == 0) {
+      return false;
+    }
+    char exponent = hex ? 'p' : 'e';
+    if (i < end && Character.toLowerCase(token.charAt(i)) == exponent) {
+      i++;
+      if (i < end && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+        i++;
+      }
+      int exponentDigits = 0;
+      for (; i < end && isDigit(token.charAt(i), false); i++) {
+        exponentDigits++;
+      }
+      if (exponentDigits == 0) {
+        return false;
+      }
+    } else if (hex) {
+      return false; // a hexadecimal number needs a binary exponent
+    }
+    if (i < end && "fFdD".indexOf(token.charAt(i)) >= 0) {
+      i++;
+    }
+    return i == end;
+  }
+
+  /**
+   * Checks whether a character is an ASCII digit.
+   * @param c the character
+   * @param hex whether hexadecimal digits count
+   * @return true if it is a digit
+   */
+  private static boolean isDigit(char c, boolean hex) {
+    return c >= '0' && c <= '9'
+        || hex && (c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F');
+  }
+
+  /**
+   * Reads a token as {@link Integer#parseInt(String)} does.
+   * @param token the token
+   * @return the integer, or {@link Long#MIN_VALUE} if it is not one
+   */
+  static long parseInt(String token) {
+    int i = 0;
+    boolean negative = false;
+    if (!token.isEmpty() && (token.charAt(0) == '+' || token.charAt(0) == '-')) {
+      negative = token.charAt(0) == '-';
+      i++;
+    }
+    if (i == token.length()) {
+      return Long.MIN_VALUE;
+    }
+    long value = 0;
+    for (; i < token.length(); i++) {
+      int digit = Character.digit(token.charAt(i), 10);
+      if (digit < 0) {
+        return Long.MIN_VALUE;
+      }
+      value = value * 10 + digit;
+      if (value > Integer.MAX_VALUE + 1L) {
+        return Long.MIN_VALUE;
+      }
+    }
+    value = negative ? -value : value;
+    return value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+  }
+}
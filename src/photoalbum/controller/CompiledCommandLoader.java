@@ -0,0 +1,180 @@
+package photoalbum.controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a file written by {@link CommandCompiler} into a controller. The
+ * records are decoded straight from a reused buffer, so loading costs
+ * little more than reading the bytes.
+ */
+final class CompiledCommandLoader {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final PhotoalbumController controller;
+  private final List<String> names; // Shape names by ID
+  private final double[] values; // Numbers of the record being loaded
+  private ReadableByteChannel channel;
+  private ByteBuffer buffer; // Bytes read and not yet decoded, from position to limit
+  private long linesRead;
+
+  /**
+   * Constructs a loader.
+   * @param controller the controller the commands are applied to
+   */
+  CompiledCommandLoader(PhotoalbumController controller) {
+    this.controller = controller;
+    this.names = new ArrayList<>();
+    this.values = new double[CommandParser.MAX_VALUES];
+  }
+
+  /**
+   * Loads a compiled file and applies its commands, from the header to the
+   * end of the file.
+   * @param channel the file, at the start of the header
+   * @throws IOException if the file cannot be read or is not a valid compiled file
+   */
+  void load(ReadableByteChannel channel) throws IOException {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    names.clear();
+    linesRead = 0;
+    byte[] head = new byte[CommandCompiler.HEADER.length];
+    if (!fill(head.length)) {
+      throw new IOException("Compiled file has no header.");
+    }
+    buffer.get(head);
+    if (!CommandCompiler.isHeader(head, head.length)) {
+      throw new IOException("Not a compiled command file, or of another version.");
+    }
+    while (!controller.isStopped() && fill(1)) {
+      int op = buffer.get() & 0xFF;
+      if (op == CommandCompiler.NAME) {
+        names.add(readString(false));
+      } else if (op == CommandCompiler.TEXT) {
+        String command = readString(true);
+        linesRead++;
+        controller.processCommand(command);
+      } else {
+        loadShapeCommand(op);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of commands applied by the last load.
+   * @return the number of commands
+   */
+  long getLinesRead() {
+    return linesRead;
+  }
+
+  /**
+   * Loads a shape command record and applies it.
+   * @param op the op byte of the record
+   * @throws IOException if the record is not valid
+   */
+  private void loadShapeCommand(int op) throws IOException {
+    boolean doubles = (op & CommandCompiler.DOUBLES) != 0;
+    byte kind = (byte) (op & ~CommandCompiler.DOUBLES);
+    if (kind < CommandParser.RECTANGLE || kind > CommandParser.REMOVE) {
+      throw new IOException("Unknown record " + op + " in compiled file.");
+    }
+    int id = readVarint();
+    if (id >= names.size()) {
+      throw new IOException("Unknown shape name " + id + " in compiled file.");
+    }
+    int count = CommandCompiler.valueCount(kind);
+    if (!fill(count * (doubles ? Double.BYTES : Float.BYTES))) {
+      throw truncated();
+    }
+    for (int k = 0; k < count; k++) {
+      values[k] = doubles ? buffer.getDouble() : buffer.getFloat();
+    }
+    linesRead++;
+    controller.processParsed(kind, names.get(id), values, 0);
+  }
+
+  /**
+   * Reads a string record body: a varint length and the bytes.
+   * @param utf8 whether the bytes are UTF-8 rather than ASCII
+   * @return the string
+   * @throws IOException if the record is truncated or longer than the
+   *     compiler writes
+   */
+  private String readString(boolean utf8) throws IOException {
+    int length = readVarint();
+    if (length > CommandCompiler.MAX_STRING) {
+      // checked before the buffer is grown to hold it
+      throw new IOException("Record of " + length + " bytes in compiled file is too long.");
+    }
+    if (!fill(length)) {
+      throw truncated();
+    }
+    String text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+        utf8 ? StandardCharsets.UTF_8 : StandardCharsets.US_ASCII);
+    buffer.position(buffer.position() + length);
+    return text;
+  }
+
+  /**
+   * Reads a number that is not negative, written in 7-bit groups.
+   * @return the number
+   * @throws IOException if the number is truncated or too large
+   */
+  private int readVarint() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (!fill(1)) {
+        throw truncated();
+      }
+      int b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IOException("Invalid number in compiled file.");
+  }
+
+  /**
+   * Makes sure that a number of bytes are in the buffer, reading more of
+   * the file and growing the buffer if needed.
+   * @param count the number of bytes
+   * @return false if the file ends first
+   * @throws IOException if the file cannot be read
+   */
+  private boolean fill(int count) throws IOException {
+    if (buffer.remaining() >= count) {
+      return true;
+    }
+    if (buffer.capacity() < count) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(count, buffer.capacity() * 2));
+      larger.put(buffer);
+      buffer = larger;
+    } else {
+      buffer.compact();
+    }
+    boolean eof = false;
+    while (buffer.position() < count && !eof) {
+      eof = channel.read(buffer) < 0;
+    }
+    buffer.flip();
+    return buffer.remaining() >= count;
+  }
+
+  /**
+   * Makes the exception for a file that ends within a record.
+   * @return the exception
+   */
+  private static IOException truncated() {
+    return new IOException("Compiled file ends within a record.");
+  }
+}
@@ -0,0 +1,108 @@
+package photoalbum.controller;
+
+/**
+ * A problem found in one line of commands by a validating controller.
+ */
+public final class Diagnostic {
+  /**
+   * The kinds of problems.
+   */
+  public enum Reason {
+    UNKNOWN_COMMAND("unknown command"),
+    MISSING_ARGUMENT("missing argument"),
+    EXTRA_ARGUMENT("unexpected argument"),
+    BAD_NUMBER("not a number"),
+    BAD_SHAPE_TYPE("unknown shape type"),
+    BAD_COLOR("color value out of the range [0, 255]"),
+    BAD_SIZE("size must be positive"),
+    BAD_LAYER("layer out of range"),
+    UNKNOWN_SHAPE("no shape with this name"),
+    DUPLICATE_SHAPE("a shape with this name already exists");
+
+    private final String description;
+
+    /**
+     * Constructs a reason.
+     * @param description what the problem is, in words
+     */
+    Reason(String description) {
+      this.description = description;
+    }
+
+    /**
+     * Gets what the problem is, in words.
+     * @return the description
+     */
+    public String getDescription() {
+      return description;
+    }
+  }
+
+  private final long line; // Number of the line, from 1
+  private final int column; // Column of the token at fault, from 1; 0 if unknown
+  private final Reason reason;
+  private final String token; // The token at fault, or null
+
+  /**
+   * Constructs a diagnostic.
+   * @param line the number of the line, from 1
+   * @param column the column of the token at fault, from 1, or 0 if unknown
+   * @param reason the kind of problem
+   * @param token the token at fault, or null
+   */
+  Diagnostic(long line, int column, Reason reason, String token) {
+    this.line = line;
+    this.column = column;
+    this.reason = reason;
+    this.token = token;
+  }
+
+  /**
+   * Gets the number of the line.
+   * @return the line, from 1
+   */
+  public long getLine() {
+    return line;
+  }
+
+  /**
+   * Gets the column of the token at fault. Compiled input has no columns.
+   * @return the column, from 1, or 0 if unknown
+   */
+  public int getColumn() {
+    return column;
+  }
+
+  /**
+   * Gets the kind of problem.
+   * @return the reason
+   */
+  public Reason getReason() {
+    return reason;
+  }
+
+  /**
+   * Gets the token at fault.
+   * @return the token, or null if the problem is a missing token
+   */
+  public String getToken() {
+    return token;
+  }
+
+  /**
+   * Describes the diagnostic as "line L, column C: reason: token".
+   * @return the description
+   */
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder("line ").append(line);
+    if (column > 0) {
+      text.append(", column ").append(column);
+    }
+    text.append(": ").append(reason.getDescription());
+    if (token != null) {
+      text.append(": ").append(token);
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,130 @@
+package photoalbum.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The problems found by a validating controller. Only the first
+ * diagnostics, up to a capacity, are kept; the rest are only counted, so
+ * that a very dirty input does not fill the memory.
+ */
+public final class Diagnostics {
+  public static final int DEFAULT_CAPACITY = 100;
+
+  private final int capacity; // Maximum number of diagnostics kept
+  private final List<Diagnostic> kept;
+  private final long[] counts; // Number of problems by reason
+  private long total;
+  private long skippedLines; // Blank and comment lines
+
+  /**
+   * Constructs an empty set of diagnostics.
+   * @param capacity the maximum number of diagnostics kept; 0 keeps only counts
+   */
+  public Diagnostics(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must not be negative.");
+    }
+    this.capacity = capacity;
+    this.kept = new ArrayList<>(Math.min(capacity, DEFAULT_CAPACITY));
+    this.counts = new long[Diagnostic.Reason.values().length];
+  }
+
+  /**
+   * Records a problem, keeping its diagnostic if there is room.
+   * @param line the number of the line, from 1
+   * @param column the column of the token at fault, from 1, or 0 if unknown
+   * @param reason the kind of problem
+   * @param token the token at fault, or null
+   */
+  void add(long line, int column, Diagnostic.Reason reason, String token) {
+    total++;
+    counts[reason.ordinal()]++;
+    if (kept.size() < capacity) {
+      kept.add(new Diagnostic(line, column, reason, token));
+    }
+  }
+
+  /**
+   * Counts a blank or comment line.
+   */
+  void addSkippedLine() {
+    skippedLines++;
+  }
+
+  /**
+   * Gets the diagnostics kept, in line order.
+   * @return the diagnostics, unmodifiable
+   */
+  public List<Diagnostic> getDiagnostics() {
+    return Collections.unmodifiableList(kept);
+  }
+
+  /**
+   * Gets the number of problems found, including those not kept.
+   * @return the number of problems
+   */
+  public long getCount() {
+    return total;
+  }
+
+  /**
+   * Gets the number of problems of one kind.
+   * @param reason the kind of problem
+   * @return the number of problems
+   */
+  public long getCount(Diagnostic.Reason reason) {
+    return counts[reason.ordinal()];
+  }
+
+  /**
+   * Gets the number of blank and comment lines passed over.
+   * @return the number of lines
+   */
+  public long getSkippedLines() {
+    return skippedLines;
+  }
+
+  /**
+   * Writes the counts of problems by kind, one kind per line.
+   * @param out where to write
+   */
+  public void appendSummary(StringBuilder out) {
+    out.append(total).append(total == 1 ? " problem" : " problems").append(" found");
+    out.append(", ").append(skippedLines).append(" blank or comment lines skipped")
+        .append(System.lineSeparator());
+    for (Diagnostic.Reason reason : Diagnostic.Reason.values()) {
+      long count = counts[reason.ordinal()];
+      if (count > 0) {
+        out.append("  ").append(reason.getDescription()).append(": ").append(count)
+            .append(System.lineSeparator());
+      }
+    }
+  }
+
+  /**
+   * Writes each diagnostic kept, one per line, and how many more were found.
+   * @param out where to write
+   */
+  public void appendDiagnostics(StringBuilder out) {
+    for (Diagnostic diagnostic : kept) {
+      out.append(diagnostic).append(System.lineSeparator());
+    }
+    if (total > kept.size()) {
+      out.append("... and ").append(total - kept.size()).append(" more")
+          .append(System.lineSeparator());
+    }
+  }
+
+  /**
+   * Forgets all problems.
+   */
+  void clear() {
+    kept.clear();
+    total = 0;
+    skippedLines = 0;
+    Arrays.fill(counts, 0);
+  }
+}
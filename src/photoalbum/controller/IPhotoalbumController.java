@@ -8,7 +8,8 @@ import java.io.IOException;
 public interface IPhotoalbumController {
   /**
    * Run the controller.
-   * @param filename The name of the file to read the commands from.
+   * @param filename The name of the file to read the commands from, or "-"
+   *     to stream them from the standard input.
    * @param viewType The type of view to display.
    * @param xmax The x size of the bounds of the "view window"
    * @param ymax The y size of the bounds of the "view window"
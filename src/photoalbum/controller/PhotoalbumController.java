@@ -1,8 +1,10 @@
 package photoalbum.controller;
 
 import photoalbum.model.Color;
+import photoalbum.model.CommandBatch;
 import photoalbum.model.IPhotoalbum;
 import photoalbum.model.IShape;
+import photoalbum.model.ISnapshot;
 import photoalbum.model.PhotoalbumModel;
 import photoalbum.model.ShapeType;
 import photoalbum.views.GraphicalView;
@@ -10,26 +12,52 @@ import photoalbum.views.IView;
 import photoalbum.views.WebView;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * The controller for the photoalbum.
+ * Shape commands are collected into a batch and handed to the model in one
+ * call when a snapshot is taken, when the batch is full, or when the input
+ * ends.
+ * With a {@link ValidationMode} other than OFF, each command is checked
+ * first, and invalid commands are recorded as {@link Diagnostics} instead
+ * of being applied.
  */
 public class PhotoalbumController implements IPhotoalbumController {
+  private static final int MAX_BATCH_SIZE = 4096;
   private static IPhotoalbumController INSTANCE;
   private IPhotoalbum model;
+  private final CommandBatch batch; // Shape commands not yet applied to the model
   private IView view;
   private CommandFileReader commandReader;
+  private Consumer<ISnapshot> snapshotSink; // Gets each snapshot taken, which is then released
+  private ValidationMode validationMode;
+  private Diagnostics diagnostics; // Problems found by the validator, or null if not validating
+  private CommandValidator validator; // Checks each command first, or null if not validating
+  private boolean compressedOutput; // Whether the web view is written gzip-compressed
 
   private int xmax;
   private int ymax;
   private String viewType;
 
   /**
-   * Constructor for the photoalbum controller.
+   * Constructor for the photoalbum controller of the shared photo album.
    */
   public PhotoalbumController() {
-    model = PhotoalbumModel.getInstance(); // Singleton to ensure only one instance of the model
+    this(PhotoalbumModel.getInstance()); // Singleton to ensure only one instance of the model
+  }
+
+  /**
+   * Constructor for the photoalbum controller of a photo album.
+   * @param model The photo album the commands are applied to.
+   */
+  public PhotoalbumController(IPhotoalbum model) {
+    this.model = model;
     commandReader = new CommandFileReader(this); // Dependency Injection
+    batch = new CommandBatch();
+    validationMode = ValidationMode.OFF;
   }
 
   /**
@@ -45,15 +73,22 @@ public class PhotoalbumController implements IPhotoalbumController {
 
   /**
    * Run the photoalbum controller.
-   * @param filename The name of the file to read the commands from.
+   * @param filename The name of the file to read the commands from, or "-"
+   *     to stream them from the standard input.
    * @param viewType The type of view to display.
    * @param xmax The x size of the bounds of the "view window"
    * @param ymax The y size of the bounds of the "view window"
    */
   @Override
   public void run(String filename, String viewType, int xmax, int ymax) throws IOException {
+    if (CommandFileReader.STANDARD_INPUT.equals(filename) && "web".equalsIgnoreCase(viewType)) {
+      streamWeb(xmax, ymax);
+      return;
+    }
     // Read the commands from the file
     commandReader.readCommands(filename);
+    flush(); // Apply the commands after the last snapshot
+    reportDiagnostics();
     // Determine and initialize the appropriate view
     switch (viewType.toLowerCase()) {
       case "graphical":
@@ -68,13 +103,141 @@ public class PhotoalbumController implements IPhotoalbumController {
     }
   }
 
+  /**
+   * Set the number of threads that parse command files ahead of the model.
+   * @param threads The number of parsing threads, or 0 to parse on the
+   *     thread that runs the controller.
+   */
+  public void setParseThreads(int threads) {
+    commandReader.setParseThreads(threads);
+  }
+
+  /**
+   * Set whether the web view is written gzip-compressed.
+   * @param compressed true to compress the web view.
+   */
+  public void setCompressedOutput(boolean compressed) {
+    compressedOutput = compressed;
+  }
+
+  /**
+   * Set how commands are checked before they are applied. Turning
+   * validation on starts a new set of diagnostics and line numbers from 1.
+   * @param mode The validation mode; OFF applies commands unchecked.
+   */
+  public void setValidationMode(ValidationMode mode) {
+    if (mode == null) {
+      throw new IllegalArgumentException("Validation mode must not be null.");
+    }
+    validationMode = mode;
+    if (mode == ValidationMode.OFF) {
+      diagnostics = null;
+      validator = null;
+      return;
+    }
+    flush(); // The validator starts from the shapes of the model
+    diagnostics = new Diagnostics(mode == ValidationMode.SUMMARY_ONLY
+        ? 0 : Diagnostics.DEFAULT_CAPACITY);
+    validator = new CommandValidator(diagnostics, shapeNames());
+  }
+
+  /**
+   * Get the validation mode.
+   * @return The validation mode.
+   */
+  public ValidationMode getValidationMode() {
+    return validationMode;
+  }
+
+  /**
+   * Get the problems found since validation was turned on.
+   * @return The diagnostics, or null if validation is off.
+   */
+  public Diagnostics getDiagnostics() {
+    return diagnostics;
+  }
+
+  /**
+   * Check whether commands are validated, in which case readers hand every
+   * line over as text so that diagnostics have columns.
+   * @return true if validation is on.
+   */
+  boolean isValidating() {
+    return validator != null;
+  }
+
+  /**
+   * Check whether commands are no longer applied because a command was
+   * invalid in fail-fast mode. Readers stop reading once this is true.
+   * @return true if the controller has stopped.
+   */
+  boolean isStopped() {
+    return validationMode == ValidationMode.FAIL_FAST && diagnostics.getCount() > 0;
+  }
+
+  /**
+   * Write the problems found to the standard error, in one write, as the
+   * validation mode asks: each problem kept, or only the counts.
+   */
+  private void reportDiagnostics() {
+    if (diagnostics == null) {
+      return;
+    }
+    StringBuilder report = new StringBuilder();
+    if (validationMode != ValidationMode.SUMMARY_ONLY) {
+      diagnostics.appendDiagnostics(report);
+    }
+    if (isStopped()) {
+      report.append("Stopped at the first invalid command.").append(System.lineSeparator());
+    } else {
+      diagnostics.appendSummary(report);
+    }
+    System.err.print(report);
+    System.err.flush();
+  }
+
+  /**
+   * Get the names of the shapes of the model.
+   * @return The names.
+   */
+  private List<String> shapeNames() {
+    List<String> names = new ArrayList<>();
+    for (IShape shape : model.getShapes()) {
+      names.add(shape.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Read the commands from the standard input and write the web view as
+   * they arrive: each snapshot is written once it is taken and then
+   * released, so that memory does not grow with the number of snapshots.
+   * @param xmax The x size of the bounds of the "view window"
+   * @param ymax The y size of the bounds of the "view window"
+   * @throws IOException if the web view cannot be written
+   */
+  private void streamWeb(int xmax, int ymax) throws IOException {
+    WebView view = new WebView(model);
+    view.setCompressed(compressedOutput);
+    view.openStream(xmax, ymax);
+    snapshotSink = view::writeSnapshot;
+    try {
+      commandReader.readCommands(System.in);
+      flush(); // Apply the commands after the last snapshot
+      reportDiagnostics();
+    } finally {
+      snapshotSink = null;
+      view.closeStream();
+    }
+  }
+
   /**
    * Display the graphical view.
    * @param xmax The x size of the bounds of the "view window"
    * @param ymax The y size of the bounds of the "view window"
    */
   private void goGraph(int xmax, int ymax) {
-    IView view = GraphicalView.getInstance(); // Singleton to ensure only one instance of the view
+    IView view = new GraphicalView(model);
     view.display(xmax, ymax);
   }
 
@@ -84,7 +247,8 @@ public class PhotoalbumController implements IPhotoalbumController {
    * @param ymax The y size of the bounds of the "view window"
    */
   private void goWeb(int xmax, int ymax) {
-    IView view = WebView.getInstance(); // Singleton to ensure only one instance of the view
+    WebView view = new WebView(model);
+    view.setCompressed(compressedOutput);
     view.display(xmax, ymax);
   }
 
@@ -93,9 +257,122 @@ public class PhotoalbumController implements IPhotoalbumController {
    * @param command The command to process.
    */
   public void processCommand(String command) {
-    command = command.trim(); // Remove leading and trailing whitespace
-    String[] tokens = command.split("\\s+"); // Split the command into tokens
-    // Determine the command and process it
+    String[] tokens;
+    if (validator != null) {
+      // Blank, comment and invalid lines are skipped; each is recorded
+      tokens = isStopped() ? null : validator.check(command);
+      if (tokens == null) {
+        return;
+      }
+    } else {
+      command = command.trim(); // Remove leading and trailing whitespace
+      tokens = command.split("\\s+"); // Split the command into tokens
+    }
+    try {
+      dispatch(tokens);
+    } catch (IllegalArgumentException e) {
+      flush(); // Apply the commands before this one, as if each had been run at once
+      throw e;
+    }
+    if (batch.size() >= MAX_BATCH_SIZE) {
+      flush();
+    }
+  }
+
+  /**
+   * Process a shape command read by a {@link CommandParser}. This has the
+   * same effect as processing the line it was parsed from as a string.
+   * @param op The kind of command, one of the constants of the parser.
+   * @param name The name of the shape.
+   * @param v The numbers of the command, in command order.
+   * @param k The index of the first number in the array.
+   */
+  void processParsed(byte op, String name, double[] v, int k) {
+    if (validator != null && (isStopped() || !validator.checkParsed(op, name, v, k))) {
+      return;
+    }
+    try {
+      switch (op) {
+        case CommandParser.RECTANGLE:
+          batch.createRectangle(name, v[k], v[k + 1], v[k + 2], v[k + 3],
+              Color.of(v[k + 4], v[k + 5], v[k + 6]));
+          break;
+        case CommandParser.OVAL:
+          batch.createOval(name, v[k], v[k + 1], v[k + 2], v[k + 3],
+              Color.of(v[k + 4], v[k + 5], v[k + 6]));
+          break;
+        case CommandParser.MOVE:
+          batch.moveShape(name, v[k], v[k + 1]);
+          break;
+        case CommandParser.COLOR:
+          batch.changeShapeColor(name, v[k], v[k + 1], v[k + 2]);
+          break;
+        case CommandParser.RESIZE:
+          batch.resizeShape(name, v[k], v[k + 1]);
+          break;
+        default:
+          batch.removeShape(name);
+          break;
+      }
+    } catch (IllegalArgumentException e) {
+      flush(); // Apply the commands before this one, as if each had been run at once
+      throw e;
+    }
+    if (batch.size() >= MAX_BATCH_SIZE) {
+      flush();
+    }
+  }
+
+  /**
+   * Apply the shape commands collected so far to the model.
+   * @throws IllegalArgumentException if one of the commands is invalid
+   */
+  public void flush() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      model.applyBatch(batch);
+    } finally {
+      batch.clear();
+    }
+  }
+
+  /**
+   * Get the number of shape commands not yet applied to the model.
+   * @return the number of commands
+   */
+  int getPendingCount() {
+    return batch.size();
+  }
+
+  /**
+   * Get the number of commands not yet applied to the model that create a
+   * shape.
+   * @return the number of create commands
+   */
+  int getPendingCreates() {
+    return batch.createCount();
+  }
+
+  /**
+   * Drop the commands not yet applied and reset the model, so that the
+   * controller can be reused for a new photo album.
+   */
+  public void reset() {
+    batch.clear();
+    model.reset();
+    if (validator != null) {
+      diagnostics.clear();
+      validator.reset(shapeNames());
+    }
+  }
+
+  /**
+   * Determine the command and process it.
+   * @param tokens The tokens from the command.
+   */
+  private void dispatch(String[] tokens) {
     switch (tokens[0].toLowerCase()) {
       case "shape":
         handleShape(tokens);
@@ -115,6 +392,11 @@ public class PhotoalbumController implements IPhotoalbumController {
       case "snapshot":
         handleSnapshot(tokens);
         break;
+      case "front":
+      case "back":
+      case "layer":
+        handleOrder(tokens);
+        break;
       default:
         // If the command is not recognized, print an error message
         System.err.println("Unknown command: " + tokens[0]);
@@ -140,8 +422,8 @@ public class PhotoalbumController implements IPhotoalbumController {
         double red = Double.parseDouble(tokens[7]);
         double green = Double.parseDouble(tokens[8]);
         double blue = Double.parseDouble(tokens[9]);
-        // create the rectangle to add to the model
-        model.createRectangle(name, type, x, y, width, height, new Color(red, green, blue));
+        // create the rectangle to add to the batch
+        batch.createRectangle(name, x, y, width, height, Color.of(red, green, blue));
       } else if (type.equals(ShapeType.OVAL)) { // if the shape is oval
         double x = Double.parseDouble(tokens[3]);
         double y = Double.parseDouble(tokens[4]);
@@ -150,8 +432,8 @@ public class PhotoalbumController implements IPhotoalbumController {
         double red = Double.parseDouble(tokens[7]);
         double green = Double.parseDouble(tokens[8]);
         double blue = Double.parseDouble(tokens[9]);
-        // create the oval to add to the model
-        model.createOval(name, type, x, y, xRadius, yRadius, new Color(red, green, blue));
+        // create the oval to add to the batch
+        batch.createOval(name, x, y, xRadius, yRadius, Color.of(red, green, blue));
       } else { // if the shape is not recognized, throw an exception
         throw new IllegalArgumentException("Unknown shape type: " + type);
       }
@@ -170,7 +452,7 @@ public class PhotoalbumController implements IPhotoalbumController {
       // Get the x and y coordinates to move the shape to
       double x = Double.parseDouble(tokens[2]);
       double y = Double.parseDouble(tokens[3]);
-      model.moveShape(name, x, y); // Move the shape
+      batch.moveShape(name, x, y); // Move the shape
     } catch (NumberFormatException e) {
       e.printStackTrace(); // If the number format is not correct, print an error
     }
@@ -186,7 +468,7 @@ public class PhotoalbumController implements IPhotoalbumController {
     double red = Double.parseDouble(tokens[2]);
     double green = Double.parseDouble(tokens[3]);
     double blue = Double.parseDouble(tokens[4]);
-    model.changeShapeColor(name, red, green, blue); // Change the color of the shape
+    batch.changeShapeColor(name, red, green, blue); // Change the color of the shape
   }
 
   /**
@@ -195,19 +477,11 @@ public class PhotoalbumController implements IPhotoalbumController {
    */
   private void handleResize(String[] tokens) {
     String name = tokens[1]; // Get the name of the shape
-    // use name to find if the shape is a rectangle or oval
-    IShape shape = model.getShape(name);
-    // if the shape is a rectangle, get the width and height to resize the rectangle
-    if (shape.getShapeType().equals(ShapeType.RECTANGLE)) {
-      double width = Double.parseDouble(tokens[2]);
-      double height = Double.parseDouble(tokens[3]);
-      model.resizeRectangle(name, width, height);
-    } else if (shape.getShapeType().equals(ShapeType.OVAL)) {
-      // if the shape is an oval, get the x and y radius to resize the oval
-      double xRadius = Double.parseDouble(tokens[2]);
-      double yRadius = Double.parseDouble(tokens[3]);
-      model.resizeOval(name, xRadius, yRadius);
-    }
+    // the width and height of a rectangle, or the x and y radius of an oval;
+    // the model resizes whichever type the shape has when the batch is applied
+    double width = Double.parseDouble(tokens[2]);
+    double height = Double.parseDouble(tokens[3]);
+    batch.resizeShape(name, width, height);
   }
 
   /**
@@ -216,7 +490,7 @@ public class PhotoalbumController implements IPhotoalbumController {
    */
   private void handleRemove(String[] tokens) {
     String name = tokens[1];
-    model.removeShape(name); // Remove the shape
+    batch.removeShape(name); // Remove the shape
   }
 
   /**
@@ -228,7 +502,36 @@ public class PhotoalbumController implements IPhotoalbumController {
     if (tokens.length > 1) { // if the description is not empty, get the description
       description = String.join(" ", tokens[1], tokens[tokens.length - 1]);
     }
+    flush(); // Apply the commands since the last snapshot
     model.takeSnapshot(description); // Take the snapshot of the photo album
+    if (snapshotSink != null) {
+      // Hand the snapshot on and release it
+      for (ISnapshot snapshot : model.getSnapshots()) {
+        snapshotSink.accept(snapshot);
+      }
+      model.clearSnapshots();
+    }
+  }
+
+  /**
+   * Handle the draw order commands: front, back and layer.
+   * @param tokens The tokens from the command.
+   */
+  private void handleOrder(String[] tokens) {
+    String name = tokens[1]; // Get the name of the shape
+    flush(); // Draw order depends on the shapes created so far
+    switch (tokens[0].toLowerCase()) {
+      case "front":
+        model.bringToFront(name);
+        break;
+      case "back":
+        model.sendToBack(name);
+        break;
+      default:
+        // the layer counts from 0 for the shape drawn first
+        model.moveToLayer(name, Integer.parseInt(tokens[2]));
+        break;
+    }
   }
 }
 
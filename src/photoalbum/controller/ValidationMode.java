@@ -0,0 +1,11 @@
+package photoalbum.controller;
+
+/**
+ * How the controller checks commands before it applies them.
+ */
+public enum ValidationMode {
+  OFF, // Apply every line as before, printing errors as they happen
+  FAIL_FAST, // Stop reading at the first invalid line
+  SKIP_AND_REPORT, // Skip invalid lines and report each of them at the end
+  SUMMARY_ONLY, // Skip invalid lines and report only how many there were of each kind
+}
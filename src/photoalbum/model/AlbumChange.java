@@ -0,0 +1,103 @@
+package photoalbum.model;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A change to a photo album as delivered to its change listeners. A change
+ * to a shape merges all the events on that shape within the notifier's
+ * window: its types are those of the merged events and its shape is the
+ * shape as it was after the last of them. A shape removed and created again
+ * within the window has both types and should be replaced; a shape created
+ * and removed again is not reported at all. A change to the whole album
+ * has no shape name.
+ */
+public final class AlbumChange {
+  private final String shapeName; // Name of the changed shape, null for album changes
+  private final int types; // Bit set of ChangeType ordinals
+  private final IShape shape; // Copy of the shape after the change, or null
+  private final ISnapshot snapshot; // Snapshot taken, or null
+  private final int eventCount; // Number of events merged into the change
+
+  /**
+   * Constructs a change.
+   * @param shapeName the name of the changed shape, or null for an album change
+   * @param types the bit set of change type ordinals
+   * @param shape a copy of the shape after the change, or null
+   * @param snapshot the snapshot taken, or null
+   * @param eventCount the number of events merged into the change
+   */
+  AlbumChange(String shapeName, int types, IShape shape, ISnapshot snapshot, int eventCount) {
+    this.shapeName = shapeName;
+    this.types = types;
+    this.shape = shape;
+    this.snapshot = snapshot;
+    this.eventCount = eventCount;
+  }
+
+  /**
+   * Gets the name of the changed shape.
+   * @return the name, or null if the change concerns the whole album
+   */
+  public String getShapeName() {
+    return shapeName;
+  }
+
+  /**
+   * Checks whether the change includes a type of change.
+   * @param type the type of change
+   * @return true if an event of the type was merged into the change
+   */
+  public boolean is(ChangeType type) {
+    return (types & (1 << type.ordinal())) != 0;
+  }
+
+  /**
+   * Gets the types of the events merged into the change.
+   * @return a new set of the types
+   */
+  public Set<ChangeType> getTypes() {
+    Set<ChangeType> result = EnumSet.noneOf(ChangeType.class);
+    for (ChangeType type : ChangeType.values()) {
+      if (is(type)) {
+        result.add(type);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the shape as it was after the change. The shape is a copy that
+   * the album does not change.
+   * @return the shape, or null if it was removed or the change concerns
+   *     the whole album
+   */
+  public IShape getShape() {
+    return shape;
+  }
+
+  /**
+   * Gets the snapshot taken.
+   * @return the snapshot, or null if the change is not a snapshot
+   */
+  public ISnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Gets the number of events merged into the change.
+   * @return the number of events
+   */
+  public int getEventCount() {
+    return eventCount;
+  }
+
+  /**
+   * Makes a string representation of the change.
+   * @return a string representation of the change
+   */
+  @Override
+  public String toString() {
+    return (shapeName == null ? "album" : shapeName) + " " + getTypes();
+  }
+}
@@ -0,0 +1,142 @@
+package photoalbum.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Summary figures of a set of shapes: the box around all of them, the
+ * number of shapes of each type and the number of shapes of each color.
+ * Stats cannot be changed; a snapshot's stats describe it as it was taken.
+ * An oval's box spans twice its radii from (x, y).
+ */
+public final class AlbumStats {
+  static final AlbumStats EMPTY = new AlbumStats(0, 0, 0, 0, 0, 0, new int[0], new int[0]);
+
+  private final double minX;
+  private final double minY;
+  private final double maxX;
+  private final double maxY;
+  private final int rectangles;
+  private final int ovals;
+  private final int[] colors; // Colors as 0xRRGGBB, ascending
+  private final int[] colorCounts; // Number of shapes of each color
+
+  /**
+   * Constructs stats.
+   * @param minX the least x-coordinate of the boxes
+   * @param minY the least y-coordinate of the boxes
+   * @param maxX the greatest x-coordinate of the boxes
+   * @param maxY the greatest y-coordinate of the boxes
+   * @param rectangles the number of rectangles
+   * @param ovals the number of ovals
+   * @param colors the colors used, ascending; kept, not copied
+   * @param colorCounts the number of shapes of each color; kept, not copied
+   */
+  AlbumStats(double minX, double minY, double maxX, double maxY, int rectangles, int ovals,
+      int[] colors, int[] colorCounts) {
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    this.rectangles = rectangles;
+    this.ovals = ovals;
+    this.colors = colors;
+    this.colorCounts = colorCounts;
+  }
+
+  /**
+   * Computes the stats of shapes by reading all of them.
+   * @param shapes the shapes
+   * @return the stats
+   */
+  public static AlbumStats of(IShapeColumns shapes) {
+    StatsTracker tracker = new StatsTracker();
+    for (int i = 0; i < shapes.size(); i++) {
+      tracker.add(shapes.getShapeType(i), shapes.getX(i), shapes.getY(i),
+          shapes.getWidth(i), shapes.getHeight(i), shapes.getRgb(i));
+    }
+    return tracker.freeze();
+  }
+
+  /**
+   * Checks whether there are no shapes.
+   * @return true if there are no shapes
+   */
+  public boolean isEmpty() {
+    return rectangles + ovals == 0;
+  }
+
+  /**
+   * Gets the least x-coordinate of the shapes' boxes.
+   * @return the x-coordinate, or 0 if there are no shapes
+   */
+  public double getMinX() {
+    return minX;
+  }
+
+  /**
+   * Gets the least y-coordinate of the shapes' boxes.
+   * @return the y-coordinate, or 0 if there are no shapes
+   */
+  public double getMinY() {
+    return minY;
+  }
+
+  /**
+   * Gets the greatest x-coordinate of the shapes' boxes.
+   * @return the x-coordinate, or 0 if there are no shapes
+   */
+  public double getMaxX() {
+    return maxX;
+  }
+
+  /**
+   * Gets the greatest y-coordinate of the shapes' boxes.
+   * @return the y-coordinate, or 0 if there are no shapes
+   */
+  public double getMaxY() {
+    return maxY;
+  }
+
+  /**
+   * Gets the number of shapes.
+   * @return the number of shapes
+   */
+  public int getShapeCount() {
+    return rectangles + ovals;
+  }
+
+  /**
+   * Gets the number of shapes of a type.
+   * @param type the shape type
+   * @return the number of shapes of the type
+   */
+  public int getShapeCount(ShapeType type) {
+    return type == ShapeType.OVAL ? ovals : rectangles;
+  }
+
+  /**
+   * Gets the number of shapes of a color.
+   * @param rgb the color as 0xRRGGBB
+   * @return the number of shapes of the color
+   */
+  public int getColorCount(int rgb) {
+    int found = Arrays.binarySearch(colors, rgb);
+    return found < 0 ? 0 : colorCounts[found];
+  }
+
+  /**
+   * Gets the number of shapes of each color.
+   * @return a read-only map from colors as 0xRRGGBB to counts, in ascending
+   *     order of color
+   */
+  public Map<Integer, Integer> getColorHistogram() {
+    Map<Integer, Integer> histogram = new LinkedHashMap<>();
+    for (int i = 0; i < colors.length; i++) {
+      histogram.put(colors[i], colorCounts[i]);
+    }
+    return Collections.unmodifiableMap(histogram);
+  }
+}
@@ -0,0 +1,248 @@
+package photoalbum.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The net effect of a {@link CommandBatch} on each shape it touches, worked
+ * out in one pass over the commands. Changes to the same shape are merged,
+ * so a shape moved a hundred times is written once, and a shape created and
+ * removed in the same batch is never written at all.
+ *
+ * <p>The pass checks each command against the state the album would be in
+ * after the commands before it. It stops at the first invalid command; the
+ * plan then holds the effect of the commands before it, and
+ * {@link #throwIfInvalid()} reports it once those have been applied.
+ */
+final class BatchPlan {
+  private final Map<String, Change> changes; // Net change by shape name, in first-use order
+  private IllegalArgumentException error; // Problem with the first invalid command, or null
+
+  /**
+   * The net change to one shape name.
+   */
+  static final class Change {
+    final String name;
+    final ShapeType existingType; // Type of the shape in the album before the batch, or null
+    boolean removeExisting; // Whether the shape in the album is removed
+    ShapeType type; // Type of the shape after the commands so far, null if there is none
+    int createdAt = -1; // Position of the create command of a new shape, or -1
+    boolean moved;
+    boolean resized;
+    double x;
+    double y;
+    double width; // Width of a rectangle or x-radius of an oval
+    double height; // Height of a rectangle or y-radius of an oval
+    Color color; // New color, or null if unchanged
+
+    private Change(String name, ShapeType existingType) {
+      this.name = name;
+      this.existingType = existingType;
+      this.type = existingType;
+    }
+
+    /**
+     * Checks whether the change updates the shape that was in the album.
+     * @return true if the existing shape is kept and changed
+     */
+    boolean updatesExisting() {
+      return existingType != null && !removeExisting && (moved || resized || color != null);
+    }
+
+    /**
+     * Checks whether the change adds a new shape.
+     * @return true if a shape created in the batch is left at the end
+     */
+    boolean createsShape() {
+      return createdAt >= 0;
+    }
+
+    /**
+     * Applies the change to the shape that was in the album.
+     * @param shape a copy of the shape that may be changed
+     */
+    void applyTo(IShape shape) {
+      if (moved) {
+        shape.moveTo(x, y);
+      }
+      if (resized) {
+        if (shape instanceof Rectangle) {
+          ((Rectangle) shape).resizeWidth(width);
+          ((Rectangle) shape).resizeHeight(height);
+        } else {
+          ((Oval) shape).resizeXradius(width);
+          ((Oval) shape).resizeYradius(height);
+        }
+      }
+      if (color != null) {
+        shape.changeColor(color.getR(), color.getG(), color.getB());
+      }
+    }
+
+    /**
+     * Makes the shape created by the change.
+     * @return a new rectangle or oval
+     */
+    IShape toShape() {
+      if (type == ShapeType.OVAL) {
+        return new Oval(name, ShapeType.OVAL, x, y, width, height, color);
+      }
+      return new Rectangle(name, ShapeType.RECTANGLE, x, y, width, height, color);
+    }
+  }
+
+  /**
+   * Constructs an empty plan.
+   */
+  private BatchPlan() {
+    this.changes = new LinkedHashMap<>();
+  }
+
+  /**
+   * Works out the net effect of a batch.
+   * @param batch the commands
+   * @param existing gives the type of a shape in the album, or null if there is none
+   * @return the plan
+   */
+  static BatchPlan of(CommandBatch batch, Function<String, ShapeType> existing) {
+    BatchPlan plan = new BatchPlan();
+    for (int i = 0; i < batch.size() && plan.error == null; i++) {
+      String name = batch.name(i);
+      Change change = plan.changes.get(name);
+      if (change == null) {
+        change = new Change(name, name == null ? null : existing.apply(name));
+        plan.changes.put(name, change);
+      }
+      try {
+        plan.step(batch, i, change);
+      } catch (IllegalArgumentException e) {
+        plan.error = e;
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Checks one command and merges it into the change to its shape. The
+   * change is left as it was if the command is invalid.
+   * @param batch the commands
+   * @param i the position of the command
+   * @param change the change to the shape of the command
+   */
+  private void step(CommandBatch batch, int i, Change change) {
+    byte op = batch.op(i);
+    String name = change.name;
+    double a = batch.value(i, 0);
+    double b = batch.value(i, 1);
+    double c = batch.value(i, 2);
+    double d = batch.value(i, 3);
+    switch (op) {
+      case CommandBatch.RECTANGLE:
+      case CommandBatch.OVAL:
+        if (name == null || name.isEmpty()) {
+          throw new IllegalArgumentException("Name must not be null or empty.");
+        }
+        if (change.type != null) {
+          throw new IllegalArgumentException("A shape with the name " + name + " already exists");
+        }
+        ShapeType type = op == CommandBatch.OVAL ? ShapeType.OVAL : ShapeType.RECTANGLE;
+        checkSize(type, c, d);
+        change.removeExisting = change.existingType != null;
+        change.type = type;
+        change.createdAt = i;
+        change.moved = true;
+        change.resized = true;
+        change.x = a;
+        change.y = b;
+        change.width = c;
+        change.height = d;
+        change.color = batch.color(i);
+        break;
+      case CommandBatch.MOVE:
+        if (change.type != null) {
+          change.moved = true;
+          change.x = a;
+          change.y = b;
+        }
+        break;
+      case CommandBatch.RESIZE:
+        if (change.type == null) {
+          throw new IllegalArgumentException("There is no shape with the name " + name);
+        }
+        checkSize(change.type, c, d);
+        change.resized = true;
+        change.width = c;
+        change.height = d;
+        break;
+      case CommandBatch.COLOR:
+        if (change.type != null) {
+          change.color = Color.of(a, b, c);
+        }
+        break;
+      case CommandBatch.REMOVE:
+        if (change.type != null) {
+          change.removeExisting = change.existingType != null;
+          change.type = null;
+          change.createdAt = -1;
+          change.moved = false;
+          change.resized = false;
+          change.color = null;
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown command kind: " + op);
+    }
+  }
+
+  /**
+   * Checks the size of a shape.
+   * @param type the type of the shape
+   * @param width the width of a rectangle or x-radius of an oval
+   * @param height the height of a rectangle or y-radius of an oval
+   */
+  private static void checkSize(ShapeType type, double width, double height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException(type == ShapeType.OVAL
+          ? "X-radius and Y-radius must be positive." : "Width and height must be positive.");
+    }
+  }
+
+  /**
+   * Gets the net changes, one per shape name, in the order the names were
+   * first used.
+   * @return the changes
+   */
+  Iterable<Change> changes() {
+    return changes.values();
+  }
+
+  /**
+   * Gets the changes that add a new shape, in the order the shapes must be
+   * created to get the same draw order as running the commands one by one.
+   * @return the changes that create shapes
+   */
+  List<Change> creates() {
+    List<Change> creates = new ArrayList<>();
+    for (Change change : changes.values()) {
+      if (change.createsShape()) {
+        creates.add(change);
+      }
+    }
+    creates.sort(Comparator.comparingInt(change -> change.createdAt));
+    return creates;
+  }
+
+  /**
+   * Throws the problem with the first invalid command, if there was one.
+   * @throws IllegalArgumentException if a command in the batch was invalid
+   */
+  void throwIfInvalid() {
+    if (error != null) {
+      throw error;
+    }
+  }
+}
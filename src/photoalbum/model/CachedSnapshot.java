@@ -0,0 +1,168 @@
+package photoalbum.model;
+
+import java.util.List;
+
+/**
+ * A snapshot whose shapes are kept in memory only while a
+ * {@link SnapshotCache} allows it. The ID, timestamp and description are
+ * always kept; the shapes are read through the cache, which rebuilds or
+ * reloads them if they were evicted.
+ */
+final class CachedSnapshot implements ISnapshot {
+  private final SnapshotCache cache;
+  private final String snapshotId;
+  private final String timestamp;
+  private final String description;
+  private final boolean rebuildable; // Whether the shapes can be rebuilt from a history
+  private volatile AlbumStats stats; // Kept through evictions, null until asked for
+  private ISnapshot source; // Snapshot holding the shapes, null while spilled; guarded by cache
+  private ISnapshot spilled; // Copy in the spill file, or null; guarded by cache
+
+  /**
+   * Constructs a cached snapshot.
+   * @param cache the cache managing the shapes
+   * @param source the snapshot holding the shapes
+   */
+  CachedSnapshot(SnapshotCache cache, ISnapshot source) {
+    this.cache = cache;
+    this.snapshotId = source.getSnapshotId();
+    this.timestamp = source.getTimestamp();
+    this.description = source.getDescription();
+    this.rebuildable = source instanceof Snapshot && ((Snapshot) source).isRebuildable();
+    this.source = source;
+    if (rebuildable) {
+      this.stats = source.getStats(); // frozen at capture, so nothing is rebuilt
+    }
+  }
+
+  /**
+   * Gets the snapshot ID.
+   * @return the snapshot ID
+   */
+  @Override
+  public String getSnapshotId() {
+    return snapshotId;
+  }
+
+  /**
+   * Gets the timestamp.
+   * @return the timestamp
+   */
+  @Override
+  public String getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Gets the description of the snapshot.
+   * @return the description
+   */
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * Gets the read-only list of shapes in the snapshot.
+   * @return the list of shapes
+   */
+  @Override
+  public List<IShape> getShapes() {
+    return cache.load(this).getShapes();
+  }
+
+  /**
+   * Gets the shapes in the snapshot as columns.
+   * @return the shape columns
+   */
+  @Override
+  public IShapeColumns getShapeColumns() {
+    return cache.load(this).getShapeColumns();
+  }
+
+  /**
+   * Gets the shapes in a region as columns.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the shape columns of the shapes in the region
+   */
+  @Override
+  public IShapeColumns getShapeColumnsIn(double x, double y, double width, double height) {
+    return cache.load(this).getShapeColumnsIn(x, y, width, height);
+  }
+
+  /**
+   * Gets the bounds, shape counts and colors of the snapshot. They are
+   * kept after the first call, so reading them again never reloads the
+   * shapes.
+   * @return the stats
+   */
+  @Override
+  public AlbumStats getStats() {
+    AlbumStats result = stats;
+    if (result == null) {
+      result = cache.load(this).getStats();
+      stats = result;
+    }
+    return result;
+  }
+
+  /**
+   * Makes a string representation of the snapshot.
+   * @return a string representation of the snapshot
+   */
+  @Override
+  public String toString() {
+    return cache.load(this).toString();
+  }
+
+  /**
+   * Takes the snapshot out of the cache once it is no longer in an album.
+   */
+  void forget() {
+    cache.remove(this);
+  }
+
+  /**
+   * Checks whether the shapes can be rebuilt from a history instead of
+   * being spilled.
+   * @return true if the shapes are stored in a history
+   */
+  boolean isRebuildable() {
+    return rebuildable;
+  }
+
+  /**
+   * Gets the snapshot holding the shapes.
+   * @return the snapshot, or null while the shapes are only in the spill file
+   */
+  ISnapshot source() {
+    return source;
+  }
+
+  /**
+   * Sets the snapshot holding the shapes.
+   * @param source the snapshot, or null once the shapes are only in the spill file
+   */
+  void setSource(ISnapshot source) {
+    this.source = source;
+  }
+
+  /**
+   * Gets the copy of the snapshot in the spill file.
+   * @return the copy, or null if the snapshot was never spilled
+   */
+  ISnapshot spilled() {
+    return spilled;
+  }
+
+  /**
+   * Sets the copy of the snapshot in the spill file.
+   * @param spilled the copy
+   */
+  void setSpilled(ISnapshot spilled) {
+    this.spilled = spilled;
+  }
+}
@@ -0,0 +1,307 @@
+package photoalbum.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the changes of a photo album to its listeners. Events are
+ * collected for a window of time after the first of them and then
+ * delivered together on the notifier's own delivery thread, so the album
+ * never waits for its listeners and a slow listener of one album does not
+ * hold up the others. The thread is started when there is something to
+ * deliver and ends after a second without deliveries. Within a window,
+ * the events on each shape are merged into one {@link AlbumChange}; a
+ * snapshot or clear ends the merging, so no change is reported on the
+ * wrong side of it.
+ *
+ * <p>While there are no listeners, events are dropped at the cost of one
+ * check. Events may be published from any number of threads.
+ */
+public final class ChangeNotifier {
+  public static final long DEFAULT_WINDOW_MILLIS = 16; // About one frame at 60 Hz
+
+  private static final long DELIVERY_KEEP_ALIVE_MILLIS = 1000; // Idle time before the thread ends
+
+  private final List<IAlbumListener> listeners;
+  private volatile long windowMillis;
+  private final List<AlbumChange> ready; // Changes closed by a snapshot or clear; guarded by this
+  private final Map<String, Pending> pending; // Open changes by shape name; guarded by this
+  private boolean scheduled; // Whether a delivery is scheduled; guarded by this
+  private long published; // Number of events published; guarded by this
+  private long delivered; // Number of changes delivered; guarded by this
+  private ScheduledThreadPoolExecutor delivery; // Made on first use; guarded by this
+  private volatile Thread deliveryThread; // Current thread of the delivery executor
+
+  /**
+   * The events merged so far on one shape.
+   */
+  private static final class Pending {
+    private int types;
+    private IShape shape;
+    private int events;
+
+    /**
+     * Constructs the merge of one event.
+     * @param type the type of the event
+     * @param shape a copy of the shape after the event, or null
+     */
+    private Pending(ChangeType type, IShape shape) {
+      this.types = bit(type);
+      this.shape = shape;
+      this.events = 1;
+    }
+  }
+
+  /**
+   * Constructs a notifier with no listeners and the default window.
+   */
+  ChangeNotifier() {
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.windowMillis = DEFAULT_WINDOW_MILLIS;
+    this.ready = new ArrayList<>();
+    this.pending = new LinkedHashMap<>();
+  }
+
+  /**
+   * Gets the executor that delivers the changes, making it on first use.
+   * @return the executor
+   */
+  private synchronized ScheduledThreadPoolExecutor delivery() {
+    if (delivery == null) {
+      delivery = new ScheduledThreadPoolExecutor(1, this::newDeliveryThread);
+      delivery.setKeepAliveTime(DELIVERY_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+      delivery.allowCoreThreadTimeOut(true);
+    }
+    return delivery;
+  }
+
+  /**
+   * Makes the delivery thread, which does not keep the JVM running.
+   * @param task the task of the thread
+   * @return the thread
+   */
+  private Thread newDeliveryThread(Runnable task) {
+    Thread thread = new Thread(task, "album-changes");
+    thread.setDaemon(true);
+    deliveryThread = thread;
+    return thread;
+  }
+
+  /**
+   * Gets the bit of a change type in a bit set.
+   * @param type the change type
+   * @return the bit
+   */
+  private static int bit(ChangeType type) {
+    return 1 << type.ordinal();
+  }
+
+  /**
+   * Adds a listener.
+   * @param listener the listener
+   */
+  public void addListener(IAlbumListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Listener must not be null.");
+    }
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a listener. Changes not yet delivered are not delivered to it.
+   * @param listener the listener
+   */
+  public void removeListener(IAlbumListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Sets how long events are collected before they are delivered. A longer
+   * window merges more events; 0 delivers them as soon as the delivery
+   * thread is free.
+   * @param millis the window in milliseconds
+   */
+  public void setWindow(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("Window must not be negative.");
+    }
+    this.windowMillis = millis;
+  }
+
+  /**
+   * Gets how long events are collected before they are delivered.
+   * @return the window in milliseconds
+   */
+  public long getWindow() {
+    return windowMillis;
+  }
+
+  /**
+   * Removes all listeners, drops the changes not yet delivered and restores
+   * the default window, so that an album handed to someone else reports
+   * nothing to the listeners of its previous user.
+   */
+  public void reset() {
+    listeners.clear();
+    windowMillis = DEFAULT_WINDOW_MILLIS;
+    synchronized (this) {
+      pending.clear();
+      ready.clear();
+    }
+  }
+
+  /**
+   * Checks whether there are listeners, so a caller can skip work needed
+   * only to publish.
+   * @return true if there is at least one listener
+   */
+  boolean isActive() {
+    return !listeners.isEmpty();
+  }
+
+  /**
+   * Publishes an event on a shape.
+   * @param type the type of the event: CREATED to REMOVED
+   * @param name the name of the shape
+   * @param shape the shape after the event, copied before it is kept; null if removed
+   */
+  void publish(ChangeType type, String name, IShape shape) {
+    if (listeners.isEmpty()) {
+      return;
+    }
+    IShape copy = shape == null ? null : shape.clone();
+    synchronized (this) {
+      published++;
+      Pending merged = pending.get(name);
+      if (merged == null) {
+        pending.put(name, new Pending(type, copy));
+      } else if (type == ChangeType.REMOVED && (merged.types & bit(ChangeType.CREATED)) != 0
+          && (merged.types & bit(ChangeType.REMOVED)) == 0) {
+        pending.remove(name); // created and removed within the window
+      } else {
+        if (type == ChangeType.REMOVED) {
+          merged.types = bit(ChangeType.REMOVED);
+        } else if (type == ChangeType.CREATED) {
+          merged.types = bit(ChangeType.REMOVED) | bit(ChangeType.CREATED);
+        } else {
+          merged.types |= bit(type);
+        }
+        merged.shape = copy;
+        merged.events++;
+      }
+      schedule();
+    }
+  }
+
+  /**
+   * Publishes an event on the whole album. The changes to shapes before it
+   * are closed, so that they are delivered before it.
+   * @param type the type of the event: CLEARED, SNAPSHOT_TAKEN or SNAPSHOTS_CLEARED
+   * @param snapshot the snapshot taken, or null
+   */
+  void publishAlbum(ChangeType type, ISnapshot snapshot) {
+    if (listeners.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      published++;
+      if (type == ChangeType.CLEARED) {
+        pending.clear(); // the shapes changed are gone
+      } else {
+        closePending();
+      }
+      ready.add(new AlbumChange(null, bit(type), null, snapshot, 1));
+      schedule();
+    }
+  }
+
+  /**
+   * Moves the open changes to the list of changes to deliver.
+   */
+  private void closePending() {
+    for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+      Pending merged = entry.getValue();
+      ready.add(new AlbumChange(entry.getKey(), merged.types, merged.shape, null,
+          merged.events));
+    }
+    pending.clear();
+  }
+
+  /**
+   * Schedules a delivery at the end of the window, unless one is scheduled.
+   */
+  private void schedule() {
+    if (!scheduled) {
+      scheduled = true;
+      delivery().schedule(this::deliver, windowMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Delivers the changes collected so far to the listeners. Runs on the
+   * delivery thread only, so listeners are never called concurrently.
+   */
+  private void deliver() {
+    List<AlbumChange> changes;
+    synchronized (this) {
+      scheduled = false;
+      closePending();
+      if (ready.isEmpty()) {
+        return;
+      }
+      changes = Collections.unmodifiableList(new ArrayList<>(ready));
+      ready.clear();
+      delivered += changes.size();
+    }
+    for (IAlbumListener listener : listeners) {
+      try {
+        listener.albumChanged(changes);
+      } catch (RuntimeException e) {
+        // one failing listener must not keep the changes from the others
+        new IllegalStateException("Album change listener failed", e).printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Delivers the changes published so far without waiting for the window
+   * to end, and waits until the listeners have received them.
+   */
+  public void flush() {
+    if (Thread.currentThread() == deliveryThread) {
+      deliver(); // called by a listener
+      return;
+    }
+    try {
+      delivery().submit(this::deliver).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Cannot deliver album changes.", e.getCause());
+    }
+  }
+
+  /**
+   * Gets the number of events published while there were listeners.
+   * @return the number of events
+   */
+  public synchronized long getPublishedCount() {
+    return published;
+  }
+
+  /**
+   * Gets the number of changes delivered; with merging, it is at most the
+   * number of events published.
+   * @return the number of changes
+   */
+  public synchronized long getDeliveredCount() {
+    return delivered;
+  }
+}
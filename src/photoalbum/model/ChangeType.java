@@ -0,0 +1,18 @@
+package photoalbum.model;
+
+/**
+ * Enum to represent the kinds of changes a photo album reports to its
+ * change listeners. The first six concern one shape, the others the whole
+ * album.
+ */
+public enum ChangeType {
+  CREATED,
+  MOVED,
+  RESIZED,
+  RECOLORED,
+  REORDERED,
+  REMOVED,
+  CLEARED,
+  SNAPSHOT_TAKEN,
+  SNAPSHOTS_CLEARED,
+}
@@ -1,12 +1,19 @@
 package photoalbum.model;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * Represents a color.
+ * Represents a color. A color is immutable and packs its channels into one
+ * 24-bit value, truncating each channel to an integer. Colors made with
+ * {@link #of(double, double, double)} come from a shared palette, so shapes
+ * of the same color share one object.
  */
 public class Color {
-  private double r;
-  private double g;
-  private double b;
+  private static final int PALETTE_LIMIT = 4096;
+  private static final Map<Integer, Color> PALETTE = new ConcurrentHashMap<>();
+
+  private final int rgb; // 0xRRGGBB
 
   /**
    * Constructs a color with red, green, and blue values.
@@ -15,13 +22,54 @@ public class Color {
    * @param b the blue value
    */
   public Color(double r, double g, double b) {
-    this.r = r;
-    this.g = g;
-    this.b = b;
     // if red, green, or blue is not in the range [0, 255], throw an exception
     if (r < 0 || r > 255 || g < 0 || g > 255 || b < 0 || b > 255) {
       throw new IllegalArgumentException("Color values must be in the range [0, 255].");
     }
+    this.rgb = ((int) r << 16) | ((int) g << 8) | (int) b;
+  }
+
+  /**
+   * Constructs a color from a packed value.
+   * @param rgb the color as 0xRRGGBB
+   */
+  private Color(int rgb) {
+    this.rgb = rgb;
+  }
+
+  /**
+   * Gets the shared color with red, green, and blue values.
+   * @param r the red value
+   * @param g the green value
+   * @param b the blue value
+   * @return the color
+   */
+  public static Color of(double r, double g, double b) {
+    if (r < 0 || r > 255 || g < 0 || g > 255 || b < 0 || b > 255) {
+      throw new IllegalArgumentException("Color values must be in the range [0, 255].");
+    }
+    return of(((int) r << 16) | ((int) g << 8) | (int) b);
+  }
+
+  /**
+   * Gets the shared color with a packed value. Once the palette is full,
+   * new colors are made without being added to it.
+   * @param rgb the color as 0xRRGGBB
+   * @return the color
+   */
+  public static Color of(int rgb) {
+    rgb &= 0xFFFFFF;
+    Color color = PALETTE.get(rgb);
+    if (color == null) {
+      color = new Color(rgb);
+      if (PALETTE.size() < PALETTE_LIMIT) {
+        Color existing = PALETTE.putIfAbsent(rgb, color);
+        if (existing != null) {
+          color = existing;
+        }
+      }
+    }
+    return color;
   }
 
   /**
@@ -29,7 +77,7 @@ public class Color {
    * @return the red value
    */
   public double getR() {
-    return this.r;
+    return (rgb >> 16) & 0xFF;
   }
 
   /**
@@ -37,7 +85,7 @@ public class Color {
    * @return the green value
    */
   public double getG() {
-    return this.g;
+    return (rgb >> 8) & 0xFF;
   }
 
   /**
@@ -45,38 +93,41 @@ public class Color {
    * @return the blue value
    */
   public double getB() {
-    return this.b;
+    return rgb & 0xFF;
   }
 
   /**
-   * Sets the red value of the color.
-   * @param r the red value
+   * Gets the color packed into one value.
+   * @return the color as 0xRRGGBB
    */
-  public void setR(double r) {
-    this.r = r;
+  public int getRgb() {
+    return rgb;
   }
 
   /**
-   * Sets the green value of the color.
-   * @param g the green value
+   * Clone the color. Colors cannot be changed, so this is the color itself.
+   * @return the color
    */
-  public void setG(double g) {
-    this.g = g;
+  public Color clone() {
+    return this;
   }
 
   /**
-   * Sets the blue value of the color.
-   * @param b the blue value
+   * Checks whether another object is the same color.
+   * @param o the other object
+   * @return true if the other object is a color with the same channels
    */
-  public void setB(double b) {
-    this.b = b;
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Color && ((Color) o).rgb == rgb;
   }
 
   /**
-   * Clone the color.
-   * @return the clone
+   * Gets the hash code of the color.
+   * @return the hash code
    */
-  public Color clone() {
-    return new Color(this.r, this.g, this.b);
+  @Override
+  public int hashCode() {
+    return rgb;
   }
-}
\ No newline at end of file
+}
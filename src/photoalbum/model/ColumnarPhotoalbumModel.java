@@ -0,0 +1,498 @@
+package photoalbum.model;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A photo album that stores its shapes in parallel primitive columns instead
+ * of one object per shape, for albums with a very large number of shapes.
+ * Snapshots copy the columns, and renderers read them through
+ * {@link ISnapshot#getShapeColumns()}. Shape objects returned by
+ * {@link #getShapes()} and {@link #getShape(String)} are detached copies;
+ * change shapes through the album.
+ */
+public class ColumnarPhotoalbumModel implements IPhotoalbum {
+  private static final int INITIAL_CAPACITY = 64;
+  private ShapeColumns columns; // Shapes in draw order, with holes for removed ones
+  private Map<String, Integer> rows; // Rows of the shapes by name
+  private SpatialGrid grid; // Bounding boxes of the shapes by row
+  private final SnapshotIndex snapshotIndex; // Snapshots by position, ID and capture time
+  private final ChangeNotifier changes; // Listeners for the changes of the album
+
+  /**
+   * Constructs a new photo album.
+   */
+  public ColumnarPhotoalbumModel() {
+    this.columns = new ShapeColumns(INITIAL_CAPACITY);
+    this.rows = new HashMap<>();
+    this.grid = new SpatialGrid(SpatialGrid.DEFAULT_CELL_SIZE);
+    this.snapshotIndex = new SnapshotIndex();
+    this.changes = new ChangeNotifier();
+  }
+
+  /**
+   * Creates a new rectangle and adds it to the photo album.
+   * @param name the name of the rectangle
+   * @param type the type of the shape
+   * @param x the x-coordinate of the rectangle
+   * @param y the y-coordinate of the rectangle
+   * @param width the width of the rectangle
+   * @param height the height of the rectangle
+   * @param color the color of the rectangle
+   */
+  @Override
+  public void createRectangle(String name, ShapeType type, double x, double y,
+      double width, double height, Color color) {
+    checkNewName(name);
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width and height must be positive.");
+    }
+    int row = columns.add(name, ShapeType.RECTANGLE, x, y, width, height, color.getRgb());
+    rows.put(name, row);
+    grid.put(row, ShapeType.RECTANGLE, x, y, width, height);
+    publish(ChangeType.CREATED, name);
+  }
+
+  /**
+   * Creates a new oval and adds it to the photo album.
+   * @param name the name of the oval
+   * @param type the type of the shape
+   * @param x the x-coordinate of the oval
+   * @param y the y-coordinate of the oval
+   * @param xRadius the x-radius of the oval
+   * @param yRadius the y-radius of the oval
+   * @param color the color of the oval
+   */
+  @Override
+  public void createOval(String name, ShapeType type, double x, double y,
+      double xRadius, double yRadius, Color color) {
+    checkNewName(name);
+    if (xRadius <= 0 || yRadius <= 0) {
+      throw new IllegalArgumentException("X-radius and Y-radius must be positive.");
+    }
+    int row = columns.add(name, ShapeType.OVAL, x, y, xRadius, yRadius, color.getRgb());
+    rows.put(name, row);
+    grid.put(row, ShapeType.OVAL, x, y, xRadius, yRadius);
+    publish(ChangeType.CREATED, name);
+  }
+
+  /**
+   * Checks that a name can be used for a new shape.
+   * @param name the name
+   */
+  private void checkNewName(String name) {
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("Name must not be null or empty.");
+    }
+    if (rows.containsKey(name)) {
+      throw new IllegalArgumentException("A shape with the name " + name + " already exists");
+    }
+  }
+
+  /**
+   * Removes a shape from the photo album. Once more than half of the rows
+   * are holes, the columns are compacted.
+   * @param shapeName the name of the shape to remove
+   */
+  @Override
+  public void removeShape(String shapeName) {
+    if (removeRow(shapeName)) {
+      changes.publish(ChangeType.REMOVED, shapeName, null);
+    }
+  }
+
+  /**
+   * Takes a shape out of the columns, compacting them if needed.
+   * @param shapeName the name of the shape
+   * @return true if there was a shape with the name
+   */
+  private boolean removeRow(String shapeName) {
+    Integer row = rows.remove(shapeName);
+    if (row == null) {
+      return false;
+    }
+    columns.remove(row);
+    grid.remove(row);
+    if (columns.size() > INITIAL_CAPACITY && rows.size() < columns.size() / 2) {
+      replaceColumns(columns.compact());
+    }
+    return true;
+  }
+
+  /**
+   * Switches to new columns without holes, rebuilding the row map and the
+   * spatial index.
+   * @param compacted the new columns
+   */
+  private void replaceColumns(ShapeColumns compacted) {
+    columns = compacted;
+    for (int i = 0; i < columns.size(); i++) {
+      rows.put(columns.getName(i), i);
+    }
+    grid = SpatialGrid.of(columns);
+  }
+
+  /**
+   * Clears all shapes from the photo album.
+   */
+  @Override
+  public void clearShapes() {
+    columns = new ShapeColumns(INITIAL_CAPACITY);
+    rows.clear();
+    grid.clear();
+    changes.publishAlbum(ChangeType.CLEARED, null);
+  }
+
+  /**
+   * Clears all snapshots from the photo album.
+   */
+  @Override
+  public void clearSnapshots() {
+    snapshotIndex.clear();
+    changes.publishAlbum(ChangeType.SNAPSHOTS_CLEARED, null);
+  }
+
+  /**
+   * Resets the photo album by clearing all shapes and snapshots.
+   */
+  @Override
+  public void reset() {
+    clearShapes();
+    clearSnapshots();
+  }
+
+  /**
+   * Moves a shape to a new position.
+   * @param name the name of the shape to move
+   * @param newX the new x-coordinate
+   * @param newY the new y-coordinate
+   */
+  @Override
+  public void moveShape(String name, double newX, double newY) {
+    Integer row = rows.get(name);
+    if (row != null) {
+      columns.move(row, newX, newY);
+      reindex(row);
+      publish(ChangeType.MOVED, name);
+    }
+  }
+
+  /**
+   * Resizes a rectangle to a new width and height.
+   * @param name the name of the rectangle
+   * @param newWidth the new width
+   * @param newHeight the new height
+   */
+  @Override
+  public void resizeRectangle(String name, double newWidth, double newHeight) {
+    Integer row = rows.get(name);
+    if (row == null) {
+      return;
+    }
+    if (columns.getShapeType(row) != ShapeType.RECTANGLE) {
+      throw new IllegalArgumentException(name + " is not a rectangle.");
+    }
+    if (newWidth <= 0 || newHeight <= 0) {
+      throw new IllegalArgumentException("Width and height must be positive.");
+    }
+    columns.resize(row, newWidth, newHeight);
+    reindex(row);
+    publish(ChangeType.RESIZED, name);
+  }
+
+  /**
+   * Resizes an oval to a new x-radius and y-radius.
+   * @param name the name of the oval
+   * @param newXRadius the new x-radius
+   * @param newYRadius the new y-radius
+   */
+  @Override
+  public void resizeOval(String name, double newXRadius, double newYRadius) {
+    Integer row = rows.get(name);
+    if (row == null) {
+      return;
+    }
+    if (columns.getShapeType(row) != ShapeType.OVAL) {
+      throw new IllegalArgumentException(name + " is not an oval.");
+    }
+    if (newXRadius <= 0 || newYRadius <= 0) {
+      throw new IllegalArgumentException("X-radius and Y-radius must be positive.");
+    }
+    columns.resize(row, newXRadius, newYRadius);
+    reindex(row);
+    publish(ChangeType.RESIZED, name);
+  }
+
+  /**
+   * Updates the bounding box of a row in the spatial index.
+   * @param row the row
+   */
+  private void reindex(int row) {
+    grid.put(row, columns.getShapeType(row), columns.getX(row), columns.getY(row),
+        columns.getWidth(row), columns.getHeight(row));
+  }
+
+  /**
+   * Publishes an event on a shape that is in the album.
+   * @param type the type of the event
+   * @param name the name of the shape
+   */
+  private void publish(ChangeType type, String name) {
+    if (changes.isActive()) {
+      changes.publish(type, name, getShape(name));
+    }
+  }
+
+  /**
+   * Changes the color of a shape.
+   * @param name the name of the shape to change color
+   * @param newR the new red value
+   * @param newG the new green value
+   * @param newB the new blue value
+   */
+  @Override
+  public void changeShapeColor(String name, double newR, double newG, double newB) {
+    Integer row = rows.get(name);
+    if (row != null) {
+      columns.recolor(row, Color.of(newR, newG, newB).getRgb());
+      publish(ChangeType.RECOLORED, name);
+    }
+  }
+
+  /**
+   * Moves a shape in front of all the other shapes by moving it to a new
+   * row at the end.
+   * @param name the name of the shape
+   */
+  @Override
+  public void bringToFront(String name) {
+    Integer row = rows.get(name);
+    if (row == null) {
+      throw new IllegalArgumentException("There is no shape with the name " + name);
+    }
+    if (row == columns.size() - 1) {
+      return; // already in front
+    }
+    int rgb = columns.getRgb(row);
+    ShapeType type = columns.getShapeType(row);
+    double x = columns.getX(row);
+    double y = columns.getY(row);
+    double width = columns.getWidth(row);
+    double height = columns.getHeight(row);
+    removeRow(name);
+    int front = columns.add(name, type, x, y, width, height, rgb);
+    rows.put(name, front);
+    grid.put(front, type, x, y, width, height);
+    publish(ChangeType.REORDERED, name);
+  }
+
+  /**
+   * Moves a shape behind all the other shapes.
+   * @param name the name of the shape
+   */
+  @Override
+  public void sendToBack(String name) {
+    moveToLayer(name, 0);
+  }
+
+  /**
+   * Moves a shape to a draw order position. Rows are in draw order, so
+   * this copies the columns; moving to the front is cheaper with
+   * {@link #bringToFront(String)}.
+   * @param name the name of the shape
+   * @param layer the new position, from 0 for the shape drawn first
+   */
+  @Override
+  public void moveToLayer(String name, int layer) {
+    int current = getLayer(name);
+    if (current < 0) {
+      throw new IllegalArgumentException("There is no shape with the name " + name);
+    }
+    if (layer < 0 || layer >= rows.size()) {
+      throw new IllegalArgumentException("Layer must be in the range [0, "
+          + (rows.size() - 1) + "].");
+    }
+    if (layer == rows.size() - 1) {
+      bringToFront(name);
+    } else if (layer != current) {
+      replaceColumns(columns.reorder(rows.get(name), layer));
+      publish(ChangeType.REORDERED, name);
+    }
+  }
+
+  /**
+   * Gets the draw order position of a shape by counting the rows before it
+   * that are not holes.
+   * @param name the name of the shape
+   * @return the position, from 0 for the shape drawn first, or -1 if there
+   *     is no shape with the name
+   */
+  @Override
+  public int getLayer(String name) {
+    Integer row = rows.get(name);
+    if (row == null) {
+      return -1;
+    }
+    int layer = 0;
+    for (int i = 0; i < row; i++) {
+      if (!columns.isRemoved(i)) {
+        layer++;
+      }
+    }
+    return layer;
+  }
+
+  /**
+   * Applies a batch of commands. Each row the batch touches is written and
+   * indexed at most once, however many commands change it.
+   * @param batch the commands
+   */
+  @Override
+  public void applyBatch(CommandBatch batch) {
+    BatchPlan plan = BatchPlan.of(batch, name -> {
+      Integer row = rows.get(name);
+      return row == null ? null : columns.getShapeType(row);
+    });
+    for (BatchPlan.Change change : plan.changes()) {
+      if (change.removeExisting) {
+        removeShape(change.name);
+      } else if (change.updatesExisting()) {
+        int row = rows.get(change.name);
+        if (change.moved) {
+          columns.move(row, change.x, change.y);
+          publish(ChangeType.MOVED, change.name);
+        }
+        if (change.resized) {
+          columns.resize(row, change.width, change.height);
+          publish(ChangeType.RESIZED, change.name);
+        }
+        if (change.color != null) {
+          columns.recolor(row, change.color.getRgb());
+          publish(ChangeType.RECOLORED, change.name);
+        }
+        reindex(row);
+      }
+    }
+    for (BatchPlan.Change change : plan.creates()) {
+      if (change.type == ShapeType.OVAL) {
+        createOval(change.name, ShapeType.OVAL, change.x, change.y,
+            change.width, change.height, change.color);
+      } else {
+        createRectangle(change.name, ShapeType.RECTANGLE, change.x, change.y,
+            change.width, change.height, change.color);
+      }
+    }
+    plan.throwIfInvalid();
+  }
+
+  /**
+   * Takes a snapshot of the current state of the photo album by copying the
+   * columns without their holes.
+   * @param description the description of the snapshot
+   */
+  @Override
+  public void takeSnapshot(String description) {
+    LocalDateTime timestamp = snapshotIndex.nextCaptureTime();
+    String newSnapshotId = timestamp.toString();
+    DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+    String formattedTimestamp = timestamp.format(outputFormatter);
+    snapshotIndex.add(new ColumnarSnapshot(newSnapshotId, formattedTimestamp,
+        description, columns.compact()), timestamp);
+    changes.publishAlbum(ChangeType.SNAPSHOT_TAKEN, snapshotIndex.get(snapshotIndex.size() - 1));
+  }
+
+  /**
+   * Gets the IDs of snapshots in the photo album.
+   * @return a read-only list of snapshot IDs
+   */
+  @Override
+  public List<String> getSnapshotIDs() {
+    return snapshotIndex.ids();
+  }
+
+  /**
+   * Gets the snapshots in the photo album.
+   * @return a read-only list of snapshots
+   */
+  @Override
+  public List<ISnapshot> getSnapshots() {
+    return snapshotIndex.asList();
+  }
+
+  /**
+   * Gets the snapshots indexed by ID and capture time.
+   * @return the snapshot index
+   */
+  @Override
+  public SnapshotIndex getSnapshotIndex() {
+    return snapshotIndex;
+  }
+
+  /**
+   * Gets the notifier that reports the changes of the album to listeners.
+   * @return the change notifier
+   */
+  @Override
+  public ChangeNotifier getChangeNotifier() {
+    return changes;
+  }
+
+  /**
+   * Gets the number of rows of the columns, counting the holes left by
+   * removed shapes.
+   * @return the number of rows
+   */
+  int getRowCount() {
+    return columns.size();
+  }
+
+  /**
+   * Gets copies of the shapes in the photo album, in draw order.
+   * @return a read-only list of shapes
+   */
+  @Override
+  public List<IShape> getShapes() {
+    List<IShape> shapes = new ArrayList<>(rows.size());
+    for (int row = 0; row < columns.size(); row++) {
+      if (!columns.isRemoved(row)) {
+        shapes.add(columns.toShape(row));
+      }
+    }
+    return Collections.unmodifiableList(shapes);
+  }
+
+  /**
+   * Gets copies of the shapes whose bounding boxes overlap or touch a
+   * region, in draw order.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return a read-only list of the shapes in the region
+   */
+  @Override
+  public List<IShape> getShapesIn(double x, double y, double width, double height) {
+    long[] found = grid.query(x, y, width, height);
+    List<IShape> shapes = new ArrayList<>(found.length);
+    for (long row : found) {
+      shapes.add(columns.toShape((int) row));
+    }
+    return Collections.unmodifiableList(shapes);
+  }
+
+  /**
+   * Gets a copy of a shape in the photo album.
+   * @param name the name of the shape
+   * @return the shape, or null if there is no shape with the name
+   */
+  @Override
+  public IShape getShape(String name) {
+    Integer row = rows.get(name);
+    return row == null ? null : columns.toShape(row);
+  }
+}
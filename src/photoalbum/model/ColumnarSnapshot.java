@@ -0,0 +1,136 @@
+package photoalbum.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot whose shapes are kept in primitive columns. Shape objects are
+ * only created if {@link #getShapes()} is called.
+ */
+public class ColumnarSnapshot implements ISnapshot {
+  private final String snapshotId;
+  private final String timestamp;
+  private final String description;
+  private final ShapeColumns columns;
+  private List<IShape> shapes; // Shape objects, created on first use
+  private IShapeColumns indexedShapes; // Shapes covered by the grid, null until queried
+  private SpatialGrid grid; // Frozen spatial index, null until queried
+  private AlbumStats stats; // Bounds, counts and colors, null until asked for
+
+  /**
+   * Constructs a new snapshot from columns without holes.
+   * @param snapshotId the snapshot ID
+   * @param timestamp the timestamp
+   * @param description the description
+   * @param columns the captured shapes, owned by the snapshot
+   */
+  ColumnarSnapshot(String snapshotId, String timestamp, String description,
+      ShapeColumns columns) {
+    this.snapshotId = snapshotId;
+    this.timestamp = timestamp;
+    this.description = description;
+    this.columns = columns;
+  }
+
+  /**
+   * Gets the snapshot ID.
+   * @return the snapshot ID
+   */
+  @Override
+  public String getSnapshotId() {
+    return snapshotId;
+  }
+
+  /**
+   * Gets the timestamp.
+   * @return the timestamp
+   */
+  @Override
+  public String getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Gets the description of the snapshot.
+   * @return the description
+   */
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * Gets the read-only list of shapes in the snapshot, creating the shape
+   * objects on the first call.
+   * @return the list of shapes
+   */
+  @Override
+  public List<IShape> getShapes() {
+    if (shapes == null) {
+      List<IShape> list = new ArrayList<>(columns.size());
+      for (int row = 0; row < columns.size(); row++) {
+        list.add(columns.toShape(row));
+      }
+      shapes = Collections.unmodifiableList(list);
+    }
+    return shapes;
+  }
+
+  /**
+   * Gets the shapes in the snapshot as columns.
+   * @return the shape columns
+   */
+  @Override
+  public IShapeColumns getShapeColumns() {
+    return columns;
+  }
+
+  /**
+   * Gets the shapes in a region as columns, using an index of the snapshot
+   * that is built on the first query.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the shape columns of the shapes in the region
+   */
+  @Override
+  public IShapeColumns getShapeColumnsIn(double x, double y, double width, double height) {
+    if (grid == null) {
+      indexedShapes = getShapeColumns();
+      grid = SpatialGrid.of(indexedShapes);
+    }
+    return new SubsetColumns(indexedShapes, grid.query(x, y, width, height));
+  }
+
+  /**
+   * Gets the bounds, shape counts and colors of the snapshot, computing
+   * them on the first call.
+   * @return the stats
+   */
+  @Override
+  public AlbumStats getStats() {
+    if (stats == null) {
+      stats = AlbumStats.of(columns);
+    }
+    return stats;
+  }
+
+  /**
+   * Makes a string representation of the snapshot.
+   * @return a string representation of the snapshot
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Snapshot ID: ").append(snapshotId).append("\n");
+    sb.append("Timestamp: ").append(timestamp).append("\n");
+    sb.append("Description: ").append(description).append("\n");
+    sb.append("Shape Information:\n");
+    for (IShape shape : getShapes()) {
+      sb.append(shape.toString()).append("\n");
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,207 @@
+package photoalbum.model;
+
+import java.util.Arrays;
+
+/**
+ * A list of parsed shape commands to be applied to a photo album in one call
+ * of {@link IPhotoalbum#applyBatch(CommandBatch)}. The commands are stored in
+ * parallel arrays, and nothing is checked until the batch is applied.
+ */
+public final class CommandBatch {
+  static final byte RECTANGLE = 1;
+  static final byte OVAL = 2;
+  static final byte MOVE = 3;
+  static final byte RESIZE = 4;
+  static final byte COLOR = 5;
+  static final byte REMOVE = 6;
+  private static final int VALUES = 4; // Numbers stored per command
+  private static final int INITIAL_CAPACITY = 64;
+
+  private byte[] ops; // Kind of each command
+  private String[] names; // Name of the shape of each command
+  private double[] values; // Numbers of each command, VALUES per command
+  private Color[] colors; // Color of each create command
+  private int size;
+  private int creates; // Number of commands that create a shape
+
+  /**
+   * Constructs an empty batch.
+   */
+  public CommandBatch() {
+    this.ops = new byte[INITIAL_CAPACITY];
+    this.names = new String[INITIAL_CAPACITY];
+    this.values = new double[INITIAL_CAPACITY * VALUES];
+    this.colors = new Color[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Adds a command that creates a rectangle.
+   * @param name the name of the rectangle
+   * @param x the x-coordinate of the rectangle
+   * @param y the y-coordinate of the rectangle
+   * @param width the width of the rectangle
+   * @param height the height of the rectangle
+   * @param color the color of the rectangle
+   */
+  public void createRectangle(String name, double x, double y, double width, double height,
+      Color color) {
+    int index = add(RECTANGLE, name, x, y, width, height);
+    colors[index] = color;
+    creates++;
+  }
+
+  /**
+   * Adds a command that creates an oval.
+   * @param name the name of the oval
+   * @param x the x-coordinate of the oval
+   * @param y the y-coordinate of the oval
+   * @param xRadius the x-radius of the oval
+   * @param yRadius the y-radius of the oval
+   * @param color the color of the oval
+   */
+  public void createOval(String name, double x, double y, double xRadius, double yRadius,
+      Color color) {
+    int index = add(OVAL, name, x, y, xRadius, yRadius);
+    colors[index] = color;
+    creates++;
+  }
+
+  /**
+   * Adds a command that moves a shape.
+   * @param name the name of the shape
+   * @param newX the new x-coordinate
+   * @param newY the new y-coordinate
+   */
+  public void moveShape(String name, double newX, double newY) {
+    add(MOVE, name, newX, newY, 0, 0);
+  }
+
+  /**
+   * Adds a command that resizes a shape, whichever type it has when the
+   * command is applied.
+   * @param name the name of the shape
+   * @param width the new width of a rectangle or x-radius of an oval
+   * @param height the new height of a rectangle or y-radius of an oval
+   */
+  public void resizeShape(String name, double width, double height) {
+    add(RESIZE, name, 0, 0, width, height);
+  }
+
+  /**
+   * Adds a command that changes the color of a shape.
+   * @param name the name of the shape
+   * @param newR the new red value
+   * @param newG the new green value
+   * @param newB the new blue value
+   */
+  public void changeShapeColor(String name, double newR, double newG, double newB) {
+    add(COLOR, name, newR, newG, newB, 0);
+  }
+
+  /**
+   * Adds a command that removes a shape.
+   * @param name the name of the shape
+   */
+  public void removeShape(String name) {
+    add(REMOVE, name, 0, 0, 0, 0);
+  }
+
+  /**
+   * Gets the number of commands in the batch.
+   * @return the number of commands
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of commands in the batch that create a shape.
+   * @return the number of create commands
+   */
+  public int createCount() {
+    return creates;
+  }
+
+  /**
+   * Checks whether the batch has no commands.
+   * @return true if the batch is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes all commands, keeping the storage for reuse.
+   */
+  public void clear() {
+    Arrays.fill(names, 0, size, null);
+    Arrays.fill(colors, 0, size, null);
+    size = 0;
+    creates = 0;
+  }
+
+  /**
+   * Gets the kind of a command.
+   * @param index the position of the command
+   * @return the kind of the command
+   */
+  byte op(int index) {
+    return ops[index];
+  }
+
+  /**
+   * Gets the name of the shape of a command.
+   * @param index the position of the command
+   * @return the name of the shape
+   */
+  String name(int index) {
+    return names[index];
+  }
+
+  /**
+   * Gets a number of a command.
+   * @param index the position of the command
+   * @param k which number, from 0 to 3
+   * @return the number
+   */
+  double value(int index, int k) {
+    return values[index * VALUES + k];
+  }
+
+  /**
+   * Gets the color of a create command.
+   * @param index the position of the command
+   * @return the color
+   */
+  Color color(int index) {
+    return colors[index];
+  }
+
+  /**
+   * Appends a command, growing the arrays when they are full.
+   * @param op the kind of the command
+   * @param name the name of the shape
+   * @param a the first number
+   * @param b the second number
+   * @param c the third number
+   * @param d the fourth number
+   * @return the position of the command
+   */
+  private int add(byte op, String name, double a, double b, double c, double d) {
+    if (size == ops.length) {
+      int capacity = size * 2;
+      ops = Arrays.copyOf(ops, capacity);
+      names = Arrays.copyOf(names, capacity);
+      values = Arrays.copyOf(values, capacity * VALUES);
+      colors = Arrays.copyOf(colors, capacity);
+    }
+    ops[size] = op;
+    names[size] = name;
+    int base = size * VALUES;
+    values[base] = a;
+    values[base + 1] = b;
+    values[base + 2] = c;
+    values[base + 3] = d;
+    return size++;
+  }
+}
@@ -0,0 +1,712 @@
+package photoalbum.model;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A photo album that can be changed from several threads at once.
+ *
+ * <p>Each shape keeps a short chain of versions, newest first; a version is
+ * an immutable shape copy stamped with a global clock. A change to one shape
+ * only locks that shape's stripe, so changes to different shapes run in
+ * parallel. Taking a snapshot fixes a clock value, which waits only for
+ * changes that are being published at that instant, and then collects the
+ * newest version of every shape not later than that value while writers
+ * keep going. Versions older than any snapshot in progress could need are
+ * dropped as soon as the shape changes again.
+ *
+ * <p>Snapshots are added to the {@link SnapshotIndex} under the snapshot
+ * lock, so readers never see a snapshot that is only partly added.
+ * Changes to the draw order also hold the snapshot lock, so a snapshot sees
+ * each of them fully made or not at all; they walk the shapes in order and
+ * take O(n).
+ */
+public class ConcurrentPhotoalbumModel implements IPhotoalbum {
+  private static final int STRIPES = 64;
+  private static final long NO_SNAPSHOT = Long.MAX_VALUE;
+  // Distance between the draw order keys of shapes created one after another,
+  // leaving room to put shapes between them
+  private static final long ORDER_KEY_GAP = 1L << 32;
+
+  private final ConcurrentMap<String, Entry> entries; // Live shapes by name
+  private final ConcurrentNavigableMap<Long, Entry> order; // Shapes by draw order key
+  private final Object[] stripes; // Locks for changes, chosen by shape name
+  private final AtomicLong clock; // Version stamp of the latest change
+  private final AtomicLong nextOrderKey;
+  private final ReadWriteLock publishLock; // Shared by writers, exclusive to fix a snapshot
+  private final ReentrantLock snapshotLock; // Lets one snapshot be taken at a time
+  private final Queue<Entry> removed; // Removed shapes that a snapshot may still need
+  private volatile long snapshotVersion; // Clock value of the snapshot in progress
+  private final SnapshotIndex snapshotIndex; // Snapshots by position, ID and capture time
+  private final ChangeNotifier changes; // Listeners for the changes of the album
+  private volatile Runnable createHook; // Run within a create, for tests
+
+  /**
+   * A shape under one name, with its versions.
+   */
+  private static final class Entry {
+    private final long orderKey;
+    private volatile Version head;
+
+    private Entry(long orderKey) {
+      this.orderKey = orderKey;
+    }
+
+    /**
+     * Finds the shape as of a clock value.
+     * @param version the clock value
+     * @return the shape, or null if it did not exist or was removed then
+     */
+    private IShape shapeAt(long version) {
+      for (Version v = head; v != null; v = v.next) {
+        if (v.version <= version) {
+          return v.shape;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * One version of a shape. A null shape marks a removal.
+   */
+  private static final class Version {
+    private final IShape shape;
+    private final long version;
+    private volatile Version next;
+
+    private Version(IShape shape, long version, Version next) {
+      this.shape = shape;
+      this.version = version;
+      this.next = next;
+    }
+  }
+
+  /**
+   * Constructs a new photo album.
+   */
+  public ConcurrentPhotoalbumModel() {
+    this.entries = new ConcurrentHashMap<>();
+    this.order = new ConcurrentSkipListMap<>();
+    this.stripes = new Object[STRIPES];
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+    this.clock = new AtomicLong();
+    this.nextOrderKey = new AtomicLong();
+    this.publishLock = new ReentrantReadWriteLock();
+    this.snapshotLock = new ReentrantLock();
+    this.removed = new ConcurrentLinkedQueue<>();
+    this.snapshotVersion = NO_SNAPSHOT;
+    this.snapshotIndex = new SnapshotIndex();
+    this.changes = new ChangeNotifier();
+  }
+
+  /**
+   * Gets the lock for changes to a shape.
+   * @param name the name of the shape
+   * @return the lock object
+   */
+  private Object stripe(String name) {
+    return stripes[(name.hashCode() & 0x7FFFFFFF) % STRIPES];
+  }
+
+  /**
+   * Publishes a new version of a shape. Must be called while holding the
+   * shape's stripe and the read lock of the publish lock, which the caller
+   * also holds while it updates the shape's name, so that clearing the
+   * album never sees a name without its place in the draw order.
+   * @param entry the entry of the shape
+   * @param shape the new shape, or null to remove it
+   */
+  private void publish(Entry entry, IShape shape) {
+    long version = clock.incrementAndGet();
+    long needed = snapshotVersion;
+    Version old = entry.head;
+    if (old != null && old.version <= needed) {
+      old.next = null; // no snapshot can need anything older than old
+    }
+    entry.head = new Version(shape, version, needed == NO_SNAPSHOT ? null : old);
+    if (old == null) {
+      order.put(entry.orderKey, entry);
+    } else if (shape == null) {
+      if (needed == NO_SNAPSHOT) {
+        order.remove(entry.orderKey);
+      } else {
+        removed.add(entry); // dropped once the snapshot is done
+      }
+    }
+  }
+
+  /**
+   * Sets code to run while a shape is created, after the shape is put in the
+   * draw order and before its name is added, so that tests can make other
+   * changes at that point.
+   * @param hook the code, or null for none
+   */
+  void setCreateHook(Runnable hook) {
+    this.createHook = hook;
+  }
+
+  /**
+   * Adds a new shape on top of all the other shapes.
+   * @param shape the shape to add
+   */
+  private void addShape(IShape shape) {
+    String name = shape.getName();
+    synchronized (stripe(name)) {
+      publishLock.readLock().lock();
+      try {
+        if (entries.containsKey(name)) {
+          throw new IllegalArgumentException("A shape with the name " + name + " already exists");
+        }
+        Entry entry = new Entry(nextOrderKey.getAndAdd(ORDER_KEY_GAP));
+        publish(entry, shape);
+        Runnable hook = createHook;
+        if (hook != null) {
+          hook.run();
+        }
+        entries.put(name, entry);
+      } finally {
+        publishLock.readLock().unlock();
+      }
+      changes.publish(ChangeType.CREATED, name, shape);
+    }
+  }
+
+  /**
+   * Replaces a shape with a changed copy. The change is reported while the
+   * shape's stripe is held, so listeners see the changes to one shape in
+   * the order they were made.
+   * @param name the name of the shape
+   * @param change the change to make to the copy
+   * @param types the types of change to report
+   */
+  private void update(String name, Consumer<IShape> change, ChangeType... types) {
+    synchronized (stripe(name)) {
+      IShape copy;
+      publishLock.readLock().lock();
+      try {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+          return;
+        }
+        copy = entry.head.shape.clone();
+        change.accept(copy);
+        publish(entry, copy);
+      } finally {
+        publishLock.readLock().unlock();
+      }
+      for (ChangeType type : types) {
+        changes.publish(type, name, copy);
+      }
+    }
+  }
+
+  /**
+   * Creates a new rectangle and adds it to the photo album.
+   * @param name the name of the rectangle
+   * @param type the type of the shape
+   * @param x the x-coordinate of the rectangle
+   * @param y the y-coordinate of the rectangle
+   * @param width the width of the rectangle
+   * @param height the height of the rectangle
+   * @param color the color of the rectangle
+   */
+  @Override
+  public void createRectangle(String name, ShapeType type, double x, double y,
+      double width, double height, Color color) {
+    addShape(new Rectangle(name, ShapeType.RECTANGLE, x, y, width, height, color));
+  }
+
+  /**
+   * Creates a new oval and adds it to the photo album.
+   * @param name the name of the oval
+   * @param type the type of the shape
+   * @param x the x-coordinate of the oval
+   * @param y the y-coordinate of the oval
+   * @param xRadius the x-radius of the oval
+   * @param yRadius the y-radius of the oval
+   * @param color the color of the oval
+   */
+  @Override
+  public void createOval(String name, ShapeType type, double x, double y,
+      double xRadius, double yRadius, Color color) {
+    addShape(new Oval(name, ShapeType.OVAL, x, y, xRadius, yRadius, color));
+  }
+
+  /**
+   * Removes a shape from the photo album.
+   * @param shapeName the name of the shape to remove
+   */
+  @Override
+  public void removeShape(String shapeName) {
+    synchronized (stripe(shapeName)) {
+      Entry entry;
+      publishLock.readLock().lock();
+      try {
+        entry = entries.remove(shapeName);
+        if (entry != null) {
+          publish(entry, null);
+        }
+      } finally {
+        publishLock.readLock().unlock();
+      }
+      if (entry != null) {
+        changes.publish(ChangeType.REMOVED, shapeName, null);
+      }
+    }
+  }
+
+  /**
+   * Clears all shapes from the photo album. This waits for a snapshot in
+   * progress and blocks other changes while it runs.
+   */
+  @Override
+  public void clearShapes() {
+    snapshotLock.lock();
+    publishLock.writeLock().lock();
+    try {
+      entries.clear();
+      order.clear();
+      removed.clear();
+      changes.publishAlbum(ChangeType.CLEARED, null);
+    } finally {
+      publishLock.writeLock().unlock();
+      snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Clears all snapshots from the photo album.
+   */
+  @Override
+  public void clearSnapshots() {
+    snapshotLock.lock();
+    try {
+      snapshotIndex.clear();
+      changes.publishAlbum(ChangeType.SNAPSHOTS_CLEARED, null);
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Resets the photo album by clearing all shapes and snapshots.
+   */
+  @Override
+  public void reset() {
+    clearShapes();
+    clearSnapshots();
+  }
+
+  /**
+   * Moves a shape to a new position.
+   * @param name the name of the shape to move
+   * @param newX the new x-coordinate
+   * @param newY the new y-coordinate
+   */
+  @Override
+  public void moveShape(String name, double newX, double newY) {
+    update(name, shape -> shape.moveTo(newX, newY), ChangeType.MOVED);
+  }
+
+  /**
+   * Resizes a rectangle to a new width and height.
+   * @param name the name of the rectangle
+   * @param newWidth the new width
+   * @param newHeight the new height
+   */
+  @Override
+  public void resizeRectangle(String name, double newWidth, double newHeight) {
+    update(name, shape -> {
+      if (!(shape instanceof Rectangle)) {
+        throw new IllegalArgumentException(name + " is not a rectangle.");
+      }
+      ((Rectangle) shape).resizeWidth(newWidth);
+      ((Rectangle) shape).resizeHeight(newHeight);
+    }, ChangeType.RESIZED);
+  }
+
+  /**
+   * Resizes an oval to a new x-radius and y-radius.
+   * @param name the name of the oval
+   * @param newXRadius the new x-radius
+   * @param newYRadius the new y-radius
+   */
+  @Override
+  public void resizeOval(String name, double newXRadius, double newYRadius) {
+    update(name, shape -> {
+      if (!(shape instanceof Oval)) {
+        throw new IllegalArgumentException(name + " is not an oval.");
+      }
+      ((Oval) shape).resizeXradius(newXRadius);
+      ((Oval) shape).resizeYradius(newYRadius);
+    }, ChangeType.RESIZED);
+  }
+
+  /**
+   * Changes the color of a shape.
+   * @param name the name of the shape to change color
+   * @param newR the new red value
+   * @param newG the new green value
+   * @param newB the new blue value
+   */
+  @Override
+  public void changeShapeColor(String name, double newR, double newG, double newB) {
+    update(name, shape -> shape.changeColor(newR, newG, newB), ChangeType.RECOLORED);
+  }
+
+  /**
+   * Moves a shape in front of all the other shapes.
+   * @param name the name of the shape
+   */
+  @Override
+  public void bringToFront(String name) {
+    reorder(name, -1);
+  }
+
+  /**
+   * Moves a shape behind all the other shapes.
+   * @param name the name of the shape
+   */
+  @Override
+  public void sendToBack(String name) {
+    moveToLayer(name, 0);
+  }
+
+  /**
+   * Moves a shape to a draw order position by giving it a draw order key
+   * between those of its new neighbours. If they have no room between them,
+   * the shapes from the position upwards are moved to the front in order.
+   * @param name the name of the shape
+   * @param layer the new position, from 0 for the shape drawn first
+   */
+  @Override
+  public void moveToLayer(String name, int layer) {
+    if (layer < 0) {
+      throw new IllegalArgumentException("Layer must not be negative.");
+    }
+    reorder(name, layer);
+  }
+
+  /**
+   * Moves a shape to a draw order position.
+   * @param name the name of the shape
+   * @param layer the new position, or -1 for the front
+   */
+  private void reorder(String name, int layer) {
+    snapshotLock.lock();
+    try {
+      synchronized (stripe(name)) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+          throw new IllegalArgumentException("There is no shape with the name " + name);
+        }
+        List<Entry> others = new ArrayList<>();
+        for (Entry other : order.values()) {
+          if (other != entry && other.head.shape != null) {
+            others.add(other);
+          }
+        }
+        if (layer < 0) {
+          layer = others.size();
+        }
+        if (layer > others.size()) {
+          throw new IllegalArgumentException("Layer must be in the range [0, "
+              + others.size() + "].");
+        }
+        long below = layer == 0 ? Long.MIN_VALUE : others.get(layer - 1).orderKey;
+        long above = layer == others.size() ? Long.MAX_VALUE : others.get(layer).orderKey;
+        if (entry.orderKey > below && entry.orderKey < above) {
+          return; // already there
+        }
+        changes.publish(ChangeType.REORDERED, name, entry.head.shape);
+        if (layer == others.size()) {
+          rekey(name, nextOrderKey.getAndAdd(ORDER_KEY_GAP));
+        } else if (layer == 0 && above > Long.MIN_VALUE + 2 * ORDER_KEY_GAP) {
+          rekey(name, above - ORDER_KEY_GAP);
+        } else if (layer > 0 && midpoint(below, above) != below) {
+          rekey(name, midpoint(below, above));
+        } else {
+          rekey(name, nextOrderKey.getAndAdd(ORDER_KEY_GAP));
+          for (Entry other : others.subList(layer, others.size())) {
+            IShape shape = other.head.shape;
+            if (shape == null) {
+              continue; // removed meanwhile
+            }
+            String otherName = shape.getName();
+            synchronized (stripe(otherName)) {
+              if (entries.get(otherName) == other) {
+                rekey(otherName, nextOrderKey.getAndAdd(ORDER_KEY_GAP));
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the value halfway between two values, rounded down, without
+   * overflowing.
+   * @param low the lower value
+   * @param high the higher value
+   * @return the midpoint
+   */
+  private static long midpoint(long low, long high) {
+    return (low & high) + ((low ^ high) >> 1);
+  }
+
+  /**
+   * Moves a shape to a new draw order key. Must be called while holding the
+   * snapshot lock and the shape's stripe.
+   * @param name the name of the shape
+   * @param orderKey the new draw order key
+   */
+  private void rekey(String name, long orderKey) {
+    publishLock.readLock().lock();
+    try {
+      Entry old = entries.get(name);
+      IShape shape = old.head.shape;
+      publish(old, null);
+      Entry moved = new Entry(orderKey);
+      publish(moved, shape);
+      entries.put(name, moved);
+    } finally {
+      publishLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the draw order position of a shape by counting the shapes before it.
+   * @param name the name of the shape
+   * @return the position, from 0 for the shape drawn first, or -1 if there
+   *     is no shape with the name
+   */
+  @Override
+  public int getLayer(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      return -1;
+    }
+    int layer = 0;
+    for (Entry other : order.headMap(entry.orderKey).values()) {
+      if (other.head.shape != null) {
+        layer++;
+      }
+    }
+    return layer;
+  }
+
+  /**
+   * Applies a batch of commands, copying each shape the batch touches once.
+   * The batch is checked against the album as it is when the call starts,
+   * and other threads may change the album while it is applied.
+   * @param batch the commands
+   */
+  @Override
+  public void applyBatch(CommandBatch batch) {
+    BatchPlan plan = BatchPlan.of(batch, name -> {
+      IShape shape = current(name);
+      return shape == null ? null : shape.getShapeType();
+    });
+    for (BatchPlan.Change change : plan.changes()) {
+      if (change.removeExisting) {
+        removeShape(change.name);
+      } else if (change.updatesExisting()) {
+        update(change.name, change::applyTo, batchTypes(change));
+      }
+    }
+    for (BatchPlan.Change change : plan.creates()) {
+      addShape(change.toShape());
+    }
+    plan.throwIfInvalid();
+  }
+
+  /**
+   * Gets the types of change a batch change makes to an existing shape.
+   * @param change the change
+   * @return the types
+   */
+  private static ChangeType[] batchTypes(BatchPlan.Change change) {
+    List<ChangeType> types = new ArrayList<>(3);
+    if (change.moved) {
+      types.add(ChangeType.MOVED);
+    }
+    if (change.resized) {
+      types.add(ChangeType.RESIZED);
+    }
+    if (change.color != null) {
+      types.add(ChangeType.RECOLORED);
+    }
+    return types.toArray(new ChangeType[0]);
+  }
+
+  /**
+   * Takes a snapshot of the state of the photo album at one point in time.
+   * Changes made while the snapshot is being collected are not included.
+   * @param description the description of the snapshot
+   */
+  @Override
+  public void takeSnapshot(String description) {
+    snapshotLock.lock();
+    try {
+      long version;
+      publishLock.writeLock().lock();
+      try {
+        version = clock.get();
+        snapshotVersion = version;
+      } finally {
+        publishLock.writeLock().unlock();
+      }
+      List<IShape> captured = new ArrayList<>();
+      for (Entry entry : order.values()) {
+        IShape shape = entry.shapeAt(version);
+        if (shape != null) {
+          captured.add(shape);
+        }
+      }
+      publishLock.writeLock().lock();
+      try {
+        snapshotVersion = NO_SNAPSHOT;
+        for (Entry entry = removed.poll(); entry != null; entry = removed.poll()) {
+          order.remove(entry.orderKey);
+        }
+      } finally {
+        publishLock.writeLock().unlock();
+      }
+
+      LocalDateTime timestamp = snapshotIndex.nextCaptureTime();
+      String newSnapshotId = timestamp.toString();
+      DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+      String formattedTimestamp = timestamp.format(outputFormatter);
+      snapshotIndex.add(new Snapshot(newSnapshotId, formattedTimestamp, description,
+          captured.toArray(new IShape[0])), timestamp);
+      changes.publishAlbum(ChangeType.SNAPSHOT_TAKEN,
+          snapshotIndex.get(snapshotIndex.size() - 1));
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the notifier that reports the changes of the album to listeners.
+   * Changes made while a snapshot is taken may be reported on either side
+   * of it.
+   * @return the change notifier
+   */
+  @Override
+  public ChangeNotifier getChangeNotifier() {
+    return changes;
+  }
+
+  /**
+   * Gets the IDs of snapshots in the photo album.
+   * @return a read-only list of snapshot IDs
+   */
+  @Override
+  public List<String> getSnapshotIDs() {
+    return snapshotIndex.ids();
+  }
+
+  /**
+   * Gets the snapshots in the photo album.
+   * @return a read-only list of snapshots
+   */
+  @Override
+  public List<ISnapshot> getSnapshots() {
+    return snapshotIndex.asList();
+  }
+
+  /**
+   * Gets the snapshots indexed by ID and capture time.
+   * @return the snapshot index
+   */
+  @Override
+  public SnapshotIndex getSnapshotIndex() {
+    return snapshotIndex;
+  }
+
+  /**
+   * Gets copies of the current shapes in draw order. Unlike a snapshot, the
+   * list may mix changes that are made while it is collected.
+   * @return a read-only list of shapes
+   */
+  @Override
+  public List<IShape> getShapes() {
+    return Shape.copies(shapes());
+  }
+
+  /**
+   * Gets the current shapes in draw order, shared with snapshots.
+   * @return the shapes
+   */
+  private List<IShape> shapes() {
+    List<IShape> shapes = new ArrayList<>();
+    for (Entry entry : order.values()) {
+      IShape shape = entry.head.shape;
+      if (shape != null) {
+        shapes.add(shape);
+      }
+    }
+    return shapes;
+  }
+
+  /**
+   * Gets the current shapes whose bounding boxes overlap or touch a region,
+   * in draw order, by checking every shape.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return a read-only list of copies of the shapes in the region
+   */
+  @Override
+  public List<IShape> getShapesIn(double x, double y, double width, double height) {
+    List<IShape> shapes = shapes();
+    List<IShape> found = new ArrayList<>();
+    for (long position : SpatialGrid.scan(new ShapeListColumns(shapes), x, y, width, height)) {
+      found.add(shapes.get((int) position).clone());
+    }
+    return Collections.unmodifiableList(found);
+  }
+
+  /**
+   * Gets a copy of the current version of a shape. The version itself is
+   * shared with snapshots, so it is not handed out.
+   * @param name the name of the shape
+   * @return the copy, or null if there is no shape with the name
+   */
+  @Override
+  public IShape getShape(String name) {
+    IShape shape = current(name);
+    return shape == null ? null : shape.clone();
+  }
+
+  /**
+   * Gets the current version of a shape, shared with snapshots.
+   * @param name the name of the shape
+   * @return the shape, or null if there is no shape with the name
+   */
+  private IShape current(String name) {
+    Entry entry = entries.get(name);
+    return entry == null ? null : entry.head.shape;
+  }
+}
@@ -0,0 +1,18 @@
+package photoalbum.model;
+
+import java.util.List;
+
+/**
+ * Interface of a listener for the changes of a photo album, registered with
+ * {@link ChangeNotifier#addListener(IAlbumListener)}.
+ */
+public interface IAlbumListener {
+  /**
+   * Receives the changes made to the album since the last call, in the
+   * order they were made, with the changes to each shape merged. It is
+   * called on the notifier's delivery thread, which all albums share, so
+   * it should return quickly.
+   * @param changes the read-only list of changes
+   */
+  void albumChanged(List<AlbumChange> changes);
+}
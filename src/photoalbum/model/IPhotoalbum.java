@@ -66,6 +66,7 @@ public interface IPhotoalbum {
    * @param name the name of the rectangle
    * @param newWidth the new width
    * @param newHeight the new height
+   * @throws IllegalArgumentException if the shape is not a rectangle
    */
   void resizeRectangle(String name, double newWidth, double newHeight);
 
@@ -74,6 +75,7 @@ public interface IPhotoalbum {
    * @param name the name of the oval
    * @param Xradius the new x-radius
    * @param Yradius the new y-radius
+   * @throws IllegalArgumentException if the shape is not an oval
    */
   void resizeOval(String name, double Xradius, double Yradius);
 
@@ -86,6 +88,48 @@ public interface IPhotoalbum {
    */
   void changeShapeColor(String name, double newR, double newG, double newB);
 
+  /**
+   * Moves a shape in front of all the other shapes.
+   * @param name the name of the shape
+   * @throws IllegalArgumentException if there is no shape with the name
+   */
+  void bringToFront(String name);
+
+  /**
+   * Moves a shape behind all the other shapes.
+   * @param name the name of the shape
+   * @throws IllegalArgumentException if there is no shape with the name
+   */
+  void sendToBack(String name);
+
+  /**
+   * Moves a shape to a draw order position; the shapes between its old and
+   * new position shift by one.
+   * @param name the name of the shape
+   * @param layer the new position, from 0 for the shape drawn first
+   * @throws IllegalArgumentException if there is no shape with the name or
+   *     the position is not between 0 and the number of shapes minus one
+   */
+  void moveToLayer(String name, int layer);
+
+  /**
+   * Gets the draw order position of a shape.
+   * @param name the name of the shape
+   * @return the position, from 0 for the shape drawn first, or -1 if there
+   *     is no shape with the name
+   */
+  int getLayer(String name);
+
+  /**
+   * Applies a batch of commands with the same result as calling them one by
+   * one, merging the commands on each shape into one change. If a command
+   * is invalid, the commands before it are applied and the invalid command
+   * and those after it are not.
+   * @param batch the commands
+   * @throws IllegalArgumentException if a command in the batch is invalid
+   */
+  void applyBatch(CommandBatch batch);
+
   /**
    * Takes a snapshot of the current state of the photo album.
    * @param description the description of the snapshot
@@ -104,12 +148,38 @@ public interface IPhotoalbum {
    */
   List<ISnapshot> getSnapshots();
 
+  /**
+   * Gets the snapshots indexed by ID and capture time, for finding a
+   * snapshot without scanning the list.
+   * @return the snapshot index
+   */
+  SnapshotIndex getSnapshotIndex();
+
+  /**
+   * Gets the notifier that reports the changes of the photo album to
+   * listeners, so views can update as the album changes instead of reading
+   * it again.
+   * @return the change notifier
+   */
+  ChangeNotifier getChangeNotifier();
+
   /**
    * Gets the shapes in the photo album.
    * @return the shapes
    */
   List<IShape> getShapes();
 
+  /**
+   * Gets the shapes whose bounding boxes overlap or touch a region, in draw
+   * order. An oval's box spans twice its radii from (x, y).
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the shapes in the region
+   */
+  List<IShape> getShapesIn(double x, double y, double width, double height);
+
   /**
    * Gets the shape in the photo album.
    * @return the shape
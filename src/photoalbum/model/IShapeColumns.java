@@ -0,0 +1,64 @@
+package photoalbum.model;
+
+/**
+ * Read-only access to a list of shapes one attribute at a time, by position
+ * in draw order. Renderers can walk the shapes without casting or creating
+ * objects per shape.
+ */
+public interface IShapeColumns {
+  /**
+   * Gets the number of shapes.
+   * @return the number of shapes
+   */
+  int size();
+
+  /**
+   * Gets the name of a shape.
+   * @param index the position of the shape
+   * @return the name
+   */
+  String getName(int index);
+
+  /**
+   * Gets the type of a shape.
+   * @param index the position of the shape
+   * @return the type of the shape
+   */
+  ShapeType getShapeType(int index);
+
+  /**
+   * Gets the x-coordinate of a shape.
+   * @param index the position of the shape
+   * @return the x-coordinate
+   */
+  double getX(int index);
+
+  /**
+   * Gets the y-coordinate of a shape.
+   * @param index the position of the shape
+   * @return the y-coordinate
+   */
+  double getY(int index);
+
+  /**
+   * Gets the width of a rectangle or the x-radius of an oval.
+   * @param index the position of the shape
+   * @return the width or x-radius
+   */
+  double getWidth(int index);
+
+  /**
+   * Gets the height of a rectangle or the y-radius of an oval.
+   * @param index the position of the shape
+   * @return the height or y-radius
+   */
+  double getHeight(int index);
+
+  /**
+   * Gets the color of a shape packed as 0xRRGGBB, with each channel
+   * truncated to an integer.
+   * @param index the position of the shape
+   * @return the packed color
+   */
+  int getRgb(int index);
+}
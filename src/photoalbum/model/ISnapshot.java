@@ -29,4 +29,29 @@ public interface ISnapshot {
    * @return the list of shapes
    */
   List<IShape> getShapes();
+
+  /**
+   * Gets the shapes in the snapshot as columns, for renderers that read one
+   * attribute at a time.
+   * @return the shape columns
+   */
+  IShapeColumns getShapeColumns();
+
+  /**
+   * Gets the shapes whose bounding boxes overlap or touch a region as
+   * columns, in draw order, so renderers can skip shapes outside the view.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the shape columns of the shapes in the region
+   */
+  IShapeColumns getShapeColumnsIn(double x, double y, double width, double height);
+
+  /**
+   * Gets the bounds, shape counts and colors of the snapshot, so views can
+   * size their canvas without reading the shapes.
+   * @return the stats
+   */
+  AlbumStats getStats();
 }
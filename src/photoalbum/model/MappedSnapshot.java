@@ -0,0 +1,218 @@
+package photoalbum.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot that reads its shapes from a record of a {@link SnapshotArchive}.
+ * Nothing but the record buffer, the ID, timestamp and description and,
+ * once asked for, the stats is kept on the heap; shape objects are created
+ * on every call to {@link #getShapes()}.
+ */
+public class MappedSnapshot implements ISnapshot {
+  private final ByteBuffer record;
+  private final int shapeCount;
+  private final int shapesOffset;
+  private final String snapshotId;
+  private final String timestamp;
+  private final String description;
+  private volatile AlbumStats stats; // Bounds, counts and colors, null until asked for
+
+  /**
+   * Constructs a snapshot over an archive record.
+   * @param record a buffer covering exactly one record
+   */
+  MappedSnapshot(ByteBuffer record) {
+    this.record = record;
+    this.shapeCount = record.getInt(0);
+    this.shapesOffset = record.getInt(4);
+    int offset = 8;
+    this.snapshotId = readString(offset);
+    offset += 4 + record.getInt(offset);
+    this.timestamp = readString(offset);
+    offset += 4 + record.getInt(offset);
+    this.description = readString(offset);
+  }
+
+  /**
+   * Gets the snapshot ID.
+   * @return the snapshot ID
+   */
+  @Override
+  public String getSnapshotId() {
+    return snapshotId;
+  }
+
+  /**
+   * Gets the timestamp.
+   * @return the timestamp
+   */
+  @Override
+  public String getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Gets the description of the snapshot.
+   * @return the description
+   */
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * Creates the shapes of the snapshot from the archive.
+   * @return a new read-only list of shapes
+   */
+  @Override
+  public List<IShape> getShapes() {
+    IShapeColumns columns = getShapeColumns();
+    List<IShape> shapes = new ArrayList<>(shapeCount);
+    for (int i = 0; i < shapeCount; i++) {
+      int rgb = columns.getRgb(i);
+      Color color = Color.of(rgb);
+      if (columns.getShapeType(i) == ShapeType.OVAL) {
+        shapes.add(new Oval(columns.getName(i), ShapeType.OVAL, columns.getX(i),
+            columns.getY(i), columns.getWidth(i), columns.getHeight(i), color));
+      } else {
+        shapes.add(new Rectangle(columns.getName(i), ShapeType.RECTANGLE, columns.getX(i),
+            columns.getY(i), columns.getWidth(i), columns.getHeight(i), color));
+      }
+    }
+    return Collections.unmodifiableList(shapes);
+  }
+
+  /**
+   * Gets the shapes as columns that read directly from the archive.
+   * @return the shape columns
+   */
+  @Override
+  public IShapeColumns getShapeColumns() {
+    return new RecordColumns();
+  }
+
+  /**
+   * Gets the shapes in a region as columns. The record is scanned on every
+   * call rather than indexed, so that no index is kept on the heap.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the shape columns of the shapes in the region
+   */
+  @Override
+  public IShapeColumns getShapeColumnsIn(double x, double y, double width, double height) {
+    IShapeColumns columns = getShapeColumns();
+    return new SubsetColumns(columns, SpatialGrid.scan(columns, x, y, width, height));
+  }
+
+  /**
+   * Gets the bounds, shape counts and colors of the snapshot, scanning the
+   * record on the first call.
+   * @return the stats
+   */
+  @Override
+  public AlbumStats getStats() {
+    AlbumStats result = stats;
+    if (result == null) {
+      result = AlbumStats.of(getShapeColumns());
+      stats = result;
+    }
+    return result;
+  }
+
+  /**
+   * Column access to the shapes in the record.
+   */
+  private class RecordColumns implements IShapeColumns {
+    @Override
+    public int size() {
+      return shapeCount;
+    }
+
+    @Override
+    public String getName(int index) {
+      int at = at(index);
+      int offset = record.getInt(at + 40);
+      int length = record.getInt(at + 44);
+      byte[] bytes = new byte[length];
+      record.get(offset, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ShapeType getShapeType(int index) {
+      byte type = record.get(at(index));
+      return type == SnapshotArchive.OVAL ? ShapeType.OVAL : ShapeType.RECTANGLE;
+    }
+
+    @Override
+    public double getX(int index) {
+      return record.getDouble(at(index) + 8);
+    }
+
+    @Override
+    public double getY(int index) {
+      return record.getDouble(at(index) + 16);
+    }
+
+    @Override
+    public double getWidth(int index) {
+      return record.getDouble(at(index) + 24);
+    }
+
+    @Override
+    public double getHeight(int index) {
+      return record.getDouble(at(index) + 32);
+    }
+
+    @Override
+    public int getRgb(int index) {
+      return record.getInt(at(index) + 4);
+    }
+
+    /**
+     * Finds the offset of a shape in the record.
+     * @param index the position of the shape
+     * @return the offset of the shape
+     */
+    private int at(int index) {
+      if (index < 0 || index >= shapeCount) {
+        throw new IndexOutOfBoundsException("Shape index: " + index);
+      }
+      return shapesOffset + index * SnapshotArchive.SHAPE_BYTES;
+    }
+  }
+
+  /**
+   * Makes a string representation of the snapshot.
+   * @return a string representation of the snapshot
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Snapshot ID: ").append(snapshotId).append("\n");
+    sb.append("Timestamp: ").append(timestamp).append("\n");
+    sb.append("Description: ").append(description).append("\n");
+    sb.append("Shape Information:\n");
+    for (IShape shape : getShapes()) {
+      sb.append(shape.toString()).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Reads a length-prefixed UTF-8 string from the record.
+   * @param offset the offset of the length
+   * @return the string
+   */
+  private String readString(int offset) {
+    byte[] bytes = new byte[record.getInt(offset)];
+    record.get(offset + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -84,9 +84,9 @@ public class Oval extends Shape {
    */
   @Override
   public IShape clone() {
-    Color colorCopy = color.clone();
+    // colors cannot be changed, so the copy shares this one
     Oval ovalCopy = new Oval(this.name, ShapeType.OVAL, this.x, this.y,
-        this.Xradius, this.Yradius, colorCopy);
+        this.Xradius, this.Yradius, color);
     return ovalCopy;
   }
 }
\ No newline at end of file
@@ -1,32 +1,105 @@
 package photoalbum.model;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Represents the photoalbum.model for a photo album.
+ * Shapes are kept in a persistent tree that snapshots share with the model.
+ * A shape that has been captured by a snapshot is treated as an immutable
+ * value: the model copies it before its first change after the capture.
+ * Snapshots are stored in a {@link SnapshotHistory} as keyframes plus the
+ * changes made between two snapshots. The model keeps a hash of its content
+ * up to date with every change, so a snapshot of a state identical to the
+ * previous snapshot is found by comparing only the shapes changed since,
+ * and shares the previous snapshot's frame.
+ * Changes to shapes can be undone and redone step by step once an undo
+ * budget is set; the journal is separate from the snapshots.
  */
 public class PhotoalbumModel implements IPhotoalbum {
+  private static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+  // Distance between the draw order keys of shapes created one after another,
+  // leaving room to put shapes between them
+  private static final long ORDER_KEY_GAP = 1L << 32;
+  private static final long NO_KEY = Long.MIN_VALUE; // No free draw order key
+  // Rough heap of one live shape: the shape and its slot, tree node and grid entries
+  private static final long LIVE_SHAPE_BYTES = 64 + 48 + 40 + 80;
   private static IPhotoalbum INSTANCE = new PhotoalbumModel();
-  private List<IShape> shapes; // List of shapes in the photo album
-  private List<ISnapshot> snapshots; // List of snapshots in the photo album
-  private List<String> snapshotIDs; // List of IDs of snapshots in the photo album
-  private Set<String> shapeNames; // Set of names of shapes in the photo album
+  private final int keyframeInterval; // Number of snapshots between two keyframes
+  private Map<String, Slot> slots; // Slots of the shapes in the photo album by name
+  private ShapeTree shapeTree; // Shapes in draw order, shared with snapshots
+  private long nextOrderKey; // Draw order key of the next created shape
+  private int epoch; // Number of snapshots taken since the last reset
+  private List<IShape> shapesView; // Cached read-only view of shapes, null when stale
+  private SpatialGrid grid; // Bounding boxes of the shapes by draw order key
+  private SnapshotHistory history; // Shape storage of the snapshots
+  private Map<Long, IShape> pendingChanges; // Changes since the last snapshot, null = removed
+  private boolean pendingKeyframe; // Whether the next snapshot must be a keyframe
+  private SnapshotArchive archive; // Off-heap storage for new snapshots, or null
+  private long contentHash; // Sum of the content hashes of all slots
+  private StatsTracker stats; // Bounds, type counts and colors of the shapes
+  private long lastFrameHash; // Content hash when the last history frame was stored
+  private int lastFrame; // Index of the last history frame, -1 if there is none
+  private ShapeTree lastFrameTree; // Shapes when the last history frame was stored
+  private int sharedSnapshots; // Number of snapshots that reused the previous frame
+  private final UndoJournal journal; // Steps that reverse the latest changes
+  private final SnapshotIndex snapshotIndex; // Snapshots by position, ID and capture time
+  private final ChangeNotifier changes; // Listeners for the changes of the album
+
+  /**
+   * Where a shape lives in the album. The epoch records when the current
+   * shape instance was made; if a snapshot was taken since, the instance is
+   * shared with that snapshot and must not be changed in place.
+   */
+  private static final class Slot {
+    private final long orderKey;
+    private IShape shape;
+    private int epoch;
+    private long hash; // Content hash of the shape, as counted in the album's hash
+
+    private Slot(long orderKey, IShape shape, int epoch) {
+      this.orderKey = orderKey;
+      this.shape = shape;
+      this.epoch = epoch;
+      this.hash = hash(orderKey, shape);
+    }
+  }
 
   /**
    * Constructs a new photo album.
    */
   public PhotoalbumModel() {
-    this.shapes = new ArrayList<>();
-    this.snapshots = new ArrayList<>();
-    this.snapshotIDs = new ArrayList<>();
-    this.shapeNames = new HashSet<>();
+    this(DEFAULT_KEYFRAME_INTERVAL);
+  }
+
+  /**
+   * Constructs a new photo album that stores a full keyframe every given
+   * number of snapshots. A larger interval saves memory but makes rebuilding
+   * the shapes of a snapshot slower.
+   * @param keyframeInterval the number of snapshots between two keyframes
+   */
+  public PhotoalbumModel(int keyframeInterval) {
+    this.keyframeInterval = keyframeInterval;
+    this.history = new SnapshotHistory(keyframeInterval);
+    this.lastFrame = -1;
+    this.journal = new UndoJournal();
+    this.pendingChanges = new HashMap<>();
+    this.slots = new HashMap<>();
+    this.shapeTree = ShapeTree.EMPTY;
+    this.grid = new SpatialGrid(SpatialGrid.DEFAULT_CELL_SIZE);
+    this.stats = new StatsTracker();
+    this.snapshotIndex = new SnapshotIndex();
+    this.changes = new ChangeNotifier();
   }
-  
+
   /**
    * Gets the instance of the photo album.
    * @return the photo album instance
@@ -47,12 +120,10 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   public void createRectangle(String name, ShapeType type, double x, double y,
       double width, double height, Color color) {
-    if (shapeNames.contains(name)) {
+    if (slots.containsKey(name)) {
       throw new IllegalArgumentException("A shape with the name " + name + " already exists");
     }
-    IShape rectangle = new Rectangle(name, ShapeType.RECTANGLE, x, y, width, height, color);
-    shapes.add(rectangle);
-    shapeNames.add(name);
+    addShape(new Rectangle(name, ShapeType.RECTANGLE, x, y, width, height, color));
   }
 
   /**
@@ -67,12 +138,123 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   public void createOval(String name, ShapeType type, double x, double y,
       double xRadius, double yRadius, Color color) {
-    if (shapeNames.contains(name)) {
+    if (slots.containsKey(name)) {
       throw new IllegalArgumentException("A shape with the name " + name + " already exists");
     }
-    IShape oval = new Oval(name, ShapeType.OVAL, x, y, xRadius, yRadius, color);
-    shapes.add(oval);
-    shapeNames.add(name);
+    addShape(new Oval(name, ShapeType.OVAL, x, y, xRadius, yRadius, color));
+  }
+
+  /**
+   * Adds a new shape on top of all the other shapes.
+   * @param shape the shape to add
+   */
+  private void addShape(IShape shape) {
+    journal.record(new UndoJournal.Step(UndoJournal.REMOVE, shape.getName(), 0, null, 0, 0, null));
+    insertShape(shape, takeFrontKey(), epoch);
+    changes.publish(ChangeType.CREATED, shape.getName(), shape);
+  }
+
+  /**
+   * Hands out a draw order key above all the keys in use.
+   * @return the key
+   */
+  private long takeFrontKey() {
+    long key = nextOrderKey;
+    nextOrderKey += ORDER_KEY_GAP;
+    return key;
+  }
+
+  /**
+   * Puts a shape into the album at a draw order position.
+   * @param shape the shape
+   * @param orderKey the draw order key of the shape
+   * @param shapeEpoch the epoch in which the shape instance was made
+   */
+  private void insertShape(IShape shape, long orderKey, int shapeEpoch) {
+    Slot slot = new Slot(orderKey, shape, shapeEpoch);
+    slots.put(shape.getName(), slot);
+    contentHash += slot.hash;
+    shapeTree = shapeTree.insert(orderKey, shape);
+    grid.put(orderKey, shape);
+    stats.add(shape);
+    pendingChanges.put(orderKey, shape);
+    shapesView = null;
+  }
+
+  /**
+   * Gets a shape that may be changed in place, copying it first if it is
+   * shared with a snapshot. The shape leaves the stats until
+   * {@link #shapeChanged(String)} counts it again with its new values.
+   * @param name the name of the shape
+   * @return the shape, or null if there is no shape with the name
+   */
+  private IShape writableShape(String name) {
+    Slot slot = slots.get(name);
+    if (slot == null) {
+      return null;
+    }
+    stats.remove(slot.shape);
+    if (slot.epoch != epoch) {
+      slot.shape = slot.shape.clone();
+      slot.epoch = epoch;
+      shapeTree = shapeTree.replace(slot.orderKey, slot.shape);
+      pendingChanges.put(slot.orderKey, slot.shape);
+      shapesView = null;
+    }
+    return slot.shape;
+  }
+
+  /**
+   * Updates the content hash, the spatial index and the stats after a shape
+   * changed.
+   * @param name the name of the shape
+   */
+  private void shapeChanged(String name) {
+    Slot slot = slots.get(name);
+    contentHash -= slot.hash;
+    slot.hash = hash(slot.orderKey, slot.shape);
+    contentHash += slot.hash;
+    grid.put(slot.orderKey, slot.shape);
+    stats.add(slot.shape);
+  }
+
+  /**
+   * Computes the content hash of a shape at a draw order position. The hash
+   * of the album is the sum of the hashes of its shapes, so it can be
+   * updated when one shape changes.
+   * @param orderKey the draw order key of the shape
+   * @param shape the shape
+   * @return the hash
+   */
+  private static long hash(long orderKey, IShape shape) {
+    double width;
+    double height;
+    if (shape instanceof Oval) {
+      width = ((Oval) shape).getXradius();
+      height = ((Oval) shape).getYradius();
+    } else {
+      width = ((Rectangle) shape).getWidth();
+      height = ((Rectangle) shape).getHeight();
+    }
+    long h = mix(orderKey);
+    h = mix(h ^ shape.getName().hashCode());
+    h = mix(h ^ shape.getShapeType().ordinal());
+    h = mix(h ^ Double.doubleToLongBits(shape.getX()));
+    h = mix(h ^ Double.doubleToLongBits(shape.getY()));
+    h = mix(h ^ Double.doubleToLongBits(width));
+    h = mix(h ^ Double.doubleToLongBits(height));
+    return mix(h ^ shape.getColor().getRgb());
+  }
+
+  /**
+   * Scrambles the bits of a value (the SplitMix64 finalizer).
+   * @param z the value
+   * @return the scrambled value
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
   }
 
   /**
@@ -81,14 +263,31 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void removeShape(String shapeName) {
-    for (IShape shape : shapes) {
-      // if the name of the shape matches the given name, remove the shape
-      if (shape.getName().equals(shapeName)) {
-        shapes.remove(shape);
-        shapeNames.remove(shapeName);
-        break;
-      }
+    Slot slot = slots.get(shapeName);
+    if (slot != null) {
+      journal.record(new UndoJournal.Step(UndoJournal.CREATE, shapeName,
+          shapeTree.rankOf(slot.orderKey), slot.shape, 0, 0, null));
+      removeSlot(shapeName);
+      changes.publish(ChangeType.REMOVED, shapeName, null);
+    }
+  }
+
+  /**
+   * Takes a shape out of the album.
+   * @param shapeName the name of the shape
+   * @return the slot the shape was in, or null if there is no shape with the name
+   */
+  private Slot removeSlot(String shapeName) {
+    Slot slot = slots.remove(shapeName);
+    if (slot != null) {
+      shapeTree = shapeTree.remove(slot.orderKey);
+      grid.remove(slot.orderKey);
+      stats.remove(slot.shape);
+      contentHash -= slot.hash;
+      pendingChanges.put(slot.orderKey, null);
+      shapesView = null;
     }
+    return slot;
   }
 
   /**
@@ -96,7 +295,16 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void clearShapes() {
-    shapes.clear();
+    slots.clear();
+    shapeTree = ShapeTree.EMPTY;
+    grid.clear();
+    stats = new StatsTracker();
+    contentHash = 0;
+    shapesView = null;
+    pendingChanges.clear();
+    pendingKeyframe = true;
+    journal.clear(); // the removed shapes are not journaled
+    changes.publishAlbum(ChangeType.CLEARED, null);
   }
 
   /**
@@ -104,7 +312,12 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void clearSnapshots() {
-    snapshots.clear();
+    snapshotIndex.clear();
+    history = new SnapshotHistory(keyframeInterval); // snapshots already handed out keep theirs
+    lastFrame = -1;
+    lastFrameTree = null;
+    sharedSnapshots = 0;
+    changes.publishAlbum(ChangeType.SNAPSHOTS_CLEARED, null);
   }
 
   /**
@@ -112,8 +325,10 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void reset() {
-    shapes.clear();
-    snapshots.clear();
+    clearShapes();
+    nextOrderKey = 0;
+    epoch = 0;
+    clearSnapshots();
   }
 
   /**
@@ -124,12 +339,13 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void moveShape(String shapeName, double newX, double newY) {
-    for (IShape shape : shapes) {
-      // if the name of the shape matches the given name, move the shape
-      if (shape.getName().equals(shapeName)) {
-        shape.moveTo(newX, newY);
-        break;
-      }
+    UndoJournal.Step reverse = reverseStep(UndoJournal.MOVE, shapeName);
+    IShape shape = writableShape(shapeName);
+    if (shape != null) {
+      shape.moveTo(newX, newY);
+      shapeChanged(shapeName);
+      record(reverse, shape, true);
+      changes.publish(ChangeType.MOVED, shapeName, shape);
     }
   }
 
@@ -142,11 +358,18 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void changeShapeColor(String shapeName, double newR, double newG, double newB) {
-    for (IShape shape : shapes) {
-      // if the name of the shape matches the given name, change the color
-      if (shape.getName().equals(shapeName)) {
+    UndoJournal.Step reverse = reverseStep(UndoJournal.COLOR, shapeName);
+    IShape shape = writableShape(shapeName);
+    if (shape != null) {
+      boolean done = false;
+      try {
         shape.changeColor(newR, newG, newB);
-        break;
+        done = true;
+      } finally {
+        shapeChanged(shapeName);
+        if (record(reverse, shape, done)) {
+          changes.publish(ChangeType.RECOLORED, shapeName, shape);
+        }
       }
     }
   }
@@ -159,12 +382,23 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void resizeRectangle(String shapeName, double newWidth, double newHeight) {
-    for (IShape shape : shapes) {
-      // if the name of the shape matches the given name, resize the rectangle
-      if (shape.getName().equals(shapeName)) {
+    Slot slot = slots.get(shapeName);
+    if (slot != null && !(slot.shape instanceof Rectangle)) {
+      throw new IllegalArgumentException(shapeName + " is not a rectangle.");
+    }
+    UndoJournal.Step reverse = reverseStep(UndoJournal.RESIZE, shapeName);
+    IShape shape = writableShape(shapeName);
+    if (shape != null) {
+      boolean done = false;
+      try {
         ((Rectangle) shape).resizeWidth(newWidth);
         ((Rectangle) shape).resizeHeight(newHeight);
-        break;
+        done = true;
+      } finally {
+        shapeChanged(shapeName); // the width may have changed even if the height is invalid
+        if (record(reverse, shape, done)) {
+          changes.publish(ChangeType.RESIZED, shapeName, shape);
+        }
       }
     }
   }
@@ -177,74 +411,613 @@ public class PhotoalbumModel implements IPhotoalbum {
    */
   @Override
   public void resizeOval(String shapeName, double newXRadius, double newYRadius) {
-    for (IShape shape : shapes) {
-      // if the name of the shape matches the given name, resize the oval
-      if (shape.getName().equals(shapeName)) {
+    Slot slot = slots.get(shapeName);
+    if (slot != null && !(slot.shape instanceof Oval)) {
+      throw new IllegalArgumentException(shapeName + " is not an oval.");
+    }
+    UndoJournal.Step reverse = reverseStep(UndoJournal.RESIZE, shapeName);
+    IShape shape = writableShape(shapeName);
+    if (shape != null) {
+      boolean done = false;
+      try {
         ((Oval) shape).resizeXradius(newXRadius);
         ((Oval) shape).resizeYradius(newYRadius);
-        break;
+        done = true;
+      } finally {
+        shapeChanged(shapeName); // the x-radius may have changed even if the y-radius is invalid
+        if (record(reverse, shape, done)) {
+          changes.publish(ChangeType.RESIZED, shapeName, shape);
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves a shape in front of all the other shapes.
+   * @param shapeName the name of the shape
+   */
+  @Override
+  public void bringToFront(String shapeName) {
+    moveToLayer(shapeName, slots.size() - 1);
+  }
+
+  /**
+   * Moves a shape behind all the other shapes.
+   * @param shapeName the name of the shape
+   */
+  @Override
+  public void sendToBack(String shapeName) {
+    moveToLayer(shapeName, 0);
+  }
+
+  /**
+   * Moves a shape to a draw order position. The shape takes a draw order
+   * key between those of its new neighbours, so no other shape is touched.
+   * @param shapeName the name of the shape
+   * @param layer the new position, from 0 for the shape drawn first
+   */
+  @Override
+  public void moveToLayer(String shapeName, int layer) {
+    int current = getLayer(shapeName);
+    if (current < 0) {
+      throw new IllegalArgumentException("There is no shape with the name " + shapeName);
+    }
+    if (layer < 0 || layer >= slots.size()) {
+      throw new IllegalArgumentException("Layer must be in the range [0, "
+          + (slots.size() - 1) + "].");
+    }
+    if (layer != current) {
+      journal.record(new UndoJournal.Step(UndoJournal.ORDER, shapeName, current,
+          null, 0, 0, null));
+      reorder(shapeName, layer);
+    }
+  }
+
+  /**
+   * Gets the draw order position of a shape.
+   * @param shapeName the name of the shape
+   * @return the position, from 0 for the shape drawn first, or -1 if there
+   *     is no shape with the name
+   */
+  @Override
+  public int getLayer(String shapeName) {
+    Slot slot = slots.get(shapeName);
+    return slot == null ? -1 : shapeTree.rankOf(slot.orderKey);
+  }
+
+  /**
+   * Moves a shape to a draw order position without journaling it. The shape
+   * instance is kept, so it may still be shared with a snapshot.
+   * @param shapeName the name of the shape
+   * @param layer the new position
+   */
+  private void reorder(String shapeName, int layer) {
+    long key = freeOrderKey(shapeName, layer);
+    Slot slot = removeSlot(shapeName);
+    insertShape(slot.shape, key, slot.epoch);
+    changes.publish(ChangeType.REORDERED, shapeName, slot.shape);
+  }
+
+  /**
+   * Finds an unused draw order key that puts a shape at a position, spreading
+   * the keys out again if its neighbours have no room between them.
+   * @param shapeName the name of the shape being moved, or null for a shape
+   *     being put back into the album
+   * @param layer the position
+   * @return the key
+   */
+  private long freeOrderKey(String shapeName, int layer) {
+    while (true) {
+      Slot moving = shapeName == null ? null : slots.get(shapeName);
+      ShapeTree others = moving == null ? shapeTree : shapeTree.remove(moving.orderKey);
+      long key;
+      if (layer >= others.size()) {
+        return takeFrontKey();
+      } else if (layer == 0) {
+        long first = others.keyAt(0);
+        key = first < NO_KEY + 2 * ORDER_KEY_GAP ? NO_KEY : first - ORDER_KEY_GAP;
+      } else {
+        long below = others.keyAt(layer - 1);
+        long above = others.keyAt(layer);
+        key = (below & above) + ((below ^ above) >> 1); // midpoint without overflow
+        key = key == below ? NO_KEY : key;
+      }
+      if (key != NO_KEY) {
+        return key;
+      }
+      renumberShapes();
+    }
+  }
+
+  /**
+   * Gives the shapes evenly spaced draw order keys again, keeping their
+   * order. The next snapshot is stored as a keyframe, since a delta against
+   * the old keys would not apply.
+   */
+  private void renumberShapes() {
+    List<IShape> shapes = shapeTree.toList();
+    Map<String, Slot> old = slots;
+    slots = new HashMap<>();
+    shapeTree = ShapeTree.EMPTY;
+    grid.clear();
+    stats = new StatsTracker();
+    contentHash = 0;
+    nextOrderKey = 0;
+    for (IShape shape : shapes) {
+      insertShape(shape, takeFrontKey(), old.get(shape.getName()).epoch);
+    }
+    pendingChanges.clear();
+    pendingKeyframe = true;
+  }
+
+  /**
+   * Applies a batch of commands. Each shape the batch touches is copied and
+   * indexed at most once, however many commands change it.
+   * @param batch the commands
+   */
+  @Override
+  public void applyBatch(CommandBatch batch) {
+    BatchPlan plan = BatchPlan.of(batch, name -> {
+      Slot slot = slots.get(name);
+      return slot == null ? null : slot.shape.getShapeType();
+    });
+    for (BatchPlan.Change change : plan.changes()) {
+      if (change.removeExisting) {
+        removeShape(change.name);
+      } else if (change.updatesExisting()) {
+        UndoJournal.Step move = change.moved ? reverseStep(UndoJournal.MOVE, change.name) : null;
+        UndoJournal.Step resize = change.resized
+            ? reverseStep(UndoJournal.RESIZE, change.name) : null;
+        UndoJournal.Step color = change.color != null
+            ? reverseStep(UndoJournal.COLOR, change.name) : null;
+        IShape shape = writableShape(change.name);
+        boolean done = false;
+        try {
+          change.applyTo(shape);
+          done = true;
+        } finally {
+          shapeChanged(change.name);
+          if (record(move, shape, done)) {
+            changes.publish(ChangeType.MOVED, change.name, shape);
+          }
+          if (record(resize, shape, done)) {
+            changes.publish(ChangeType.RESIZED, change.name, shape);
+          }
+          if (record(color, shape, done)) {
+            changes.publish(ChangeType.RECOLORED, change.name, shape);
+          }
+        }
       }
     }
+    for (BatchPlan.Change change : plan.creates()) {
+      addShape(change.toShape());
+    }
+    plan.throwIfInvalid();
+  }
+
+  /**
+   * Sets the memory budget of the undo journal. Until a budget is set,
+   * changes are not journaled; when the journal goes over budget, the oldest
+   * steps are forgotten.
+   * @param bytes the maximum estimated bytes of the journal, or 0 to stop journaling
+   */
+  public void setUndoBudget(long bytes) {
+    journal.setBudget(bytes);
+  }
+
+  /**
+   * Checks whether there is a change to undo.
+   * @return true if a change can be undone
+   */
+  public boolean canUndo() {
+    return journal.canUndo();
+  }
+
+  /**
+   * Checks whether there is an undone change to redo.
+   * @return true if a change can be redone
+   */
+  public boolean canRedo() {
+    return journal.canRedo();
+  }
+
+  /**
+   * Undoes the latest change to a shape. A batch is undone one shape change
+   * at a time, and clearing or resetting the album forgets the journal.
+   * @return true if a change was undone, false if there was none
+   */
+  public boolean undo() {
+    UndoJournal.Step step = journal.popUndo();
+    if (step == null) {
+      return false;
+    }
+    journal.pushRedo(apply(step));
+    return true;
+  }
+
+  /**
+   * Redoes the latest undone change. Any new change forgets the changes
+   * that could be redone.
+   * @return true if a change was redone, false if there was none
+   */
+  public boolean redo() {
+    UndoJournal.Step step = journal.popRedo();
+    if (step == null) {
+      return false;
+    }
+    journal.pushUndo(apply(step));
+    return true;
+  }
+
+  /**
+   * Makes the step that would reverse a change about to be made to a shape.
+   * @param op the kind of change: MOVE, RESIZE or COLOR
+   * @param shapeName the name of the shape
+   * @return the step, or null if there is no shape with the name
+   */
+  private UndoJournal.Step reverseStep(byte op, String shapeName) {
+    Slot slot = slots.get(shapeName);
+    return slot == null ? null : reverseStep(op, slot.shape);
+  }
+
+  /**
+   * Journals the step that reverses a change to a shape once the change is
+   * made. A change that was rejected is journaled only if it got part way,
+   * such as a new width before an invalid height, so that a rejected
+   * change leaves nothing to undo.
+   * @param reverse the step made before the change, or null if there is none
+   * @param shape the shape after the change
+   * @param done whether the change was made in full
+   * @return true if the change was made, in full or in part, and is to be reported
+   */
+  private boolean record(UndoJournal.Step reverse, IShape shape, boolean done) {
+    if (reverse == null) {
+      return false;
+    }
+    UndoJournal.Step now = reverseStep(reverse.op, shape);
+    if (done || Double.compare(now.a, reverse.a) != 0 || Double.compare(now.b, reverse.b) != 0
+        || !Objects.equals(now.color, reverse.color)) {
+      journal.record(reverse);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Makes the step that puts one property of a shape back as it is now.
+   * @param op the kind of change: MOVE, RESIZE or COLOR
+   * @param shape the shape
+   * @return the step
+   */
+  private static UndoJournal.Step reverseStep(byte op, IShape shape) {
+    double a = 0;
+    double b = 0;
+    Color color = null;
+    if (op == UndoJournal.MOVE) {
+      a = shape.getX();
+      b = shape.getY();
+    } else if (op == UndoJournal.RESIZE && shape instanceof Oval) {
+      a = ((Oval) shape).getXradius();
+      b = ((Oval) shape).getYradius();
+    } else if (op == UndoJournal.RESIZE) {
+      a = ((Rectangle) shape).getWidth();
+      b = ((Rectangle) shape).getHeight();
+    } else {
+      color = shape.getColor();
+    }
+    return new UndoJournal.Step(op, shape.getName(), 0, null, a, b, color);
+  }
+
+  /**
+   * Carries out a journal step without journaling it.
+   * @param step the step
+   * @return the step that reverses it
+   */
+  private UndoJournal.Step apply(UndoJournal.Step step) {
+    if (step.op == UndoJournal.CREATE) {
+      // the shape may still be shared with a snapshot
+      insertShape(step.shape, freeOrderKey(null, step.layer), -1);
+      changes.publish(ChangeType.CREATED, step.name, step.shape);
+      return new UndoJournal.Step(UndoJournal.REMOVE, step.name, 0, null, 0, 0, null);
+    }
+    if (step.op == UndoJournal.REMOVE) {
+      int layer = getLayer(step.name);
+      Slot slot = removeSlot(step.name);
+      changes.publish(ChangeType.REMOVED, step.name, null);
+      return new UndoJournal.Step(UndoJournal.CREATE, step.name, layer, slot.shape, 0, 0, null);
+    }
+    if (step.op == UndoJournal.ORDER) {
+      UndoJournal.Step reverse = new UndoJournal.Step(UndoJournal.ORDER, step.name,
+          getLayer(step.name), null, 0, 0, null);
+      reorder(step.name, step.layer);
+      return reverse;
+    }
+    UndoJournal.Step reverse = reverseStep(step.op, slots.get(step.name).shape);
+    IShape shape = writableShape(step.name);
+    boolean done = false;
+    try {
+      if (step.op == UndoJournal.MOVE) {
+        shape.moveTo(step.a, step.b);
+      } else if (step.op == UndoJournal.RESIZE && shape instanceof Oval) {
+        ((Oval) shape).resizeXradius(step.a);
+        ((Oval) shape).resizeYradius(step.b);
+      } else if (step.op == UndoJournal.RESIZE) {
+        ((Rectangle) shape).resizeWidth(step.a);
+        ((Rectangle) shape).resizeHeight(step.b);
+      } else {
+        shape.changeColor(step.color.getR(), step.color.getG(), step.color.getB());
+      }
+      done = true;
+    } finally {
+      shapeChanged(step.name);
+      if (done) {
+        changes.publish(step.op == UndoJournal.MOVE ? ChangeType.MOVED
+            : step.op == UndoJournal.RESIZE ? ChangeType.RESIZED : ChangeType.RECOLORED,
+            step.name, shape);
+      }
+    }
+    return reverse;
+  }
+
+  /**
+   * Checks that the album holds the same shapes as when the last frame was
+   * stored, once the content hash says so, since different content can have
+   * the same hash. Only the changes since that frame are compared, unless
+   * they were dropped for a keyframe.
+   * @return true if every shape is the same as in the last frame
+   */
+  private boolean sameAsLastFrame() {
+    if (pendingKeyframe) {
+      List<IShape> current = shapeTree.toList();
+      List<IShape> stored = lastFrameTree.toList();
+      for (int i = 0; i < current.size(); i++) {
+        if (!sameContent(current.get(i), stored.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    for (Map.Entry<Long, IShape> change : pendingChanges.entrySet()) {
+      IShape stored = lastFrameTree.get(change.getKey());
+      IShape current = change.getValue();
+      if (current == null ? stored != null : stored == null || !sameContent(current, stored)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether two shapes have the same name, type, position, size and
+   * color.
+   * @param a the first shape
+   * @param b the second shape
+   * @return true if they are the same
+   */
+  private static boolean sameContent(IShape a, IShape b) {
+    if (a == b) {
+      return true;
+    }
+    if (!a.getName().equals(b.getName()) || a.getShapeType() != b.getShapeType()
+        || Double.compare(a.getX(), b.getX()) != 0 || Double.compare(a.getY(), b.getY()) != 0
+        || a.getColor().getRgb() != b.getColor().getRgb()) {
+      return false;
+    }
+    if (a instanceof Oval && b instanceof Oval) {
+      return Double.compare(((Oval) a).getXradius(), ((Oval) b).getXradius()) == 0
+          && Double.compare(((Oval) a).getYradius(), ((Oval) b).getYradius()) == 0;
+    }
+    if (a instanceof Rectangle && b instanceof Rectangle) {
+      return Double.compare(((Rectangle) a).getWidth(), ((Rectangle) b).getWidth()) == 0
+          && Double.compare(((Rectangle) a).getHeight(), ((Rectangle) b).getHeight()) == 0;
+    }
+    return false;
   }
 
   /**
    * Takes a snapshot of the current state of the photo album.
+   * No shape is copied here: the history records either the shared shape
+   * tree or the changes since the last snapshot, and shapes changed
+   * afterwards are copied by the model instead. If the content hash and the
+   * changes since the last frame was stored show that nothing changed, the
+   * snapshot shares that frame and nothing is stored at all.
    * @param description the description of the snapshot
    */
   @Override
   public void takeSnapshot(String description) {
-    List<IShape> snapshotShapes = new ArrayList<>(shapes);
-    LocalDateTime timestamp = LocalDateTime.now();
+    LocalDateTime timestamp = snapshotIndex.nextCaptureTime();
     String newSnapshotId = timestamp.toString();
     DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
     String formattedTimestamp = timestamp.format(outputFormatter);
-    Snapshot newSnapshot = new Snapshot(newSnapshotId, formattedTimestamp,
-            description, snapshotShapes);
-    snapshots.add(newSnapshot);
-    snapshotIDs.add(newSnapshotId);
+    ISnapshot newSnapshot;
+    if (archive != null) {
+      try {
+        newSnapshot = archive.append(newSnapshotId, formattedTimestamp, description,
+            new ShapeListColumns(shapes()));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot write snapshot to the archive", e);
+      }
+      pendingChanges.clear(); // the history gets a keyframe once the archive is unset
+    } else if (lastFrame >= 0 && contentHash == lastFrameHash
+        && slots.size() == lastFrameTree.size() && sameAsLastFrame()) {
+      // same content as the last frame: share it; the shapes are not captured again.
+      // The pending changes are kept, since shapes made since that frame are not
+      // shared and may still change in place; the next frame must record them.
+      newSnapshot = new Snapshot(newSnapshotId, formattedTimestamp,
+          description, history, lastFrame, getStats());
+      sharedSnapshots++;
+    } else {
+      lastFrame = history.append(shapeTree, pendingChanges, pendingKeyframe);
+      lastFrameHash = contentHash;
+      lastFrameTree = shapeTree;
+      newSnapshot = new Snapshot(newSnapshotId, formattedTimestamp,
+          description, history, lastFrame, getStats());
+      epoch++; // every current shape is now shared with the snapshot
+      pendingChanges.clear();
+      pendingKeyframe = false;
+    }
+    snapshotIndex.add(newSnapshot, timestamp);
+    changes.publishAlbum(ChangeType.SNAPSHOT_TAKEN, snapshotIndex.get(snapshotIndex.size() - 1));
   }
 
 
   /**
    * Gets the IDs of snapshots in the photo album.
-   * @return the list of snapshot IDs
+   * @return a read-only list of snapshot IDs
    */
   @Override
   public List<String> getSnapshotIDs() {
-    return snapshotIDs;
+    return snapshotIndex.ids();
   }
-  
+
   /**
    * Gets the snapshots in the photo album.
-   * @return the list of snapshots
+   * @return a read-only list of snapshots
    */
   @Override
   public List<ISnapshot> getSnapshots() {
-    return snapshots;
+    return snapshotIndex.asList();
   }
-  
+
   /**
-   * Gets the shapes in the photo album.
-   * @return the list of shapes
+   * Gets the snapshots indexed by ID and capture time.
+   * @return the snapshot index
    */
   @Override
-  public List<IShape> getShapes() {
-    return shapes;
+  public SnapshotIndex getSnapshotIndex() {
+    return snapshotIndex;
   }
 
   /**
-   * Gets the shape in the photo album.
-   * @return the shape
+   * Gets the notifier that reports the changes of the album to listeners.
+   * @return the change notifier
    */
   @Override
-  public IShape getShape(String name) {
-    if (shapeNames.contains(name)) {
-      for (IShape shape : shapes) {
-        if (shape.getName().equals(name)) {
-          return shape;
-        }
+  public ChangeNotifier getChangeNotifier() {
+    return changes;
+  }
+
+  /**
+   * Sets where new snapshots are stored. With an archive, snapshots are
+   * written to its memory-mapped file instead of the heap; with null, they
+   * go back to the in-memory snapshot history.
+   * @param archive the archive, or null
+   */
+  public void setSnapshotArchive(SnapshotArchive archive) {
+    this.archive = archive;
+    pendingKeyframe = true; // the history missed the changes made meanwhile
+  }
+
+  /**
+   * Gets the bounds, shape counts and colors of the shapes in the album.
+   * They are kept up to date as shapes change, so this takes constant time
+   * unless the shape on an edge of the bounds was moved inward or removed.
+   * @return the stats
+   */
+  public AlbumStats getStats() {
+    if (stats.needsBounds()) {
+      stats.clearBounds();
+      for (Slot slot : slots.values()) {
+        stats.includeBounds(slot.shape);
       }
     }
-    return null;
+    return stats.freeze();
+  }
+
+  /**
+   * Estimates the heap used by the album: its current shapes, the shapes
+   * stored for its snapshots and the undo journal. Snapshots in an archive
+   * are not counted.
+   * @return the estimated number of bytes
+   */
+  public long estimatedBytes() {
+    return slots.size() * LIVE_SHAPE_BYTES + history.estimatedBytes() + journal.estimatedBytes();
+  }
+
+  /**
+   * Estimates the most that {@link #estimatedBytes()} could grow by when
+   * some shape commands are applied and a snapshot may then be taken. Each
+   * command may journal a step and change two draw order keys, and the
+   * snapshot may be a keyframe.
+   * @param creates the number of commands that create a shape
+   * @param commands the number of shape commands, including those that create
+   * @param snapshot whether a snapshot may be taken after them
+   * @return the estimated number of bytes
+   */
+  public long estimatedGrowth(int creates, int commands, boolean snapshot) {
+    long growth = creates * LIVE_SHAPE_BYTES + journal.maxGrowth(commands);
+    if (snapshot && archive == null) {
+      growth += SnapshotHistory.maxFrameBytes(slots.size() + commands,
+          pendingChanges.size() + 2L * commands);
+    }
+    return growth;
+  }
+
+  /**
+   * Reports the estimated memory used to store the shapes of the snapshots,
+   * and how many snapshots shared the frame of an identical earlier one.
+   * @return a one-line report with the bytes per snapshot and the dedup ratio
+   */
+  public String getSnapshotMemoryReport() {
+    int frames = history.size();
+    int count = frames + sharedSnapshots;
+    double perSnapshot = count == 0 ? 0 : (double) history.estimatedBytes() / count;
+    double fullCopy = frames == 0 ? 0 : (double) history.estimatedFullCopyBytes() / frames;
+    double dedupRatio = frames == 0 ? 1 : (double) count / frames;
+    return String.format("%d snapshots in %d frames (dedup ratio %.2f), ~%.0f bytes per "
+        + "snapshot (~%.0f as full copies)", count, frames, dedupRatio, perSnapshot, fullCopy);
+  }
+
+  /**
+   * Gets copies of the shapes in the photo album, in draw order. The shapes
+   * themselves are shared with snapshots, so they are not handed out.
+   * @return a read-only list of shapes
+   */
+  @Override
+  public List<IShape> getShapes() {
+    return Shape.copies(shapes());
+  }
+
+  /**
+   * Gets a read-only view of the shapes in the photo album, in draw order.
+   * The view is rebuilt only after a shape is added, removed or copied.
+   * @return the list of shapes, shared with snapshots
+   */
+  private List<IShape> shapes() {
+    if (shapesView == null) {
+      shapesView = Collections.unmodifiableList(shapeTree.toList());
+    }
+    return shapesView;
+  }
+
+  /**
+   * Gets the shapes whose bounding boxes overlap or touch a region, in draw
+   * order, using the spatial index kept up to date by every change.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return a read-only list of copies of the shapes in the region
+   */
+  @Override
+  public List<IShape> getShapesIn(double x, double y, double width, double height) {
+    long[] orderKeys = grid.query(x, y, width, height);
+    List<IShape> found = new ArrayList<>(orderKeys.length);
+    for (long orderKey : orderKeys) {
+      found.add(shapeTree.get(orderKey).clone());
+    }
+    return Collections.unmodifiableList(found);
+  }
+
+  /**
+   * Gets a copy of a shape in the photo album. The shape itself may be
+   * shared with a snapshot, so it is changed only through the model.
+   * @param name the name of the shape
+   * @return the copy, or null if there is no shape with the name
+   */
+  @Override
+  public IShape getShape(String name) {
+    Slot slot = slots.get(name);
+    return slot == null ? null : slot.shape.clone();
   }
 }
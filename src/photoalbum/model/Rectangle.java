@@ -84,9 +84,9 @@ public class Rectangle extends Shape {
    */
   @Override
   public IShape clone() {
-    Color colorCopy = color.clone();
+    // colors cannot be changed, so the copy shares this one
     Rectangle rectangleCopy = new Rectangle(this.name, ShapeType.RECTANGLE,
-        this.x, this.y, this.width, this.height, colorCopy);
+        this.x, this.y, this.width, this.height, color);
     return rectangleCopy;
   }
 }
@@ -1,5 +1,9 @@
 package photoalbum.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Abstract class for any type of shape.
  */
@@ -88,19 +92,14 @@ public abstract class Shape implements IShape {
   }
 
   /**
-   * Changes the color of the shape.
+   * Changes the color of the shape to a color from the shared palette.
    * @param newR the new red value
    * @param newG the new green value
    * @param newB the new blue value
    */
   @Override
   public void changeColor(double newR, double newG, double newB) {
-    if (newR < 0 || newR > 255 || newG < 0 || newG > 255 || newB < 0 || newB > 255) {
-      throw new IllegalArgumentException("Color values must be in the range [0, 255].");
-    }
-    color.setR(newR);
-    color.setG(newG);
-    color.setB(newB);
+    color = Color.of(newR, newG, newB);
   }
 
   /**
@@ -109,4 +108,18 @@ public abstract class Shape implements IShape {
    */
   @Override
   public abstract IShape clone();
+
+  /**
+   * Copies shapes, so that callers cannot change the shapes an album shares
+   * with its snapshots.
+   * @param shapes the shapes
+   * @return a read-only list of the copies, in the same order
+   */
+  static List<IShape> copies(List<IShape> shapes) {
+    List<IShape> copies = new ArrayList<>(shapes.size());
+    for (IShape shape : shapes) {
+      copies.add(shape.clone());
+    }
+    return Collections.unmodifiableList(copies);
+  }
 }
@@ -0,0 +1,278 @@
+package photoalbum.model;
+
+import java.util.Arrays;
+
+/**
+ * Shapes stored as parallel primitive arrays, one array per attribute.
+ * A removed row is kept as a hole so that the rows of the other shapes and
+ * their draw order do not change; {@link #compact()} drops the holes.
+ */
+final class ShapeColumns implements IShapeColumns {
+  private static final byte REMOVED = 0;
+  private static final byte RECTANGLE = 1;
+  private static final byte OVAL = 2;
+
+  private String[] names;
+  private byte[] types;
+  private double[] xs;
+  private double[] ys;
+  private double[] widths;
+  private double[] heights;
+  private int[] rgbs;
+  private int size;
+
+  /**
+   * Constructs empty columns.
+   * @param capacity the initial number of rows to allocate
+   */
+  ShapeColumns(int capacity) {
+    capacity = Math.max(capacity, 1);
+    names = new String[capacity];
+    types = new byte[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+    widths = new double[capacity];
+    heights = new double[capacity];
+    rgbs = new int[capacity];
+  }
+
+  /**
+   * Appends a shape as a new row.
+   * @param name the name
+   * @param type the shape type
+   * @param x the x-coordinate
+   * @param y the y-coordinate
+   * @param width the width of a rectangle or x-radius of an oval
+   * @param height the height of a rectangle or y-radius of an oval
+   * @param rgb the color packed as 0xRRGGBB
+   * @return the row of the shape
+   */
+  int add(String name, ShapeType type, double x, double y,
+      double width, double height, int rgb) {
+    if (size == types.length) {
+      grow(size * 2);
+    }
+    names[size] = name;
+    types[size] = type == ShapeType.OVAL ? OVAL : RECTANGLE;
+    xs[size] = x;
+    ys[size] = y;
+    widths[size] = width;
+    heights[size] = height;
+    rgbs[size] = rgb;
+    return size++;
+  }
+
+  /**
+   * Moves the shape in a row.
+   * @param row the row
+   * @param x the new x-coordinate
+   * @param y the new y-coordinate
+   */
+  void move(int row, double x, double y) {
+    xs[row] = x;
+    ys[row] = y;
+  }
+
+  /**
+   * Resizes the shape in a row.
+   * @param row the row
+   * @param width the new width or x-radius
+   * @param height the new height or y-radius
+   */
+  void resize(int row, double width, double height) {
+    widths[row] = width;
+    heights[row] = height;
+  }
+
+  /**
+   * Changes the color of the shape in a row.
+   * @param row the row
+   * @param rgb the new color packed as 0xRRGGBB
+   */
+  void recolor(int row, int rgb) {
+    rgbs[row] = rgb;
+  }
+
+  /**
+   * Turns a row into a hole.
+   * @param row the row
+   */
+  void remove(int row) {
+    types[row] = REMOVED;
+    names[row] = null;
+  }
+
+  /**
+   * Checks whether a row is a hole.
+   * @param row the row
+   * @return true if the shape in the row was removed
+   */
+  boolean isRemoved(int row) {
+    return types[row] == REMOVED;
+  }
+
+  /**
+   * Copies the rows that are not holes into new, exactly sized columns.
+   * @return the compacted copy
+   */
+  ShapeColumns compact() {
+    ShapeColumns copy = new ShapeColumns(size);
+    for (int row = 0; row < size; row++) {
+      if (types[row] != REMOVED) {
+        copyRow(row, copy);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Copies the rows that are not holes into new, exactly sized columns, with
+   * one row moved to another position among them.
+   * @param moved the row to move
+   * @param position the new position of the row, counted without holes
+   * @return the reordered copy
+   */
+  ShapeColumns reorder(int moved, int position) {
+    ShapeColumns copy = new ShapeColumns(size);
+    for (int row = 0; row < size; row++) {
+      if (copy.size == position) {
+        copyRow(moved, copy);
+      }
+      if (types[row] != REMOVED && row != moved) {
+        copyRow(row, copy);
+      }
+    }
+    if (copy.size == position) {
+      copyRow(moved, copy);
+    }
+    return copy;
+  }
+
+  /**
+   * Appends a row to other columns that have room for it.
+   * @param row the row
+   * @param copy the columns to append to
+   */
+  private void copyRow(int row, ShapeColumns copy) {
+    int to = copy.size++;
+    copy.names[to] = names[row];
+    copy.types[to] = types[row];
+    copy.xs[to] = xs[row];
+    copy.ys[to] = ys[row];
+    copy.widths[to] = widths[row];
+    copy.heights[to] = heights[row];
+    copy.rgbs[to] = rgbs[row];
+  }
+
+  /**
+   * Creates a shape object with the values of a row.
+   * @param row the row
+   * @return a new rectangle or oval
+   */
+  IShape toShape(int row) {
+    int rgb = rgbs[row];
+    Color color = Color.of(rgb);
+    if (types[row] == OVAL) {
+      return new Oval(names[row], ShapeType.OVAL, xs[row], ys[row],
+          widths[row], heights[row], color);
+    }
+    return new Rectangle(names[row], ShapeType.RECTANGLE, xs[row], ys[row],
+        widths[row], heights[row], color);
+  }
+
+  /**
+   * Gets the number of rows, including holes.
+   * @return the number of rows
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the name of the shape in a row.
+   * @param index the row
+   * @return the name
+   */
+  @Override
+  public String getName(int index) {
+    return names[index];
+  }
+
+  /**
+   * Gets the type of the shape in a row.
+   * @param index the row
+   * @return the type of the shape, or null for a hole
+   */
+  @Override
+  public ShapeType getShapeType(int index) {
+    switch (types[index]) {
+      case RECTANGLE:
+        return ShapeType.RECTANGLE;
+      case OVAL:
+        return ShapeType.OVAL;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Gets the x-coordinate of the shape in a row.
+   * @param index the row
+   * @return the x-coordinate
+   */
+  @Override
+  public double getX(int index) {
+    return xs[index];
+  }
+
+  /**
+   * Gets the y-coordinate of the shape in a row.
+   * @param index the row
+   * @return the y-coordinate
+   */
+  @Override
+  public double getY(int index) {
+    return ys[index];
+  }
+
+  /**
+   * Gets the width or x-radius of the shape in a row.
+   * @param index the row
+   * @return the width or x-radius
+   */
+  @Override
+  public double getWidth(int index) {
+    return widths[index];
+  }
+
+  /**
+   * Gets the height or y-radius of the shape in a row.
+   * @param index the row
+   * @return the height or y-radius
+   */
+  @Override
+  public double getHeight(int index) {
+    return heights[index];
+  }
+
+  /**
+   * Gets the packed color of the shape in a row.
+   * @param index the row
+   * @return the color packed as 0xRRGGBB
+   */
+  @Override
+  public int getRgb(int index) {
+    return rgbs[index];
+  }
+
+  private void grow(int capacity) {
+    names = Arrays.copyOf(names, capacity);
+    types = Arrays.copyOf(types, capacity);
+    xs = Arrays.copyOf(xs, capacity);
+    ys = Arrays.copyOf(ys, capacity);
+    widths = Arrays.copyOf(widths, capacity);
+    heights = Arrays.copyOf(heights, capacity);
+    rgbs = Arrays.copyOf(rgbs, capacity);
+  }
+}
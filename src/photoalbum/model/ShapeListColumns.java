@@ -0,0 +1,105 @@
+package photoalbum.model;
+
+import java.util.List;
+
+/**
+ * Column access over a list of shape objects.
+ */
+public class ShapeListColumns implements IShapeColumns {
+  private final List<IShape> shapes;
+
+  /**
+   * Constructs column access over a list of shapes.
+   * @param shapes the shapes, in draw order
+   */
+  public ShapeListColumns(List<IShape> shapes) {
+    this.shapes = shapes;
+  }
+
+  /**
+   * Gets the number of shapes.
+   * @return the number of shapes
+   */
+  @Override
+  public int size() {
+    return shapes.size();
+  }
+
+  /**
+   * Gets the name of a shape.
+   * @param index the position of the shape
+   * @return the name
+   */
+  @Override
+  public String getName(int index) {
+    return shapes.get(index).getName();
+  }
+
+  /**
+   * Gets the type of a shape.
+   * @param index the position of the shape
+   * @return the type of the shape
+   */
+  @Override
+  public ShapeType getShapeType(int index) {
+    return shapes.get(index).getShapeType();
+  }
+
+  /**
+   * Gets the x-coordinate of a shape.
+   * @param index the position of the shape
+   * @return the x-coordinate
+   */
+  @Override
+  public double getX(int index) {
+    return shapes.get(index).getX();
+  }
+
+  /**
+   * Gets the y-coordinate of a shape.
+   * @param index the position of the shape
+   * @return the y-coordinate
+   */
+  @Override
+  public double getY(int index) {
+    return shapes.get(index).getY();
+  }
+
+  /**
+   * Gets the width of a rectangle or the x-radius of an oval.
+   * @param index the position of the shape
+   * @return the width or x-radius
+   */
+  @Override
+  public double getWidth(int index) {
+    IShape shape = shapes.get(index);
+    if (shape instanceof Oval) {
+      return ((Oval) shape).getXradius();
+    }
+    return ((Rectangle) shape).getWidth();
+  }
+
+  /**
+   * Gets the height of a rectangle or the y-radius of an oval.
+   * @param index the position of the shape
+   * @return the height or y-radius
+   */
+  @Override
+  public double getHeight(int index) {
+    IShape shape = shapes.get(index);
+    if (shape instanceof Oval) {
+      return ((Oval) shape).getYradius();
+    }
+    return ((Rectangle) shape).getHeight();
+  }
+
+  /**
+   * Gets the color of a shape packed as 0xRRGGBB.
+   * @param index the position of the shape
+   * @return the packed color
+   */
+  @Override
+  public int getRgb(int index) {
+    return shapes.get(index).getColor().getRgb();
+  }
+}
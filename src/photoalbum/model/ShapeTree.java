@@ -0,0 +1,261 @@
+package photoalbum.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A persistent (immutable) ordered collection of shapes, keyed by draw order.
+ * Every update returns a new tree that shares all untouched nodes with the old
+ * one, so keeping an old tree around costs only the nodes on the updated path.
+ * This lets a snapshot hold on to the album state without copying it.
+ * Each node also counts the shapes below it, so the shape at a draw order
+ * position and the position of a key are found in O(log n).
+ */
+final class ShapeTree {
+  static final ShapeTree EMPTY = new ShapeTree(null, 0);
+
+  private final Node root;
+  private final int size;
+
+  /**
+   * A node of the treap. Nodes are never modified after construction.
+   */
+  private static final class Node {
+    private final long key;
+    private final int priority;
+    private final IShape shape;
+    private final Node left;
+    private final Node right;
+    private final int count; // Number of nodes in this subtree
+
+    private Node(long key, int priority, IShape shape, Node left, Node right) {
+      this.key = key;
+      this.priority = priority;
+      this.shape = shape;
+      this.left = left;
+      this.right = right;
+      this.count = 1 + count(left) + count(right);
+    }
+
+    private Node withLeft(Node newLeft) {
+      return new Node(key, priority, shape, newLeft, right);
+    }
+
+    private Node withRight(Node newRight) {
+      return new Node(key, priority, shape, left, newRight);
+    }
+  }
+
+  private ShapeTree(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Gets the number of shapes in the tree.
+   * @return the number of shapes
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Gets the shape stored under a draw order key.
+   * @param key the draw order key
+   * @return the shape, or null if there is none
+   */
+  IShape get(long key) {
+    Node node = root;
+    while (node != null) {
+      if (key < node.key) {
+        node = node.left;
+      } else if (key > node.key) {
+        node = node.right;
+      } else {
+        return node.shape;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the draw order key of the shape at a draw order position.
+   * @param rank the position, from 0 for the shape drawn first
+   * @return the draw order key
+   * @throws IndexOutOfBoundsException if there is no shape at the position
+   */
+  long keyAt(int rank) {
+    if (rank < 0 || rank >= size) {
+      throw new IndexOutOfBoundsException("No shape at position " + rank);
+    }
+    Node node = root;
+    while (true) {
+      int leftCount = count(node.left);
+      if (rank < leftCount) {
+        node = node.left;
+      } else if (rank > leftCount) {
+        rank -= leftCount + 1;
+        node = node.right;
+      } else {
+        return node.key;
+      }
+    }
+  }
+
+  /**
+   * Gets the draw order position of the shape under a key.
+   * @param key the draw order key
+   * @return the position, from 0 for the shape drawn first, or -1 if the key
+   *     is not in the tree
+   */
+  int rankOf(long key) {
+    int rank = 0;
+    Node node = root;
+    while (node != null) {
+      if (key < node.key) {
+        node = node.left;
+      } else if (key > node.key) {
+        rank += count(node.left) + 1;
+        node = node.right;
+      } else {
+        return rank + count(node.left);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns a tree with a shape added under a key that is not in the tree yet.
+   * @param key the draw order key
+   * @param shape the shape
+   * @return the new tree
+   */
+  ShapeTree insert(long key, IShape shape) {
+    return new ShapeTree(insert(root, key, priorityOf(key), shape), size + 1);
+  }
+
+  /**
+   * Returns a tree with the shape under an existing key replaced.
+   * @param key the draw order key
+   * @param shape the new shape
+   * @return the new tree
+   */
+  ShapeTree replace(long key, IShape shape) {
+    return new ShapeTree(replace(root, key, shape), size);
+  }
+
+  /**
+   * Returns a tree with a shape stored under a key, whether or not the key
+   * is already in the tree.
+   * @param key the draw order key
+   * @param shape the shape
+   * @return the new tree
+   */
+  ShapeTree put(long key, IShape shape) {
+    return get(key) == null ? insert(key, shape) : replace(key, shape);
+  }
+
+  /**
+   * Returns a tree without the shape under a key.
+   * @param key the draw order key
+   * @return the new tree, or this tree if the key is absent
+   */
+  ShapeTree remove(long key) {
+    if (get(key) == null) {
+      return this;
+    }
+    return new ShapeTree(remove(root, key), size - 1);
+  }
+
+  /**
+   * Lists the shapes in draw order.
+   * @return a new list of the shapes
+   */
+  List<IShape> toList() {
+    List<IShape> result = new ArrayList<>(size);
+    Deque<Node> stack = new ArrayDeque<>();
+    Node node = root;
+    // in-order traversal without recursion
+    while (node != null || !stack.isEmpty()) {
+      while (node != null) {
+        stack.push(node);
+        node = node.left;
+      }
+      node = stack.pop();
+      result.add(node.shape);
+      node = node.right;
+    }
+    return result;
+  }
+
+  private static int count(Node node) {
+    return node == null ? 0 : node.count;
+  }
+
+  private static Node insert(Node node, long key, int priority, IShape shape) {
+    if (node == null) {
+      return new Node(key, priority, shape, null, null);
+    }
+    if (key < node.key) {
+      Node left = insert(node.left, key, priority, shape);
+      if (left.priority > node.priority) { // rotate right
+        return left.withRight(node.withLeft(left.right));
+      }
+      return node.withLeft(left);
+    }
+    Node right = insert(node.right, key, priority, shape);
+    if (right.priority > node.priority) { // rotate left
+      return right.withLeft(node.withRight(right.left));
+    }
+    return node.withRight(right);
+  }
+
+  private static Node replace(Node node, long key, IShape shape) {
+    if (node == null) {
+      throw new IllegalArgumentException("No shape with draw order key " + key);
+    }
+    if (key < node.key) {
+      return node.withLeft(replace(node.left, key, shape));
+    } else if (key > node.key) {
+      return node.withRight(replace(node.right, key, shape));
+    }
+    return new Node(key, node.priority, shape, node.left, node.right);
+  }
+
+  private static Node remove(Node node, long key) {
+    if (key < node.key) {
+      return node.withLeft(remove(node.left, key));
+    } else if (key > node.key) {
+      return node.withRight(remove(node.right, key));
+    }
+    return merge(node.left, node.right);
+  }
+
+  private static Node merge(Node left, Node right) {
+    if (left == null) {
+      return right;
+    }
+    if (right == null) {
+      return left;
+    }
+    if (left.priority > right.priority) {
+      return left.withRight(merge(left.right, right));
+    }
+    return right.withLeft(merge(left, right.left));
+  }
+
+  /**
+   * Derives a well-mixed heap priority from a key, so trees built from the
+   * same keys always have the same shape.
+   * @param key the draw order key
+   * @return the priority
+   */
+  private static int priorityOf(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 32;
+    h *= 0xD6E8FEB86659FD93L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
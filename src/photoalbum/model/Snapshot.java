@@ -1,6 +1,8 @@
 package photoalbum.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -10,8 +12,13 @@ public class Snapshot implements ISnapshot {
   private String snapshotId;
   private String timestamp;
   private String description;
-  private List<IShape> shapes;
-  
+  private SnapshotHistory history; // Shape storage, null if the shapes are held directly
+  private int frame; // Index of this snapshot in the history
+  private volatile List<IShape> shapes; // Read-only list of the shapes, null until rebuilt
+  private volatile IShapeColumns indexedShapes; // Shapes covered by the grid, null until queried
+  private volatile SpatialGrid grid; // Frozen spatial index, null until queried
+  private volatile AlbumStats stats; // Bounds, counts and colors, null until asked for
+
   /**
    * Constructs a new snapshot with the given snapshot ID, timestamp, description, and shapes.
    * 
@@ -24,9 +31,48 @@ public class Snapshot implements ISnapshot {
     this.snapshotId = snapshotId;
     this.timestamp = timestamp;
     this.description = description;
-    this.shapes = new ArrayList<>(shapes);
+    List<IShape> copy = new ArrayList<>(shapes);
     // copy the shapes to prevent modification of the original list
-    deepCopy(shapes, this.shapes);
+    deepCopy(shapes, copy);
+    this.shapes = Collections.unmodifiableList(copy);
+  }
+
+  /**
+   * Constructs a new snapshot that keeps the given shapes without copying
+   * them. The shapes must not be changed after the capture.
+   *
+   * @param snapshotId the snapshot ID
+   * @param timestamp the timestamp
+   * @param description the description
+   * @param captured the captured shapes, in draw order
+   */
+  Snapshot(String snapshotId, String timestamp, String description, IShape[] captured) {
+    this.snapshotId = snapshotId;
+    this.timestamp = timestamp;
+    this.description = description;
+    this.shapes = Collections.unmodifiableList(Arrays.asList(captured));
+  }
+
+  /**
+   * Constructs a new snapshot whose shapes are stored in a snapshot history.
+   * The snapshot only marks its frame; the shapes are rebuilt from the
+   * history when they are first read.
+   *
+   * @param snapshotId the snapshot ID
+   * @param timestamp the timestamp
+   * @param description the description
+   * @param history the history holding the shapes
+   * @param frame the index of the snapshot in the history
+   * @param stats the stats of the shapes as captured
+   */
+  Snapshot(String snapshotId, String timestamp, String description,
+      SnapshotHistory history, int frame, AlbumStats stats) {
+    this.snapshotId = snapshotId;
+    this.timestamp = timestamp;
+    this.description = description;
+    this.history = history;
+    this.frame = frame;
+    this.stats = stats;
   }
 
   /**
@@ -57,12 +103,88 @@ public class Snapshot implements ISnapshot {
   }
 
   /**
-   * Gets the list of shapes in the snapshot.
+   * Gets the read-only list of shapes in the snapshot. Shapes stored in a
+   * history are rebuilt from it on the first call and kept afterwards.
    * @return the list of shapes
    */
   @Override
   public List<IShape> getShapes() {
-    return this.shapes;
+    List<IShape> result = shapes;
+    if (result == null) {
+      // rebuilding twice in a race gives equal lists, so no lock is needed
+      result = history.shapesAt(frame);
+      shapes = result;
+    }
+    return result;
+  }
+
+  /**
+   * Gets the shapes in the snapshot as columns.
+   * @return the shape columns
+   */
+  @Override
+  public IShapeColumns getShapeColumns() {
+    return new ShapeListColumns(getShapes());
+  }
+
+  /**
+   * Gets the shapes in a region as columns, using an index of the snapshot
+   * that is built on the first query.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the shape columns of the shapes in the region
+   */
+  @Override
+  public IShapeColumns getShapeColumnsIn(double x, double y, double width, double height) {
+    IShapeColumns columns = indexedShapes;
+    SpatialGrid index = grid;
+    if (columns == null || index == null) {
+      columns = getShapeColumns();
+      index = SpatialGrid.of(columns);
+      indexedShapes = columns;
+      grid = index;
+    }
+    return new SubsetColumns(columns, index.query(x, y, width, height));
+  }
+
+  /**
+   * Gets the bounds, shape counts and colors of the snapshot. A snapshot
+   * taken by a model has them from capture time; any other computes them
+   * on the first call.
+   * @return the stats
+   */
+  @Override
+  public AlbumStats getStats() {
+    AlbumStats result = stats;
+    if (result == null) {
+      result = AlbumStats.of(getShapeColumns());
+      stats = result;
+    }
+    return result;
+  }
+
+  /**
+   * Checks whether the shapes can be rebuilt from a history, so that
+   * {@link #release()} frees them.
+   * @return true if the shapes are stored in a history
+   */
+  boolean isRebuildable() {
+    return history != null;
+  }
+
+  /**
+   * Drops the shape list and index rebuilt from the history; they are
+   * rebuilt again when next read. Does nothing if the shapes are held
+   * directly.
+   */
+  void release() {
+    if (history != null) {
+      shapes = null;
+      grid = null;
+      indexedShapes = null;
+    }
   }
 
   /**
@@ -90,7 +212,7 @@ public class Snapshot implements ISnapshot {
     sb.append("Description: ").append(description).append("\n");
     sb.append("Shape Information:\n");
     // Append information of each shape
-    for (IShape shape : shapes) {
+    for (IShape shape : getShapes()) {
       sb.append(shape.toString()).append("\n");
     }
     return sb.toString();
@@ -0,0 +1,228 @@
+package photoalbum.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only file of snapshots that is memory-mapped instead of read
+ * into the heap. Each snapshot is written as one record in a fixed binary
+ * layout, and the snapshots handed out read their shapes straight from the
+ * mapped file, so the number of snapshots is limited by disk space.
+ *
+ * <p>Record layout (big-endian):
+ * <pre>
+ *   int    shape count
+ *   int    offset of the first shape, from the start of the record
+ *   string snapshot ID, timestamp, description (int byte length + UTF-8)
+ *   shapes, SHAPE_BYTES each, starting at an 8-byte aligned offset:
+ *     byte type (1 rectangle, 2 oval), 3 bytes padding, int color 0xRRGGBB,
+ *     double x, y, width or x-radius, height or y-radius,
+ *     int name offset from the start of the record, int name byte length
+ *   shape names (UTF-8)
+ * </pre>
+ * Records follow each other with no gap, so a closed archive can be read
+ * back with {@link #read(Path)}.
+ */
+public class SnapshotArchive implements Closeable {
+  static final int SHAPE_BYTES = 48;
+  static final byte RECTANGLE = 1;
+  static final byte OVAL = 2;
+  private static final long SEGMENT_BYTES = 64L << 20;
+
+  private final FileChannel channel;
+  private MappedByteBuffer segment; // Mapped region that records are appended to
+  private long segmentStart; // File offset of the mapped region
+  private int used; // Bytes of the mapped region already written
+  private int count; // Number of snapshots written
+
+  /**
+   * Creates an archive in a file, replacing any existing content.
+   * @param file the archive file
+   * @throws IOException if the file cannot be opened
+   */
+  public SnapshotArchive(Path file) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /**
+   * Writes a snapshot to the archive.
+   * @param snapshotId the snapshot ID
+   * @param timestamp the timestamp
+   * @param description the description
+   * @param shapes the shapes of the snapshot
+   * @return a snapshot that reads its shapes from the archive
+   * @throws IOException if the archive is closed or the file cannot be extended
+   * @throws IllegalArgumentException if the record would be 2 GB or more
+   */
+  public ISnapshot append(String snapshotId, String timestamp, String description,
+      IShapeColumns shapes) throws IOException {
+    if (!channel.isOpen()) {
+      throw new IOException("The snapshot archive is closed.");
+    }
+    byte[] id = snapshotId.getBytes(StandardCharsets.UTF_8);
+    byte[] time = timestamp.getBytes(StandardCharsets.UTF_8);
+    byte[] desc = description.getBytes(StandardCharsets.UTF_8);
+    int shapeCount = shapes.size();
+    long shapesOffset = align(8L + 12 + id.length + time.length + desc.length);
+    long length = checkLength(shapesOffset + (long) shapeCount * SHAPE_BYTES, shapeCount);
+    byte[][] names = new byte[shapeCount][];
+    for (int i = 0; i < shapeCount; i++) {
+      names[i] = shapes.getName(i).getBytes(StandardCharsets.UTF_8);
+      length = checkLength(length + names[i].length, shapeCount);
+    }
+
+    ByteBuffer record = reserve((int) length);
+    record.putInt(shapeCount).putInt((int) shapesOffset);
+    record.putInt(id.length).put(id);
+    record.putInt(time.length).put(time);
+    record.putInt(desc.length).put(desc);
+    int nameOffset = (int) shapesOffset + shapeCount * SHAPE_BYTES;
+    for (int i = 0; i < shapeCount; i++) {
+      record.position((int) shapesOffset + i * SHAPE_BYTES);
+      record.put(shapes.getShapeType(i) == ShapeType.OVAL ? OVAL : RECTANGLE);
+      record.position(record.position() + 3);
+      record.putInt(shapes.getRgb(i));
+      record.putDouble(shapes.getX(i)).putDouble(shapes.getY(i));
+      record.putDouble(shapes.getWidth(i)).putDouble(shapes.getHeight(i));
+      record.putInt(nameOffset).putInt(names[i].length);
+      record.put(nameOffset, names[i]);
+      nameOffset += names[i].length;
+    }
+    count++;
+    return new MappedSnapshot(record.clear());
+  }
+
+  /**
+   * Reads the snapshots of a closed archive file. The file is mapped, so
+   * the snapshots read their shapes from it as needed.
+   * @param file the archive file
+   * @return the snapshots, in the order they were written
+   * @throws IOException if the file cannot be read or is not a valid archive
+   */
+  public static List<ISnapshot> read(Path file) throws IOException {
+    List<ISnapshot> snapshots = new ArrayList<>();
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = in.size();
+      long position = 0;
+      while (position < size) {
+        MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(size - position, Integer.MAX_VALUE));
+        int offset = 0;
+        int length = recordLength(window, offset);
+        while (length > 0) {
+          snapshots.add(new MappedSnapshot(window.slice(offset, length)));
+          offset += length;
+          length = recordLength(window, offset);
+        }
+        if (offset == 0) {
+          throw new IOException("Invalid snapshot archive record at byte " + position + ".");
+        }
+        position += offset;
+      }
+    }
+    return snapshots;
+  }
+
+  /**
+   * Finds the length of a record from its header and shape entries.
+   * @param data the mapped bytes
+   * @param offset the start of the record
+   * @return the length of the record, or 0 if it is not valid or does not
+   *     end within the bytes
+   */
+  private static int recordLength(ByteBuffer data, int offset) {
+    int available = data.capacity() - offset;
+    if (available < 8) {
+      return 0;
+    }
+    int shapeCount = data.getInt(offset);
+    int shapesOffset = data.getInt(offset + 4);
+    long length = shapesOffset + (long) shapeCount * SHAPE_BYTES;
+    if (shapeCount < 0 || shapesOffset < 20 || shapesOffset % 8 != 0 || length > available) {
+      return 0;
+    }
+    for (int i = 0; i < shapeCount; i++) {
+      int nameLength = data.getInt(offset + shapesOffset + i * SHAPE_BYTES + 44);
+      length += nameLength;
+      if (nameLength < 0 || length > available) {
+        return 0;
+      }
+    }
+    return (int) length;
+  }
+
+  /**
+   * Gets the number of snapshots written to the archive.
+   * @return the number of snapshots
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Trims the file to the written records and closes it. Snapshots already
+   * handed out stay readable while they are referenced. Closing a closed
+   * archive does nothing.
+   * @throws IOException if the file cannot be trimmed or closed
+   */
+  @Override
+  public void close() throws IOException {
+    if (!channel.isOpen()) {
+      return;
+    }
+    channel.truncate(segmentStart + used);
+    channel.close();
+  }
+
+  /**
+   * Finds room for a record, mapping a new region at the end of the written
+   * data when the current one is too small.
+   * @param length the length of the record
+   * @return a buffer covering exactly the record
+   */
+  private ByteBuffer reserve(int length) throws IOException {
+    if (segment == null || segment.capacity() - used < length) {
+      segmentStart += used;
+      used = 0;
+      segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart,
+          Math.max(SEGMENT_BYTES, length));
+    }
+    ByteBuffer record = segment.slice(used, length);
+    used += length;
+    return record;
+  }
+
+  /**
+   * Checks that a record fits in one mapped buffer.
+   * @param length the length of the record so far
+   * @param shapeCount the number of shapes of the snapshot
+   * @return the length
+   * @throws IllegalArgumentException if the record would be 2 GB or more
+   */
+  private static long checkLength(long length, int shapeCount) {
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("A snapshot of " + shapeCount
+          + " shapes is too large for the archive.");
+    }
+    return length;
+  }
+
+  /**
+   * Rounds an offset up to a multiple of 8.
+   * @param offset the offset
+   * @return the aligned offset
+   */
+  private static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+}
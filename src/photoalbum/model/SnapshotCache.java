@@ -0,0 +1,245 @@
+package photoalbum.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the shapes of the most recently used snapshots in memory, up to a
+ * number of snapshots and an estimated number of bytes. When either limit
+ * is passed, the least recently used snapshot is evicted:
+ * <ul>
+ *   <li>a snapshot stored in a model's history drops its rebuilt shapes,
+ *       which are rebuilt from the history when it is next read;</li>
+ *   <li>any other snapshot is written once to a spill file in the
+ *       {@link SnapshotArchive} format, and read back from it into memory
+ *       when it is next read.</li>
+ * </ul>
+ * A cache is attached to an album with
+ * {@link SnapshotIndex#setCache(SnapshotCache)} and only affects snapshots
+ * taken afterwards. One cache may be shared by several albums, so that they
+ * share one budget. The cache may be used from any number of threads.
+ */
+public final class SnapshotCache implements Closeable {
+  // Rough heap sizes on a 64-bit JVM with compressed references
+  private static final long SNAPSHOT_BYTES = 96; // snapshot object, list and grid headers
+  private static final long VIEW_SHAPE_BYTES = 4 + 24; // list slot and grid entry of a shared shape
+  private static final long OWNED_SHAPE_BYTES = 64 + 24; // shape owned by the snapshot
+
+  private final int maxSnapshots; // Maximum number of snapshots in memory
+  private final long maxBytes; // Maximum estimated bytes of the snapshots in memory
+  private final Path spillFile;
+  private final LinkedHashMap<CachedSnapshot, Long> resident; // Bytes by snapshot, LRU first
+  private SnapshotArchive spill; // Opened on the first spill
+  private long residentBytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long spills; // Number of snapshots written to the spill file
+
+  /**
+   * Constructs a cache.
+   * @param maxSnapshots the maximum number of snapshots kept in memory
+   * @param maxBytes the maximum estimated bytes of the snapshots kept in memory
+   * @param spillFile the file evicted snapshots are written to; it is
+   *     created on the first spill and its content is replaced
+   */
+  public SnapshotCache(int maxSnapshots, long maxBytes, Path spillFile) {
+    if (maxSnapshots < 1 || maxBytes < 1) {
+      throw new IllegalArgumentException("Cache limits must be positive.");
+    }
+    this.maxSnapshots = maxSnapshots;
+    this.maxBytes = maxBytes;
+    this.spillFile = spillFile;
+    this.resident = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Wraps a new snapshot so that its shapes are managed by the cache.
+   * Snapshots that live in an archive already are returned as they are.
+   * @param snapshot the snapshot
+   * @return the snapshot to keep in the album
+   */
+  ISnapshot admit(ISnapshot snapshot) {
+    if (snapshot instanceof MappedSnapshot) {
+      return snapshot;
+    }
+    CachedSnapshot cached = new CachedSnapshot(this, snapshot);
+    if (!cached.isRebuildable()) {
+      // the shapes are in memory already; a history snapshot is not until it is read
+      long bytes = residentBytes(cached, snapshot);
+      synchronized (this) {
+        makeResident(cached, snapshot, bytes);
+      }
+    }
+    return cached;
+  }
+
+  /**
+   * Gets a snapshot whose shapes are in memory, loading them if the
+   * snapshot was evicted. The shapes are rebuilt or read back without
+   * holding the cache, so that reads of other snapshots do not wait for
+   * them; if another thread loads the same snapshot meanwhile, its copy is
+   * kept.
+   * @param cached the snapshot
+   * @return the snapshot holding the shapes
+   */
+  ISnapshot load(CachedSnapshot cached) {
+    ISnapshot source;
+    ISnapshot spilled;
+    synchronized (this) {
+      if (resident.get(cached) != null) {
+        hits++;
+        return cached.source();
+      }
+      misses++;
+      source = cached.source();
+      spilled = cached.spilled();
+    }
+    if (source == null) {
+      source = new Snapshot(spilled.getSnapshotId(), spilled.getTimestamp(),
+          spilled.getDescription(), spilled.getShapes().toArray(new IShape[0]));
+    }
+    long bytes = residentBytes(cached, source); // rebuilds the shapes of a history snapshot
+    synchronized (this) {
+      if (resident.containsKey(cached)) {
+        return cached.source();
+      }
+      makeResident(cached, source, bytes);
+    }
+    return source;
+  }
+
+  /**
+   * Forgets a snapshot that was removed from its album.
+   * @param cached the snapshot
+   */
+  synchronized void remove(CachedSnapshot cached) {
+    Long bytes = resident.remove(cached);
+    if (bytes != null) {
+      residentBytes -= bytes;
+    }
+  }
+
+  /**
+   * Estimates the memory of a snapshot's shapes once they are in memory.
+   * @param cached the snapshot
+   * @param source the snapshot holding the shapes
+   * @return the estimated number of bytes
+   */
+  private static long residentBytes(CachedSnapshot cached, ISnapshot source) {
+    return SNAPSHOT_BYTES + source.getShapeColumns().size()
+        * (cached.isRebuildable() ? VIEW_SHAPE_BYTES : OWNED_SHAPE_BYTES);
+  }
+
+  /**
+   * Marks a snapshot as in memory and evicts others until the limits are met.
+   * @param cached the snapshot
+   * @param source the snapshot holding the shapes
+   * @param bytes the estimated memory of the shapes
+   */
+  private void makeResident(CachedSnapshot cached, ISnapshot source, long bytes) {
+    cached.setSource(source);
+    resident.put(cached, bytes);
+    residentBytes += bytes;
+    Iterator<Map.Entry<CachedSnapshot, Long>> eldest = resident.entrySet().iterator();
+    while (resident.size() > 1 && (resident.size() > maxSnapshots || residentBytes > maxBytes)) {
+      Map.Entry<CachedSnapshot, Long> entry = eldest.next();
+      eldest.remove();
+      residentBytes -= entry.getValue();
+      evict(entry.getKey());
+    }
+  }
+
+  /**
+   * Takes the shapes of a snapshot out of memory, writing them to the spill
+   * file first if they cannot be rebuilt and are not there yet.
+   * @param cached the snapshot
+   */
+  private void evict(CachedSnapshot cached) {
+    evictions++;
+    ISnapshot source = cached.source();
+    if (cached.isRebuildable()) {
+      ((Snapshot) source).release();
+      return;
+    }
+    if (cached.spilled() == null) {
+      try {
+        if (spill == null) {
+          spill = new SnapshotArchive(spillFile);
+        }
+        cached.setSpilled(spill.append(source.getSnapshotId(), source.getTimestamp(),
+            source.getDescription(), source.getShapeColumns()));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot spill snapshot to " + spillFile, e);
+      }
+      spills++;
+    }
+    cached.setSource(null);
+  }
+
+  /**
+   * Gets the number of reads of a snapshot that was in memory.
+   * @return the number of hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Gets the number of reads of a snapshot that had to be rebuilt or
+   * reloaded.
+   * @return the number of misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Gets the number of snapshots taken out of memory.
+   * @return the number of evictions
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Gets the number of snapshots written to the spill file.
+   * @return the number of spilled snapshots
+   */
+  public synchronized long getSpills() {
+    return spills;
+  }
+
+  /**
+   * Gets the number of snapshots in memory.
+   * @return the number of resident snapshots
+   */
+  public synchronized int getResidentCount() {
+    return resident.size();
+  }
+
+  /**
+   * Gets the estimated memory of the snapshots in memory.
+   * @return the estimated number of bytes
+   */
+  public synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  /**
+   * Closes the spill file. Snapshots already spilled stay readable while
+   * they are referenced, but no more snapshots can be spilled.
+   * @throws IOException if the spill file cannot be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (spill != null) {
+      spill.close();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package photoalbum.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the shapes of a sequence of snapshots as periodic keyframes plus
+ * deltas. A keyframe keeps the whole (shared) shape tree; every other frame
+ * keeps only the shapes added, changed or removed since the frame before it.
+ * The shapes of a frame are rebuilt on demand by replaying at most
+ * {@code keyframeInterval - 1} deltas on top of the nearest keyframe. The
+ * last rebuilt frame is remembered, so rebuilding the frames in order
+ * replays each delta once.
+ */
+final class SnapshotHistory {
+  // Rough per-object sizes on a 64-bit JVM with compressed references
+  private static final long SHAPE_BYTES = 64 + 40; // shape object and its color
+  private static final long TREE_NODE_BYTES = 40;
+  private static final long FRAME_BYTES = 40;
+  private static final long DELTA_ENTRY_BYTES = 8 + 4; // order key and shape reference
+
+  private final int keyframeInterval;
+  private final List<Frame> frames;
+  private long deltaEntries; // Total number of entries in all deltas
+  private long keyframeShapes; // Total number of shapes in all keyframes
+  private volatile Replay lastReplay; // Last rebuilt frame, or null
+
+  /**
+   * The shape tree of a rebuilt frame.
+   */
+  private static final class Replay {
+    private final int index;
+    private final ShapeTree tree;
+
+    private Replay(int index, ShapeTree tree) {
+      this.index = index;
+      this.tree = tree;
+    }
+  }
+
+  /**
+   * One captured frame. A keyframe has a tree and no delta; any other frame
+   * has a delta and no tree. A null shape in a delta marks a removal.
+   */
+  private static final class Frame {
+    private final ShapeTree keyframe;
+    private final long[] orderKeys;
+    private final IShape[] shapes;
+    private final int shapeCount;
+
+    private Frame(ShapeTree keyframe, long[] orderKeys, IShape[] shapes, int shapeCount) {
+      this.keyframe = keyframe;
+      this.orderKeys = orderKeys;
+      this.shapes = shapes;
+      this.shapeCount = shapeCount;
+    }
+  }
+
+  /**
+   * Constructs an empty history.
+   * @param keyframeInterval the number of frames between two keyframes
+   */
+  SnapshotHistory(int keyframeInterval) {
+    if (keyframeInterval < 1) {
+      throw new IllegalArgumentException("Keyframe interval must be positive.");
+    }
+    this.keyframeInterval = keyframeInterval;
+    this.frames = new ArrayList<>();
+  }
+
+  /**
+   * Appends a frame to the history.
+   * @param tree the full shape tree at capture time
+   * @param changes the shapes changed since the previous frame by draw order
+   *     key, with null for removed shapes; ignored when a keyframe is stored
+   * @param forceKeyframe whether to store a keyframe even if one is not due,
+   *     for example because the changes are not known
+   * @return the index of the new frame
+   */
+  int append(ShapeTree tree, Map<Long, IShape> changes, boolean forceKeyframe) {
+    int index = frames.size();
+    if (index % keyframeInterval == 0 || forceKeyframe) {
+      frames.add(new Frame(tree, null, null, tree.size()));
+      keyframeShapes += tree.size();
+    } else {
+      long[] orderKeys = new long[changes.size()];
+      IShape[] shapes = new IShape[changes.size()];
+      int i = 0;
+      for (Map.Entry<Long, IShape> change : changes.entrySet()) {
+        orderKeys[i] = change.getKey();
+        shapes[i] = change.getValue();
+        i++;
+      }
+      frames.add(new Frame(null, orderKeys, shapes, tree.size()));
+      deltaEntries += orderKeys.length;
+    }
+    return index;
+  }
+
+  /**
+   * Rebuilds the shapes of a frame.
+   * @param index the index of the frame
+   * @return a read-only list of the shapes in draw order
+   */
+  List<IShape> shapesAt(int index) {
+    return Collections.unmodifiableList(treeAt(index).toList());
+  }
+
+  /**
+   * Rebuilds the shape tree of a frame, starting from the last rebuilt
+   * frame if it lies between the frame and its keyframe.
+   * @param index the index of the frame
+   * @return the shape tree
+   */
+  private ShapeTree treeAt(int index) {
+    int start = index;
+    while (frames.get(start).keyframe == null) {
+      start--;
+    }
+    ShapeTree tree = frames.get(start).keyframe;
+    Replay replay = lastReplay;
+    if (replay != null && replay.index >= start && replay.index <= index) {
+      start = replay.index;
+      tree = replay.tree;
+    }
+    for (int i = start + 1; i <= index; i++) {
+      Frame delta = frames.get(i);
+      for (int j = 0; j < delta.orderKeys.length; j++) {
+        tree = delta.shapes[j] == null
+            ? tree.remove(delta.orderKeys[j])
+            : tree.put(delta.orderKeys[j], delta.shapes[j]);
+      }
+    }
+    lastReplay = new Replay(index, tree);
+    return tree;
+  }
+
+  /**
+   * Gets the number of frames in the history.
+   * @return the number of frames
+   */
+  int size() {
+    return frames.size();
+  }
+
+  /**
+   * Estimates the heap used by the history. Shapes in deltas are counted as
+   * owned by the history, shapes in keyframes only by their tree nodes.
+   * @return the estimated number of bytes
+   */
+  long estimatedBytes() {
+    return frames.size() * FRAME_BYTES
+        + keyframeShapes * TREE_NODE_BYTES
+        + deltaEntries * (DELTA_ENTRY_BYTES + SHAPE_BYTES);
+  }
+
+  /**
+   * Estimates the most heap that appending one frame could add, as a
+   * keyframe or as a delta.
+   * @param shapes the number of shapes in the frame
+   * @param changes the number of shapes changed since the previous frame
+   * @return the estimated number of bytes
+   */
+  static long maxFrameBytes(long shapes, long changes) {
+    return FRAME_BYTES + Math.max(shapes * TREE_NODE_BYTES,
+        changes * (DELTA_ENTRY_BYTES + SHAPE_BYTES));
+  }
+
+  /**
+   * Estimates the heap that the same frames would use as full deep copies.
+   * @return the estimated number of bytes
+   */
+  long estimatedFullCopyBytes() {
+    long shapes = 0;
+    for (Frame frame : frames) {
+      shapes += frame.shapeCount;
+    }
+    return frames.size() * FRAME_BYTES + shapes * SHAPE_BYTES;
+  }
+}
@@ -0,0 +1,287 @@
+package photoalbum.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The snapshots of a photo album in the order they were taken, indexed by ID
+ * and by capture time. Capture times strictly increase, so a snapshot's
+ * position is also its rank in time: lookups by ID take constant time,
+ * lookups by time take O(log n) and lookups by position constant time.
+ *
+ * <p>Snapshots are added by one thread at a time and may be read by any
+ * number of threads while that happens; a reader sees each snapshot either
+ * fully added or not at all.
+ *
+ * <p>With a {@link SnapshotCache}, the snapshots added keep their shapes in
+ * memory only while the cache allows it.
+ */
+public final class SnapshotIndex {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private volatile ISnapshot[] snapshots; // Snapshots by position
+  private volatile long[] times; // Capture times by position, in nanoseconds since 1970 UTC
+  private volatile int size; // Number of snapshots, written after the arrays
+  private final Map<String, Integer> positions; // Positions of the snapshots by ID
+  private long lastTime; // Capture time handed out last
+  private volatile SnapshotCache cache; // Cache for new snapshots, or null
+  private final List<ISnapshot> snapshotList;
+  private final List<String> idList;
+
+  /**
+   * Constructs an empty index.
+   */
+  SnapshotIndex() {
+    this.snapshots = new ISnapshot[INITIAL_CAPACITY];
+    this.times = new long[INITIAL_CAPACITY];
+    this.positions = new ConcurrentHashMap<>();
+    this.lastTime = Long.MIN_VALUE;
+    this.snapshotList = new SnapshotList();
+    this.idList = new IdList();
+  }
+
+  /**
+   * Gets the capture time for a new snapshot: the current time, or one
+   * nanosecond after the last capture time if the clock has not moved on.
+   * Its string form is used as the snapshot ID, so IDs are unique.
+   * @return the capture time
+   */
+  LocalDateTime nextCaptureTime() {
+    long time = Math.max(nanos(LocalDateTime.now()), lastTime + 1);
+    lastTime = time;
+    return toTime(time);
+  }
+
+  /**
+   * Adds a snapshot after all the others.
+   * @param snapshot the snapshot
+   * @param captureTime the capture time given by {@link #nextCaptureTime()}
+   */
+  void add(ISnapshot snapshot, LocalDateTime captureTime) {
+    SnapshotCache current = cache;
+    if (current != null) {
+      snapshot = current.admit(snapshot);
+    }
+    int n = size;
+    if (n == snapshots.length) {
+      times = Arrays.copyOf(times, n * 2);
+      snapshots = Arrays.copyOf(snapshots, n * 2);
+    }
+    times[n] = nanos(captureTime);
+    snapshots[n] = snapshot;
+    positions.put(snapshot.getSnapshotId(), n);
+    size = n + 1;
+  }
+
+  /**
+   * Removes all snapshots. Capture times keep increasing afterwards.
+   */
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      if (snapshots[i] instanceof CachedSnapshot) {
+        ((CachedSnapshot) snapshots[i]).forget();
+      }
+    }
+    size = 0;
+    positions.clear();
+    snapshots = new ISnapshot[INITIAL_CAPACITY];
+    times = new long[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Sets the cache that manages the shapes of snapshots added from now on.
+   * @param cache the cache, or null to keep the shapes of new snapshots
+   *     as the album stores them
+   */
+  public void setCache(SnapshotCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Gets the number of snapshots.
+   * @return the number of snapshots
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets a snapshot by position.
+   * @param position the position, from 0 for the first snapshot taken
+   * @return the snapshot
+   * @throws IndexOutOfBoundsException if there is no snapshot at the position
+   */
+  public ISnapshot get(int position) {
+    int n = size;
+    if (position < 0 || position >= n) {
+      throw new IndexOutOfBoundsException("No snapshot at position " + position);
+    }
+    return snapshots[position];
+  }
+
+  /**
+   * Gets a snapshot by ID.
+   * @param snapshotId the ID of the snapshot
+   * @return the snapshot, or null if there is no snapshot with the ID
+   */
+  public ISnapshot get(String snapshotId) {
+    int position = indexOf(snapshotId);
+    return position < 0 ? null : get(position);
+  }
+
+  /**
+   * Gets the position of a snapshot.
+   * @param snapshotId the ID of the snapshot
+   * @return the position, or -1 if there is no snapshot with the ID
+   */
+  public int indexOf(String snapshotId) {
+    Integer position = snapshotId == null ? null : positions.get(snapshotId);
+    return position == null || position >= size ? -1 : position;
+  }
+
+  /**
+   * Gets the capture time of a snapshot.
+   * @param position the position of the snapshot
+   * @return the capture time
+   * @throws IndexOutOfBoundsException if there is no snapshot at the position
+   */
+  public LocalDateTime getCaptureTime(int position) {
+    get(position);
+    return toTime(times[position]);
+  }
+
+  /**
+   * Finds the first snapshot taken at or after a time.
+   * @param time the time
+   * @return the position of the snapshot, or {@link #size()} if every
+   *     snapshot was taken before the time
+   */
+  public int seek(LocalDateTime time) {
+    int n = size;
+    int found = Arrays.binarySearch(times, 0, n, nanos(time));
+    return found >= 0 ? found : -found - 1;
+  }
+
+  /**
+   * Gets the snapshots taken between two times, including both ends.
+   * @param from the earliest capture time
+   * @param to the latest capture time
+   * @return a read-only list of the snapshots, in the order they were taken
+   */
+  public List<ISnapshot> between(LocalDateTime from, LocalDateTime to) {
+    int start = seek(from);
+    int end = to.isBefore(from) ? start : seek(to.plusNanos(1));
+    return snapshotList.subList(start, end);
+  }
+
+  /**
+   * Gets the snapshots as a list. The list is read-only and reflects
+   * snapshots added later.
+   * @return the snapshots, in the order they were taken
+   */
+  public List<ISnapshot> asList() {
+    return snapshotList;
+  }
+
+  /**
+   * Gets the IDs of the snapshots as a list. The list is read-only and
+   * reflects snapshots added later.
+   * @return the snapshot IDs, in the order the snapshots were taken
+   */
+  public List<String> ids() {
+    return idList;
+  }
+
+  /**
+   * Converts a time to nanoseconds since 1970, treating it as UTC.
+   * @param time the time
+   * @return the number of nanoseconds
+   */
+  private static long nanos(LocalDateTime time) {
+    return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+  }
+
+  /**
+   * Converts nanoseconds since 1970 back to a time.
+   * @param nanos the number of nanoseconds
+   * @return the time
+   */
+  private static LocalDateTime toTime(long nanos) {
+    return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+        (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+  }
+
+  /**
+   * A read-only view of the snapshots.
+   */
+  private final class SnapshotList extends AbstractList<ISnapshot> implements RandomAccess {
+    /**
+     * Gets a snapshot by position.
+     * @param index the position
+     * @return the snapshot
+     */
+    @Override
+    public ISnapshot get(int index) {
+      return SnapshotIndex.this.get(index);
+    }
+
+    /**
+     * Gets the number of snapshots.
+     * @return the number of snapshots
+     */
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * A read-only view of the snapshot IDs.
+   */
+  private final class IdList extends AbstractList<String> implements RandomAccess {
+    /**
+     * Gets a snapshot ID by position.
+     * @param index the position
+     * @return the snapshot ID
+     */
+    @Override
+    public String get(int index) {
+      return SnapshotIndex.this.get(index).getSnapshotId();
+    }
+
+    /**
+     * Gets the number of snapshots.
+     * @return the number of snapshots
+     */
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Finds a snapshot ID using the index instead of a scan.
+     * @param o the snapshot ID
+     * @return the position, or -1 if it is not in the list
+     */
+    @Override
+    public int indexOf(Object o) {
+      return o instanceof String ? SnapshotIndex.this.indexOf((String) o) : -1;
+    }
+
+    /**
+     * Checks for a snapshot ID using the index instead of a scan.
+     * @param o the snapshot ID
+     * @return true if a snapshot has the ID
+     */
+    @Override
+    public boolean contains(Object o) {
+      return indexOf(o) >= 0;
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package photoalbum.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid over the bounding boxes of shapes, used to find the shapes
+ * that overlap a region without looking at every shape. Entries are
+ * identified by a long ID chosen by the owner, such as a draw order key or a
+ * position in a list; queries return the IDs in ascending order.
+ * Boxes that would cover too many cells are kept in a separate list that
+ * every query checks.
+ */
+final class SpatialGrid {
+  static final double DEFAULT_CELL_SIZE = 64;
+  private static final int MAX_CELLS_PER_ENTRY = 256;
+
+  private final double cellSize;
+  private final Map<Long, double[]> bounds; // minX, minY, maxX, maxY by ID
+  private final Map<Long, Set<Long>> cells; // IDs by packed cell coordinates
+  private final Set<Long> large; // IDs of boxes that are not put in cells
+
+  /**
+   * Constructs an empty grid.
+   * @param cellSize the width and height of a cell
+   */
+  SpatialGrid(double cellSize) {
+    this.cellSize = cellSize;
+    this.bounds = new HashMap<>();
+    this.cells = new HashMap<>();
+    this.large = new HashSet<>();
+  }
+
+  /**
+   * Builds a grid over columns of shapes, using their positions as IDs.
+   * @param shapes the shapes
+   * @return the grid
+   */
+  static SpatialGrid of(IShapeColumns shapes) {
+    SpatialGrid grid = new SpatialGrid(DEFAULT_CELL_SIZE);
+    for (int i = 0; i < shapes.size(); i++) {
+      grid.put(i, shapes.getShapeType(i), shapes.getX(i), shapes.getY(i),
+          shapes.getWidth(i), shapes.getHeight(i));
+    }
+    return grid;
+  }
+
+  /**
+   * Adds a shape object to the grid or updates its box.
+   * @param id the ID of the shape
+   * @param shape the shape
+   */
+  void put(long id, IShape shape) {
+    if (shape instanceof Oval) {
+      Oval oval = (Oval) shape;
+      put(id, ShapeType.OVAL, oval.getX(), oval.getY(), oval.getXradius(), oval.getYradius());
+    } else {
+      Rectangle rectangle = (Rectangle) shape;
+      put(id, ShapeType.RECTANGLE, rectangle.getX(), rectangle.getY(),
+          rectangle.getWidth(), rectangle.getHeight());
+    }
+  }
+
+  /**
+   * Adds a shape to the grid or updates its box. An oval is given the box
+   * from (x, y) to (x + 2 * x-radius, y + 2 * y-radius), which contains the
+   * oval as drawn by both views.
+   * @param id the ID of the shape
+   * @param type the type of the shape
+   * @param x the x-coordinate
+   * @param y the y-coordinate
+   * @param width the width of a rectangle or x-radius of an oval
+   * @param height the height of a rectangle or y-radius of an oval
+   */
+  void put(long id, ShapeType type, double x, double y, double width, double height) {
+    if (type == ShapeType.OVAL) {
+      width *= 2;
+      height *= 2;
+    }
+    remove(id);
+    double[] box = {x, y, x + width, y + height};
+    bounds.put(id, box);
+    long cellCount = (long) (cell(box[2]) - cell(box[0]) + 1)
+        * (cell(box[3]) - cell(box[1]) + 1);
+    if (cellCount > MAX_CELLS_PER_ENTRY) {
+      large.add(id);
+      return;
+    }
+    for (int cx = cell(box[0]); cx <= cell(box[2]); cx++) {
+      for (int cy = cell(box[1]); cy <= cell(box[3]); cy++) {
+        cells.computeIfAbsent(key(cx, cy), k -> new HashSet<>()).add(id);
+      }
+    }
+  }
+
+  /**
+   * Removes a shape from the grid.
+   * @param id the ID of the shape
+   */
+  void remove(long id) {
+    double[] box = bounds.remove(id);
+    if (box == null || large.remove(id)) {
+      return;
+    }
+    for (int cx = cell(box[0]); cx <= cell(box[2]); cx++) {
+      for (int cy = cell(box[1]); cy <= cell(box[3]); cy++) {
+        Long key = key(cx, cy);
+        Set<Long> ids = cells.get(key);
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          cells.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes all shapes from the grid.
+   */
+  void clear() {
+    bounds.clear();
+    cells.clear();
+    large.clear();
+  }
+
+  /**
+   * Finds the shapes whose boxes overlap or touch a region.
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the IDs of the shapes, in ascending order
+   */
+  long[] query(double x, double y, double width, double height) {
+    double maxX = x + width;
+    double maxY = y + height;
+    long cellCount = (long) (cell(maxX) - cell(x) + 1) * (cell(maxY) - cell(y) + 1);
+    Set<Long> candidates;
+    if (cellCount >= bounds.size()) {
+      candidates = bounds.keySet(); // cheaper to check every box
+    } else {
+      candidates = new HashSet<>(large);
+      for (int cx = cell(x); cx <= cell(maxX); cx++) {
+        for (int cy = cell(y); cy <= cell(maxY); cy++) {
+          Set<Long> ids = cells.get(key(cx, cy));
+          if (ids != null) {
+            candidates.addAll(ids);
+          }
+        }
+      }
+    }
+    long[] found = new long[candidates.size()];
+    int count = 0;
+    for (Long id : candidates) {
+      double[] box = bounds.get(id);
+      if (box[0] <= maxX && box[2] >= x && box[1] <= maxY && box[3] >= y) {
+        found[count++] = id;
+      }
+    }
+    found = Arrays.copyOf(found, count);
+    Arrays.sort(found);
+    return found;
+  }
+
+  /**
+   * Finds the shapes in columns that overlap or touch a region by checking
+   * every shape, for callers that do not keep a grid.
+   * @param shapes the shapes
+   * @param x the x-coordinate of the region
+   * @param y the y-coordinate of the region
+   * @param width the width of the region
+   * @param height the height of the region
+   * @return the positions of the shapes, in ascending order
+   */
+  static long[] scan(IShapeColumns shapes, double x, double y, double width, double height) {
+    long[] found = new long[shapes.size()];
+    int count = 0;
+    for (int i = 0; i < shapes.size(); i++) {
+      double scale = shapes.getShapeType(i) == ShapeType.OVAL ? 2 : 1;
+      double minX = shapes.getX(i);
+      double minY = shapes.getY(i);
+      double maxX = minX + shapes.getWidth(i) * scale;
+      double maxY = minY + shapes.getHeight(i) * scale;
+      if (minX <= x + width && maxX >= x && minY <= y + height && maxY >= y) {
+        found[count++] = i;
+      }
+    }
+    return Arrays.copyOf(found, count);
+  }
+
+  /**
+   * Gets the cell coordinate of a position, clamped to the int range.
+   * @param position the x- or y-coordinate
+   * @return the cell coordinate
+   */
+  private int cell(double position) {
+    double cell = Math.floor(position / cellSize);
+    return (int) Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, cell));
+  }
+
+  /**
+   * Packs two cell coordinates into a map key.
+   * @param cx the cell column
+   * @param cy the cell row
+   * @return the key
+   */
+  private static long key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+  }
+}
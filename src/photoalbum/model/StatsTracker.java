@@ -0,0 +1,224 @@
+package photoalbum.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link AlbumStats} of a changing set of shapes up to date as
+ * shapes are added and removed; a changed shape is removed with its old
+ * values and added with its new ones. Counts are updated in O(1). Each edge
+ * of the box remembers how many shapes touch it, and only when the last of
+ * them leaves is the box marked stale, to be recomputed from the shapes.
+ */
+final class StatsTracker {
+  private int rectangles;
+  private int ovals;
+  private final Map<Integer, int[]> colorCounts; // Number of shapes by color, never zero
+  private double minX;
+  private double minY;
+  private double maxX;
+  private double maxY;
+  private int atMinX; // Number of shapes whose box touches minX
+  private int atMinY;
+  private int atMaxX;
+  private int atMaxY;
+  private boolean boundsStale; // Whether the box may be larger than the shapes' box
+  private AlbumStats frozen; // Stats as of the last change, null until asked for
+
+  /**
+   * Constructs a tracker of no shapes.
+   */
+  StatsTracker() {
+    this.colorCounts = new HashMap<>();
+    clearBounds();
+  }
+
+  /**
+   * Counts a shape.
+   * @param shape the shape
+   */
+  void add(IShape shape) {
+    if (shape instanceof Oval) {
+      Oval oval = (Oval) shape;
+      add(ShapeType.OVAL, oval.getX(), oval.getY(), oval.getXradius(), oval.getYradius(),
+          oval.getColor().getRgb());
+    } else {
+      Rectangle rectangle = (Rectangle) shape;
+      add(ShapeType.RECTANGLE, rectangle.getX(), rectangle.getY(), rectangle.getWidth(),
+          rectangle.getHeight(), rectangle.getColor().getRgb());
+    }
+  }
+
+  /**
+   * Stops counting a shape, which must have the values it was counted with.
+   * @param shape the shape
+   */
+  void remove(IShape shape) {
+    if (shape instanceof Oval) {
+      Oval oval = (Oval) shape;
+      remove(ShapeType.OVAL, oval.getX(), oval.getY(), oval.getXradius(), oval.getYradius(),
+          oval.getColor().getRgb());
+    } else {
+      Rectangle rectangle = (Rectangle) shape;
+      remove(ShapeType.RECTANGLE, rectangle.getX(), rectangle.getY(), rectangle.getWidth(),
+          rectangle.getHeight(), rectangle.getColor().getRgb());
+    }
+  }
+
+  /**
+   * Counts a shape given by its values.
+   * @param type the shape type
+   * @param x the x-coordinate
+   * @param y the y-coordinate
+   * @param width the width of a rectangle or x-radius of an oval
+   * @param height the height of a rectangle or y-radius of an oval
+   * @param rgb the color as 0xRRGGBB
+   */
+  void add(ShapeType type, double x, double y, double width, double height, int rgb) {
+    if (type == ShapeType.OVAL) {
+      ovals++;
+      includeBounds(x, y, x + 2 * width, y + 2 * height);
+    } else {
+      rectangles++;
+      includeBounds(x, y, x + width, y + height);
+    }
+    colorCounts.computeIfAbsent(rgb, color -> new int[1])[0]++;
+    frozen = null;
+  }
+
+  /**
+   * Stops counting a shape given by the values it was counted with.
+   * @param type the shape type
+   * @param x the x-coordinate
+   * @param y the y-coordinate
+   * @param width the width of a rectangle or x-radius of an oval
+   * @param height the height of a rectangle or y-radius of an oval
+   * @param rgb the color as 0xRRGGBB
+   */
+  void remove(ShapeType type, double x, double y, double width, double height, int rgb) {
+    double scale = type == ShapeType.OVAL ? 2 : 1;
+    if (type == ShapeType.OVAL) {
+      ovals--;
+    } else {
+      rectangles--;
+    }
+    if (rectangles + ovals == 0) {
+      clearBounds();
+    } else {
+      // the box only shrinks when the last shape on one of its edges leaves
+      boundsStale |= x == minX && --atMinX == 0;
+      boundsStale |= y == minY && --atMinY == 0;
+      boundsStale |= x + width * scale == maxX && --atMaxX == 0;
+      boundsStale |= y + height * scale == maxY && --atMaxY == 0;
+    }
+    int[] count = colorCounts.get(rgb);
+    if (--count[0] == 0) {
+      colorCounts.remove(rgb);
+    }
+    frozen = null;
+  }
+
+  /**
+   * Checks whether the box must be recomputed with {@link #clearBounds()}
+   * and {@link #includeBounds(IShape)} before the stats are frozen.
+   * @return true if a shape on an edge of the box has left
+   */
+  boolean needsBounds() {
+    return boundsStale;
+  }
+
+  /**
+   * Empties the box, to be grown again shape by shape.
+   */
+  void clearBounds() {
+    minX = Double.POSITIVE_INFINITY;
+    minY = Double.POSITIVE_INFINITY;
+    maxX = Double.NEGATIVE_INFINITY;
+    maxY = Double.NEGATIVE_INFINITY;
+    atMinX = 0;
+    atMinY = 0;
+    atMaxX = 0;
+    atMaxY = 0;
+    boundsStale = false;
+    frozen = null;
+  }
+
+  /**
+   * Grows the box to cover a shape that is already counted.
+   * @param shape the shape
+   */
+  void includeBounds(IShape shape) {
+    if (shape instanceof Oval) {
+      Oval oval = (Oval) shape;
+      includeBounds(oval.getX(), oval.getY(), oval.getX() + 2 * oval.getXradius(),
+          oval.getY() + 2 * oval.getYradius());
+    } else {
+      Rectangle rectangle = (Rectangle) shape;
+      includeBounds(rectangle.getX(), rectangle.getY(),
+          rectangle.getX() + rectangle.getWidth(), rectangle.getY() + rectangle.getHeight());
+    }
+  }
+
+  /**
+   * Grows the box to cover another box, counting the edges it touches.
+   * @param left the least x-coordinate of the other box
+   * @param top the least y-coordinate of the other box
+   * @param right the greatest x-coordinate of the other box
+   * @param bottom the greatest y-coordinate of the other box
+   */
+  private void includeBounds(double left, double top, double right, double bottom) {
+    if (left < minX) {
+      minX = left;
+      atMinX = 1;
+    } else if (left == minX) {
+      atMinX++;
+    }
+    if (top < minY) {
+      minY = top;
+      atMinY = 1;
+    } else if (top == minY) {
+      atMinY++;
+    }
+    if (right > maxX) {
+      maxX = right;
+      atMaxX = 1;
+    } else if (right == maxX) {
+      atMaxX++;
+    }
+    if (bottom > maxY) {
+      maxY = bottom;
+      atMaxY = 1;
+    } else if (bottom == maxY) {
+      atMaxY++;
+    }
+    frozen = null;
+  }
+
+  /**
+   * Gets the stats as they are now. The result is reused until the next
+   * change, so snapshots of an unchanged album share it.
+   * @return the stats
+   * @throws IllegalStateException if the box is stale
+   */
+  AlbumStats freeze() {
+    if (boundsStale) {
+      throw new IllegalStateException("The bounds must be recomputed first.");
+    }
+    if (frozen == null) {
+      int[] colors = new int[colorCounts.size()];
+      int i = 0;
+      for (int rgb : colorCounts.keySet()) {
+        colors[i++] = rgb;
+      }
+      Arrays.sort(colors);
+      int[] counts = new int[colors.length];
+      for (i = 0; i < colors.length; i++) {
+        counts[i] = colorCounts.get(colors[i])[0];
+      }
+      frozen = rectangles + ovals == 0 ? AlbumStats.EMPTY
+          : new AlbumStats(minX, minY, maxX, maxY, rectangles, ovals, colors, counts);
+    }
+    return frozen;
+  }
+}
@@ -0,0 +1,98 @@
+package photoalbum.model;
+
+/**
+ * Column access to some of the shapes of other columns, by position.
+ */
+final class SubsetColumns implements IShapeColumns {
+  private final IShapeColumns shapes;
+  private final long[] positions;
+
+  /**
+   * Constructs column access to a subset of shapes.
+   * @param shapes all the shapes
+   * @param positions the positions of the shapes to keep, in draw order
+   */
+  SubsetColumns(IShapeColumns shapes, long[] positions) {
+    this.shapes = shapes;
+    this.positions = positions;
+  }
+
+  /**
+   * Gets the number of shapes in the subset.
+   * @return the number of shapes
+   */
+  @Override
+  public int size() {
+    return positions.length;
+  }
+
+  /**
+   * Gets the name of a shape.
+   * @param index the position of the shape in the subset
+   * @return the name
+   */
+  @Override
+  public String getName(int index) {
+    return shapes.getName((int) positions[index]);
+  }
+
+  /**
+   * Gets the type of a shape.
+   * @param index the position of the shape in the subset
+   * @return the type of the shape
+   */
+  @Override
+  public ShapeType getShapeType(int index) {
+    return shapes.getShapeType((int) positions[index]);
+  }
+
+  /**
+   * Gets the x-coordinate of a shape.
+   * @param index the position of the shape in the subset
+   * @return the x-coordinate
+   */
+  @Override
+  public double getX(int index) {
+    return shapes.getX((int) positions[index]);
+  }
+
+  /**
+   * Gets the y-coordinate of a shape.
+   * @param index the position of the shape in the subset
+   * @return the y-coordinate
+   */
+  @Override
+  public double getY(int index) {
+    return shapes.getY((int) positions[index]);
+  }
+
+  /**
+   * Gets the width of a rectangle or the x-radius of an oval.
+   * @param index the position of the shape in the subset
+   * @return the width or x-radius
+   */
+  @Override
+  public double getWidth(int index) {
+    return shapes.getWidth((int) positions[index]);
+  }
+
+  /**
+   * Gets the height of a rectangle or the y-radius of an oval.
+   * @param index the position of the shape in the subset
+   * @return the height or y-radius
+   */
+  @Override
+  public double getHeight(int index) {
+    return shapes.getHeight((int) positions[index]);
+  }
+
+  /**
+   * Gets the color of a shape packed as 0xRRGGBB.
+   * @param index the position of the shape in the subset
+   * @return the packed color
+   */
+  @Override
+  public int getRgb(int index) {
+    return shapes.getRgb((int) positions[index]);
+  }
+}
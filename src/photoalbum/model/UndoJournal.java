@@ -0,0 +1,205 @@
+package photoalbum.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo and redo stacks of steps that each reverse one change to a shape.
+ * The journal has a memory budget; when recording a step goes over it, the
+ * oldest steps are dropped. A budget of zero turns recording off.
+ */
+final class UndoJournal {
+  static final byte CREATE = 1; // Put a removed shape back at its draw order position
+  static final byte REMOVE = 2; // Remove a created shape
+  static final byte MOVE = 3; // Move a shape back to (a, b)
+  static final byte RESIZE = 4; // Resize a shape back to (a, b)
+  static final byte COLOR = 5; // Change the color of a shape back
+  static final byte ORDER = 6; // Put a shape back at its draw order position
+  // Rough per-object sizes on a 64-bit JVM with compressed references
+  private static final long STEP_BYTES = 56 + 16; // step object and its deque slot
+  private static final long SHAPE_BYTES = 64; // shape kept by a CREATE step
+
+  private final Deque<Step> undo; // Newest step first
+  private final Deque<Step> redo; // Most recently undone step first
+  private long budget; // Maximum estimated bytes of both stacks
+  private long bytes; // Estimated bytes of both stacks
+
+  /**
+   * One step of the journal.
+   */
+  static final class Step {
+    final byte op;
+    final String name;
+    final int layer; // Draw order position, for CREATE and ORDER
+    final IShape shape; // Shape to put back, for CREATE
+    final double a; // x-coordinate, width or x-radius
+    final double b; // y-coordinate, height or y-radius
+    final Color color; // Color to put back, for COLOR
+
+    /**
+     * Constructs a step.
+     * @param op what the step does
+     * @param name the name of the shape
+     * @param layer the draw order position to put the shape back at
+     * @param shape the shape to put back
+     * @param a the first value
+     * @param b the second value
+     * @param color the color to put back
+     */
+    Step(byte op, String name, int layer, IShape shape, double a, double b, Color color) {
+      this.op = op;
+      this.name = name;
+      this.layer = layer;
+      this.shape = shape;
+      this.a = a;
+      this.b = b;
+      this.color = color;
+    }
+
+    /**
+     * Estimates the heap used by the step.
+     * @return the estimated number of bytes
+     */
+    long bytes() {
+      return shape == null ? STEP_BYTES : STEP_BYTES + SHAPE_BYTES;
+    }
+  }
+
+  /**
+   * Constructs an empty journal that records nothing until it is given a
+   * budget.
+   */
+  UndoJournal() {
+    this.undo = new ArrayDeque<>();
+    this.redo = new ArrayDeque<>();
+  }
+
+  /**
+   * Sets the memory budget, dropping the oldest steps if it is now exceeded.
+   * @param budget the maximum estimated bytes, or 0 to stop recording
+   */
+  void setBudget(long budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Undo budget must not be negative.");
+    }
+    this.budget = budget;
+    trim();
+  }
+
+  /**
+   * Records the step that reverses a change just made by the user. This
+   * forgets the steps that could have been redone.
+   * @param step the step
+   */
+  void record(Step step) {
+    if (budget == 0) {
+      return;
+    }
+    while (!redo.isEmpty()) {
+      bytes -= redo.pop().bytes();
+    }
+    undo.push(step);
+    bytes += step.bytes();
+    trim();
+  }
+
+  /**
+   * Takes the newest step to undo.
+   * @return the step, or null if there is none
+   */
+  Step popUndo() {
+    Step step = undo.poll();
+    if (step != null) {
+      bytes -= step.bytes();
+    }
+    return step;
+  }
+
+  /**
+   * Takes the most recently undone step to redo.
+   * @return the step, or null if there is none
+   */
+  Step popRedo() {
+    Step step = redo.poll();
+    if (step != null) {
+      bytes -= step.bytes();
+    }
+    return step;
+  }
+
+  /**
+   * Keeps the step that reverses an undo, so that it can be redone.
+   * @param step the step
+   */
+  void pushRedo(Step step) {
+    redo.push(step);
+    bytes += step.bytes();
+    trim();
+  }
+
+  /**
+   * Keeps the step that reverses a redo, so that it can be undone again.
+   * @param step the step
+   */
+  void pushUndo(Step step) {
+    undo.push(step);
+    bytes += step.bytes();
+    trim();
+  }
+
+  /**
+   * Checks whether there is a step to undo.
+   * @return true if a step can be undone
+   */
+  boolean canUndo() {
+    return !undo.isEmpty();
+  }
+
+  /**
+   * Checks whether there is a step to redo.
+   * @return true if a step can be redone
+   */
+  boolean canRedo() {
+    return !redo.isEmpty();
+  }
+
+  /**
+   * Estimates the heap used by the journal.
+   * @return the estimated number of bytes
+   */
+  long estimatedBytes() {
+    return bytes;
+  }
+
+  /**
+   * Estimates the most heap that recording some steps could add, which is
+   * never more than the room left in the budget.
+   * @param steps the number of steps
+   * @return the estimated number of bytes
+   */
+  long maxGrowth(int steps) {
+    return Math.min(Math.max(budget - bytes, 0), steps * (STEP_BYTES + SHAPE_BYTES));
+  }
+
+  /**
+   * Forgets all steps.
+   */
+  void clear() {
+    undo.clear();
+    redo.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Drops the oldest steps, undo steps first, until the stacks fit the
+   * budget.
+   */
+  private void trim() {
+    while (bytes > budget && !undo.isEmpty()) {
+      bytes -= undo.removeLast().bytes();
+    }
+    while (bytes > budget && !redo.isEmpty()) {
+      bytes -= redo.removeLast().bytes();
+    }
+  }
+}
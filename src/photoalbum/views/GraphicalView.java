@@ -14,12 +14,18 @@ public class GraphicalView implements IView {
   private int ymax;
 
   /**
-   * Constructor for the graphical view.
+   * Constructor for the graphical view of the shared photo album.
    */
   public GraphicalView() {
-    this.xmax = xmax;
-    this.ymax = ymax;
-    this.model = PhotoalbumModel.getInstance(); // Singleton to ensure only one instance of the model
+    this(PhotoalbumModel.getInstance()); // Singleton to ensure only one instance of the model
+  }
+
+  /**
+   * Constructor for the graphical view of a photo album.
+   * @param model The photo album to show.
+   */
+  public GraphicalView(IPhotoalbum model) {
+    this.model = model;
   }
 
   /**
@@ -46,7 +52,7 @@ public class GraphicalView implements IView {
       // Display the graphical view in a new frame
       @Override
       public void run() {
-        GraphicalViewFrame frame = new GraphicalViewFrame(xmax, ymax);
+        GraphicalViewFrame frame = new GraphicalViewFrame(model, xmax, ymax);
         frame.setVisible(true); // Make the frame visible
       }
     });
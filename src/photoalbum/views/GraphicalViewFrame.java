@@ -3,14 +3,12 @@ package photoalbum.views;
 import photoalbum.model.IPhotoalbum;
 import photoalbum.model.ISnapshot;
 import photoalbum.model.PhotoalbumModel;
+import photoalbum.model.SnapshotIndex;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -21,9 +19,7 @@ import javax.swing.JPanel;
  */
 public class GraphicalViewFrame extends JFrame {
   private IPhotoalbum model;
-  private List<ISnapshot> snapshots;
-  private List<String> snapshotIDs;
-  private Map<String, ISnapshot> snapshotMap;
+  private SnapshotIndex snapshots;
 
   private int xmax;
   private int ymax;
@@ -40,26 +36,34 @@ public class GraphicalViewFrame extends JFrame {
   private JButton quit;
 
   /**
-   * Constructs a new graphical view frame.
+   * Constructs a new graphical view frame for the shared photo album.
    * @param xmax The x size of the bounds of the "view window"
    * @param ymax The y size of the bounds of the "view window"
    */
   public GraphicalViewFrame(int xmax, int ymax) {
+    this(PhotoalbumModel.getInstance(), xmax, ymax);
+  }
+
+  /**
+   * Constructs a new graphical view frame for a photo album.
+   * @param model The photo album to show
+   * @param xmax The x size of the bounds of the "view window"
+   * @param ymax The y size of the bounds of the "view window"
+   */
+  public GraphicalViewFrame(IPhotoalbum model, int xmax, int ymax) {
     super();
-    this.model = PhotoalbumModel.getInstance();
-    this.snapshots = model.getSnapshots();
+    this.model = model;
+    this.snapshots = model.getSnapshotIndex();
 
     this.xmax = xmax;
     this.ymax = ymax;
 
     // Check if the snapshots list is empty
-    if (snapshots.isEmpty()) {
+    if (snapshots.size() == 0) {
       System.out.println("There is No Snapshot!");
       return;  // Exit the constructor if the list is empty
     }
-    
-    this.snapshotIDs = model.getSnapshotIDs();
-    this.snapshotMap = new HashMap<>();
+
 
     this.snapshotP = new JPanel();
     this.buttonsP = new JPanel();
@@ -134,7 +138,7 @@ public class GraphicalViewFrame extends JFrame {
    */
   private void selectSnapshot(ActionEvent e) {
     // Get the snapshot IDs
-    String[] ids = snapshots.stream().map(ISnapshot::getSnapshotId).toArray(String[]::new);
+    String[] ids = model.getSnapshotIDs().toArray(new String[0]);
     // Display a dialog to select a snapshot
     String selectedId = (String) JOptionPane.showInputDialog(
             this, "Select a Snapshot ID:", "Select Snapshot",
@@ -142,13 +146,10 @@ public class GraphicalViewFrame extends JFrame {
     // Check if a snapshot was selected
     if (selectedId != null) {
       // Find the index of the selected snapshot
-      for (int i = 0; i < snapshots.size(); i++) {
-        // Check if the snapshot ID matches
-        if (snapshots.get(i).getSnapshotId().equals(selectedId)) {
-          currentSnapshotIndex = i; // Update the current index
-          displaySnapshot(currentSnapshotIndex); // Display the selected snapshot
-          break;
-        }
+      int index = snapshots.indexOf(selectedId);
+      if (index >= 0) {
+        currentSnapshotIndex = index; // Update the current index
+        displaySnapshot(currentSnapshotIndex); // Display the selected snapshot
       }
     }
   }
@@ -165,7 +166,7 @@ public class GraphicalViewFrame extends JFrame {
    * Load the snapshots.
    */
   private void loadSnapshots() {
-    if (snapshots.isEmpty()) { // Check if the snapshots list is empty
+    if (snapshots.size() == 0) { // Check if the snapshots list is empty
       JOptionPane.showMessageDialog(null,
             "No Snapshot in the List!",
             "Warning",
@@ -173,13 +174,6 @@ public class GraphicalViewFrame extends JFrame {
       return;
     }
     snapshotP.setLayout(new BorderLayout()); // Set the layout of the panel
-
-    // Initialize the snapshot IDs list and the snapshot map for fast access
-    for (ISnapshot snapshot : snapshots) {
-      String snapshotId = snapshot.getSnapshotId();
-      snapshotIDs.add(snapshotId); // Add the snapshot ID to the list
-      snapshotMap.put(snapshotId, snapshot); // Add the snapshot with the ID to the map
-    }
     currentSnapshotIndex = 0; // Set the current index to 0
     displaySnapshot(currentSnapshotIndex); // Display first snapshot and update the current index
   }
@@ -190,7 +184,7 @@ public class GraphicalViewFrame extends JFrame {
    */
   private void displaySnapshot(String id) {
     // Get the snapshot by ID
-    ISnapshot snapshot = snapshotMap.get(id);
+    ISnapshot snapshot = snapshots.get(id);
     if (snapshot == null) {
       return;
     }
@@ -211,11 +205,11 @@ public class GraphicalViewFrame extends JFrame {
    */
   private void displaySnapshot(int idIndex) {
     // Check if the index is out of bounds
-    if (idIndex < 0 || idIndex >= snapshotIDs.size()) {
+    if (idIndex < 0 || idIndex >= snapshots.size()) {
       return;
     }
     // Get the snapshot ID by index and display the snapshot
-    String snapshotId = snapshotIDs.get(idIndex);
+    String snapshotId = snapshots.get(idIndex).getSnapshotId();
     displaySnapshot(snapshotId);
   }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package photoalbum.views;
 
-import photoalbum.model.IShape;
+import photoalbum.model.AlbumStats;
+import photoalbum.model.IShapeColumns;
 import photoalbum.model.ISnapshot;
 import photoalbum.model.ShapeType;
 
@@ -9,14 +10,20 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.Map;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 
 /**
  * A class to draw a panel for the graphical view.
  */
 public class GraphicalViewPanel extends JPanel {
   private final ISnapshot snapshot;
+  private final Map<Integer, Color> colors; // Swing colors by packed 0xRRGGBB value
+  private Color lastColor; // Color of the last shape painted, checked before the map
 
   private int xmax;
   private int ymax;
@@ -29,12 +36,26 @@ public class GraphicalViewPanel extends JPanel {
    */
   public GraphicalViewPanel(ISnapshot snapshot, int xmax, int ymax) {
     this.snapshot = snapshot;
+    this.colors = new HashMap<>();
     this.xmax = xmax;
     this.ymax = ymax;
     setLayout(new BorderLayout()); // Set the layout for this panel
     createDrawPanel(); // Create the panel
   }
 
+  /**
+   * Gets the Swing color for a packed color, creating it only the first time
+   * the panel paints that color.
+   * @param rgb the color as 0xRRGGBB
+   * @return the Swing color
+   */
+  private Color awtColor(int rgb) {
+    if (lastColor == null || (lastColor.getRGB() & 0xFFFFFF) != rgb) {
+      lastColor = colors.computeIfAbsent(rgb, Color::new);
+    }
+    return lastColor;
+  }
+
   /**
    * Create the draw panel.
    */
@@ -49,36 +70,38 @@ public class GraphicalViewPanel extends JPanel {
       @Override
       public void paintComponent(Graphics g) {
         super.paintComponent(g);
-        // Draw the shapes in the snapshot
-        for (IShape shape : snapshot.getShapes()) {
-          // set the color
-          int red = (int) (shape.getColor().getR());
-          int green = (int) (shape.getColor().getG());
-          int blue = (int) (shape.getColor().getB());
-          g.setColor(new Color(red, green, blue));
+        // Draw the shapes in the snapshot that fall in the area being painted
+        Rectangle clip = g.getClipBounds();
+        IShapeColumns shapes = clip == null ? snapshot.getShapeColumns()
+            : snapshot.getShapeColumnsIn(clip.x, clip.y, clip.width, clip.height);
+        for (int i = 0; i < shapes.size(); i++) {
+          g.setColor(awtColor(shapes.getRgb(i))); // set the color
           // get coordinates
-          int x = (int) shape.getX();
-          int y = (int) shape.getY();
+          int x = (int) shapes.getX(i);
+          int y = (int) shapes.getY(i);
           // if the shape is a rectangle
-          if (shape.getShapeType() == ShapeType.RECTANGLE) {
-            int width = (int) ((photoalbum.model.Rectangle) shape).getWidth();
-            int height = (int) ((photoalbum.model.Rectangle) shape).getHeight();
+          if (shapes.getShapeType(i) == ShapeType.RECTANGLE) {
+            int width = (int) shapes.getWidth(i);
+            int height = (int) shapes.getHeight(i);
             g.fillRect(x, y, width, height); // fill the rectangle
-          } else if (shape.getShapeType() == ShapeType.OVAL) {
+          } else if (shapes.getShapeType(i) == ShapeType.OVAL) {
             // if the shape is an oval
-            int xRadius = (int) ((photoalbum.model.Oval) shape).getXradius();
-            int yRadius = (int) ((photoalbum.model.Oval) shape).getYradius();
+            int xRadius = (int) shapes.getWidth(i);
+            int yRadius = (int) shapes.getHeight(i);
             g.fillOval(x, y, xRadius, yRadius); // fill the oval
           }
         }
       }
     };
-    // Set the size and background color of the panel
-    p.setPreferredSize(new Dimension(xmax, ymax));
+    // Size the panel to fit the shapes, from the stats kept by the snapshot
+    AlbumStats stats = snapshot.getStats();
+    int width = Math.max(xmax, (int) Math.ceil(stats.getMaxX()));
+    int height = Math.max(ymax, (int) Math.ceil(stats.getMaxY()));
+    p.setPreferredSize(new Dimension(width, height));
     p.setBackground(Color.DARK_GRAY);
     p.setVisible(true); // Set the panel to be visible
     add(labelPanel, BorderLayout.NORTH); // add the label panel to this panel
-    add(p, BorderLayout.CENTER); // add the drawing panel to this panel
+    add(new JScrollPane(p), BorderLayout.CENTER); // scroll to shapes past the window
   }
 
   /**
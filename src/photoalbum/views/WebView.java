@@ -1,33 +1,57 @@
 package photoalbum.views;
 
+import photoalbum.model.AlbumStats;
 import photoalbum.model.IPhotoalbum;
-import photoalbum.model.IShape;
+import photoalbum.model.IShapeColumns;
 import photoalbum.model.ISnapshot;
 import photoalbum.model.PhotoalbumModel;
 import photoalbum.model.ShapeType;
 
 import java.awt.Desktop;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A class to display the photo album in a web view.
+ * The page can be written gzip-compressed, to photoalbum.html.gz, which is
+ * then not opened in the browser.
  */
 public class WebView implements IView {
+  private static final int SVG_WIDTH = 800; // Least width, grown to fit the shapes
+  private static final int SVG_HEIGHT = 800; // Least height, grown to fit the shapes
+  private static final String OUTPUT_FILE = "photoalbum.html";
+  private static final String COMPRESSED_SUFFIX = ".gz";
+  private static final int COMPRESSION_BUFFER = 1 << 16;
   private static IView INSTANCE;
   private IPhotoalbum model;
   private String htmlContent;
+  private PrintWriter stream; // Open while snapshots are written as they are taken
+  private File streamFile;
+  private boolean compressed; // Whether the page is written gzip-compressed
 
   private int xmax;
   private int ymax;
 
   /**
-   * Constructor for the web view.
+   * Constructor for the web view of the shared photo album.
    */
   public WebView() {
-    this.model = PhotoalbumModel.getInstance(); // Singleton to ensure only one instance of the model
+    this(PhotoalbumModel.getInstance()); // Singleton to ensure only one instance of the model
+  }
+
+  /**
+   * Constructor for the web view of a photo album.
+   * @param model The photo album to show.
+   */
+  public WebView(IPhotoalbum model) {
+    this.model = model;
   }
 
   /**
@@ -54,21 +78,130 @@ public class WebView implements IView {
     generateHtml(snapshots); // Generate the HTML content
     try {
       // Create a 
-      File file = new File("photoalbum.html");
+      File file = outputFile();
       // Write the HTML content to the file
-      try (PrintWriter writer = new PrintWriter(file)) {
+      try (PrintWriter writer = openWriter(file)) {
         writer.println(htmlContent);
       }
-      // Output the file path to the console
-      System.out.println("HTML file path: " + file.getAbsolutePath());
-      // Open the HTML file in the default web browser
-      Desktop.getDesktop().browse(file.toURI());
+      show(file);
+    } catch (IOException e) {
+      // Handle the exception
+      System.err.println("Error displaying HTML content: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Start writing the web view a snapshot at a time, for snapshots that are
+   * released once written. The file is the same as the one written by
+   * {@link #display(int, int)} for the same snapshots.
+   * @param xmax The x size of the bounds of the "view window"
+   * @param ymax The y size of the bounds of the "view window"
+   * @throws IOException if the file cannot be created
+   */
+  public void openStream(int xmax, int ymax) throws IOException {
+    this.xmax = xmax;
+    this.ymax = ymax;
+    streamFile = outputFile();
+    stream = openWriter(streamFile);
+    StringBuilder htmlBuilder = new StringBuilder();
+    appendHeader(htmlBuilder);
+    stream.print(htmlBuilder);
+    stream.flush();
+  }
+
+  /**
+   * Set whether the page is written gzip-compressed, to photoalbum.html.gz.
+   * @param compressed true to compress the page.
+   */
+  public void setCompressed(boolean compressed) {
+    this.compressed = compressed;
+  }
+
+  /**
+   * Get the file the page is written to.
+   * @return The file.
+   */
+  private File outputFile() {
+    return new File(compressed ? OUTPUT_FILE + COMPRESSED_SUFFIX : OUTPUT_FILE);
+  }
+
+  /**
+   * Open a writer to the page file, compressing what is written if the
+   * page is compressed. Flushing the writer also flushes the compressor,
+   * so that each snapshot written to a stream can be read at once.
+   * @param file The page file.
+   * @return The writer, in the platform charset.
+   * @throws IOException if the file cannot be created
+   */
+  private PrintWriter openWriter(File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    if (compressed) {
+      try {
+        out = new GZIPOutputStream(out, COMPRESSION_BUFFER, true);
+      } catch (IOException e) {
+        out.close();
+        throw e;
+      }
+    }
+    return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+  }
+
+  /**
+   * Write a snapshot to the open stream, so that it can be read before the
+   * next snapshot is taken.
+   * @param snapshot The snapshot to write.
+   */
+  public void writeSnapshot(ISnapshot snapshot) {
+    if (stream == null) {
+      throw new IllegalStateException("The web view stream is not open.");
+    }
+    StringBuilder htmlBuilder = new StringBuilder();
+    appendSnapshot(htmlBuilder, snapshot);
+    stream.print(htmlBuilder);
+    stream.flush();
+  }
+
+  /**
+   * Finish the file written a snapshot at a time and show it.
+   */
+  public void closeStream() {
+    if (stream == null) {
+      throw new IllegalStateException("The web view stream is not open.");
+    }
+    StringBuilder htmlBuilder = new StringBuilder();
+    appendFooter(htmlBuilder);
+    stream.println(htmlBuilder);
+    stream.close();
+    boolean failed = stream.checkError();
+    stream = null;
+    if (failed) {
+      System.err.println("Error displaying HTML content: cannot write " + streamFile);
+      return;
+    }
+    try {
+      show(streamFile);
     } catch (IOException e) {
       // Handle the exception
       System.err.println("Error displaying HTML content: " + e.getMessage());
     }
   }
 
+  /**
+   * Print the path of the HTML file and open it in the default web browser,
+   * unless it is compressed.
+   * @param file The HTML file.
+   * @throws IOException if the browser cannot be started
+   */
+  private void show(File file) throws IOException {
+    // Output the file path to the console
+    System.out.println("HTML file path: " + file.getAbsolutePath());
+    if (compressed) {
+      return; // browsers do not open compressed files
+    }
+    // Open the HTML file in the default web browser
+    Desktop.getDesktop().browse(file.toURI());
+  }
+
   /**
    * Generate the HTML content for the web view.
    * @param snapshots The snapshots to display.
@@ -76,66 +209,107 @@ public class WebView implements IView {
   public void generateHtml(List<ISnapshot> snapshots) {
     StringBuilder htmlBuilder = new StringBuilder(); // Create string builder for the HTML content
     // Generate the HTML content
+    appendHeader(htmlBuilder);
+    // Generate the HTML content for each snapshot
+    for (ISnapshot snapshot : snapshots) {
+      appendSnapshot(htmlBuilder, snapshot);
+    }
+    appendFooter(htmlBuilder);
+    // Set the HTML content to the generated content
+    htmlContent = htmlBuilder.toString();
+  }
+
+  /**
+   * Append the start of the HTML page, up to the snapshots.
+   * @param htmlBuilder The HTML content so far.
+   */
+  private static void appendHeader(StringBuilder htmlBuilder) {
     htmlBuilder.append("<!DOCTYPE html>");
     htmlBuilder.append("<html>");
     htmlBuilder.append("<head>");
     htmlBuilder.append("<title>Shapes Photo Album</title>");
     htmlBuilder.append("</head>");
     htmlBuilder.append("<body>");
+  }
 
-    // Generate the HTML content for each snapshot
-    for (ISnapshot snapshot : snapshots) {
-      // Set the background color of the snapshot
-      htmlBuilder.append("<div style=\"background-color:powderblue;\">");
-      // Set the snapshot ID and description
-      htmlBuilder.append("<h2>").append(snapshot.getSnapshotId()).append("</h2>");
-      htmlBuilder.append("<p>Description: ").append(snapshot.getDescription()).append("</p>");
-      // set the SVG tag
-      htmlBuilder.append("<svg width=\"800\" height=\"800\">");
-      // Generate the SVG content for the snapshot
-      String snapshotSvg = generateSvg(snapshot);
-      htmlBuilder.append(snapshotSvg);
-      // Close the SVG tag
-      htmlBuilder.append("</svg>");
-      htmlBuilder.append("</div>");
-    }
+  /**
+   * Append the HTML content of one snapshot.
+   * @param htmlBuilder The HTML content so far.
+   * @param snapshot The snapshot to display.
+   */
+  private void appendSnapshot(StringBuilder htmlBuilder, ISnapshot snapshot) {
+    // Set the background color of the snapshot
+    htmlBuilder.append("<div style=\"background-color:powderblue;\">");
+    // Set the snapshot ID and description
+    htmlBuilder.append("<h2>").append(snapshot.getSnapshotId()).append("</h2>");
+    htmlBuilder.append("<p>Description: ").append(snapshot.getDescription()).append("</p>");
+    // size the SVG tag to fit the shapes, from the stats kept by the snapshot
+    AlbumStats stats = snapshot.getStats();
+    int width = canvasSize(stats.getMaxX(), SVG_WIDTH);
+    int height = canvasSize(stats.getMaxY(), SVG_HEIGHT);
+    htmlBuilder.append("<svg width=\"").append(width)
+        .append("\" height=\"").append(height).append("\">");
+    // Generate the SVG content for the snapshot
+    String snapshotSvg = generateSvg(snapshot, width, height);
+    htmlBuilder.append(snapshotSvg);
+    // Close the SVG tag
+    htmlBuilder.append("</svg>");
+    htmlBuilder.append("</div>");
+  }
+
+  /**
+   * Append the end of the HTML page, after the snapshots.
+   * @param htmlBuilder The HTML content so far.
+   */
+  private static void appendFooter(StringBuilder htmlBuilder) {
     // Close the body and HTML tags
     htmlBuilder.append("</body>");
     htmlBuilder.append("</html>");
-    // Set the HTML content to the generated content
-    htmlContent = htmlBuilder.toString();
+  }
+
+  /**
+   * Get the size of a canvas side that reaches a coordinate.
+   * @param extent The greatest coordinate to show.
+   * @param minimum The least size.
+   * @return The size.
+   */
+  private static int canvasSize(double extent, int minimum) {
+    return extent > minimum ? (int) Math.ceil(extent) : minimum;
   }
 
   /**
    * Generate the SVG content for a snapshot.
    * @param snapshot The snapshot to generate the SVG content for.
+   * @param width The width of the SVG canvas.
+   * @param height The height of the SVG canvas.
    * @return The SVG content for the snapshot.
    */
-  private String generateSvg(ISnapshot snapshot) {
+  private String generateSvg(ISnapshot snapshot, int width, int height) {
     StringBuilder svg = new StringBuilder(); // Create a string builder for the SVG content
+    // Read the shapes column by column, skipping those outside the SVG canvas
+    IShapeColumns shapes = snapshot.getShapeColumnsIn(0, 0, width, height);
     // Generate the SVG content for each shape in the snapshot
-    for (IShape shape : snapshot.getShapes()) {
+    for (int i = 0; i < shapes.size(); i++) {
+      ShapeType type = shapes.getShapeType(i);
       // Generate SVG based on the type of the shape
-      if (shape.getShapeType() == ShapeType.RECTANGLE) { // If the shape is a rectangle
-        svg.append("<rect x=\"").append(shape.getX())
-           .append("\" y=\"").append(shape.getY())
-           .append("\" width=\"").append(((photoalbum.model.Rectangle) shape).getWidth())
-           .append("\" height=\"").append(((photoalbum.model.Rectangle) shape).getHeight())
-           .append("\" style=\"fill:rgb(")
-           .append((int) (shape.getColor().getR())).append(",")
-           .append((int) (shape.getColor().getG())).append(",")
-           .append((int) (shape.getColor().getB())).append(")\" />");
-      } else if (shape.getShapeType() == ShapeType.OVAL) { // If the shape is an oval
-        svg.append("<ellipse cx=\"").append(shape.getX()
-                          + ((photoalbum.model.Oval) shape).getXradius())
-             .append("\" cy=\"").append(shape.getY() + ((photoalbum.model.Oval) shape).getYradius())
-             .append("\" rx=\"").append(((photoalbum.model.Oval) shape).getXradius())
-             .append("\" ry=\"").append(((photoalbum.model.Oval) shape).getYradius())
-             .append("\" style=\"fill:rgb(")
-             .append((int) (shape.getColor().getR())).append(",")
-             .append((int) (shape.getColor().getG())).append(",")
-             .append((int) (shape.getColor().getB())).append(")\" />");
+      if (type == ShapeType.RECTANGLE) { // If the shape is a rectangle
+        svg.append("<rect x=\"").append(shapes.getX(i))
+           .append("\" y=\"").append(shapes.getY(i))
+           .append("\" width=\"").append(shapes.getWidth(i))
+           .append("\" height=\"").append(shapes.getHeight(i));
+      } else if (type == ShapeType.OVAL) { // If the shape is an oval
+        svg.append("<ellipse cx=\"").append(shapes.getX(i) + shapes.getWidth(i))
+           .append("\" cy=\"").append(shapes.getY(i) + shapes.getHeight(i))
+           .append("\" rx=\"").append(shapes.getWidth(i))
+           .append("\" ry=\"").append(shapes.getHeight(i));
+      } else {
+        continue;
       }
+      int rgb = shapes.getRgb(i);
+      svg.append("\" style=\"fill:rgb(")
+         .append((rgb >> 16) & 0xFF).append(",")
+         .append((rgb >> 8) & 0xFF).append(",")
+         .append(rgb & 0xFF).append(")\" />");
     }
     return svg.toString(); // Return the SVG content
   }
@@ -0,0 +1,772 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import photoalbum.model.AlbumChange;
+import photoalbum.model.AlbumStats;
+import photoalbum.model.ChangeType;
+import photoalbum.model.Color;
+import photoalbum.model.ColumnarPhotoalbumModel;
+import photoalbum.model.ConcurrentPhotoalbumModel;
+import photoalbum.model.CommandBatch;
+import photoalbum.model.IPhotoalbum;
+import photoalbum.model.IShape;
+import photoalbum.model.ISnapshot;
+import photoalbum.model.Oval;
+import photoalbum.model.PhotoalbumModel;
+import photoalbum.model.Rectangle;
+import photoalbum.model.ShapeType;
+import photoalbum.model.SnapshotCache;
+import photoalbum.model.SnapshotIndex;
+
+/**
+ * A class to test the photo album model.
+ */
+public class PhotoalbumModelTest {
+
+  private PhotoalbumModel model;
+
+  /**
+   * Set up a model with a rectangle and an oval.
+   */
+  @Before
+  public void setUp() {
+    model = new PhotoalbumModel();
+    model.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+    model.createOval("O", ShapeType.OVAL, 5, 5, 3, 4, new Color(0, 0, 255));
+  }
+
+  /**
+   * Test that shapes keep their creation order and can be found by name.
+   */
+  @Test
+  public void testShapesInDrawOrder() {
+    model.createRectangle("A", ShapeType.RECTANGLE, 1, 1, 1, 1, new Color(0, 0, 0));
+    List<IShape> shapes = model.getShapes();
+    assertEquals(3, shapes.size());
+    assertEquals("R", shapes.get(0).getName());
+    assertEquals("O", shapes.get(1).getName());
+    assertEquals("A", shapes.get(2).getName());
+    assertEquals(shapes.get(1).toString(), model.getShape("O").toString());
+  }
+
+  /**
+   * Test that removing a shape keeps the order of the others.
+   */
+  @Test
+  public void testRemoveShape() {
+    model.createRectangle("A", ShapeType.RECTANGLE, 1, 1, 1, 1, new Color(0, 0, 0));
+    model.removeShape("O");
+    List<IShape> shapes = model.getShapes();
+    assertEquals(2, shapes.size());
+    assertEquals("R", shapes.get(0).getName());
+    assertEquals("A", shapes.get(1).getName());
+    assertNull(model.getShape("O"));
+  }
+
+  /**
+   * Test that the shape list cannot be changed from outside the model.
+   */
+  @Test(expected = UnsupportedOperationException.class)
+  public void testShapesReadOnly() {
+    model.getShapes().clear();
+  }
+
+  /**
+   * Test that a snapshot keeps its state when the model changes afterwards.
+   */
+  @Test
+  public void testSnapshotUnaffectedByLaterChanges() {
+    model.takeSnapshot("before");
+    model.moveShape("R", 100, 200);
+    model.resizeRectangle("R", 7, 8);
+    model.changeShapeColor("R", 1, 2, 3);
+    model.removeShape("O");
+
+    IShape captured = model.getSnapshots().get(0).getShapes().get(0);
+    assertEquals(0, captured.getX(), 0.001);
+    assertEquals(10, ((Rectangle) captured).getWidth(), 0.001);
+    assertEquals(255, captured.getColor().getR(), 0.001);
+    assertEquals(2, model.getSnapshots().get(0).getShapes().size());
+
+    IShape current = model.getShape("R");
+    assertEquals(100, current.getX(), 0.001);
+    assertEquals(7, ((Rectangle) current).getWidth(), 0.001);
+  }
+
+  /**
+   * Test that the shapes handed out by the models are copies, so that
+   * changing them changes neither the album nor its snapshots.
+   */
+  @Test
+  public void testShapesDetached() {
+    for (IPhotoalbum album : new IPhotoalbum[] {model, new ConcurrentPhotoalbumModel()}) {
+      album.clearShapes();
+      album.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+      album.takeSnapshot("before");
+      album.getShape("R").moveTo(99, 99);
+      album.getShapes().get(0).changeColor(1, 2, 3);
+      album.getShapesIn(0, 0, 5, 5).get(0).moveTo(50, 50);
+
+      assertEquals(0, album.getSnapshots().get(0).getShapes().get(0).getX(), 0.001);
+      assertEquals(255, album.getSnapshots().get(0).getShapes().get(0).getColor().getR(), 0.001);
+      assertEquals(0, album.getShape("R").getX(), 0.001);
+      assertEquals(255, album.getShape("R").getColor().getR(), 0.001);
+      assertEquals(1, album.getShapesIn(0, 0, 5, 5).size());
+      assertEquals(0, album.getShapesIn(90, 90, 5, 5).size());
+    }
+  }
+
+  /**
+   * Test that the stats follow changes, shrink when the shape on an edge
+   * leaves, and stay as captured in snapshots.
+   */
+  @Test
+  public void testAlbumStats() {
+    AlbumStats stats = model.getStats();
+    assertEquals(11, stats.getMaxX(), 0.001);
+    assertEquals(20, stats.getMaxY(), 0.001);
+    assertEquals(1, stats.getShapeCount(ShapeType.OVAL));
+    assertEquals(1, stats.getColorCount(0xFF0000));
+    model.takeSnapshot("before");
+    assertSame(stats, model.getSnapshots().get(0).getStats());
+
+    model.moveShape("O", 50, 50);
+    model.changeShapeColor("R", 0, 0, 255);
+    try {
+      model.changeShapeColor("R", 300, 0, 0);
+      fail("an invalid color was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(2, model.getStats().getColorCount(0x0000FF));
+    assertEquals(0, model.getStats().getColorCount(0xFF0000));
+    assertEquals(58, model.getStats().getMaxY(), 0.001);
+    model.removeShape("R");
+    stats = model.getStats();
+    assertEquals(50, stats.getMinX(), 0.001);
+    assertEquals(1, stats.getShapeCount());
+    assertEquals(20, model.getSnapshots().get(0).getStats().getMaxY(), 0.001);
+    model.clearShapes();
+    assertTrue(model.getStats().isEmpty());
+  }
+
+  /**
+   * Test that change events are merged per shape within the window, that a
+   * snapshot separates them, and that they arrive on another thread.
+   */
+  @Test
+  public void testChangeNotifications() {
+    List<AlbumChange> received = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    model.getChangeNotifier().setWindow(60_000);
+    model.getChangeNotifier().addListener(changes -> {
+      received.addAll(changes);
+      threads.add(Thread.currentThread());
+    });
+    model.createRectangle("A", ShapeType.RECTANGLE, 1, 1, 1, 1, new Color(0, 0, 0));
+    for (int i = 0; i < 3; i++) {
+      model.moveShape("A", i, i);
+    }
+    model.removeShape("O");
+    model.createRectangle("B", ShapeType.RECTANGLE, 1, 1, 1, 1, new Color(0, 0, 0));
+    model.removeShape("B");
+    model.takeSnapshot("one");
+    model.moveShape("R", 5, 5);
+    assertTrue(received.isEmpty());
+    model.getChangeNotifier().flush();
+
+    assertEquals(4, received.size());
+    assertEquals("A", received.get(0).getShapeName());
+    assertEquals(EnumSet.of(ChangeType.CREATED, ChangeType.MOVED), received.get(0).getTypes());
+    assertEquals(4, received.get(0).getEventCount());
+    assertEquals(2, received.get(0).getShape().getX(), 0.001);
+    assertTrue(received.get(1).is(ChangeType.REMOVED));
+    assertNull(received.get(1).getShape());
+    assertSame(model.getSnapshots().get(0), received.get(2).getSnapshot());
+    assertEquals("R", received.get(3).getShapeName());
+    assertNotSame(Thread.currentThread(), threads.get(0));
+    assertEquals(9, model.getChangeNotifier().getPublishedCount());
+  }
+
+  /**
+   * Test that the changes of one album are delivered while a listener of
+   * another album is still busy, and that the delivery thread ends once it
+   * has been idle.
+   */
+  @Test
+  public void testAlbumsDeliverSeparately() throws InterruptedException {
+    CountDownLatch busy = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Thread> slowThreads = new CopyOnWriteArrayList<>();
+    PhotoalbumModel slow = new PhotoalbumModel();
+    slow.getChangeNotifier().setWindow(0);
+    slow.getChangeNotifier().addListener(changes -> {
+      slowThreads.add(Thread.currentThread());
+      busy.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    List<AlbumChange> received = new CopyOnWriteArrayList<>();
+    model.getChangeNotifier().addListener(received::addAll);
+    try {
+      slow.createRectangle("S", ShapeType.RECTANGLE, 0, 0, 1, 1, new Color(0, 0, 0));
+      assertTrue(busy.await(10, TimeUnit.SECONDS));
+      model.moveShape("R", 1, 1);
+      Thread flusher = new Thread(model.getChangeNotifier()::flush);
+      flusher.start();
+      flusher.join(10_000);
+      assertFalse(flusher.isAlive());
+      assertEquals(1, received.size());
+    } finally {
+      release.countDown();
+    }
+    slow.getChangeNotifier().flush();
+    slowThreads.get(0).join(10_000);
+    assertFalse(slowThreads.get(0).isAlive());
+  }
+
+  /**
+   * Test that a rejected change is not reported unless it got part way,
+   * and that a failing listener is reported with its cause and does not
+   * keep the changes from the other listeners.
+   */
+  @Test
+  public void testRejectedChangesNotReported() {
+    List<AlbumChange> received = new ArrayList<>();
+    model.getChangeNotifier().setWindow(60_000);
+    model.getChangeNotifier().addListener(changes -> {
+      throw new IllegalStateException("listener bug");
+    });
+    model.getChangeNotifier().addListener(received::addAll);
+    long published = model.getChangeNotifier().getPublishedCount();
+    for (Runnable change : new Runnable[] {
+        () -> model.changeShapeColor("R", 300, 0, 0),
+        () -> model.resizeRectangle("R", -1, 5),
+        () -> model.resizeOval("O", 0, 5)}) {
+      try {
+        change.run();
+        fail("an invalid change was accepted");
+      } catch (IllegalArgumentException e) {
+        // nothing changed
+      }
+    }
+    assertEquals(published, model.getChangeNotifier().getPublishedCount());
+
+    try {
+      model.resizeOval("O", 7, -1);
+      fail("an invalid radius was accepted");
+    } catch (IllegalArgumentException e) {
+      // the x-radius was changed
+    }
+    assertEquals(published + 1, model.getChangeNotifier().getPublishedCount());
+
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    PrintStream stderr = System.err;
+    System.setErr(new PrintStream(errors, true));
+    try {
+      model.getChangeNotifier().flush();
+    } finally {
+      System.setErr(stderr);
+    }
+    assertEquals(1, received.size());
+    assertTrue(received.get(0).is(ChangeType.RESIZED));
+    String report = errors.toString();
+    assertTrue(report.contains("Album change listener failed"));
+    assertTrue(report.contains("Caused by: java.lang.IllegalStateException: listener bug"));
+  }
+
+  /**
+   * Test that draw order commands move one shape and keep the others in
+   * order, and that snapshots keep the old order.
+   */
+  @Test
+  public void testDrawOrder() {
+    model.createRectangle("A", ShapeType.RECTANGLE, 1, 1, 1, 1, new Color(0, 0, 0));
+    model.takeSnapshot("before");
+    model.sendToBack("A");
+    assertEquals(0, model.getLayer("A"));
+    assertEquals(1, model.getLayer("R"));
+    model.bringToFront("R");
+    model.moveToLayer("O", 1);
+    assertEquals("A", model.getShapes().get(0).getName());
+    assertEquals("O", model.getShapes().get(1).getName());
+    assertEquals("R", model.getShapes().get(2).getName());
+    assertEquals(-1, model.getLayer("X"));
+    assertEquals("A", model.getSnapshots().get(0).getShapes().get(2).getName());
+    try {
+      model.moveToLayer("O", 3);
+      fail("a layer past the front was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test that moving shapes to the same layer again and again, until the
+   * keys between two neighbours run out and the shapes are renumbered,
+   * keeps the order right in the album, in the snapshots taken on either
+   * side of each renumbering, and when the moves are undone.
+   */
+  @Test
+  public void testDrawOrderKeysRenumbered() {
+    model = new PhotoalbumModel(1000); // only the first frame is a keyframe
+    List<String> order = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      model.createRectangle("s" + i, ShapeType.RECTANGLE, i, i, 1, 1, new Color(0, 0, 0));
+      order.add("s" + i);
+    }
+    model.setUndoBudget(1 << 20);
+    model.takeSnapshot("start");
+    List<List<String>> history = new ArrayList<>();
+    List<List<String>> taken = new ArrayList<>();
+    taken.add(new ArrayList<>(order));
+    for (int i = 0; i < 100; i++) {
+      // each move halves the gap between the keys of layers 0 and 1
+      String name = order.get(i % 2 == 0 ? 2 : 3);
+      history.add(new ArrayList<>(order));
+      model.moveToLayer(name, 1);
+      order.remove(name);
+      order.add(1, name);
+      assertEquals(order, names(model.getShapes()));
+      if (i % 7 == 0) {
+        model.moveShape(name, i, i);
+        model.takeSnapshot("after " + i);
+        taken.add(new ArrayList<>(order));
+      }
+    }
+    List<ISnapshot> snapshots = model.getSnapshots();
+    assertEquals(taken.size(), snapshots.size());
+    for (int i = 0; i < taken.size(); i++) {
+      assertEquals(taken.get(i), names(snapshots.get(i).getShapes()));
+    }
+    assertEquals(98, model.getSnapshots().get(taken.size() - 1).getShapes().get(1).getX(), 0.001);
+
+    for (int i = history.size() - 1; i >= 0; i--) {
+      assertTrue(model.undo()); // the order step
+      if (i % 7 == 0) {
+        assertTrue(model.undo()); // the move before the snapshot
+      }
+      assertEquals(history.get(i), names(model.getShapes()));
+    }
+    assertFalse(model.canUndo());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(model.redo()); // the first eight order steps and the moves at 0 and 7
+    }
+    assertEquals(history.get(8), names(model.getShapes()));
+    assertEquals(0, model.getShape("s2").getX(), 0.001);
+  }
+
+  /**
+   * Test that draw order changes are undone and redone, and that undoing a
+   * removal puts the shape back at its layer.
+   */
+  @Test
+  public void testDrawOrderUndo() {
+    model.createRectangle("A", ShapeType.RECTANGLE, 1, 1, 1, 1, new Color(0, 0, 0));
+    model.createRectangle("B", ShapeType.RECTANGLE, 1, 1, 1, 1, new Color(0, 0, 0));
+    model.setUndoBudget(1 << 20);
+    model.bringToFront("R");
+    model.sendToBack("B");
+    model.moveToLayer("B", 1); // the same layer is no change to undo
+    model.moveToLayer("B", 1);
+    assertEquals(List.of("O", "B", "A", "R"), names(model.getShapes()));
+    model.removeShape("A");
+
+    assertTrue(model.undo());
+    assertEquals(List.of("O", "B", "A", "R"), names(model.getShapes()));
+    assertTrue(model.undo());
+    assertEquals(List.of("B", "O", "A", "R"), names(model.getShapes()));
+    assertTrue(model.undo());
+    assertEquals(List.of("O", "A", "B", "R"), names(model.getShapes()));
+    assertTrue(model.undo());
+    assertEquals(List.of("R", "O", "A", "B"), names(model.getShapes()));
+    assertFalse(model.undo());
+
+    assertTrue(model.redo());
+    assertTrue(model.redo());
+    assertEquals(List.of("B", "O", "A", "R"), names(model.getShapes()));
+    model.removeShape("O");
+    assertTrue(model.undo());
+    assertEquals(1, model.getLayer("O"));
+    assertTrue(model.redo());
+    assertEquals(List.of("B", "A", "R"), names(model.getShapes()));
+  }
+
+  /**
+   * Gets the names of shapes in draw order.
+   * @param shapes the shapes
+   * @return the names
+   */
+  private static List<String> names(List<IShape> shapes) {
+    List<String> names = new ArrayList<>();
+    for (IShape shape : shapes) {
+      names.add(shape.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Test that changes are undone and redone in order, and that a removed
+   * shape comes back at its old draw order position.
+   */
+  @Test
+  public void testUndoRedo() {
+    model.setUndoBudget(1 << 20);
+    model.moveShape("R", 5, 6);
+    model.changeShapeColor("R", 1, 2, 3);
+    model.removeShape("R");
+    model.takeSnapshot("after");
+    assertEquals(1, model.getShapes().size());
+
+    assertTrue(model.undo());
+    assertEquals("R", model.getShapes().get(0).getName());
+    assertTrue(model.undo());
+    assertEquals(255, model.getShape("R").getColor().getR(), 0.001);
+    assertTrue(model.undo());
+    assertEquals(0, model.getShape("R").getX(), 0.001);
+    assertFalse(model.undo());
+
+    assertTrue(model.redo());
+    assertEquals(5, model.getShape("R").getX(), 0.001);
+    model.resizeRectangle("R", 3, 3);
+    assertFalse(model.canRedo());
+    assertEquals(1, model.getSnapshots().get(0).getShapes().size());
+  }
+
+  /**
+   * Test that a rejected change leaves nothing to undo, and that a change
+   * rejected part way is undone as a whole.
+   */
+  @Test
+  public void testUndoAfterRejectedChange() {
+    model.setUndoBudget(1 << 20);
+    model.moveShape("R", 7, 7);
+    model.moveShape("R", 8, 8);
+    assertTrue(model.undo());
+    try {
+      model.changeShapeColor("R", 300, 0, 0);
+      fail("Expected the color to be rejected");
+    } catch (IllegalArgumentException e) {
+      // nothing changed
+    }
+    assertTrue(model.canRedo());
+    assertTrue(model.undo());
+    assertEquals(0, model.getShape("R").getX(), 0.001);
+    assertEquals(255, model.getShape("R").getColor().getR(), 0.001);
+    assertFalse(model.canUndo());
+    assertTrue(model.redo());
+    assertTrue(model.redo());
+    assertEquals(8, model.getShape("R").getX(), 0.001);
+
+    try {
+      model.resizeRectangle("R", 30, -1);
+      fail("Expected the height to be rejected");
+    } catch (IllegalArgumentException e) {
+      // the width was changed before the height was rejected
+    }
+    assertEquals(30, ((Rectangle) model.getShape("R")).getWidth(), 0.001);
+    assertTrue(model.undo());
+    assertEquals(10, ((Rectangle) model.getShape("R")).getWidth(), 0.001);
+    assertEquals(8, model.getShape("R").getX(), 0.001);
+    assertTrue(model.undo());
+    assertEquals(7, model.getShape("R").getX(), 0.001);
+
+    CommandBatch batch = new CommandBatch();
+    batch.changeShapeColor("O", 1, 1, 1);
+    batch.resizeShape("O", 0, 1);
+    try {
+      model.applyBatch(batch);
+      fail("Expected the radius to be rejected");
+    } catch (IllegalArgumentException e) {
+      // the color was changed and the resize left out
+    }
+    assertEquals(1, model.getShape("O").getColor().getB(), 0.001);
+    assertEquals(3, ((Oval) model.getShape("O")).getXradius(), 0.001);
+    assertTrue(model.undo());
+    assertEquals(255, model.getShape("O").getColor().getB(), 0.001);
+    assertTrue(model.undo());
+    assertEquals(0, model.getShape("R").getX(), 0.001);
+    assertFalse(model.canUndo());
+  }
+
+  /**
+   * Test that a snapshot of an unchanged state reuses the previous frame.
+   */
+  @Test
+  public void testUnchangedSnapshotShared() {
+    model.takeSnapshot("first");
+    model.moveShape("R", 50, 50);
+    model.moveShape("R", 0, 0);
+    model.takeSnapshot("same");
+    model.changeShapeColor("O", 1, 1, 1);
+    model.takeSnapshot("changed");
+    List<ISnapshot> snapshots = model.getSnapshots();
+    assertSame(snapshots.get(0).getShapes().get(0), snapshots.get(1).getShapes().get(0));
+    assertEquals(1, snapshots.get(2).getShapes().get(1).getColor().getR(), 0.001);
+    assertTrue(model.getSnapshotMemoryReport().startsWith("3 snapshots in 2 frames"));
+
+    // R is copied when it moves away, and the copy changes in place after a shared frame
+    model.moveShape("R", 50, 50);
+    model.moveShape("R", 0, 0);
+    model.takeSnapshot("same again");
+    model.moveShape("R", 9, 9);
+    model.takeSnapshot("moved");
+    snapshots = model.getSnapshots();
+    assertEquals(0, snapshots.get(3).getShapes().get(0).getX(), 0.001);
+    assertEquals(9, snapshots.get(4).getShapes().get(0).getX(), 0.001);
+  }
+
+  /**
+   * Test that a snapshot whose content hash equals the last frame's, as two
+   * different states can, still gets its own frame when a shape differs.
+   */
+  @Test
+  public void testSnapshotHashCollision() throws ReflectiveOperationException {
+    Field contentHash = PhotoalbumModel.class.getDeclaredField("contentHash");
+    Field lastFrameHash = PhotoalbumModel.class.getDeclaredField("lastFrameHash");
+    contentHash.setAccessible(true);
+    lastFrameHash.setAccessible(true);
+
+    model.takeSnapshot("first");
+    model.resizeRectangle("R", 10, 20.000000001);
+    contentHash.setLong(model, lastFrameHash.getLong(model));
+    model.takeSnapshot("collides");
+    model.removeShape("O");
+    model.createOval("O", ShapeType.OVAL, 100, 30, 1, 1, new Color(0, 0, 255));
+    contentHash.setLong(model, lastFrameHash.getLong(model));
+    model.takeSnapshot("recreated");
+
+    List<ISnapshot> snapshots = model.getSnapshots();
+    assertEquals(20.000000001, ((Rectangle) snapshots.get(1).getShapes().get(0)).getHeight(), 0);
+    assertEquals(1, ((Oval) snapshots.get(2).getShapes().get(1)).getXradius(), 0);
+    assertTrue(model.getSnapshotMemoryReport().startsWith("3 snapshots in 3 frames"));
+  }
+
+  /**
+   * Test that snapshots taken in quick succession get unique IDs and can be
+   * found by ID, position and capture time.
+   */
+  @Test
+  public void testSnapshotIndex() {
+    for (int i = 0; i < 100; i++) {
+      model.takeSnapshot("s" + i);
+    }
+    SnapshotIndex index = model.getSnapshotIndex();
+    assertEquals(100, index.size());
+    assertEquals(100, new HashSet<>(model.getSnapshotIDs()).size());
+    ISnapshot middle = index.get(50);
+    assertSame(middle, index.get(middle.getSnapshotId()));
+    assertEquals(50, model.getSnapshotIDs().indexOf(middle.getSnapshotId()));
+    LocalDateTime from = index.getCaptureTime(10);
+    LocalDateTime to = index.getCaptureTime(19);
+    List<ISnapshot> range = index.between(from, to);
+    assertEquals(10, range.size());
+    assertSame(index.get(10), range.get(0));
+    assertEquals(20, index.seek(to.plusNanos(1)));
+    assertNull(index.get("missing"));
+  }
+
+  /**
+   * Test that a batch applies the commands before an invalid one, in order.
+   */
+  @Test
+  public void testApplyBatch() {
+    CommandBatch batch = new CommandBatch();
+    batch.moveShape("R", 1, 1);
+    batch.moveShape("R", 2, 3);
+    batch.removeShape("O");
+    batch.createOval("O", 0, 0, 1, 1, Color.of(0, 0, 0));
+    batch.resizeShape("O", 5, 6);
+    batch.createRectangle("R", 0, 0, 1, 1, Color.of(0, 0, 0));
+    batch.moveShape("O", 9, 9);
+    try {
+      model.applyBatch(batch);
+      fail("Expected the duplicate name to be rejected");
+    } catch (IllegalArgumentException e) {
+      // the commands before the duplicate were applied
+    }
+    List<IShape> shapes = model.getShapes();
+    assertEquals("R", shapes.get(0).getName());
+    assertEquals(2, shapes.get(0).getX(), 0.001);
+    assertEquals("O", shapes.get(1).getName());
+    assertEquals(0, shapes.get(1).getX(), 0.001);
+    assertEquals(5, ((Oval) shapes.get(1)).getXradius(), 0.001);
+  }
+
+  /**
+   * Test that shapes changed to the same color share one color object.
+   */
+  @Test
+  public void testColorsShared() {
+    model.changeShapeColor("R", 10, 20, 30);
+    model.changeShapeColor("O", 10.5, 20, 30);
+    assertSame(model.getShape("R").getColor(), model.getShape("O").getColor());
+    assertEquals(0x0A141E, model.getShape("R").getColor().getRgb());
+  }
+
+  /**
+   * Test that snapshots share the shapes that did not change between them.
+   */
+  @Test
+  public void testSnapshotsShareUnchangedShapes() {
+    model.takeSnapshot("first");
+    model.moveShape("O", 50, 50);
+    model.takeSnapshot("second");
+
+    ISnapshot first = model.getSnapshots().get(0);
+    ISnapshot second = model.getSnapshots().get(1);
+    assertSame(first.getShapes().get(0), second.getShapes().get(0));
+    assertNotSame(first.getShapes().get(1), second.getShapes().get(1));
+    assertEquals(5, first.getShapes().get(1).getX(), 0.001);
+    assertEquals(50, second.getShapes().get(1).getX(), 0.001);
+  }
+
+  /**
+   * Test that snapshots stored as deltas between keyframes are rebuilt correctly.
+   */
+  @Test
+  public void testSnapshotsRebuiltFromDeltas() {
+    model = new PhotoalbumModel(3);
+    model.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+    model.takeSnapshot("keyframe");
+    model.createOval("O", ShapeType.OVAL, 5, 5, 3, 4, new Color(0, 0, 255));
+    model.moveShape("R", 1, 1);
+    model.takeSnapshot("delta 1");
+    model.removeShape("R");
+    model.takeSnapshot("delta 2");
+    model.moveShape("O", 9, 9);
+    model.takeSnapshot("keyframe again");
+
+    List<ISnapshot> snapshots = model.getSnapshots();
+    assertEquals(1, snapshots.get(0).getShapes().size());
+    assertEquals(0, snapshots.get(0).getShapes().get(0).getX(), 0.001);
+    assertEquals(2, snapshots.get(1).getShapes().size());
+    assertEquals(1, snapshots.get(1).getShapes().get(0).getX(), 0.001);
+    assertEquals("O", snapshots.get(1).getShapes().get(1).getName());
+    assertEquals(1, snapshots.get(2).getShapes().size());
+    assertEquals("O", snapshots.get(2).getShapes().get(0).getName());
+    assertEquals(9, snapshots.get(3).getShapes().get(0).getX(), 0.001);
+  }
+
+  /**
+   * Test that snapshot shapes are rebuilt correctly in any order, and only
+   * once per snapshot.
+   */
+  @Test
+  public void testSnapshotsMaterializedLazily() {
+    model = new PhotoalbumModel(8);
+    model.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+    for (int i = 0; i < 5; i++) {
+      model.moveShape("R", i, i);
+      model.takeSnapshot("step " + i);
+    }
+    List<ISnapshot> snapshots = model.getSnapshots();
+    for (int i : new int[] {3, 1, 2, 4, 0}) {
+      assertEquals(i, snapshots.get(i).getShapes().get(0).getX(), 0.001);
+      assertSame(snapshots.get(i).getShapes(), snapshots.get(i).getShapes());
+    }
+  }
+
+  /**
+   * Test that the snapshot cache evicts the least recently used snapshot,
+   * spills it and reads it back unchanged.
+   */
+  @Test
+  public void testSnapshotCache() throws IOException {
+    File spillFile = File.createTempFile("snapshots", ".spill");
+    spillFile.deleteOnExit();
+    ColumnarPhotoalbumModel album = new ColumnarPhotoalbumModel();
+    try (SnapshotCache cache = new SnapshotCache(1, 1 << 20, spillFile.toPath())) {
+      album.getSnapshotIndex().setCache(cache);
+      album.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+      album.takeSnapshot("first");
+      album.moveShape("R", 7, 8);
+      album.takeSnapshot("second");
+      assertEquals(1, cache.getSpills());
+
+      List<ISnapshot> snapshots = album.getSnapshots();
+      assertEquals(0, snapshots.get(0).getShapes().get(0).getX(), 0.001);
+      assertEquals(7, snapshots.get(1).getShapes().get(0).getX(), 0.001);
+      assertEquals(8, snapshots.get(1).getShapes().get(0).getY(), 0.001);
+      assertEquals("first", snapshots.get(0).getDescription());
+      assertEquals(2, cache.getMisses());
+      assertEquals(3, cache.getEvictions());
+      assertEquals(2, cache.getSpills());
+      assertEquals(1, cache.getResidentCount());
+    }
+  }
+
+  /**
+   * Test that snapshots read from several threads through a small cache
+   * are rebuilt and reloaded correctly, with every read counted once.
+   */
+  @Test
+  public void testSnapshotCacheConcurrentReads() throws Exception {
+    File spillFile = File.createTempFile("snapshots", ".spill");
+    spillFile.deleteOnExit();
+    try (SnapshotCache cache = new SnapshotCache(2, 1 << 20, spillFile.toPath())) {
+      IPhotoalbum[] albums = {new PhotoalbumModel(), new ColumnarPhotoalbumModel()};
+      for (IPhotoalbum album : albums) {
+        album.getSnapshotIndex().setCache(cache);
+        album.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+        for (int i = 0; i < 20; i++) {
+          album.moveShape("R", i, 0);
+          album.takeSnapshot("at " + i);
+        }
+      }
+      int threads = 4;
+      int reads = 2000;
+      List<Thread> readers = new ArrayList<>();
+      List<Throwable> failures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int seed = t;
+        readers.add(new Thread(() -> {
+          try {
+            for (int i = 0; i < reads; i++) {
+              int position = (i * 7 + seed) % 20;
+              List<ISnapshot> snapshots = albums[i % 2].getSnapshots();
+              assertEquals(position, snapshots.get(position).getShapes().get(0).getX(), 0);
+            }
+          } catch (Throwable e) {
+            synchronized (failures) {
+              failures.add(e);
+            }
+          }
+        }));
+      }
+      for (Thread reader : readers) {
+        reader.start();
+      }
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      assertEquals(List.of(), failures);
+      assertEquals(threads * reads, cache.getHits() + cache.getMisses());
+      assertTrue(cache.getResidentCount() <= 2);
+    }
+  }
+}
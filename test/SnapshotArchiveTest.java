@@ -0,0 +1,187 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import photoalbum.model.Color;
+import photoalbum.model.IShapeColumns;
+import photoalbum.model.ISnapshot;
+import photoalbum.model.PhotoalbumModel;
+import photoalbum.model.ShapeType;
+import photoalbum.model.SnapshotArchive;
+
+/**
+ * A class to test the memory-mapped snapshot archive.
+ */
+public class SnapshotArchiveTest {
+
+  private File file;
+
+  /**
+   * Create an empty archive file.
+   */
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("snapshots", ".archive");
+    file.deleteOnExit();
+  }
+
+  /**
+   * Test that snapshots written to an archive, which is then closed, are
+   * read back from the file unchanged, and that the file is trimmed.
+   */
+  @Test
+  public void testWriteCloseRead() throws IOException {
+    PhotoalbumModel model = new PhotoalbumModel();
+    List<ISnapshot> written;
+    try (SnapshotArchive archive = new SnapshotArchive(file.toPath())) {
+      model.setSnapshotArchive(archive);
+      model.createRectangle("R", ShapeType.RECTANGLE, 1.5, 2, 10, 20, new Color(255, 0, 0));
+      model.createOval("\u00f6val", ShapeType.OVAL, 5, 6, 3, 4, new Color(1, 2, 3));
+      model.takeSnapshot("first");
+      model.moveShape("R", 7, 8);
+      model.removeShape("\u00f6val");
+      model.takeSnapshot("second, with a longer description");
+      model.clearShapes();
+      model.takeSnapshot("");
+      assertEquals(3, archive.size());
+      written = model.getSnapshots();
+    }
+    assertTrue(file.length() < 4096);
+
+    List<ISnapshot> read = SnapshotArchive.read(file.toPath());
+    assertEquals(written.size(), read.size());
+    for (int i = 0; i < read.size(); i++) {
+      assertEquals(written.get(i).getSnapshotId(), read.get(i).getSnapshotId());
+      assertEquals(written.get(i).getTimestamp(), read.get(i).getTimestamp());
+      assertEquals(written.get(i).getDescription(), read.get(i).getDescription());
+      IShapeColumns expected = written.get(i).getShapeColumns();
+      IShapeColumns actual = read.get(i).getShapeColumns();
+      assertEquals(expected.size(), actual.size());
+      for (int k = 0; k < actual.size(); k++) {
+        assertEquals(expected.getName(k), actual.getName(k));
+        assertEquals(expected.getShapeType(k), actual.getShapeType(k));
+        assertEquals(expected.getX(k), actual.getX(k), 0);
+        assertEquals(expected.getY(k), actual.getY(k), 0);
+        assertEquals(expected.getWidth(k), actual.getWidth(k), 0);
+        assertEquals(expected.getHeight(k), actual.getHeight(k), 0);
+        assertEquals(expected.getRgb(k), actual.getRgb(k));
+      }
+    }
+    assertEquals("\u00f6val", read.get(0).getShapes().get(1).getName());
+    assertEquals(ShapeType.OVAL, read.get(0).getShapes().get(1).getShapeType());
+    assertEquals(7, read.get(1).getShapes().get(0).getX(), 0);
+    assertEquals(0, read.get(2).getShapes().size());
+  }
+
+  /**
+   * Test that a closed archive takes no more snapshots and that a
+   * truncated archive file is rejected.
+   */
+  @Test
+  public void testClosedAndTruncated() throws IOException {
+    PhotoalbumModel model = new PhotoalbumModel();
+    SnapshotArchive archive = new SnapshotArchive(file.toPath());
+    model.setSnapshotArchive(archive);
+    model.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+    model.takeSnapshot("only");
+    archive.close();
+    archive.close();
+    try {
+      archive.append("id", "time", "late", new ManyShapes(1));
+      fail("a closed archive took a snapshot");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(1, SnapshotArchive.read(file.toPath()).size());
+
+    try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+      data.setLength(data.length() - 3);
+    }
+    try {
+      SnapshotArchive.read(file.toPath());
+      fail("a truncated archive was read");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test that a snapshot too large for one record is rejected before
+   * anything is written.
+   */
+  @Test
+  public void testRecordTooLarge() throws IOException {
+    try (SnapshotArchive archive = new SnapshotArchive(file.toPath())) {
+      try {
+        archive.append("id", "time", "huge", new ManyShapes(50_000_000));
+        fail("a record of more than 2 GB was accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      assertEquals(0, archive.size());
+    }
+    assertEquals(0, file.length());
+  }
+
+  /**
+   * Columns of many identical shapes, none of them stored.
+   */
+  private static class ManyShapes implements IShapeColumns {
+    private final int size;
+
+    /**
+     * Constructs the columns.
+     * @param size the number of shapes
+     */
+    ManyShapes(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public String getName(int index) {
+      return "s";
+    }
+
+    @Override
+    public ShapeType getShapeType(int index) {
+      return ShapeType.RECTANGLE;
+    }
+
+    @Override
+    public double getX(int index) {
+      return 0;
+    }
+
+    @Override
+    public double getY(int index) {
+      return 0;
+    }
+
+    @Override
+    public double getWidth(int index) {
+      return 1;
+    }
+
+    @Override
+    public double getHeight(int index) {
+      return 1;
+    }
+
+    @Override
+    public int getRgb(int index) {
+      return 0;
+    }
+  }
+}
@@ -1,7 +1,16 @@
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
-
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 import photoalbum.model.Color;
@@ -71,4 +80,85 @@ public class WebViewTest {
       + "</html>";
     assertEquals(expected, htmlContent);
   }
+
+  /**
+   * Reads a gzip file as far as it has been written.
+   * @param file the file
+   * @return the text read
+   */
+  private static String readGzip(File file) throws IOException {
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      byte[] buffer = new byte[4096];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        text.write(buffer, 0, n);
+      }
+    } catch (EOFException e) {
+      // the stream is not finished yet
+    }
+    return text.toString();
+  }
+
+  /**
+   * Test that a page written a snapshot at a time can be read after each
+   * snapshot, and is the same as the page generated for all of them.
+   */
+  @Test
+  public void testStream() throws IOException {
+    PhotoalbumModel album = new PhotoalbumModel();
+    album.createRectangle("R", ShapeType.RECTANGLE, 10, 10, 20, 20, new Color(1, 0, 0));
+    album.takeSnapshot("first");
+    album.createOval("O", ShapeType.OVAL, 900, 10, 20, 20, new Color(0, 1, 0));
+    album.takeSnapshot("second");
+    WebView streamed = new WebView(album);
+    streamed.setCompressed(true);
+    File file = new File("photoalbum.html.gz");
+    try {
+      streamed.openStream(800, 800);
+      for (ISnapshot snapshot : album.getSnapshots()) {
+        streamed.writeSnapshot(snapshot);
+        assertTrue(readGzip(file).contains(snapshot.getSnapshotId()));
+      }
+      streamed.closeStream();
+      WebView expected = new WebView(album);
+      expected.generateHtml(album.getSnapshots());
+      assertEquals(expected.getHtmlContent() + System.lineSeparator(), readGzip(file));
+      try {
+        streamed.writeSnapshot(album.getSnapshots().get(0));
+        fail("a snapshot was written to a closed stream");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Test that a compressed page is written to photoalbum.html.gz and
+   * inflates to the page that is written uncompressed.
+   */
+  @Test
+  public void testCompressedPage() throws IOException {
+    PhotoalbumModel album = new PhotoalbumModel();
+    album.createRectangle("R", ShapeType.RECTANGLE, 10, 10, 20, 20, new Color(1, 0, 0));
+    album.takeSnapshot("first");
+    album.createOval("O", ShapeType.OVAL, 10, 900, 20, 20, new Color(0, 1, 0));
+    album.takeSnapshot("second");
+    WebView compressed = new WebView(album);
+    compressed.setCompressed(true);
+    File file = new File("photoalbum.html.gz");
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+    try {
+      compressed.display(800, 800);
+      WebView uncompressed = new WebView(album);
+      uncompressed.generateHtml(album.getSnapshots());
+      // display prints the page and a line break
+      assertEquals(uncompressed.getHtmlContent() + System.lineSeparator(), readGzip(file));
+    } finally {
+      System.setOut(stdout);
+      file.delete();
+    }
+  }
 }
@@ -0,0 +1,203 @@
+package photoalbum.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import photoalbum.model.AlbumChange;
+import photoalbum.model.ChangeNotifier;
+import photoalbum.model.PhotoalbumModel;
+import photoalbum.model.SnapshotCache;
+
+/**
+ * A class to test the album sessions and their manager.
+ */
+public class AlbumSessionManagerTest {
+
+  /**
+   * Test that sessions have separate albums, that closed sessions are reset
+   * and reused, and that the memory limit is enforced.
+   */
+  @Test
+  public void testAlbumSessions() {
+    AlbumSessionManager manager = new AlbumSessionManager(10_000, 1);
+    AlbumSession a = manager.open();
+    AlbumSession b = manager.open();
+    a.processCommand("shape R rectangle 0 0 10 10 255 0 0");
+    a.processCommand("snapshot one");
+    assertEquals(1, a.getModel().getShapes().size());
+    assertEquals(0, b.getModel().getShapes().size());
+    assertSame(b, manager.get(b.getId()));
+    assertTrue(manager.getUsedBytes() > 0);
+
+    PhotoalbumModel reused = a.getModel();
+    a.close();
+    assertNull(manager.get(a.getId()));
+    AlbumSession c = manager.open();
+    assertSame(reused, c.getModel());
+    assertEquals(0, c.getModel().getShapes().size());
+    assertEquals(0, c.getModel().getSnapshots().size());
+    assertEquals(2, manager.getCreatedCount());
+
+    try {
+      for (int i = 0; i < 1000; i++) {
+        c.processCommand("shape S" + i + " oval 0 0 1 1 0 0 0");
+      }
+      c.flush();
+      fail("the memory limit was not enforced");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    c.close();
+    b.close();
+    assertEquals(0, manager.getUsedBytes());
+    assertEquals(1, manager.getPooledCount());
+  }
+
+  /**
+   * Test that a closed session stays closed once its album is reused, so
+   * that closing it again or running commands on it does not touch the
+   * session that got the album.
+   */
+  @Test
+  public void testStaleSession() {
+    AlbumSessionManager manager = new AlbumSessionManager(10_000, 1);
+    AlbumSession first = manager.open();
+    first.close();
+    AlbumSession second = manager.open();
+    assertEquals(1, manager.getCreatedCount());
+    assertNotSame(first, second);
+
+    first.close();
+    assertTrue(second.isOpen());
+    assertEquals(1, manager.getOpenCount());
+    assertSame(second, manager.get(second.getId()));
+    try {
+      first.processCommand("shape R rectangle 0 0 10 10 255 0 0");
+      fail("a closed session ran a command");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    second.flush();
+    assertEquals(0, second.getModel().getShapes().size());
+    second.close();
+    assertEquals(0, manager.getOpenCount());
+  }
+
+  /**
+   * Test that the listeners of a session's album are removed and its window
+   * restored when the session is closed, so that neither the clearing nor
+   * the next session's changes are reported to them.
+   */
+  @Test
+  public void testListenersRemovedOnClose() {
+    AlbumSessionManager manager = new AlbumSessionManager(100_000, 1);
+    AlbumSession first = manager.open();
+    List<AlbumChange> received = new CopyOnWriteArrayList<>();
+    ChangeNotifier notifier = first.getModel().getChangeNotifier();
+    notifier.addListener(received::addAll);
+    notifier.setWindow(60_000);
+    first.processCommand("shape R rectangle 0 0 10 10 255 0 0");
+    first.flush();
+    notifier.flush();
+    assertEquals(1, received.size());
+    first.processCommand("move R 1 1");
+    first.flush();
+    first.close();
+
+    AlbumSession second = manager.open();
+    assertSame(notifier, second.getModel().getChangeNotifier());
+    assertEquals(ChangeNotifier.DEFAULT_WINDOW_MILLIS, notifier.getWindow());
+    second.processCommand("shape SECRET oval 0 0 1 1 0 0 0");
+    second.processCommand("snapshot private");
+    notifier.flush();
+    assertEquals(1, received.size());
+    second.close();
+  }
+
+  /**
+   * Test that a snapshot cache set on a session's album is detached when
+   * the session is closed, so that the next session's snapshots stay out
+   * of it.
+   */
+  @Test
+  public void testCacheDetachedOnClose() throws IOException {
+    Path spillFile = Files.createTempFile("snapshots", ".spill");
+    AlbumSessionManager manager = new AlbumSessionManager(100_000, 1);
+    try (SnapshotCache cache = new SnapshotCache(4, 1 << 20, spillFile)) {
+      AlbumSession first = manager.open();
+      first.getModel().getSnapshotIndex().setCache(cache);
+      first.processCommand("shape R rectangle 0 0 10 10 255 0 0");
+      first.processCommand("snapshot cached");
+      assertEquals(1, first.getModel().getSnapshots().get(0).getShapes().size());
+      assertEquals(1, cache.getResidentCount());
+      first.close();
+      assertEquals(0, cache.getResidentCount());
+
+      AlbumSession second = manager.open();
+      second.processCommand("shape S oval 0 0 1 1 0 0 0");
+      second.processCommand("snapshot own");
+      assertEquals(1, second.getModel().getSnapshots().get(0).getShapes().size());
+      assertEquals(1, cache.getMisses());
+      assertEquals(0, cache.getResidentCount());
+      second.close();
+    } finally {
+      Files.delete(spillFile);
+    }
+  }
+
+  /**
+   * Test that a command that could go over the memory limit is refused
+   * before it changes the album, and that the session can go on once
+   * memory is freed.
+   */
+  @Test
+  public void testLimitCheckedBeforeChange() {
+    AlbumSessionManager manager = new AlbumSessionManager(20_000, 0);
+    AlbumSession session = manager.open();
+    int shapes = 0;
+    try {
+      for (; shapes < 1000; shapes++) {
+        session.processCommand("shape S" + shapes + " oval 0 0 1 1 0 0 0");
+        session.flush();
+        assertTrue(manager.getUsedBytes() <= manager.getMemoryLimit());
+      }
+      fail("the memory limit was not enforced");
+    } catch (IllegalStateException e) {
+      // the shape was not created
+    }
+    assertEquals(shapes, session.getModel().getShapes().size());
+    assertTrue(manager.getUsedBytes() <= manager.getMemoryLimit());
+    assertEquals(session.getModel().estimatedBytes(), manager.getUsedBytes());
+
+    // a snapshot of every shape does not fit either, and is not taken
+    try {
+      session.processCommand("snapshot full");
+      fail("the memory limit was not enforced");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals(0, session.getModel().getSnapshots().size());
+    assertEquals(session.getModel().estimatedBytes(), manager.getUsedBytes());
+
+    for (int i = 0; i < shapes * 3 / 4; i++) {
+      session.processCommand("remove S" + i);
+    }
+    session.flush();
+    session.processCommand("snapshot quarter");
+    assertEquals(1, session.getModel().getSnapshots().size());
+    assertEquals(session.getModel().estimatedBytes(), manager.getUsedBytes());
+    session.close();
+    assertEquals(0, manager.getUsedBytes());
+  }
+}
@@ -0,0 +1,208 @@
+package photoalbum.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+import photoalbum.model.IShape;
+import photoalbum.model.ISnapshot;
+import photoalbum.model.PhotoalbumModel;
+
+/**
+ * A class to test compiling command files and loading them again.
+ */
+public class CommandCompilerTest {
+  private static final String COMMANDS = "shape LongShapeName rectangle 0.5 1.5 10 20 255 0 0\n"
+      + "shape O oval 0.1 0.2 3 4 0 0 255\r\n"
+      + "move LongShapeName 1e-3 2.25\n"
+      + "snapshot  two   words \n"
+      + "front LongShapeName\n"
+      + "color O 1 2 3\n"
+      + "move O 16777217 0.3\n"
+      + "resize LongShapeName 7 8\n"
+      + "SNAPSHOT\tlast\n"
+      + "remove O\n";
+
+  /**
+   * Describes everything a model holds, with the exact positions of the
+   * shapes, for comparing two models.
+   * @param model the model
+   * @return the description
+   */
+  private static String state(PhotoalbumModel model) {
+    StringBuilder state = new StringBuilder();
+    for (ISnapshot snapshot : model.getSnapshots()) {
+      state.append(snapshot.getDescription()).append('\n');
+      for (IShape shape : snapshot.getShapes()) {
+        state.append(shape).append(shape.getX()).append(' ').append(shape.getY()).append('\n');
+      }
+    }
+    for (IShape shape : model.getShapes()) {
+      state.append(shape).append(shape.getX()).append(' ').append(shape.getY()).append('\n');
+    }
+    return state.toString();
+  }
+
+  /**
+   * Compiles the test commands.
+   * @return the compiled file
+   */
+  private static byte[] compile() throws IOException {
+    Path source = Files.createTempFile("commands", ".txt");
+    Path target = Files.createTempFile("commands", ".bin");
+    try {
+      Files.write(source, COMMANDS.getBytes(StandardCharsets.US_ASCII));
+      assertEquals(10, CommandCompiler.compile(source.toString(), target.toString()));
+      return Files.readAllBytes(target);
+    } finally {
+      Files.delete(source);
+      Files.delete(target);
+    }
+  }
+
+  /**
+   * Loads a compiled file into a new model.
+   * @param compiled the compiled file
+   * @param model the model
+   * @return the number of commands loaded
+   * @throws IOException if the file is not valid
+   */
+  private static long load(byte[] compiled, PhotoalbumModel model) throws IOException {
+    PhotoalbumController controller = new PhotoalbumController(model);
+    CompiledCommandLoader loader = new CompiledCommandLoader(controller);
+    loader.load(Channels.newChannel(new ByteArrayInputStream(compiled)));
+    controller.flush();
+    return loader.getLinesRead();
+  }
+
+  /**
+   * Counts where a text occurs in a file.
+   * @param file the file
+   * @param text the text
+   * @return the number of times it occurs
+   */
+  private static int occurrences(byte[] file, String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+    int count = 0;
+    for (int i = 0; i + bytes.length <= file.length; i++) {
+      if (Arrays.equals(file, i, i + bytes.length, bytes, 0, bytes.length)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Test that a compiled file loads into the same album as its text file,
+   * with numbers that are not exact floats kept as doubles, each name
+   * written once, and the lines the parser does not handle kept as text.
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] compiled = compile();
+    PhotoalbumModel expected = new PhotoalbumModel();
+    Path source = Files.createTempFile("commands", ".txt");
+    try {
+      Files.write(source, COMMANDS.getBytes(StandardCharsets.US_ASCII));
+      PhotoalbumController controller = new PhotoalbumController(expected);
+      new CommandFileReader(controller).readCommandsWithScanner(source.toString());
+      controller.flush();
+    } finally {
+      Files.delete(source);
+    }
+    PhotoalbumModel model = new PhotoalbumModel();
+    assertEquals(10, load(compiled, model));
+    assertEquals(state(expected), state(model));
+    assertEquals(0.1, model.getSnapshots().get(0).getShapes().get(1).getX(), 0);
+    assertEquals("two words", model.getSnapshots().get(0).getDescription());
+
+    // once in its name record and once in the text of the front command
+    assertEquals(2, occurrences(compiled, "LongShapeName"));
+    assertEquals(1, occurrences(compiled, "snapshot  two   words"));
+    assertEquals(1, occurrences(compiled, "front LongShapeName"));
+    int doubles = 0;
+    for (byte b : compiled) {
+      if ((b & 0xFF) == (CommandParser.OVAL | CommandCompiler.DOUBLES)
+          || (b & 0xFF) == (CommandParser.MOVE | CommandCompiler.DOUBLES)) {
+        doubles++;
+      }
+    }
+    assertTrue(doubles >= 3);
+  }
+
+  /**
+   * Test that a compiled file cut short anywhere is either loaded up to a
+   * whole record or rejected, and that a cut within the last record is
+   * rejected.
+   */
+  @Test
+  public void testTruncated() throws IOException {
+    byte[] compiled = compile();
+    for (int length = 0; length < compiled.length; length++) {
+      try {
+        load(Arrays.copyOf(compiled, length), new PhotoalbumModel());
+      } catch (IOException e) {
+        // a cut within a record
+      }
+    }
+    try {
+      load(Arrays.copyOf(compiled, compiled.length - 1), new PhotoalbumModel());
+      fail("a truncated record was loaded");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("ends within a record"));
+    }
+  }
+
+  /**
+   * Test that compiled files with a wrong header, an unknown record, an
+   * unknown name or an overlong length are rejected without allocating for
+   * the length.
+   */
+  @Test
+  public void testCorrupt() throws IOException {
+    byte[] header = CommandCompiler.HEADER;
+    byte[][] files = {
+        {},
+        {'s', 'h', 'a', 'p', 'e', ' ', 'R', ' ', 'o', 'v', 'a', 'l'},
+        concat(Arrays.copyOf(header, header.length - 1), new byte[] {2}),
+        concat(header, new byte[] {0x7F}),
+        concat(header, new byte[] {CommandParser.REMOVE, 0}),
+        concat(header, new byte[] {CommandCompiler.NAME, 1, 'R', CommandParser.REMOVE, 1}),
+        concat(header, new byte[] {CommandCompiler.TEXT, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+            (byte) 0xFF, 0x07}),
+        concat(header, new byte[] {CommandCompiler.TEXT, (byte) 0x81, (byte) 0x80, (byte) 0x80,
+            0x20}),
+        concat(header, new byte[] {CommandCompiler.NAME, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+            (byte) 0xFF, (byte) 0x7F}),
+    };
+    for (byte[] file : files) {
+      try {
+        load(file, new PhotoalbumModel());
+        fail(Arrays.toString(file) + " was loaded");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * Joins two arrays of bytes.
+   * @param first the first bytes
+   * @param second the bytes after them
+   * @return the bytes of both
+   */
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] both = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, both, first.length, second.length);
+    return both;
+  }
+}
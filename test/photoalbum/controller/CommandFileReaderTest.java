@@ -0,0 +1,149 @@
+package photoalbum.controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import photoalbum.model.IShape;
+import photoalbum.model.ISnapshot;
+import photoalbum.model.PhotoalbumModel;
+
+/**
+ * A class to test the ways the command file reader reads a file.
+ */
+public class CommandFileReaderTest {
+
+  /**
+   * Describes everything a model holds, for comparing two models.
+   * @param model the model
+   * @return the description
+   */
+  private static String state(PhotoalbumModel model) {
+    StringBuilder state = new StringBuilder();
+    for (ISnapshot snapshot : model.getSnapshots()) {
+      state.append(snapshot.getDescription()).append('\n');
+      for (IShape shape : snapshot.getShapes()) {
+        state.append(shape);
+      }
+    }
+    for (IShape shape : model.getShapes()) {
+      state.append(shape);
+    }
+    return state.toString();
+  }
+
+  /**
+   * Test that a file mapped a few bytes at a time, so that lines are carried
+   * over to the next window, windows are doubled to fit long lines, and a
+   * "\r" ends a window before its "\n", is read as Scanner reads it.
+   */
+  @Test
+  public void testMappedWindows() throws IOException {
+    String[] contents = {
+        "shape R rectangle 0 0 10 10 255 0 0\r\nshape O oval 1 1 2 2 0 0 255\r\n"
+            + "move R 5 5\r\rsnapshot first\r\n\r\nresize O 3 4\ncolor R 0 255 0\r\n"
+            + "snapshot   second  one\rremove O\r\nmove R 1 1",
+        "\r\n\r\r\nshape R rectangle 0 0 10 10 255 0 0\r",
+        "shape R rectangle 0 0 10 10 255 0 0\nmove R 1 2\n",
+        "\r", "\n", "x"};
+    Path file = Files.createTempFile("commands", ".txt");
+    try {
+      for (String content : contents) {
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+        PhotoalbumModel model = new PhotoalbumModel();
+        PhotoalbumController controller = new PhotoalbumController(model);
+        CommandFileReader expectedReader = new CommandFileReader(controller);
+        expectedReader.readCommandsWithScanner(file.toString());
+        controller.flush();
+        String expected = state(model);
+
+        for (int window = 1; window <= 5; window++) {
+          model = new PhotoalbumModel();
+          controller = new PhotoalbumController(model);
+          CommandFileReader reader = new CommandFileReader(controller);
+          reader.setMapping(0, window);
+          reader.readCommands(file.toString());
+          controller.flush();
+          assertEquals(content + " in windows of " + window, expected, state(model));
+          assertEquals(expectedReader.getLinesRead(), reader.getLinesRead());
+        }
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Test that gzip and zlib compressed command files are read like the
+   * text they hold.
+   */
+  @Test
+  public void testCompressedCommands() throws IOException {
+    byte[] commands = ("shape S oval 1 2 3 4 5 6 7\nmove S 8 9\nsnapshot done\n")
+        .getBytes(StandardCharsets.US_ASCII);
+    for (boolean gzip : new boolean[] {true, false}) {
+      File file = File.createTempFile("commands", gzip ? ".gz" : ".zz");
+      file.deleteOnExit();
+      try (OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file))
+          : new DeflaterOutputStream(new FileOutputStream(file))) {
+        out.write(commands);
+      }
+      PhotoalbumModel album = new PhotoalbumModel();
+      PhotoalbumController controller = new PhotoalbumController(album);
+      CommandFileReader reader = new CommandFileReader(controller);
+      reader.readCommands(file.getPath());
+      controller.flush();
+      assertEquals(3, reader.getLinesRead());
+      assertEquals(8, album.getShape("S").getX(), 0.001);
+      assertEquals(1, album.getSnapshots().size());
+    }
+  }
+
+  /**
+   * Test that text files starting with bytes that form a valid zlib header
+   * are read as text, from a file and from a stream.
+   */
+  @Test
+  public void testTextLikeZlibHeader() throws IOException {
+    Path file = Files.createTempFile("commands", ".txt");
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+    try {
+      for (String head : new String[] {"HK", "hC", "XG", "8O", "x^", "(S"}) {
+        byte[] content = (head + " junk\nshape R rectangle 0 0 10 10 255 0 0\nmove R 1 2\n")
+            .getBytes(StandardCharsets.US_ASCII);
+        Files.write(file, content);
+        PhotoalbumModel model = new PhotoalbumModel();
+        PhotoalbumController controller = new PhotoalbumController(model);
+        CommandFileReader reader = new CommandFileReader(controller);
+        reader.readCommands(file.toString());
+        controller.flush();
+        assertEquals(head, 3, reader.getLinesRead());
+        assertEquals(head, 1, model.getShape("R").getX(), 0);
+
+        model = new PhotoalbumModel();
+        controller = new PhotoalbumController(model);
+        reader = new CommandFileReader(controller);
+        reader.readCommands(new ByteArrayInputStream(content));
+        controller.flush();
+        assertEquals(head, 3, reader.getLinesRead());
+        assertEquals(head, 1, model.getShape("R").getX(), 0);
+      }
+    } finally {
+      System.setOut(stdout);
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package photoalbum.controller;
+
+import photoalbum.model.PhotoalbumModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Measures how many command lines per second are read, first by parsing
+ * alone and then from the file into a model, once with the string path
+ * ({@link CommandFileReader#readCommandsWithScanner(String)} and
+ * {@link PhotoalbumController#processCommand(String)}) and then with the
+ * {@link CommandParser} path, reading the file into a buffer, mapping it,
+ * or parsing it on several threads, and last loading the file compiled by
+ * {@link CommandCompiler}.
+ *
+ * <p>Usage: {@code CommandParserBenchmark <command file> [rounds] [threads]}
+ */
+public final class CommandParserBenchmark {
+  private static double sink; // Keeps the parsed numbers from being optimized away
+
+  /**
+   * Hides the constructor; the class only has a main method.
+   */
+  private CommandParserBenchmark() {
+  }
+
+  /**
+   * Runs the benchmark.
+   * @param args The command file and, optionally, the number of timed rounds
+   *     and of parsing threads.
+   * @throws IOException if the file cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: CommandParserBenchmark <command file> [rounds] [threads]");
+      return;
+    }
+    String filename = args[0];
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int threads = args.length > 2 ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+    List<String> lines = Files.readAllLines(Paths.get(filename));
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+
+    report("parse only, strings", lines.size(), rounds, () -> parseStrings(lines));
+    report("parse only, buffer ", lines.size(), rounds, () -> parseBuffer(bytes));
+    report("file to model, Scanner", lines.size(), rounds, () -> {
+      PhotoalbumController controller = new PhotoalbumController(new PhotoalbumModel());
+      new CommandFileReader(controller).readCommandsWithScanner(filename);
+      controller.flush();
+    });
+    report("file to model, buffer ", lines.size(), rounds, () -> {
+      PhotoalbumController controller = new PhotoalbumController(new PhotoalbumModel());
+      new CommandFileReader(controller).readCommands(filename);
+      controller.flush();
+    });
+    report("file to model, mapped ", lines.size(), rounds, () -> {
+      PhotoalbumController controller = new PhotoalbumController(new PhotoalbumModel());
+      CommandFileReader reader = new CommandFileReader(controller);
+      reader.setMapping(0, 64 << 20);
+      reader.readCommands(filename);
+      controller.flush();
+    });
+    report("file to model, " + threads + " parser(s)", lines.size(), rounds, () -> {
+      PhotoalbumController controller = new PhotoalbumController(new PhotoalbumModel());
+      CommandFileReader reader = new CommandFileReader(controller);
+      reader.setParseThreads(threads);
+      reader.readCommands(filename);
+      controller.flush();
+    });
+    Path compiled = Files.createTempFile("commands", ".bin");
+    try {
+      CommandCompiler.compile(filename, compiled.toString());
+      report("file to model, compiled", lines.size(), rounds, () -> {
+        PhotoalbumController controller = new PhotoalbumController(new PhotoalbumModel());
+        new CommandFileReader(controller).readCommands(compiled.toString());
+        controller.flush();
+      });
+    } finally {
+      Files.delete(compiled);
+    }
+  }
+
+  /**
+   * Times a task after a warm-up round and prints the best throughput.
+   * @param label The name of the task.
+   * @param lineCount The number of lines the task reads.
+   * @param rounds The number of timed rounds.
+   * @param task The task.
+   */
+  private static void report(String label, int lineCount, int rounds, Runnable task) {
+    task.run(); // warm up
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%s: %,.0f lines/s%n", label, lineCount / (best / 1e9));
+  }
+
+  /**
+   * Splits and parses lines the way {@link PhotoalbumController#processCommand(String)}
+   * does, without applying them.
+   * @param lines The lines.
+   */
+  private static void parseStrings(List<String> lines) {
+    for (String line : lines) {
+      String[] tokens = line.trim().split("\\s+");
+      String keyword = tokens[0].toLowerCase();
+      int first = "shape".equals(keyword) ? 3 : 2;
+      for (int i = first; i < tokens.length; i++) {
+        try {
+          sink += Double.parseDouble(tokens[i]);
+        } catch (NumberFormatException e) {
+          // not a number, as in snapshot descriptions
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses the lines of a buffer with a {@link CommandParser}.
+   * @param bytes The bytes of the file.
+   */
+  private static void parseBuffer(ByteBuffer bytes) {
+    CommandParser parser = new CommandParser();
+    int start = 0;
+    for (int i = 0; i < bytes.limit(); i++) {
+      if (bytes.get(i) == '\n') {
+        if (parser.parse(bytes, start, i)) {
+          sink += parser.values()[0];
+        } else {
+          sink += CommandParser.text(bytes, start, i).length();
+        }
+        start = i + 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,273 @@
+package photoalbum.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.Test;
+import photoalbum.model.IShape;
+import photoalbum.model.ISnapshot;
+import photoalbum.model.PhotoalbumModel;
+
+/**
+ * A class to test the command parser and the line splitting of the command
+ * file reader against the string path.
+ */
+public class CommandParserTest {
+
+  /**
+   * Parses a line.
+   * @param parser the parser
+   * @param line the line
+   * @return the result of the parser
+   */
+  private static boolean parse(CommandParser parser, String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+    return parser.parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  /**
+   * Checks that a number is parsed to the same double as Double.parseDouble,
+   * or rejected if parseDouble rejects it.
+   * @param parser the parser
+   * @param token the number
+   */
+  private static void checkNumber(CommandParser parser, String token) {
+    double expected;
+    try {
+      expected = Double.parseDouble(token);
+    } catch (NumberFormatException e) {
+      assertFalse(token + " was accepted", parse(parser, "move R " + token + " 0"));
+      return;
+    }
+    assertTrue(token + " was rejected", parse(parser, "move R " + token + " 0"));
+    assertEquals(token, Double.doubleToLongBits(expected),
+        Double.doubleToLongBits(parser.values()[0]));
+  }
+
+  /**
+   * Test that numbers are parsed exactly as Double.parseDouble parses them,
+   * at the edges of the fast path and beyond.
+   */
+  @Test
+  public void testNumbersMatchParseDouble() {
+    CommandParser parser = new CommandParser();
+    String[] tokens = {"0", "-0", "+0", "-0.0", "1.", "-1.", ".5", "-.5", "+.5", "00012.500",
+        "000000000000000000001", "0.000000000000000000001", "123456789012345",
+        "1234567890123456", "12345678901234567890", "9007199254740993", "0.1", "0.3",
+        "999999999999999", "9999999999999999", "1e22", "1e23", "1e-22", "1e-23", "1E22",
+        "1.5e+22", "-1.5e-22", "12345678901234.5e-22", "123456789012345e22",
+        "123456789012345e-22", "1234567890123456e22", "1d", "1D", "1f", "1.5F", "0x1p3",
+        "NaN", "Infinity", "-Infinity", "1e", "e5", ".", "-", "+", "1.2.3", "1e+", "--1",
+        "1e5000", "-1e5000", "1e-5000", "4.9e-324", "1.7976931348623157e308", "2.5e-1",
+        "1_000"};
+    for (String token : tokens) {
+      checkNumber(parser, token);
+    }
+    Random random = new Random(19);
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder token = new StringBuilder();
+      if (random.nextInt(4) == 0) {
+        token.append('-');
+      }
+      int digits = 1 + random.nextInt(20);
+      int point = random.nextInt(digits + 2);
+      for (int d = 0; d < digits; d++) {
+        if (d == point) {
+          token.append('.');
+        }
+        token.append((char) ('0' + random.nextInt(10)));
+      }
+      if (random.nextBoolean()) {
+        token.append(random.nextBoolean() ? 'e' : 'E').append(random.nextInt(61) - 30);
+      }
+      checkNumber(parser, token.toString());
+    }
+  }
+
+  /**
+   * Test that lines are split into the tokens the string path finds with
+   * the regular expression \s+, and that the lines the parser does not
+   * handle are left to the string path.
+   */
+  @Test
+  public void testTokenization() {
+    CommandParser parser = new CommandParser();
+    String[] lines = {"shape R rectangle 1 2 3 4 5 6 7",
+        "  SHAPE\tR\u000Brectangle\f1 2 3 4 5 6 7 ", "Shape O OVAL 1 2 3 4 5 6 7 extra",
+        "move R 1 2", "\tMOVE  R\r1\t\t2", "color R 1 2 3", "resize R 3 4", "remove R",
+        "remove  R  ignored"};
+    for (String line : lines) {
+      String[] tokens = line.trim().split("\\s+");
+      assertTrue(line, parse(parser, line));
+      assertEquals(line, tokens[1], parser.name());
+      boolean shape = "shape".equalsIgnoreCase(tokens[0]);
+      int first = shape ? 3 : 2;
+      int count = shape ? 7 : tokens.length - 2;
+      if (tokens[0].equalsIgnoreCase("remove")) {
+        count = 0;
+      }
+      for (int k = 0; k < count; k++) {
+        assertEquals(line, Double.parseDouble(tokens[first + k]), parser.values()[k], 0);
+      }
+    }
+    assertTrue(parse(parser, "shape R rectangle 1 2 3 4 5 6 7"));
+    assertEquals(CommandParser.RECTANGLE, parser.op());
+    assertTrue(parse(parser, "shape R oval 1 2 3 4 5 6 7"));
+    assertEquals(CommandParser.OVAL, parser.op());
+    assertTrue(parse(parser, "move R 1 2"));
+    assertEquals(CommandParser.MOVE, parser.op());
+    assertTrue(parse(parser, "color R 1 2 3"));
+    assertEquals(CommandParser.COLOR, parser.op());
+    assertTrue(parse(parser, "resize R 1 2"));
+    assertEquals(CommandParser.RESIZE, parser.op());
+    assertTrue(parse(parser, "remove R"));
+    assertEquals(CommandParser.REMOVE, parser.op());
+
+    String[] rejected = {"", "   ", "move", "move R 1", "shape R rectangle 1 2 3 4 5 6",
+        "shape R triangle 1 2 3 4 5 6 7", "snapshot move R 1 2", "move\u0000R 1 2",
+        "move R\u001F 1 2", "move R\u007F 1 2", "move R\u00e9 1 2", "move R 1 x",
+        "moves R 1 2", "mov R 1 2"};
+    for (String line : rejected) {
+      assertFalse(line, parse(parser, line));
+    }
+  }
+
+  /**
+   * Describes everything a model holds, for comparing two models.
+   * @param model the model
+   * @return the description
+   */
+  private static String state(PhotoalbumModel model) {
+    StringBuilder state = new StringBuilder();
+    for (ISnapshot snapshot : model.getSnapshots()) {
+      state.append(snapshot.getDescription()).append('\n');
+      for (IShape shape : snapshot.getShapes()) {
+        state.append(shape);
+      }
+    }
+    for (IShape shape : model.getShapes()) {
+      state.append(shape);
+    }
+    return state.toString();
+  }
+
+  /**
+   * Reads a file with Scanner and with the buffered reader, from the file
+   * and from a stream that returns one byte at a time, and checks that the
+   * models and the lines read agree.
+   * @param content the file
+   */
+  private static void checkAgainstScanner(String content) throws IOException {
+    byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+    Path file = Files.createTempFile("commands", ".txt");
+    try {
+      Files.write(file, bytes);
+      PhotoalbumModel model = new PhotoalbumModel();
+      PhotoalbumController controller = new PhotoalbumController(model);
+      CommandFileReader expectedReader = new CommandFileReader(controller);
+      expectedReader.readCommandsWithScanner(file.toString());
+      controller.flush();
+      String expected = state(model);
+
+      model = new PhotoalbumModel();
+      controller = new PhotoalbumController(model);
+      CommandFileReader reader = new CommandFileReader(controller);
+      reader.readCommands(file.toString());
+      controller.flush();
+      assertEquals(expected, state(model));
+      assertEquals(expectedReader.getLinesRead(), reader.getLinesRead());
+
+      model = new PhotoalbumModel();
+      controller = new PhotoalbumController(model);
+      reader = new CommandFileReader(controller);
+      reader.readCommands(new ByteArrayInputStream(bytes) {
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+          return super.read(b, off, Math.min(len, 1));
+        }
+      });
+      controller.flush();
+      assertEquals(expected, state(model));
+      assertEquals(expectedReader.getLinesRead(), reader.getLinesRead());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Test that lines ended by "\n", "\r" and "\r\n", blank lines and a last
+   * line without a line break are read as Scanner reads them, also when a
+   * "\r\n" straddles the end of the read buffer.
+   */
+  @Test
+  public void testLinesMatchScanner() throws IOException {
+    checkAgainstScanner("shape R rectangle 0 0 10 10 255 0 0\rshape O oval 1 1 2 2 0 0 255\r\n"
+        + "\n\r\n\rmove R 5 5\nsnapshot first\r\r\nresize O 3 4\r\ncolor R 0 255 0\n"
+        + "  \t\nsnapshot  second one \rremove O\r");
+    checkAgainstScanner("shape R rectangle 0 0 10 10 255 0 0\nmove R 1 1");
+    checkAgainstScanner("\r\n\r\nshape R rectangle 0 0 10 10 255 0 0\r\n\r");
+
+    StringBuilder content = new StringBuilder("shape R rectangle 0 0 10 10 255 0 0\r\n");
+    String move = "move R 1 2\r\n";
+    int edge = (1 << 20) - 1; // the index of the "\r" that ends the first buffer
+    while (content.length() + move.length() <= edge) {
+      content.append(move);
+    }
+    while (content.length() < edge) {
+      content.append(' ');
+    }
+    content.append("\r\nmove R 3 4\r\nsnapshot last\r");
+    assertEquals('\r', content.charAt(edge));
+    checkAgainstScanner(content.toString());
+  }
+
+  /**
+   * Splits a file into lines the way the buffered reader does.
+   * @param bytes the file
+   * @return the lines
+   */
+  private static List<String> readerLines(byte[] bytes) throws IOException {
+    ByteBuffer data = ByteBuffer.wrap(bytes);
+    List<String> lines = new ArrayList<>();
+    int lineStart = 0;
+    while (lineStart < bytes.length) {
+      int lineEnd = CommandFileReader.lineBreak(data, lineStart, bytes.length);
+      lines.addAll(Arrays.asList(CommandFileReader.decodeLine(data, lineStart, lineEnd,
+          StandardCharsets.UTF_8, lineEnd == bytes.length)));
+      lineStart = CommandFileReader.nextLine(data, lineEnd, bytes.length);
+    }
+    return lines;
+  }
+
+  /**
+   * Test that lines are also split at U+2028, U+2029 and U+0085, as
+   * Scanner splits them.
+   */
+  @Test
+  public void testSeparatorsMatchScanner() throws IOException {
+    String[] contents = {"a\u2028b\nc", " a \u0085b\r\n", "a\u2029\r\nb\u2028",
+        "\u2028a\u2028\u2029b\n", "a \u00e9  b\rc\u0085", "\u0085", "a\u2028\r\u2029"};
+    for (String content : contents) {
+      byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+      List<String> expected = new ArrayList<>();
+      Scanner scanner = new Scanner(new ByteArrayInputStream(bytes), "UTF-8");
+      while (scanner.hasNextLine()) {
+        expected.add(scanner.nextLine());
+      }
+      assertEquals(content, expected, readerLines(bytes));
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package photoalbum.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import photoalbum.model.IShape;
+import photoalbum.model.ISnapshot;
+import photoalbum.model.PhotoalbumModel;
+
+/**
+ * A class to test reading command files on several parsing threads against
+ * reading them on one.
+ */
+public class CommandPipelineTest {
+
+  /**
+   * Reads a file and describes the model, the lines read and how the
+   * reading failed, if it did.
+   * @param file the file
+   * @param threads the number of parsing threads, or 0 to read on this thread
+   * @return the description
+   */
+  private static String read(Path file, int threads) {
+    PhotoalbumModel model = new PhotoalbumModel();
+    PhotoalbumController controller = new PhotoalbumController(model);
+    CommandFileReader reader = new CommandFileReader(controller);
+    reader.setParseThreads(threads);
+    StringBuilder state = new StringBuilder();
+    try {
+      reader.readCommands(file.toString());
+      controller.flush();
+    } catch (IllegalArgumentException e) {
+      state.append("failed: ").append(e.getMessage()).append('\n');
+    }
+    state.append("lines: ").append(reader.getLinesRead()).append('\n');
+    for (ISnapshot snapshot : model.getSnapshots()) {
+      state.append(snapshot.getDescription()).append('\n');
+      for (IShape shape : snapshot.getShapes()) {
+        state.append(shape);
+      }
+    }
+    for (IShape shape : model.getShapes()) {
+      state.append(shape);
+    }
+    return state.toString();
+  }
+
+  /**
+   * Checks that a file is read the same on one to four parsing threads as
+   * on one thread, and that no thread of the pipeline is left running.
+   * @param content the file
+   * @return the description of the model read on one thread
+   */
+  private static String checkThreads(byte[] content) throws IOException {
+    Path file = Files.createTempFile("commands", ".txt");
+    try {
+      Files.write(file, content);
+      String expected = read(file, 0);
+      for (int threads = 1; threads <= 4; threads++) {
+        assertEquals(threads + " thread(s)", expected, read(file, threads));
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+          assertTrue(thread.getName() + " is running", !thread.getName().startsWith("command-"));
+        }
+      }
+      return expected;
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Builds a file of commands that spans several chunks.
+   * @param lines the number of move commands
+   * @param middle the line put in the middle of the moves
+   * @return the file
+   */
+  private static ByteArrayOutputStream commands(int lines, byte[] middle) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    content.write(("shape R rectangle 0 0 10 10 255 0 0\n"
+        + "shape O oval 5 5 2 3 0 0 255\r\n").getBytes(StandardCharsets.US_ASCII));
+    for (int i = 0; i < lines; i++) {
+      if (i == lines / 2) {
+        content.write(middle);
+      }
+      String line = i % 1000 == 0 ? "snapshot at " + i + "\r\n"
+          : (i % 2 == 0 ? "move R " : "MOVE\tO ") + i + " " + (i % 7) + ".5\n";
+      content.write(line.getBytes(StandardCharsets.US_ASCII));
+    }
+    return content;
+  }
+
+  /**
+   * Test that files are read the same on any number of parsing threads,
+   * also when lines are longer than a chunk.
+   */
+  @Test
+  public void testParseThreads() throws IOException {
+    String expected = checkThreads(commands(200_000, new byte[0]).toByteArray());
+    assertTrue(expected.startsWith("lines: 200002\n"));
+
+    StringBuilder longLines = new StringBuilder("shape R rectangle 0 0 10 10 255 0 0\n");
+    longLines.append("snapshot ");
+    for (int i = 0; i < 300_000; i++) {
+      longLines.append("long ");
+    }
+    longLines.append("\r\nmove R 1 2");
+    for (int i = 0; i < 3 << 20; i++) {
+      longLines.append(' ');
+    }
+    longLines.append("\r\nsnapshot after\r\nmove R 3 4 ");
+    for (int i = 0; i < 2 << 20; i++) {
+      longLines.append('\t');
+    }
+    expected = checkThreads(longLines.toString().getBytes(StandardCharsets.US_ASCII));
+    assertTrue(expected.startsWith("lines: 5\n"));
+    assertTrue(expected.contains("Min corner: (3.0, 4.0)"));
+  }
+
+  /**
+   * Test that a command that fails in the middle of a file stops the
+   * reading with the commands before it applied, and that a line that is
+   * not valid in the charset does the same.
+   */
+  @Test
+  public void testFailureStopsReading() throws IOException {
+    String expected = checkThreads(commands(200_000,
+        "shape X rectangle 0 0 1 1 300 0 0\n".getBytes(StandardCharsets.US_ASCII)).toByteArray());
+    assertTrue(expected.startsWith("failed: "));
+    assertTrue(expected.contains("lines: 100003\n"));
+    assertTrue(expected.contains("\nat 99000\n"));
+    assertTrue(!expected.contains("\nat 100000\n"));
+
+    ByteArrayOutputStream invalid = new ByteArrayOutputStream();
+    invalid.write("snapshot caf".getBytes(StandardCharsets.US_ASCII));
+    invalid.write(0xE9);
+    invalid.write('\n');
+    expected = checkThreads(commands(200_000, invalid.toByteArray()).toByteArray());
+    assertTrue(expected.startsWith("lines: 100002\n"));
+    assertTrue(!expected.contains("caf"));
+  }
+
+  /**
+   * A stream that returns some bytes and then blocks, ignoring interrupts
+   * as a read of the standard input does, until it is released.
+   */
+  private static final class BlockingStream extends InputStream {
+    private final byte[] head;
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private int position;
+
+    /**
+     * Constructs a stream.
+     * @param head the bytes returned before blocking
+     */
+    private BlockingStream(byte[] head) {
+      this.head = head;
+    }
+
+    /**
+     * Reads one byte.
+     * @return the byte, or -1 once released
+     */
+    @Override
+    public int read() {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    /**
+     * Reads the bytes given at construction, then blocks until released.
+     * @param b the buffer
+     * @param off the index in the buffer to read to
+     * @param len the most bytes to read
+     * @return the number of bytes read, or -1 once released
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (position < head.length) {
+        int n = Math.min(len, head.length - position);
+        System.arraycopy(head, position, b, off, n);
+        position += n;
+        return n;
+      }
+      blocked.countDown();
+      boolean interrupted = false;
+      while (true) {
+        try {
+          release.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Test that a command that fails while the reader waits on a stream that
+   * ignores interrupts stops the reading at once, instead of when the
+   * stream next returns.
+   */
+  @Test
+  public void testFailureWhileStreamBlocks() throws InterruptedException {
+    BlockingStream stream = new BlockingStream(("shape R rectangle 0 0 10 10 255 0 0\n"
+        + "shape X rectangle 0 0 1 1 300 0 0\n").getBytes(StandardCharsets.US_ASCII));
+    PhotoalbumModel model = new PhotoalbumModel();
+    PhotoalbumController controller = new PhotoalbumController(model) {
+      @Override
+      void processParsed(byte op, String name, double[] v, int k) {
+        try {
+          stream.blocked.await(); // fail only once the reader waits on the stream
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.processParsed(op, name, v, k);
+      }
+    };
+    CommandFileReader reader = new CommandFileReader(controller);
+    reader.setParseThreads(2);
+    List<Throwable> failures = new CopyOnWriteArrayList<>();
+    Thread applier = new Thread(() -> {
+      try {
+        reader.readCommands(stream);
+      } catch (IllegalArgumentException e) {
+        failures.add(e);
+      }
+    });
+    try {
+      applier.start();
+      applier.join(10_000);
+      assertFalse(applier.isAlive());
+      assertEquals(1, failures.size());
+      assertEquals(2, reader.getLinesRead());
+    } finally {
+      stream.release.countDown();
+    }
+  }
+}
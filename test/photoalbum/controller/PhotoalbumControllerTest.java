@@ -0,0 +1,191 @@
+package photoalbum.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import photoalbum.model.AlbumChange;
+import photoalbum.model.ChangeType;
+import photoalbum.model.Color;
+import photoalbum.model.IShape;
+import photoalbum.model.ISnapshot;
+import photoalbum.model.PhotoalbumModel;
+import photoalbum.model.ShapeType;
+import photoalbum.views.WebView;
+
+/**
+ * A class to test the commands of the photo album controller.
+ */
+public class PhotoalbumControllerTest {
+
+  private PhotoalbumModel model;
+  private PhotoalbumController controller;
+
+  /**
+   * Set up a controller with an empty photo album.
+   */
+  @Before
+  public void setUp() {
+    model = new PhotoalbumModel();
+    controller = new PhotoalbumController(model);
+  }
+
+  /**
+   * Gets the names of the shapes of the album in draw order.
+   * @return the names
+   */
+  private List<String> names() {
+    List<String> names = new ArrayList<>();
+    for (IShape shape : model.getShapes()) {
+      names.add(shape.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Test that the front, back and layer commands apply the shape commands
+   * before them, move one shape, and are captured by later snapshots.
+   */
+  @Test
+  public void testOrderCommands() {
+    controller.processCommand("shape A rectangle 0 0 1 1 0 0 0");
+    controller.processCommand("shape B oval 0 0 1 1 0 0 0");
+    controller.processCommand("shape C rectangle 0 0 1 1 0 0 0");
+    controller.processCommand("front A");
+    assertEquals(List.of("B", "C", "A"), names());
+    controller.processCommand("snapshot first");
+    controller.processCommand("BACK C");
+    assertEquals(List.of("C", "B", "A"), names());
+    controller.processCommand("shape D rectangle 0 0 1 1 0 0 0");
+    controller.processCommand("layer D 1");
+    assertEquals(List.of("C", "D", "B", "A"), names());
+    controller.processCommand("  layer   A  0  ");
+    controller.processCommand("snapshot second");
+    assertEquals(List.of("A", "C", "D", "B"), names());
+
+    List<String> first = new ArrayList<>();
+    for (IShape shape : model.getSnapshots().get(0).getShapes()) {
+      first.add(shape.getName());
+    }
+    assertEquals(List.of("B", "C", "A"), first);
+    assertEquals("A", model.getSnapshots().get(1).getShapes().get(0).getName());
+
+    for (String command : new String[] {"layer A 4", "layer A -1", "front X", "layer A x"}) {
+      try {
+        controller.processCommand(command);
+        fail(command + " was accepted");
+      } catch (IllegalArgumentException e) {
+        // the order is unchanged
+      }
+    }
+    assertEquals(List.of("A", "C", "D", "B"), names());
+  }
+
+  /**
+   * Test that validation skips comments and invalid commands, recording
+   * where each problem is, and applies the valid commands.
+   */
+  @Test
+  public void testValidation() {
+    model.createRectangle("R", ShapeType.RECTANGLE, 0, 0, 10, 20, new Color(255, 0, 0));
+    model.createOval("O", ShapeType.OVAL, 5, 5, 3, 4, new Color(0, 0, 255));
+    controller.setValidationMode(ValidationMode.SKIP_AND_REPORT);
+    controller.processCommand("# a comment");
+    controller.processCommand("");
+    controller.processCommand("shape S rectangle 1 2 3 4 5 6 7");
+    controller.processCommand("shape R oval 1 2 3 4 5 6 7");
+    controller.processCommand("move S 1.5 two");
+    controller.processCommand("resize X 1 1");
+    controller.processCommand("color O 0 256 0");
+    controller.processCommand("layer S 3");
+    controller.processCommand("move S 9 9");
+    controller.flush();
+
+    Diagnostics diagnostics = controller.getDiagnostics();
+    assertEquals(5, diagnostics.getCount());
+    assertEquals(2, diagnostics.getSkippedLines());
+    List<Diagnostic> found = diagnostics.getDiagnostics();
+    assertEquals(Diagnostic.Reason.DUPLICATE_SHAPE, found.get(0).getReason());
+    assertEquals(4, found.get(0).getLine());
+    assertEquals(7, found.get(0).getColumn());
+    assertEquals(Diagnostic.Reason.BAD_NUMBER, found.get(1).getReason());
+    assertEquals("two", found.get(1).getToken());
+    assertEquals(12, found.get(1).getColumn());
+    assertEquals(Diagnostic.Reason.UNKNOWN_SHAPE, found.get(2).getReason());
+    assertEquals(Diagnostic.Reason.BAD_COLOR, found.get(3).getReason());
+    assertEquals(11, found.get(3).getColumn());
+    assertEquals(Diagnostic.Reason.BAD_LAYER, found.get(4).getReason());
+    assertEquals(3, model.getShapes().size());
+    assertEquals(9, model.getShape("S").getX(), 0.001);
+    assertEquals(ShapeType.RECTANGLE, model.getShape("R").getShapeType());
+  }
+
+  /**
+   * Test that streaming commands from the standard input to the web view
+   * writes each snapshot and releases it before the next command, and that
+   * the page is the one written for the same snapshots at the end.
+   */
+  @Test
+  public void testStreamWeb() throws IOException {
+    String commands = "shape R rectangle 0 0 10 10 255 0 0\nsnapshot one\nmove R 5 5\n"
+        + "shape O oval 1 1 2 2 0 0 255\nsnapshot two\nremove R\nsnapshot three\n";
+    List<AlbumChange> received = new CopyOnWriteArrayList<>();
+    model.getChangeNotifier().setWindow(60_000);
+    model.getChangeNotifier().addListener(received::addAll);
+    controller.setCompressedOutput(true);
+    File file = new File("photoalbum.html.gz");
+    InputStream stdin = System.in;
+    PrintStream stdout = System.out;
+    System.setIn(new ByteArrayInputStream(commands.getBytes(StandardCharsets.US_ASCII)));
+    System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+    try {
+      controller.run("-", "web", 800, 800);
+      model.getChangeNotifier().flush();
+
+      List<ISnapshot> taken = new ArrayList<>();
+      List<ChangeType> albumChanges = new ArrayList<>();
+      for (AlbumChange change : received) {
+        if (change.getShapeName() == null) {
+          albumChanges.add(change.getTypes().iterator().next());
+          if (change.is(ChangeType.SNAPSHOT_TAKEN)) {
+            taken.add(change.getSnapshot());
+          }
+        }
+      }
+      List<ChangeType> released = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        released.add(ChangeType.SNAPSHOT_TAKEN);
+        released.add(ChangeType.SNAPSHOTS_CLEARED);
+      }
+      assertEquals(released, albumChanges);
+      assertEquals(0, model.getSnapshots().size());
+      assertEquals(3, taken.size());
+
+      WebView expected = new WebView(model);
+      expected.generateHtml(taken);
+      ByteArrayOutputStream page = new ByteArrayOutputStream();
+      try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+        in.transferTo(page);
+      }
+      assertEquals(expected.getHtmlContent() + System.lineSeparator(), page.toString());
+    } finally {
+      System.setIn(stdin);
+      System.setOut(stdout);
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package photoalbum.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * A class to test the photo album that stores its shapes in columns.
+ */
+public class ColumnarPhotoalbumModelTest {
+  private static final Color RED = new Color(255, 0, 0);
+
+  /**
+   * Gets the names of shapes in draw order.
+   * @param shapes the shapes
+   * @return the names
+   */
+  private static List<String> names(List<IShape> shapes) {
+    List<String> names = new ArrayList<>();
+    for (IShape shape : shapes) {
+      names.add(shape.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Creates shapes s0 to s(count - 1) along a diagonal, rectangles at even
+   * and ovals at odd indexes.
+   * @param album the album
+   * @param count the number of shapes
+   */
+  private static void createShapes(IPhotoalbum album, int count) {
+    for (int i = 0; i < count; i++) {
+      if (i % 2 == 0) {
+        album.createRectangle("s" + i, ShapeType.RECTANGLE, i * 10, i * 10, 5, 5, RED);
+      } else {
+        album.createOval("s" + i, ShapeType.OVAL, i * 10, i * 10, 2, 2, RED);
+      }
+    }
+  }
+
+  /**
+   * Test that removed shapes leave holes in the columns, that the columns
+   * are compacted once more than half of the rows are holes, and that
+   * names, layers and region queries are right before and after.
+   */
+  @Test
+  public void testHolesAndCompaction() {
+    ColumnarPhotoalbumModel album = new ColumnarPhotoalbumModel();
+    PhotoalbumModel expected = new PhotoalbumModel();
+    createShapes(album, 100);
+    createShapes(expected, 100);
+
+    album.removeShape("s1");
+    expected.removeShape("s1");
+    assertEquals(100, album.getRowCount());
+    assertEquals(99, album.getShapes().size());
+    assertEquals(1, album.getLayer("s2"));
+    assertNull(album.getShape("s1"));
+
+    int removed = 1;
+    for (int i = 0; i < 100 && album.getRowCount() == 100; i += 2) {
+      album.removeShape("s" + i);
+      expected.removeShape("s" + i);
+      removed++;
+    }
+    // compacted when fewer than half of the 100 rows are shapes
+    assertEquals(51, removed);
+    assertEquals(49, album.getRowCount());
+    assertEquals(names(expected.getShapes()), names(album.getShapes()));
+    for (IShape shape : expected.getShapes()) {
+      String name = shape.getName();
+      assertEquals(expected.getLayer(name), album.getLayer(name));
+      assertEquals(shape.toString(), album.getShape(name).toString());
+    }
+    assertEquals(names(expected.getShapesIn(0, 0, 500, 500)),
+        names(album.getShapesIn(0, 0, 500, 500)));
+    assertEquals(names(expected.getShapesIn(995, 995, 10, 10)),
+        names(album.getShapesIn(995, 995, 10, 10)));
+
+    album.moveShape("s99", 0, 0);
+    assertEquals(List.of("s99"), names(album.getShapesIn(0, 0, 1, 1)));
+    album.createRectangle("s0", ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+    assertEquals(List.of("s99", "s0"), names(album.getShapesIn(0, 0, 1, 1)));
+    assertEquals(50, album.getRowCount());
+  }
+
+  /**
+   * Test that snapshots taken after removals hold the shapes that are left,
+   * in draw order, and do not change when the album does.
+   */
+  @Test
+  public void testSnapshotsAfterRemovals() {
+    ColumnarPhotoalbumModel album = new ColumnarPhotoalbumModel();
+    createShapes(album, 10);
+    album.removeShape("s0");
+    album.removeShape("s5");
+    album.removeShape("s9");
+    album.takeSnapshot("holes");
+    for (int i = 1; i < 9; i++) {
+      album.removeShape("s" + i);
+    }
+    album.createRectangle("new", ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+    album.takeSnapshot("after");
+
+    ISnapshot holes = album.getSnapshots().get(0);
+    List<String> left = List.of("s1", "s2", "s3", "s4", "s6", "s7", "s8");
+    assertEquals(left, names(holes.getShapes()));
+    assertEquals(7, holes.getShapeColumns().size());
+    for (int i = 0; i < left.size(); i++) {
+      assertEquals(left.get(i), holes.getShapeColumns().getName(i));
+    }
+    assertEquals(30, holes.getShapes().get(2).getX(), 0.001);
+    assertEquals(ShapeType.OVAL, holes.getShapes().get(2).getShapeType());
+    assertEquals(List.of("new"), names(album.getSnapshots().get(1).getShapes()));
+  }
+
+  /**
+   * Test that front, back and layer commands give the same draw order as
+   * the object model, also with holes in the columns.
+   */
+  @Test
+  public void testOrder() {
+    ColumnarPhotoalbumModel album = new ColumnarPhotoalbumModel();
+    PhotoalbumModel expected = new PhotoalbumModel();
+    for (IPhotoalbum model : new IPhotoalbum[] {album, expected}) {
+      createShapes(model, 8);
+      model.removeShape("s3");
+      model.bringToFront("s0");
+      model.sendToBack("s7");
+      model.moveToLayer("s4", 2);
+      model.takeSnapshot("reordered");
+      model.removeShape("s1");
+      model.moveToLayer("s0", 0);
+      model.moveToLayer("s2", 5);
+      model.bringToFront("s2");
+    }
+    assertEquals(List.of("s0", "s7", "s4", "s5", "s6", "s2"), names(expected.getShapes()));
+    assertEquals(names(expected.getShapes()), names(album.getShapes()));
+    assertEquals(names(expected.getSnapshots().get(0).getShapes()),
+        names(album.getSnapshots().get(0).getShapes()));
+    for (IShape shape : expected.getShapes()) {
+      assertEquals(expected.getLayer(shape.getName()), album.getLayer(shape.getName()));
+    }
+
+    for (int layer : new int[] {-1, 6}) {
+      try {
+        album.moveToLayer("s0", layer);
+        fail("layer " + layer + " was accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    try {
+      album.bringToFront("s3");
+      fail("a removed shape was moved");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(names(expected.getShapes()), names(album.getShapes()));
+  }
+
+  /**
+   * Test that every model rejects resizing a shape as the other type with
+   * an IllegalArgumentException and leaves the shape unchanged.
+   */
+  @Test
+  public void testResizeAsWrongType() {
+    IPhotoalbum[] albums = {new ColumnarPhotoalbumModel(), new PhotoalbumModel(),
+        new ConcurrentPhotoalbumModel()};
+    for (IPhotoalbum album : albums) {
+      createShapes(album, 2);
+      String before = album.getShapes().toString();
+      try {
+        album.resizeOval("s0", 1, 1);
+        fail("a rectangle was resized as an oval");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      try {
+        album.resizeRectangle("s1", 1, 1);
+        fail("an oval was resized as a rectangle");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      assertEquals(before, album.getShapes().toString());
+      album.resizeOval("missing", 1, 1);
+      album.resizeRectangle("missing", 1, 1);
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package photoalbum.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * A class to test the photo album that is changed from several threads at
+ * once.
+ */
+public class ConcurrentPhotoalbumModelTest {
+  private static final Color RED = new Color(255, 0, 0);
+
+  /**
+   * A task run by a test thread.
+   */
+  private interface Task {
+    /**
+     * Runs the task.
+     * @param random the random numbers of the thread
+     * @throws Exception if the task fails
+     */
+    void run(Random random) throws Exception;
+  }
+
+  /**
+   * Runs tasks on their own threads, all started at once, and rethrows the
+   * first failure once they are done.
+   * @param tasks the tasks
+   */
+  private static void runTogether(Task... tasks) throws Throwable {
+    CountDownLatch start = new CountDownLatch(1);
+    ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < tasks.length; i++) {
+      Task task = tasks[i];
+      Random random = new Random(i);
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          task.run(random);
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join(TimeUnit.MINUTES.toMillis(1));
+      assertTrue("a thread did not finish", !thread.isAlive());
+    }
+    if (!failures.isEmpty()) {
+      throw failures.peek();
+    }
+  }
+
+  /**
+   * Gets the names of shapes in draw order.
+   * @param shapes the shapes
+   * @return the names
+   */
+  private static List<String> names(List<IShape> shapes) {
+    List<String> names = new ArrayList<>();
+    for (IShape shape : shapes) {
+      names.add(shape.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Test that a snapshot taken while other threads change the album sees
+   * every change made before a later change on the same thread.
+   */
+  @Test
+  public void testSnapshotConsistency() throws Throwable {
+    ConcurrentPhotoalbumModel model = new ConcurrentPhotoalbumModel();
+    int writers = 4;
+    for (int w = 0; w < writers; w++) {
+      model.createRectangle("a" + w, ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+      model.createRectangle("b" + w, ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+    }
+    AtomicBoolean done = new AtomicBoolean();
+    Task[] tasks = new Task[writers + 1];
+    for (int w = 0; w < writers; w++) {
+      String a = "a" + w;
+      String b = "b" + w;
+      tasks[w] = random -> {
+        for (int k = 1; k <= 20000; k++) {
+          model.moveShape(a, k, 0);
+          model.moveShape(b, k, 0);
+        }
+      };
+    }
+    tasks[writers] = random -> {
+      for (int i = 0; i < 200; i++) {
+        model.takeSnapshot("s" + i);
+      }
+      done.set(true);
+    };
+    runTogether(tasks);
+    assertTrue(done.get());
+
+    double[] last = new double[2 * writers];
+    for (ISnapshot snapshot : model.getSnapshots()) {
+      List<IShape> shapes = snapshot.getShapes();
+      assertEquals(2 * writers, shapes.size());
+      for (int w = 0; w < writers; w++) {
+        double a = shapes.get(2 * w).getX();
+        double b = shapes.get(2 * w + 1).getX();
+        // b moves to k only after a has, and to k + 1 only after a has
+        assertTrue(a == b || a == b + 1);
+        assertTrue(a >= last[2 * w] && b >= last[2 * w + 1]);
+        last[2 * w] = a;
+        last[2 * w + 1] = b;
+      }
+    }
+  }
+
+  /**
+   * Test that shapes created, removed and cleared from several threads
+   * leave the names and the draw order in agreement.
+   */
+  @Test
+  public void testCreateRemoveClear() throws Throwable {
+    ConcurrentPhotoalbumModel model = new ConcurrentPhotoalbumModel();
+    int creators = 4;
+    int perCreator = 20000;
+    AtomicInteger running = new AtomicInteger(creators);
+    Task[] tasks = new Task[creators + 1];
+    for (int t = 0; t < creators; t++) {
+      String prefix = "c" + t + "-";
+      tasks[t] = random -> {
+        for (int i = 0; i < perCreator; i++) {
+          model.createRectangle(prefix + i, ShapeType.RECTANGLE, i, i, 1, 1, RED);
+          if (i % 3 == 2) {
+            model.removeShape(prefix + (i - 1));
+            model.moveShape(prefix + (i - 2), 0, i);
+          }
+        }
+        running.decrementAndGet();
+      };
+    }
+    tasks[creators] = random -> {
+      for (int i = 0; running.get() > 0; i++) {
+        model.clearShapes();
+        if (i % 100 == 0) {
+          model.takeSnapshot("s" + i);
+        }
+      }
+    };
+    runTogether(tasks);
+
+    List<String> drawn = names(model.getShapes());
+    assertEquals(drawn.size(), new HashSet<>(drawn).size());
+    Set<String> live = new HashSet<>();
+    for (int t = 0; t < creators; t++) {
+      for (int i = 0; i < perCreator; i++) {
+        if (model.getShape("c" + t + "-" + i) != null) {
+          live.add("c" + t + "-" + i);
+        }
+      }
+    }
+    assertEquals(live, new HashSet<>(drawn));
+    for (ISnapshot snapshot : model.getSnapshots()) {
+      List<String> captured = names(snapshot.getShapes());
+      assertEquals(captured.size(), new HashSet<>(captured).size());
+    }
+    model.clearShapes();
+    for (String name : live) {
+      model.createRectangle(name, ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+    }
+    assertEquals(live.size(), model.getShapes().size());
+  }
+
+  /**
+   * Test that a clear that comes while a shape is created, after the shape
+   * is in the draw order and before its name is, waits for the create, so
+   * that the names and the draw order agree on every machine.
+   */
+  @Test
+  public void testClearDuringCreate() throws Throwable {
+    ConcurrentPhotoalbumModel model = new ConcurrentPhotoalbumModel();
+    model.createRectangle("A", ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+    Thread clearer = new Thread(model::clearShapes);
+    model.setCreateHook(() -> {
+      model.setCreateHook(null);
+      clearer.start();
+      // wait until the clear is done or waits for the create
+      Thread.State state = clearer.getState();
+      while (state != Thread.State.TERMINATED && state != Thread.State.WAITING) {
+        Thread.yield();
+        state = clearer.getState();
+      }
+    });
+    model.createRectangle("X", ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+    clearer.join(10000);
+    assertTrue(!clearer.isAlive());
+
+    assertEquals(List.of(), names(model.getShapes()));
+    assertNull(model.getShape("X"));
+    model.createRectangle("X", ShapeType.RECTANGLE, 0, 0, 1, 1, RED);
+    assertEquals(List.of("X"), names(model.getShapes()));
+  }
+
+  /**
+   * Test that shapes moved in the draw order from several threads, while
+   * others move them and snapshots are taken, are each drawn exactly once
+   * and that their layers match their positions.
+   */
+  @Test
+  public void testConcurrentReordering() throws Throwable {
+    ConcurrentPhotoalbumModel model = new ConcurrentPhotoalbumModel();
+    int count = 50;
+    for (int i = 0; i < count; i++) {
+      model.createRectangle("s" + i, ShapeType.RECTANGLE, i, i, 1, 1, RED);
+    }
+    Task reorderer = random -> {
+      for (int i = 0; i < 3000; i++) {
+        String name = "s" + random.nextInt(count);
+        switch (random.nextInt(4)) {
+          case 0:
+            model.bringToFront(name);
+            break;
+          case 1:
+            model.sendToBack(name);
+            break;
+          default:
+            // the same low layer, again and again, uses up the gaps between keys
+            model.moveToLayer(name, random.nextInt(3));
+        }
+      }
+    };
+    Task mover = random -> {
+      for (int i = 0; i < 20000; i++) {
+        model.moveShape("s" + random.nextInt(count), i, i);
+      }
+    };
+    Task snapshots = random -> {
+      for (int i = 0; i < 100; i++) {
+        model.takeSnapshot("s" + i);
+      }
+    };
+    runTogether(reorderer, reorderer, mover, snapshots);
+
+    Set<String> all = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      all.add("s" + i);
+    }
+    List<String> drawn = names(model.getShapes());
+    assertEquals(count, drawn.size());
+    assertEquals(all, new HashSet<>(drawn));
+    for (int i = 0; i < count; i++) {
+      assertEquals(i, model.getLayer(drawn.get(i)));
+      assertNotNull(model.getShape(drawn.get(i)));
+    }
+    for (ISnapshot snapshot : model.getSnapshots()) {
+      List<String> captured = names(snapshot.getShapes());
+      assertEquals(count, captured.size());
+      assertEquals(all, new HashSet<>(captured));
+    }
+  }
+}
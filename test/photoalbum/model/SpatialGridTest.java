@@ -0,0 +1,201 @@
+package photoalbum.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * A class to test the spatial index and the region queries of the models
+ * and snapshots against a scan of every shape.
+ */
+public class SpatialGridTest {
+
+  /**
+   * Finds the IDs of the boxes that overlap or touch a region by checking
+   * every box.
+   * @param boxes minX, minY, maxX, maxY by ID
+   * @return the IDs in ascending order
+   */
+  private static long[] bruteForce(Map<Long, double[]> boxes,
+                                   double x, double y, double width, double height) {
+    return boxes.entrySet().stream()
+        .filter(e -> e.getValue()[0] <= x + width && e.getValue()[2] >= x
+            && e.getValue()[1] <= y + height && e.getValue()[3] >= y)
+        .mapToLong(Map.Entry::getKey).sorted().toArray();
+  }
+
+  /**
+   * Test that random boxes, some of them too large for cells, are found
+   * exactly as a full scan finds them, after puts, updates and removals.
+   */
+  @Test
+  public void testQueryMatchesBruteForce() {
+    Random random = new Random(6);
+    SpatialGrid grid = new SpatialGrid(16);
+    Map<Long, double[]> boxes = new HashMap<>();
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 400; i++) {
+        long id = random.nextInt(500);
+        double x = random.nextInt(2000) - 1000 + random.nextDouble();
+        double y = random.nextInt(2000) - 1000;
+        // one box in ten spans far more than 256 cells
+        double size = random.nextInt(10) == 0 ? 300 + random.nextInt(1000) : random.nextInt(40);
+        boolean oval = random.nextBoolean();
+        grid.put(id, oval ? ShapeType.OVAL : ShapeType.RECTANGLE, x, y, size, size / 2);
+        double scale = oval ? 2 : 1;
+        boxes.put(id, new double[] {x, y, x + size * scale, y + size / 2 * scale});
+      }
+      for (int i = 0; i < 150; i++) {
+        long id = random.nextInt(500);
+        grid.remove(id);
+        boxes.remove(id);
+      }
+      for (int i = 0; i < 200; i++) {
+        double x = random.nextInt(2400) - 1200;
+        double y = random.nextInt(2400) - 1200;
+        double width = random.nextInt(5) == 0 ? random.nextInt(2000) : random.nextInt(50);
+        double height = random.nextInt(50);
+        assertArrayEquals(bruteForce(boxes, x, y, width, height),
+            grid.query(x, y, width, height));
+      }
+    }
+    grid.clear();
+    assertEquals(0, grid.query(-1e9, -1e9, 2e9, 2e9).length);
+  }
+
+  /**
+   * Test that boxes touching a region, on either side of a cell edge or at
+   * negative and very far coordinates, are found.
+   */
+  @Test
+  public void testQueryBoundaries() {
+    SpatialGrid grid = new SpatialGrid(64);
+    for (int i = 0; i < 20; i++) {
+      grid.put(100 + i, ShapeType.RECTANGLE, 1000 + i * 10, 1000, 1, 1); // keep the grid used
+    }
+    grid.put(1, ShapeType.RECTANGLE, 0, 0, 64, 64); // ends on a cell edge
+    grid.put(2, ShapeType.RECTANGLE, 64, 64, 1, 1); // starts on it
+    grid.put(3, ShapeType.OVAL, -10, -10, 5, 5); // covers -10 to 0
+    grid.put(4, ShapeType.RECTANGLE, 1e12, -1e12, 1, 1);
+
+    assertArrayEquals(new long[] {1, 2}, grid.query(64, 64, 0, 0));
+    assertArrayEquals(new long[] {1, 3}, grid.query(-0.5, -0.5, 0.5, 0.5));
+    assertArrayEquals(new long[] {3}, grid.query(-10, -10, 0, 0));
+    assertArrayEquals(new long[0], grid.query(-10.001, -10.001, 0, 0));
+    assertArrayEquals(new long[] {2}, grid.query(64.5, 64.5, 10, 10));
+    assertArrayEquals(new long[] {4}, grid.query(1e12, -1e12, 0.5, 0.5));
+  }
+
+  /**
+   * Test that a box covering more than 256 cells is found from any cell it
+   * covers, and leaves no trace once removed or shrunk.
+   */
+  @Test
+  public void testLargeBoxes() {
+    SpatialGrid grid = new SpatialGrid(10);
+    for (int i = 0; i < 50; i++) {
+      grid.put(100 + i, ShapeType.RECTANGLE, i * 100, -500, 1, 1);
+    }
+    grid.put(1, ShapeType.RECTANGLE, 0, 0, 170, 170); // 18 x 18 cells
+    grid.put(2, ShapeType.OVAL, 0, 0, 80, 80); // 17 x 17 cells once doubled
+    grid.put(3, ShapeType.RECTANGLE, 0, 0, 150, 150); // 16 x 16 cells, the limit
+    assertArrayEquals(new long[] {1, 2, 3}, grid.query(145, 145, 1, 1));
+    assertArrayEquals(new long[] {1, 2}, grid.query(159, 159, 1, 1));
+    assertArrayEquals(new long[] {1}, grid.query(165, 5, 1, 1));
+
+    grid.remove(1);
+    assertArrayEquals(new long[0], grid.query(165, 5, 1, 1));
+    grid.put(2, ShapeType.OVAL, 0, 0, 1, 1);
+    assertArrayEquals(new long[] {3}, grid.query(145, 145, 1, 1));
+    assertArrayEquals(new long[] {2, 3}, grid.query(1, 1, 0, 0));
+    grid.remove(2);
+    grid.remove(3);
+    grid.remove(3);
+    assertArrayEquals(new long[0], grid.query(0, 0, 200, 200));
+  }
+
+  /**
+   * Test that the models and their snapshots find the shapes in a region,
+   * in draw order, as a scan of all their shapes does.
+   */
+  @Test
+  public void testModelQueries() {
+    List<IPhotoalbum> models = new ArrayList<>();
+    models.add(new PhotoalbumModel());
+    models.add(new ColumnarPhotoalbumModel());
+    models.add(new ConcurrentPhotoalbumModel());
+    for (IPhotoalbum model : models) {
+      Random random = new Random(60);
+      for (int i = 0; i < 300; i++) {
+        String name = "s" + random.nextInt(120);
+        int size = random.nextInt(10) == 0 ? 2000 : 1 + random.nextInt(60);
+        if (model.getShape(name) != null) {
+          switch (random.nextInt(4)) {
+            case 0:
+              model.removeShape(name);
+              break;
+            case 1:
+              model.moveShape(name, random.nextInt(1000), random.nextInt(1000));
+              break;
+            case 2:
+              model.bringToFront(name);
+              break;
+            default:
+              if (model.getShape(name).getShapeType() == ShapeType.OVAL) {
+                model.resizeOval(name, size, size);
+              } else {
+                model.resizeRectangle(name, size, size);
+              }
+          }
+        } else if (random.nextBoolean()) {
+          model.createRectangle(name, ShapeType.RECTANGLE, random.nextInt(1000),
+              random.nextInt(1000), size, size, new Color(0, 0, 0));
+        } else {
+          model.createOval(name, ShapeType.OVAL, random.nextInt(1000),
+              random.nextInt(1000), size, size, new Color(0, 0, 0));
+        }
+        if (i % 50 == 49) {
+          model.takeSnapshot("s" + i);
+        }
+      }
+
+      ISnapshot snapshot = model.getSnapshots().get(model.getSnapshots().size() - 1);
+      IShapeColumns all = snapshot.getShapeColumns();
+      IShapeColumns live = new ShapeListColumns(model.getShapes());
+      for (int i = 0; i < 100; i++) {
+        double x = random.nextInt(1200) - 100;
+        double y = random.nextInt(1200) - 100;
+        double width = random.nextInt(300);
+        double height = random.nextInt(300);
+
+        List<String> expected = new ArrayList<>();
+        for (long position : SpatialGrid.scan(live, x, y, width, height)) {
+          expected.add(live.getName((int) position));
+        }
+        List<String> found = new ArrayList<>();
+        for (IShape shape : model.getShapesIn(x, y, width, height)) {
+          found.add(shape.getName());
+        }
+        assertEquals(expected, found);
+
+        expected.clear();
+        for (long position : SpatialGrid.scan(all, x, y, width, height)) {
+          expected.add(all.getName((int) position));
+        }
+        found.clear();
+        IShapeColumns in = snapshot.getShapeColumnsIn(x, y, width, height);
+        for (int k = 0; k < in.size(); k++) {
+          found.add(in.getName(k));
+        }
+        assertEquals(expected, found);
+      }
+    }
+  }
+}